@@ -25,6 +25,7 @@
 
 package ca.eandb.jdcp.client;
 
+import java.util.Date;
 import java.util.UUID;
 
 
@@ -72,6 +73,19 @@ public final class ScriptFacade {
     config.getJobService().setJobPriority(jobId, priority);
   }
 
+  /**
+   * Sets the deadline of the specified job.
+   * @param jobId The <code>UUID</code> of the job for which to set the
+   *     deadline.
+   * @param deadline The time by which the job should be complete, or
+   *     <code>null</code> to remove the job's deadline.
+   * @throws Exception if an error occurs in delegating the request to the
+   *     configured job service
+   */
+  public void setJobDeadline(UUID jobId, Date deadline) throws Exception {
+    config.getJobService().setJobDeadline(jobId, deadline);
+  }
+
   /**
    * Cancel the specified job.
    * @param jobId The <code>UUID</code> identifying the job to cancel.
@@ -26,6 +26,7 @@
 package ca.eandb.jdcp.console;
 
 import java.io.File;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -39,12 +40,15 @@ import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.apache.log4j.Logger;
 
 import ca.eandb.jdcp.JdcpUtil;
+import ca.eandb.jdcp.remote.TaskProtocol;
 import ca.eandb.jdcp.server.AuthenticationServer;
 import ca.eandb.jdcp.server.JobServer;
+import ca.eandb.jdcp.server.NioTaskServer;
 import ca.eandb.jdcp.server.classmanager.DbClassManager;
-import ca.eandb.jdcp.server.scheduling.PrioritySerialTaskScheduler;
+import ca.eandb.jdcp.server.scheduling.SchedulingUtil;
 import ca.eandb.jdcp.server.scheduling.TaskScheduler;
 import ca.eandb.util.args.CommandArgument;
+import ca.eandb.util.args.OptionArgument;
 import ca.eandb.util.progress.ProgressState;
 import ca.eandb.util.progress.ProgressStateFactory;
 
@@ -69,6 +73,12 @@ public final class ServerState {
   /** The running <code>JobServer</code>. */
   private JobServer jobServer = null;
 
+  /**
+   * The <code>NioTaskServer</code> serving task requests over the binary
+   * transport.
+   */
+  private NioTaskServer taskServer = null;
+
   /**
    * Gets the RMI <code>Registry</code> to register the server with, creating
    * it if necessary.
@@ -100,9 +110,16 @@ public final class ServerState {
 
   /**
    * Starts the server.
+   * @param nio If set, task requests and results will also be served over
+   *     the binary task transport in addition to RMI.
+   * @param scheduling The name of the policy by which to schedule tasks
+   *     ("priority", "fairshare" or "deadline").  Tasks are served by job
+   *     priority if this is not set.
    */
   @CommandArgument
-  public void start() {
+  public void start(
+      @OptionArgument(value="nio", shortKey='N') boolean nio,
+      @OptionArgument("scheduler") String scheduling) {
     System.out.println("Starting server");
     try {
 
@@ -129,7 +146,7 @@ public final class ServerState {
       DbClassManager classManager = new DbClassManager(ds);
       classManager.prepareDataSource();
 
-      TaskScheduler scheduler = new PrioritySerialTaskScheduler();
+      TaskScheduler scheduler = SchedulingUtil.createTaskScheduler(scheduling);
       Executor executor = Executors.newCachedThreadPool();
       jobServer = new JobServer(jobsDirectory, factory, scheduler, classManager, executor);
       AuthenticationServer authServer = new AuthenticationServer(jobServer, JdcpUtil.DEFAULT_PORT);
@@ -138,6 +155,16 @@ public final class ServerState {
       Registry registry = getRegistry();
       registry.bind("AuthenticationService", authServer);
 
+      if (nio) {
+        logger.info("Starting task server");
+        try {
+          taskServer = new NioTaskServer(authServer, executor, TaskProtocol.DEFAULT_PORT);
+          jobServer.addTaskAvailabilityListener(taskServer);
+        } catch (IOException e) {
+          logger.warn("Could not start task server, workers must use RMI", e);
+        }
+      }
+
       logger.info("Server ready");
       System.out.println("Server started");
 
@@ -172,6 +199,16 @@ public final class ServerState {
     try {
       Registry registry = getRegistry();
       registry.unbind("AuthenticationService");
+      if (taskServer != null) {
+        if (jobServer != null) {
+          jobServer.removeTaskAvailabilityListener(taskServer);
+        }
+        taskServer.close();
+        taskServer = null;
+      }
+      if (jobServer != null) {
+        jobServer.checkpointJobs();
+      }
       this.jobProgressStates = null;
       System.out.println("Server stopped");
     } catch (Exception e) {
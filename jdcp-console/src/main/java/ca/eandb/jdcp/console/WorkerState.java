@@ -47,6 +47,7 @@ import ca.eandb.jdcp.remote.AuthenticationService;
 import ca.eandb.jdcp.remote.JobService;
 import ca.eandb.jdcp.remote.ProtocolVersionException;
 import ca.eandb.jdcp.worker.JobServiceFactory;
+import ca.eandb.jdcp.worker.NioJobServiceFactory;
 import ca.eandb.jdcp.worker.ThreadServiceWorker;
 import ca.eandb.jdcp.worker.policy.CourtesyMonitor;
 import ca.eandb.jdcp.worker.policy.ExecCourtesyMonitor;
@@ -108,6 +109,8 @@ public final class WorkerState {
    *     {@code courtesyCommand} shell script
    * @param courtesyPollingInterval the number of seconds between invocations
    *     of the {@code courtesyCommand} shell script
+   * @param nio If set, task requests and results will be exchanged with the
+   *     server over the binary task transport rather than over RMI.
    */
   @CommandArgument
   public void start(
@@ -118,7 +121,8 @@ public final class WorkerState {
       @OptionArgument(value="nodb", shortKey='i') final boolean internal,
       @OptionArgument("courtesy") final String courtesyCommand,
       @OptionArgument(value="courtesyWorkingDirectory", shortKey='W') File courtesyWorkingDirectory,
-      @OptionArgument(value="courtesyPollingInterval", shortKey='P') long courtesyPollingInterval
+      @OptionArgument(value="courtesyPollingInterval", shortKey='P') long courtesyPollingInterval,
+      @OptionArgument(value="nio", shortKey='N') final boolean nio
       ) {
 
     int availableCpus = Runtime.getRuntime().availableProcessors();
@@ -147,6 +151,13 @@ public final class WorkerState {
       }
     };
 
+    if (nio) {
+      serviceFactory = new NioJobServiceFactory(serviceFactory,
+          host.equals("") ? "localhost" : host,
+          username.equals("") ? "guest" : username,
+          password);
+    }
+
     CourtesyMonitor courtesyMonitor;
     if (!courtesyCommand.equals("")) {
       logger.info("Initializing courtesy monitor");
@@ -164,6 +175,9 @@ public final class WorkerState {
     ProgressStateFactory monitorFactory = new ProgressStateFactory();
     worker = new ThreadServiceWorker(serviceFactory, threadFactory, monitorFactory, courtesyMonitor);
     worker.setMaxWorkers(numberOfCpus);
+    if (nio) {
+      worker.setLongPollTimeout(ThreadServiceWorker.DEFAULT_LONG_POLL_TIMEOUT);
+    }
 
     taskProgressStates = monitorFactory.getProgressStates();
 
@@ -59,7 +59,7 @@ public final class JdcpUtil {
    * and a server.  This is used for verifying protocol compatibility when
    * authenticating with the server.
    */
-  public static final UUID PROTOCOL_VERSION_ID = UUID.fromString("32f63a29-642d-4ff3-84a4-b1f34940642a");
+  public static final UUID PROTOCOL_VERSION_ID = UUID.fromString("cb085fa0-386e-4c67-9643-534a2c3125a6");
 
   /**
    * Connects to a JDCP server.
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.job;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A task or result that is serialized using a <code>PayloadCodec</code>
+ * rather than by Java serialization alone.  The codec is written ahead of
+ * the encoded payload, so that the payload can be decoded using the class
+ * loader of the job that produced it.
+ * @author Brad Kimmel
+ * @see PayloadCodec
+ */
+public final class EncodedPayload implements Externalizable {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 7016361584221318264L;
+
+  /** The <code>PayloadCodec</code> used to encode the payload. */
+  private PayloadCodec codec;
+
+  /** The task or result. */
+  private Object value;
+
+  /**
+   * Creates an empty <code>EncodedPayload</code> to be read by
+   * {@link #readExternal(ObjectInput)}.
+   */
+  public EncodedPayload() {
+    /* nothing to do. */
+  }
+
+  /**
+   * Creates a new <code>EncodedPayload</code>.
+   * @param codec The <code>PayloadCodec</code> to use to encode the
+   *     payload.
+   * @param value The task or result.
+   */
+  public EncodedPayload(PayloadCodec codec, Object value) {
+    if (codec == null) {
+      throw new IllegalArgumentException("codec must not be null");
+    }
+    this.codec = codec;
+    this.value = value;
+  }
+
+  /**
+   * Wraps a task or result so that it is encoded by the specified codec.
+   * @param codec The <code>PayloadCodec</code> to use (may be
+   *     <code>null</code>).
+   * @param value The task or result.
+   * @return An <code>EncodedPayload</code> holding <code>value</code>, or
+   *     <code>value</code> itself if <code>codec</code> or
+   *     <code>value</code> is <code>null</code>.
+   */
+  public static Object wrap(PayloadCodec codec, Object value) {
+    return (codec != null && value != null)
+        ? new EncodedPayload(codec, value) : value;
+  }
+
+  /**
+   * Gets the task or result held by an object that may have been wrapped
+   * by {@link #wrap(PayloadCodec, Object)}.
+   * @param obj The object to unwrap.
+   * @return The task or result held by <code>obj</code> if it is an
+   *     <code>EncodedPayload</code>, or <code>obj</code> itself otherwise.
+   */
+  public static Object unwrap(Object obj) {
+    return (obj instanceof EncodedPayload) ? ((EncodedPayload) obj).value : obj;
+  }
+
+  /**
+   * Gets the task or result.
+   * @return The task or result.
+   */
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeObject(codec);
+    codec.encode(value, out);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException,
+      ClassNotFoundException {
+    codec = (PayloadCodec) in.readObject();
+    value = codec.decode(in);
+  }
+
+}
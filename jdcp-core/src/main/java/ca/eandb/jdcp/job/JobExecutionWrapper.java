@@ -33,7 +33,10 @@ import ca.eandb.util.progress.ProgressMonitor;
 /**
  * A <code>ParallelizableJob</code> decorator that wraps exceptions thrown by
  * the inner <code>ParallelizableJob</code> in a
- * <code>JobExecutionException</code>.
+ * <code>JobExecutionException</code>.  If the inner job is a
+ * {@link PayloadCodecProvider}, its tasks and results are wrapped in
+ * {@link EncodedPayload}s using the codec it selects, and unwrapped again
+ * before being passed to the inner job or its <code>TaskWorker</code>.
  * @author Brad Kimmel
  * @see ca.eandb.jdcp.job.ParallelizableJob
  * @see ca.eandb.jdcp.job.JobExecutionException
@@ -56,6 +59,16 @@ public final class JobExecutionWrapper implements ParallelizableJob {
     this.job = job;
   }
 
+  /**
+   * Gets the <code>PayloadCodec</code> selected by the inner job.
+   * @return The <code>PayloadCodec</code> to use, or <code>null</code> if
+   *     tasks and results are to be sent as is.
+   */
+  private PayloadCodec getPayloadCodec() {
+    return (job instanceof PayloadCodecProvider)
+        ? ((PayloadCodecProvider) job).getPayloadCodec() : null;
+  }
+
   @Override
   public void setHostService(HostService host) {
     job.setHostService(host);
@@ -73,7 +86,7 @@ public final class JobExecutionWrapper implements ParallelizableJob {
   @Override
   public Object getNextTask() throws JobExecutionException {
     try {
-      return job.getNextTask();
+      return EncodedPayload.wrap(getPayloadCodec(), job.getNextTask());
     } catch (Exception e) {
       throw new JobExecutionException(e);
     }
@@ -119,7 +132,8 @@ public final class JobExecutionWrapper implements ParallelizableJob {
   public void submitTaskResults(Object task, Object results,
       ProgressMonitor monitor) throws JobExecutionException {
     try {
-      job.submitTaskResults(task, results, monitor);
+      job.submitTaskResults(EncodedPayload.unwrap(task),
+          EncodedPayload.unwrap(results), monitor);
     } catch (Exception e) {
       throw new JobExecutionException(e);
     }
@@ -128,7 +142,7 @@ public final class JobExecutionWrapper implements ParallelizableJob {
   @Override
   public TaskWorker worker() throws JobExecutionException {
     try {
-      return new TaskWorkerWrapper(job.worker());
+      return new TaskWorkerWrapper(job.worker(), getPayloadCodec());
     } catch (Exception e) {
       throw new JobExecutionException(e);
     }
@@ -141,15 +155,23 @@ public final class JobExecutionWrapper implements ParallelizableJob {
 
     private final TaskWorker inner;
 
-    public TaskWorkerWrapper(TaskWorker inner) {
+    /**
+     * The <code>PayloadCodec</code> to use to encode results, or
+     * <code>null</code> to return results as is.
+     */
+    private final PayloadCodec codec;
+
+    public TaskWorkerWrapper(TaskWorker inner, PayloadCodec codec) {
       this.inner = inner;
+      this.codec = codec;
     }
 
     @Override
     public Object performTask(Object task, ProgressMonitor monitor)
         throws JobExecutionException {
       try {
-        return inner.performTask(task, monitor);
+        return EncodedPayload.wrap(codec,
+            inner.performTask(EncodedPayload.unwrap(task), monitor));
       } catch (Exception e) {
         throw new JobExecutionException(e);
       }
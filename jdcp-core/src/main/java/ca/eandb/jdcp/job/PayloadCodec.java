@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.job;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+
+/**
+ * Encodes the tasks and results of a <code>ParallelizableJob</code> for
+ * transmission between the server and workers.  A job selects a codec by
+ * implementing {@link PayloadCodecProvider}.  A codec is transmitted along
+ * with each payload it encodes, so it must be serializable and should be
+ * small.
+ * @author Brad Kimmel
+ * @see EncodedPayload
+ * @see PrimitiveArrayCodec
+ */
+public interface PayloadCodec extends Serializable {
+
+  /**
+   * Encodes a task or result.
+   * @param obj The task or result to encode (may be <code>null</code>).
+   * @param out The <code>ObjectOutput</code> to write to.
+   * @throws IOException If an error occurs while writing, or if the
+   *     object cannot be encoded.
+   */
+  void encode(Object obj, ObjectOutput out) throws IOException;
+
+  /**
+   * Decodes a task or result written by
+   * {@link #encode(Object, ObjectOutput)}.
+   * @param in The <code>ObjectInput</code> to read from.
+   * @return The decoded task or result.
+   * @throws IOException If an error occurs while reading.
+   * @throws ClassNotFoundException If a class required by the decoded
+   *     object cannot be found.
+   */
+  Object decode(ObjectInput in) throws IOException, ClassNotFoundException;
+
+}
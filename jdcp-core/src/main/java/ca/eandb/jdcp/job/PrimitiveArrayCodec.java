@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.job;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A <code>PayloadCodec</code> that writes arrays of primitive values and
+ * <code>ByteBuffer</code>s directly in bulk, rather than through Java
+ * serialization.  Other objects are written using Java serialization.
+ * Values are written in little-endian byte order, so that on most hardware
+ * they can be copied to and from the stream without conversion.
+ * @author Brad Kimmel
+ */
+public final class PrimitiveArrayCodec implements PayloadCodec {
+
+  /** Serialization version ID. */
+  private static final long serialVersionUID = 3037178286746786530L;
+
+  /** Indicates an object written using Java serialization. */
+  private static final byte TYPE_OBJECT = 0;
+
+  /** Indicates a <code>byte[]</code>. */
+  private static final byte TYPE_BYTE_ARRAY = 1;
+
+  /** Indicates a <code>short[]</code>. */
+  private static final byte TYPE_SHORT_ARRAY = 2;
+
+  /** Indicates a <code>char[]</code>. */
+  private static final byte TYPE_CHAR_ARRAY = 3;
+
+  /** Indicates an <code>int[]</code>. */
+  private static final byte TYPE_INT_ARRAY = 4;
+
+  /** Indicates a <code>long[]</code>. */
+  private static final byte TYPE_LONG_ARRAY = 5;
+
+  /** Indicates a <code>float[]</code>. */
+  private static final byte TYPE_FLOAT_ARRAY = 6;
+
+  /** Indicates a <code>double[]</code>. */
+  private static final byte TYPE_DOUBLE_ARRAY = 7;
+
+  /** Indicates a big-endian <code>ByteBuffer</code>. */
+  private static final byte TYPE_BYTE_BUFFER_BIG_ENDIAN = 8;
+
+  /** Indicates a little-endian <code>ByteBuffer</code>. */
+  private static final byte TYPE_BYTE_BUFFER_LITTLE_ENDIAN = 9;
+
+  /**
+   * The maximum size (in bytes) of the buffer used to convert values to and
+   * from bytes.
+   */
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  /** The single instance of <code>PrimitiveArrayCodec</code>. */
+  private static final PrimitiveArrayCodec INSTANCE = new PrimitiveArrayCodec();
+
+  /**
+   * Gets the single instance of <code>PrimitiveArrayCodec</code>.
+   * @return The <code>PrimitiveArrayCodec</code>.
+   */
+  public static PrimitiveArrayCodec getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * This constructor is private to prevent instances from being created.
+   */
+  private PrimitiveArrayCodec() {}
+
+  /**
+   * Ensures that deserialization yields the single instance.
+   * @return The single instance of <code>PrimitiveArrayCodec</code>.
+   */
+  private Object readResolve() {
+    return INSTANCE;
+  }
+
+  /**
+   * Allocates a buffer for converting values to and from bytes.
+   * @param bytes The total number of bytes to be converted.
+   * @return The <code>ByteBuffer</code> to use.
+   */
+  private static ByteBuffer allocateChunk(long bytes) {
+    return ByteBuffer.allocate((int) Math.min(bytes, CHUNK_SIZE))
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Override
+  public void encode(Object obj, ObjectOutput out) throws IOException {
+    if (obj instanceof byte[]) {
+      byte[] array = (byte[]) obj;
+      out.writeByte(TYPE_BYTE_ARRAY);
+      out.writeInt(array.length);
+      out.write(array);
+    } else if (obj instanceof short[]) {
+      short[] array = (short[]) obj;
+      out.writeByte(TYPE_SHORT_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(2L * array.length);
+      int per = chunk.capacity() / 2;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asShortBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 2 * n);
+      }
+    } else if (obj instanceof char[]) {
+      char[] array = (char[]) obj;
+      out.writeByte(TYPE_CHAR_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(2L * array.length);
+      int per = chunk.capacity() / 2;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asCharBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 2 * n);
+      }
+    } else if (obj instanceof int[]) {
+      int[] array = (int[]) obj;
+      out.writeByte(TYPE_INT_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(4L * array.length);
+      int per = chunk.capacity() / 4;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asIntBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 4 * n);
+      }
+    } else if (obj instanceof long[]) {
+      long[] array = (long[]) obj;
+      out.writeByte(TYPE_LONG_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(8L * array.length);
+      int per = chunk.capacity() / 8;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asLongBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 8 * n);
+      }
+    } else if (obj instanceof float[]) {
+      float[] array = (float[]) obj;
+      out.writeByte(TYPE_FLOAT_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(4L * array.length);
+      int per = chunk.capacity() / 4;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asFloatBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 4 * n);
+      }
+    } else if (obj instanceof double[]) {
+      double[] array = (double[]) obj;
+      out.writeByte(TYPE_DOUBLE_ARRAY);
+      out.writeInt(array.length);
+      ByteBuffer chunk = allocateChunk(8L * array.length);
+      int per = chunk.capacity() / 8;
+      for (int i = 0; i < array.length; i += per) {
+        int n = Math.min(per, array.length - i);
+        chunk.clear();
+        chunk.asDoubleBuffer().put(array, i, n);
+        out.write(chunk.array(), 0, 8 * n);
+      }
+    } else if (obj instanceof ByteBuffer) {
+      // The duplicate is always big-endian, so take the order from obj.
+      ByteBuffer buf = ((ByteBuffer) obj).duplicate();
+      out.writeByte(((ByteBuffer) obj).order() == ByteOrder.LITTLE_ENDIAN
+          ? TYPE_BYTE_BUFFER_LITTLE_ENDIAN : TYPE_BYTE_BUFFER_BIG_ENDIAN);
+      out.writeInt(buf.remaining());
+      if (buf.hasArray()) {
+        out.write(buf.array(), buf.arrayOffset() + buf.position(),
+            buf.remaining());
+      } else {
+        byte[] chunk = new byte[Math.min(buf.remaining(), CHUNK_SIZE)];
+        while (buf.hasRemaining()) {
+          int n = Math.min(chunk.length, buf.remaining());
+          buf.get(chunk, 0, n);
+          out.write(chunk, 0, n);
+        }
+      }
+    } else {
+      out.writeByte(TYPE_OBJECT);
+      out.writeObject(obj);
+    }
+  }
+
+  @Override
+  public Object decode(ObjectInput in) throws IOException,
+      ClassNotFoundException {
+    byte type = in.readByte();
+    if (type == TYPE_OBJECT) {
+      return in.readObject();
+    }
+
+    int length = in.readInt();
+    if (length < 0) {
+      throw new StreamCorruptedException("Invalid array length");
+    }
+
+    switch (type) {
+    case TYPE_BYTE_ARRAY: {
+      byte[] array = new byte[length];
+      in.readFully(array);
+      return array;
+    }
+
+    case TYPE_SHORT_ARRAY: {
+      short[] array = new short[length];
+      ByteBuffer chunk = allocateChunk(2L * length);
+      int per = chunk.capacity() / 2;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 2 * n);
+        chunk.clear();
+        chunk.asShortBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_CHAR_ARRAY: {
+      char[] array = new char[length];
+      ByteBuffer chunk = allocateChunk(2L * length);
+      int per = chunk.capacity() / 2;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 2 * n);
+        chunk.clear();
+        chunk.asCharBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_INT_ARRAY: {
+      int[] array = new int[length];
+      ByteBuffer chunk = allocateChunk(4L * length);
+      int per = chunk.capacity() / 4;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 4 * n);
+        chunk.clear();
+        chunk.asIntBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_LONG_ARRAY: {
+      long[] array = new long[length];
+      ByteBuffer chunk = allocateChunk(8L * length);
+      int per = chunk.capacity() / 8;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 8 * n);
+        chunk.clear();
+        chunk.asLongBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_FLOAT_ARRAY: {
+      float[] array = new float[length];
+      ByteBuffer chunk = allocateChunk(4L * length);
+      int per = chunk.capacity() / 4;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 4 * n);
+        chunk.clear();
+        chunk.asFloatBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_DOUBLE_ARRAY: {
+      double[] array = new double[length];
+      ByteBuffer chunk = allocateChunk(8L * length);
+      int per = chunk.capacity() / 8;
+      for (int i = 0; i < length; i += per) {
+        int n = Math.min(per, length - i);
+        in.readFully(chunk.array(), 0, 8 * n);
+        chunk.clear();
+        chunk.asDoubleBuffer().get(array, i, n);
+      }
+      return array;
+    }
+
+    case TYPE_BYTE_BUFFER_BIG_ENDIAN:
+    case TYPE_BYTE_BUFFER_LITTLE_ENDIAN: {
+      byte[] array = new byte[length];
+      in.readFully(array);
+      return ByteBuffer.wrap(array).order(type == TYPE_BYTE_BUFFER_LITTLE_ENDIAN
+          ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+    }
+
+    default:
+      throw new StreamCorruptedException("Unrecognized payload type: "
+          + Byte.toString(type));
+    }
+  }
+
+}
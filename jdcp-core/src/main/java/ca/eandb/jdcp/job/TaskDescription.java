@@ -53,6 +53,34 @@ public final class TaskDescription implements Serializable {
     this.task = new Serialized<Object>(task);
   }
 
+  /**
+   * Initializes the task description from a task that has already been
+   * serialized.
+   * @param task The serialized <code>Object</code> describing the task to
+   *     be performed.
+   * @param jobId The <code>UUID</code> of the job that the task is for.
+   * @param taskId The ID of the task to be performed.
+   */
+  private TaskDescription(Serialized<Object> task, UUID jobId, int taskId) {
+    this.jobId = jobId;
+    this.taskId = taskId;
+    this.task = task;
+  }
+
+  /**
+   * Creates a task description for a task that has already been
+   * serialized.
+   * @param jobId The <code>UUID</code> of the job that the task is for.
+   * @param taskId The ID of the task to be performed.
+   * @param task The serialized <code>Object</code> describing the task to
+   *     be performed.  This is used as is, without serializing it again.
+   * @return The new <code>TaskDescription</code>.
+   */
+  public static TaskDescription fromSerialized(UUID jobId, int taskId,
+      Serialized<Object> task) {
+    return new TaskDescription(task, jobId, taskId);
+  }
+
   /**
    * Gets the <code>Object</code> describing the task to be performed.  This
    * should be passed to <code>TaskWorker.performTask</code> for the
@@ -83,7 +111,8 @@ public final class TaskDescription implements Serializable {
   /**
    * The ID of the task to be performed.  This should be passed back to
    * <code>JobMasterService.submitTaskResults</code> when submitting the
-   * results of this task.
+   * results of this task.  Task IDs are positive and are assigned in
+   * increasing order within each job.
    * @return The ID of the task to be performed.
    * @see JobService#submitTaskResults(UUID, int, Serialized)
    */
@@ -26,6 +26,7 @@
 package ca.eandb.jdcp.remote;
 
 import java.rmi.RemoteException;
+import java.util.Date;
 import java.util.UUID;
 
 import ca.eandb.jdcp.job.JobExecutionException;
@@ -188,6 +189,22 @@ public interface JobService extends TaskService {
   void setJobPriority(UUID jobId, int priority)
       throws IllegalArgumentException, SecurityException, RemoteException;
 
+  /**
+   * Sets the deadline of the specified job.  The server may use the
+   * deadline to decide which job's tasks to serve first.
+   * @param jobId The <code>UUID</code> identifying the job whose deadline
+   *     is to be set.
+   * @param deadline The time by which the job should be complete, or
+   *     <code>null</code> to remove the job's deadline.
+   * @throws IllegalArgumentException If there is no job with the specified
+   *     job ID on the server.
+   * @throws SecurityException If the caller does not have permission to set
+   *     job deadlines.
+   * @throws RemoteException If a communication error occurs.
+   */
+  void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
   /**
    * Registers a <code>TaskService</code> to receive tasks from an external
    * source.
@@ -242,6 +259,33 @@ public interface JobService extends TaskService {
   JobStatus waitForJobStatusChange(long lastEventId, long timeoutMillis)
     throws SecurityException, RemoteException;
 
+  /**
+   * Waits for status changes for any job hosted on this server, and returns
+   * all pending events in a single call.  Only the most recent event for
+   * each job is retained, and changes to a job's progress alone may be
+   * coalesced by the server, so a caller receives at most one event per job
+   * in each call.
+   * @param lastEventId The ID of the last event received, or
+   *     <code>Long.MIN_VALUE</code> to indicate that no events had been
+   *     received previously.
+   * @param maxEvents The maximum number of events to return.
+   * @param timeoutMillis The maximum amount of time (in milliseconds) to wait
+   *     before returning.  If zero, then the call will return immediately.
+   *     If negative, the call will wait indefinitely.
+   * @return The events subsequent to the event with ID
+   *     <code>lastEventId</code>, in order of increasing event ID, up to
+   *     <code>maxEvents</code> events.  If there are no such events, the
+   *     call will wait up to <code>timeoutMillis</code> milliseconds for an
+   *     event to occur.  If no event occurs, an empty array is returned.
+   * @throws IllegalArgumentException If <code>maxEvents &lt;= 0</code>.
+   * @throws SecurityException If the caller does not have permission wait for
+   *     events.
+   * @throws RemoteException If a communication error occurs.
+   */
+  JobStatus[] waitForJobStatusChanges(long lastEventId, int maxEvents,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException;
+
   /**
    * Waits for a status change for the specified job.
    * @param jobId The <code>UUID</code> identifying the job to wait on.
@@ -47,6 +47,12 @@ public enum JobState {
    */
   STALLED,
 
+  /**
+   * All tasks for the job are complete, and the job's results are being
+   * written to the output directory.
+   */
+  FINALIZING,
+
   /** The job is complete. */
   COMPLETE,
 
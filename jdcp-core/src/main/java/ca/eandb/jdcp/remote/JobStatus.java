@@ -56,6 +56,13 @@ public final class JobStatus implements Serializable {
   /** An ID uniquely identifying this status update event. */
   private final long eventId;
 
+  /**
+   * A value indicating if the job is projected to miss its deadline.  This
+   * is <code>false</code> for jobs that have no deadline, or if the server
+   * does not track deadlines.
+   */
+  private final boolean deadlineAtRisk;
+
   /** The next auto-generated event ID. */
   private static long nextEventId = -Math.abs((new Random()).nextLong());
 
@@ -76,14 +83,17 @@ public final class JobStatus implements Serializable {
    *     equal to <code>Double.NaN</code>, the progress is indeterminant.
    * @param status A description of the current status of the job.
    * @param eventId An ID uniquely identifying this status update event.
+   * @param deadlineAtRisk A value indicating if the job is projected to
+   *     miss its deadline.
    */
-  private JobStatus(UUID jobId, String description, JobState state, double progress, String status, long eventId) {
+  private JobStatus(UUID jobId, String description, JobState state, double progress, String status, long eventId, boolean deadlineAtRisk) {
     this.jobId = jobId;
     this.description = description;
     this.state = state;
     this.progress = progress;
     this.status = status;
     this.eventId = eventId;
+    this.deadlineAtRisk = deadlineAtRisk;
   }
 
   /**
@@ -96,7 +106,7 @@ public final class JobStatus implements Serializable {
    * @param status A description of the current status of the job.
    */
   public JobStatus(UUID jobId, String description, JobState state, double progress, String status) {
-    this(jobId, description, state, progress, status, Long.MIN_VALUE);
+    this(jobId, description, state, progress, status, Long.MIN_VALUE, false);
   }
 
   /**
@@ -120,7 +130,7 @@ public final class JobStatus implements Serializable {
    *     the specified value.
    */
   public JobStatus withProgress(double newProgress) {
-    return new JobStatus(jobId, description, state, newProgress, status, eventId);
+    return new JobStatus(jobId, description, state, newProgress, status, eventId, deadlineAtRisk);
   }
 
   /**
@@ -131,7 +141,29 @@ public final class JobStatus implements Serializable {
    *     to the specified value.
    */
   public JobStatus withStatus(String newStatus) {
-    return new JobStatus(jobId, description, state, progress, newStatus, eventId);
+    return new JobStatus(jobId, description, state, progress, newStatus, eventId, deadlineAtRisk);
+  }
+
+  /**
+   * Creates a copy of this <code>JobStatus</code> indicating whether the job
+   * is projected to miss its deadline.
+   * @param atRisk A value indicating if the job is projected to miss its
+   *     deadline.
+   * @return A copy of this <code>JobStatus</code> with the deadline risk
+   *     set to the specified value.
+   */
+  public JobStatus withDeadlineAtRisk(boolean atRisk) {
+    return new JobStatus(jobId, description, state, progress, status, eventId, atRisk);
+  }
+
+  /**
+   * Creates a copy of this <code>JobStatus</code> with the state set to
+   * {@link JobState#FINALIZING}.
+   * @return A copy of this <code>JobStatus</code> with the state set to
+   *     {@link JobState#FINALIZING}.
+   */
+  public JobStatus asFinalizing() {
+    return new JobStatus(jobId, description, JobState.FINALIZING, 1.0, status, eventId, deadlineAtRisk);
   }
 
   /**
@@ -141,7 +173,7 @@ public final class JobStatus implements Serializable {
    *     {@link JobState#COMPLETE}.
    */
   public JobStatus asComplete() {
-    return new JobStatus(jobId, description, JobState.COMPLETE, 1.0, status, eventId);
+    return new JobStatus(jobId, description, JobState.COMPLETE, 1.0, status, eventId, false);
   }
 
   /**
@@ -151,7 +183,7 @@ public final class JobStatus implements Serializable {
    *     {@link JobState#CANCELLED}.
    */
   public JobStatus asCancelled() {
-    return new JobStatus(jobId, description, JobState.CANCELLED, progress, status, eventId);
+    return new JobStatus(jobId, description, JobState.CANCELLED, progress, status, eventId, false);
   }
 
   /**
@@ -161,7 +193,7 @@ public final class JobStatus implements Serializable {
    *     indeterminant.
    */
   public JobStatus withIndeterminantProgress() {
-    return new JobStatus(jobId, description, state, Double.NaN, status, eventId);
+    return new JobStatus(jobId, description, state, Double.NaN, status, eventId, deadlineAtRisk);
   }
 
   /**
@@ -172,7 +204,7 @@ public final class JobStatus implements Serializable {
    *     event ID.
    */
   public JobStatus withNewEventId() {
-    return new JobStatus(jobId, description, state, Double.NaN, status, getNextEventId());
+    return new JobStatus(jobId, description, state, progress, status, getNextEventId(), deadlineAtRisk);
   }
 
   /**
@@ -207,6 +239,14 @@ public final class JobStatus implements Serializable {
     return state == JobState.COMPLETE;
   }
 
+  /**
+   * Gets a value indicating if the job is being finalized.
+   * @return A value indicating if the job is being finalized.
+   */
+  public boolean isFinalizing() {
+    return state == JobState.FINALIZING;
+  }
+
   /**
    * Gets a value indicating if the job has been cancelled.
    * @return A value indicating if the job has been cancelled.
@@ -239,6 +279,15 @@ public final class JobStatus implements Serializable {
     return status;
   }
 
+  /**
+   * Gets a value indicating if the job is projected to miss its deadline.
+   * @return A value indicating if the job is projected to miss its
+   *     deadline.
+   */
+  public boolean isDeadlineAtRisk() {
+    return deadlineAtRisk;
+  }
+
   /**
    * Gets the event ID.
    * @return The event ID.
@@ -87,6 +87,24 @@ public final class JobStatusMonitor {
     monitor.updateStatus(newStatus);
   }
 
+  /**
+   * Updates the appropriate <code>ProgressMonitor</code>s according to a
+   * batch of <code>JobStatus</code> events, such as those returned by
+   * {@link JobService#waitForJobStatusChanges(long, int, long)}.
+   * @param events The <code>JobStatus</code> events, in order of increasing
+   *     event ID.
+   * @return The ID of the last event processed, or
+   *     <code>Long.MIN_VALUE</code> if <code>events</code> is empty.
+   */
+  public long updateStatus(JobStatus[] events) {
+    long lastEventId = Long.MIN_VALUE;
+    for (JobStatus status : events) {
+      updateStatus(status);
+      lastEventId = status.getEventId();
+    }
+    return lastEventId;
+  }
+
   /** Handles <code>JobStatus</code> events for a single job. */
   private static class JobMonitor {
 
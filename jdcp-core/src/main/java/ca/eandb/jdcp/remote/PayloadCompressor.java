@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.remote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the payloads (tasks, results and task
+ * workers) exchanged over a {@link TaskProtocol} connection, and keeps
+ * track of the compression achieved for each job.  Payloads smaller than
+ * the threshold, and payloads that do not get smaller when compressed, are
+ * sent as is, as are the payloads of jobs for which compression has been
+ * disabled.  <code>Deflater</code>s and <code>Inflater</code>s are pooled
+ * and shared by all threads using this <code>PayloadCompressor</code>.
+ * @author Brad Kimmel
+ */
+public final class PayloadCompressor {
+
+  /**
+   * The default size (in bytes) below which payloads are not compressed.
+   */
+  public static final int DEFAULT_THRESHOLD = 4096;
+
+  /**
+   * The maximum number of idle <code>Deflater</code>s (and
+   * <code>Inflater</code>s) to keep.
+   */
+  private static final int MAX_POOLED = 16;
+
+  /**
+   * The compression statistics for a job.
+   */
+  private static final class Statistics {
+
+    /** The number of bytes before compression. */
+    public final AtomicLong uncompressedBytes = new AtomicLong();
+
+    /** The number of bytes transmitted. */
+    public final AtomicLong transmittedBytes = new AtomicLong();
+
+  }
+
+  /** The compression level (0-9) to use. */
+  private final int level;
+
+  /** The size (in bytes) below which payloads are not compressed. */
+  private volatile int threshold;
+
+  /** The idle <code>Deflater</code>s. */
+  private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+  /** The idle <code>Inflater</code>s. */
+  private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+  /** The compression statistics for each job. */
+  private final ConcurrentMap<UUID, Statistics> statistics = new ConcurrentHashMap<UUID, Statistics>();
+
+  /** The jobs whose payloads are not to be compressed. */
+  private final Set<UUID> uncompressedJobs = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+  /**
+   * Creates a new <code>PayloadCompressor</code>.
+   * @param threshold The size (in bytes) below which payloads are not
+   *     compressed.
+   * @param level The compression level (0-9) to use.
+   * @throws IllegalArgumentException If <code>threshold</code> is negative
+   *     or <code>level</code> is not a valid compression level.
+   * @see java.util.zip.Deflater#setLevel(int)
+   */
+  public PayloadCompressor(int threshold, int level) {
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level");
+    }
+    this.level = level;
+    setThreshold(threshold);
+  }
+
+  /**
+   * Creates a new <code>PayloadCompressor</code> that favours speed over
+   * the degree of compression.
+   */
+  public PayloadCompressor() {
+    this(DEFAULT_THRESHOLD, Deflater.BEST_SPEED);
+  }
+
+  /**
+   * Sets the size below which payloads are not compressed.
+   * @param threshold The size (in bytes) below which payloads are not
+   *     compressed.
+   * @throws IllegalArgumentException If <code>threshold</code> is
+   *     negative.
+   */
+  public void setThreshold(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must be non-negative");
+    }
+    this.threshold = threshold;
+  }
+
+  /**
+   * Gets the size below which payloads are not compressed.
+   * @return The size (in bytes) below which payloads are not compressed.
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Sets whether to compress the payloads of a job.  This may be disabled
+   * for jobs whose payloads are already compressed, so that no time is
+   * spent trying to compress them again.  Payloads received for the job
+   * are still decompressed.
+   * @param jobId The <code>UUID</code> of the job.
+   * @param enabled A value indicating whether to compress the payloads of
+   *     the job.
+   */
+  public void setCompressionEnabled(UUID jobId, boolean enabled) {
+    if (enabled) {
+      uncompressedJobs.remove(jobId);
+    } else {
+      uncompressedJobs.add(jobId);
+    }
+  }
+
+  /**
+   * Gets a value indicating whether the payloads of a job are compressed.
+   * @param jobId The <code>UUID</code> of the job.
+   * @return A value indicating whether the payloads of the job are
+   *     compressed.
+   */
+  public boolean isCompressionEnabled(UUID jobId) {
+    return !uncompressedJobs.contains(jobId);
+  }
+
+  /**
+   * Compresses a payload, if it is worthwhile to do so.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param data The payload to compress.
+   * @return The compressed payload, or <code>null</code> if the payload
+   *     should be sent uncompressed.
+   */
+  public byte[] compress(UUID jobId, byte[] data) {
+    if (data.length < threshold
+        || (jobId != null && uncompressedJobs.contains(jobId))) {
+      record(jobId, data.length, data.length);
+      return null;
+    }
+
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(level);
+    }
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+
+      // Only a compressed payload smaller than the original is useful.
+      byte[] buffer = new byte[data.length];
+      int length = 0;
+      while (!deflater.finished() && length < buffer.length) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      if (!deflater.finished()) {
+        record(jobId, data.length, data.length);
+        return null;
+      }
+      record(jobId, data.length, length);
+      return Arrays.copyOf(buffer, length);
+    } finally {
+      deflater.reset();
+      if (deflaters.size() < MAX_POOLED) {
+        deflaters.add(deflater);
+      } else {
+        deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Decompresses a payload.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param data The compressed payload.
+   * @param length The length (in bytes) of the uncompressed payload.
+   * @return The uncompressed payload.
+   * @throws IOException If the payload is corrupt.
+   */
+  public byte[] decompress(UUID jobId, byte[] data, int length)
+      throws IOException {
+    Inflater inflater = inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    try {
+      inflater.setInput(data);
+      byte[] result = new byte[length];
+      int pos = 0;
+      while (pos < length && !inflater.finished()) {
+        int n = inflater.inflate(result, pos, length - pos);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        pos += n;
+      }
+      if (pos != length || !inflater.finished()) {
+        throw new IOException("Compressed payload is corrupt");
+      }
+      record(jobId, length, data.length);
+      return result;
+    } catch (DataFormatException e) {
+      throw new IOException("Compressed payload is corrupt", e);
+    } finally {
+      inflater.reset();
+      if (inflaters.size() < MAX_POOLED) {
+        inflaters.add(inflater);
+      } else {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Records a payload that was received uncompressed.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param length The length (in bytes) of the payload.
+   */
+  public void recordUncompressed(UUID jobId, int length) {
+    record(jobId, length, length);
+  }
+
+  /**
+   * Updates the statistics for a job.
+   * @param jobId The <code>UUID</code> of the job (may be
+   *     <code>null</code>, in which case nothing is recorded).
+   * @param uncompressedBytes The number of bytes before compression.
+   * @param transmittedBytes The number of bytes transmitted.
+   */
+  private void record(UUID jobId, long uncompressedBytes, long transmittedBytes) {
+    if (jobId == null) {
+      return;
+    }
+    Statistics stats = statistics.get(jobId);
+    if (stats == null) {
+      Statistics newStats = new Statistics();
+      stats = statistics.putIfAbsent(jobId, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    stats.uncompressedBytes.addAndGet(uncompressedBytes);
+    stats.transmittedBytes.addAndGet(transmittedBytes);
+  }
+
+  /**
+   * Gets the number of payload bytes, before compression, that have been
+   * sent or received for a job.
+   * @param jobId The <code>UUID</code> of the job.
+   * @return The number of payload bytes before compression.
+   */
+  public long getUncompressedBytes(UUID jobId) {
+    Statistics stats = statistics.get(jobId);
+    return stats != null ? stats.uncompressedBytes.get() : 0L;
+  }
+
+  /**
+   * Gets the number of payload bytes actually transmitted for a job.
+   * @param jobId The <code>UUID</code> of the job.
+   * @return The number of payload bytes transmitted.
+   */
+  public long getTransmittedBytes(UUID jobId) {
+    Statistics stats = statistics.get(jobId);
+    return stats != null ? stats.transmittedBytes.get() : 0L;
+  }
+
+  /**
+   * Gets the compression ratio achieved for a job's payloads.
+   * @param jobId The <code>UUID</code> of the job.
+   * @return The ratio of the number of payload bytes before compression to
+   *     the number of payload bytes transmitted, or one if no payloads have
+   *     been sent or received for the job.
+   */
+  public double getCompressionRatio(UUID jobId) {
+    Statistics stats = statistics.get(jobId);
+    long transmitted = stats != null ? stats.transmittedBytes.get() : 0L;
+    return transmitted > 0L
+        ? (double) stats.uncompressedBytes.get() / (double) transmitted
+        : 1.0;
+  }
+
+  /**
+   * Discards the statistics and compression setting for a job.
+   * @param jobId The <code>UUID</code> of the job.
+   */
+  public void removeJob(UUID jobId) {
+    statistics.remove(jobId);
+    uncompressedJobs.remove(jobId);
+  }
+
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.UUID;
+
+import ca.eandb.jdcp.JdcpUtil;
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * Constants and encoding routines for the binary transport for the
+ * <code>TaskService</code> methods.  This transport is an alternative to RMI
+ * for the calls that workers make most often.
+ *
+ * Each message is a frame consisting of a four byte length (the number of
+ * bytes that follow), a four byte request ID, a one byte code and a body.
+ * For requests, the code identifies the method being called.  For
+ * responses, the code indicates whether the call succeeded, and the request
+ * ID matches that of the request.  A client may send several requests
+ * without waiting for their responses, and responses may arrive in any
+ * order.  The first request on a connection must be {@link #AUTHENTICATE}.
+ *
+ * Primitive values are written as by <code>DataOutput</code>.  Task
+ * payloads, results and exceptions are written using Java serialization,
+ * prefixed by their length.  Task payloads, results and task workers may
+ * additionally be compressed, if both ends agreed to it when the connection
+ * was authenticated (see {@link PayloadCompressor}).
+ * @author Brad Kimmel
+ */
+public final class TaskProtocol {
+
+  /** The default port on which to listen for connections. */
+  public static final int DEFAULT_PORT = JdcpUtil.DEFAULT_PORT + 1;
+
+  /**
+   * The number of bytes in a frame header following the length (the
+   * request ID and the code).
+   */
+  public static final int HEADER_LENGTH = 5;
+
+  /** The maximum number of bytes following the length of a frame. */
+  public static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+  /**
+   * Authenticates the connection.  The body holds the user name, the
+   * password, the protocol version ID and the payload encoding requested
+   * by the client.  The response holds the payload encoding agreed to by
+   * the server, which the server will never choose to be
+   * {@link #ENCODING_DEFLATE} unless the client requested it.
+   * @see AuthenticationService#authenticate(String, String, UUID)
+   */
+  public static final byte AUTHENTICATE = 1;
+
+  /** @see TaskService#getTaskWorker(UUID) */
+  public static final byte GET_TASK_WORKER = 2;
+
+  /** @see TaskService#requestTask() */
+  public static final byte REQUEST_TASK = 3;
+
+  /** @see TaskService#requestTasks(int, UUID[]) */
+  public static final byte REQUEST_TASKS = 4;
+
+  /** @see TaskService#submitTaskResults(UUID, int, Serialized) */
+  public static final byte SUBMIT_TASK_RESULTS = 5;
+
+  /** @see TaskService#submitTaskResults(UUID[], int[], Serialized[]) */
+  public static final byte SUBMIT_TASK_RESULTS_BATCH = 6;
+
+  /** @see TaskService#reportException(UUID, int, Exception) */
+  public static final byte REPORT_EXCEPTION = 7;
+
+  /** @see TaskService#getFinishedTasks(UUID[], int[]) */
+  public static final byte GET_FINISHED_TASKS = 8;
+
+  /** @see TaskService#getClassDigest(String, UUID) */
+  public static final byte GET_CLASS_DIGEST = 9;
+
+  /** @see TaskService#getClassDefinition(String, UUID) */
+  public static final byte GET_CLASS_DEFINITION = 10;
+
+  /** @see TaskService#beginTaskResultsUpload(UUID, int) */
+  public static final byte BEGIN_RESULTS_UPLOAD = 11;
+
+  /**
+   * Uploads a chunk of task results.  The body holds the upload ID, the
+   * offset of the chunk, the <code>UUID</code> of the job (used only for
+   * compression statistics) and the chunk, written as by
+   * {@link #writeCompressedBytes(DataOutput, UUID, byte[], PayloadCompressor)}.
+   * @see TaskService#uploadTaskResultsChunk(long, long, byte[])
+   */
+  public static final byte UPLOAD_RESULTS_CHUNK = 12;
+
+  /** @see TaskService#endTaskResultsUpload(long, boolean) */
+  public static final byte END_RESULTS_UPLOAD = 13;
+
+  /**
+   * Requests tasks, waiting for tasks to become available if there are
+   * none.  The body holds the maximum number of tasks, the preferred job
+   * IDs and the timeout (in milliseconds).  The server holds the request
+   * without tying up a thread until a task becomes available or the
+   * timeout expires.
+   * @see TaskService#requestTasks(int, UUID[], long)
+   */
+  public static final byte REQUEST_TASKS_WAIT = 14;
+
+  /** Indicates that a call succeeded.  The body holds the return value. */
+  public static final byte STATUS_OK = 0;
+
+  /**
+   * Indicates that a call failed.  The body holds the exception that was
+   * thrown.
+   */
+  public static final byte STATUS_ERROR = 1;
+
+  /** Indicates that a payload is not compressed. */
+  public static final byte ENCODING_RAW = 0;
+
+  /** Indicates that a payload is compressed using a <code>Deflater</code>. */
+  public static final byte ENCODING_DEFLATE = 1;
+
+  /** The maximum length (in bytes) of a decompressed payload. */
+  public static final int MAX_PAYLOAD_LENGTH = 1024 * 1024 * 1024;
+
+  /**
+   * Creates a frame.
+   * @param requestId The request ID.
+   * @param code The method being called (for a request) or the status of
+   *     the call (for a response).
+   * @param body The body of the frame.
+   * @return A <code>ByteBuffer</code> holding the frame, ready to be
+   *     written.
+   */
+  public static ByteBuffer createFrame(int requestId, byte code, byte[] body) {
+    ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_LENGTH + body.length);
+    frame.putInt(HEADER_LENGTH + body.length);
+    frame.putInt(requestId);
+    frame.put(code);
+    frame.put(body);
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Writes a <code>UUID</code>, which may be <code>null</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param id The <code>UUID</code> to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeUUID(DataOutput out, UUID id) throws IOException {
+    out.writeBoolean(id != null);
+    if (id != null) {
+      out.writeLong(id.getMostSignificantBits());
+      out.writeLong(id.getLeastSignificantBits());
+    }
+  }
+
+  /**
+   * Reads a <code>UUID</code> written by {@link #writeUUID(DataOutput, UUID)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The <code>UUID</code> that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static UUID readUUID(DataInput in) throws IOException {
+    return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+  }
+
+  /**
+   * Writes an array of <code>UUID</code>s, which may be <code>null</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param ids The array of <code>UUID</code>s to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeUUIDs(DataOutput out, UUID[] ids) throws IOException {
+    out.writeInt(ids != null ? ids.length : -1);
+    if (ids != null) {
+      for (UUID id : ids) {
+        writeUUID(out, id);
+      }
+    }
+  }
+
+  /**
+   * Reads an array of <code>UUID</code>s written by
+   * {@link #writeUUIDs(DataOutput, UUID[])}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The array of <code>UUID</code>s that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static UUID[] readUUIDs(DataInput in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    UUID[] ids = new UUID[n];
+    for (int i = 0; i < n; i++) {
+      ids[i] = readUUID(in);
+    }
+    return ids;
+  }
+
+  /**
+   * Writes an array of <code>int</code>s, which may be <code>null</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param values The array of <code>int</code>s to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeInts(DataOutput out, int[] values) throws IOException {
+    out.writeInt(values != null ? values.length : -1);
+    if (values != null) {
+      for (int value : values) {
+        out.writeInt(value);
+      }
+    }
+  }
+
+  /**
+   * Reads an array of <code>int</code>s written by
+   * {@link #writeInts(DataOutput, int[])}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The array of <code>int</code>s that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static int[] readInts(DataInput in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  /**
+   * Writes an array of bytes, which may be <code>null</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param data The array of bytes to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeByteArray(DataOutput out, byte[] data) throws IOException {
+    out.writeInt(data != null ? data.length : -1);
+    if (data != null) {
+      out.write(data);
+    }
+  }
+
+  /**
+   * Reads an array of bytes written by
+   * {@link #writeByteArray(DataOutput, byte[])}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The array of bytes that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static byte[] readByteArray(DataInput in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    byte[] data = new byte[n];
+    in.readFully(data);
+    return data;
+  }
+
+  /**
+   * Writes a string, which may be <code>null</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param s The string to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeString(DataOutput out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutput, String)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The string that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Writes an object using Java serialization.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param obj The object to write.
+   * @throws IOException If an error occurs while writing, or if the object
+   *     is not serializable.
+   */
+  public static void writeObject(DataOutput out, Object obj) throws IOException {
+    writeByteArray(out, serialize(obj));
+  }
+
+  /**
+   * Reads an object written by {@link #writeObject(DataOutput, Object)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The object that was read.
+   * @throws IOException If an error occurs while reading, or if the class
+   *     of the object cannot be found.
+   */
+  public static Object readObject(DataInput in) throws IOException {
+    return deserialize(readByteArray(in));
+  }
+
+  /**
+   * Reads a <code>Serialized</code> object written by
+   * {@link #writeObject(DataOutput, Object)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The <code>Serialized</code> object that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Serialized<T> readSerialized(DataInput in) throws IOException {
+    return (Serialized<T>) readObject(in);
+  }
+
+  /**
+   * Writes a payload (a task, a result or a task worker) using Java
+   * serialization, compressing it if appropriate.  A payload is written as
+   * a one byte encoding, followed by the length of the serialized payload
+   * and, for compressed payloads, the length of the compressed data.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param obj The payload to write.
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> to write the payload uncompressed.
+   * @throws IOException If an error occurs while writing, or if the
+   *     payload is not serializable.
+   */
+  public static void writePayload(DataOutput out, UUID jobId, Object obj,
+      PayloadCompressor compressor) throws IOException {
+    writeCompressedBytes(out, jobId, serialize(obj), compressor);
+  }
+
+  /**
+   * Reads a payload written by
+   * {@link #writePayload(DataOutput, UUID, Object, PayloadCompressor)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> if compression was not agreed to.
+   * @return The payload that was read.
+   * @throws IOException If an error occurs while reading, if the payload
+   *     is corrupt, or if the class of the payload cannot be found.
+   */
+  public static Object readPayload(DataInput in, UUID jobId,
+      PayloadCompressor compressor) throws IOException {
+    return deserialize(readCompressedBytes(in, jobId, compressor));
+  }
+
+  /**
+   * Writes an array of bytes, compressing it if appropriate.  The array is
+   * written as a one byte encoding, followed by the length of the array
+   * and, for compressed arrays, the length of the compressed data.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param jobId The <code>UUID</code> of the job the data belongs to (may
+   *     be <code>null</code>).
+   * @param data The array of bytes to write.
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> to write the data uncompressed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeCompressedBytes(DataOutput out, UUID jobId,
+      byte[] data, PayloadCompressor compressor) throws IOException {
+    byte[] compressed = (compressor != null)
+        ? compressor.compress(jobId, data) : null;
+    if (compressed != null) {
+      out.writeByte(ENCODING_DEFLATE);
+      out.writeInt(data.length);
+      writeByteArray(out, compressed);
+    } else {
+      out.writeByte(ENCODING_RAW);
+      writeByteArray(out, data);
+    }
+  }
+
+  /**
+   * Reads an array of bytes written by
+   * {@link #writeCompressedBytes(DataOutput, UUID, byte[], PayloadCompressor)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @param jobId The <code>UUID</code> of the job the data belongs to (may
+   *     be <code>null</code>).
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> if compression was not agreed to.
+   * @return The array of bytes that was read.
+   * @throws IOException If an error occurs while reading, or if the data is
+   *     corrupt.
+   */
+  public static byte[] readCompressedBytes(DataInput in, UUID jobId,
+      PayloadCompressor compressor) throws IOException {
+    byte encoding = in.readByte();
+    switch (encoding) {
+    case ENCODING_RAW: {
+      byte[] data = readByteArray(in);
+      if (compressor != null && data != null) {
+        compressor.recordUncompressed(jobId, data.length);
+      }
+      return data;
+    }
+
+    case ENCODING_DEFLATE: {
+      int length = in.readInt();
+      if (compressor == null) {
+        throw new IOException("Compression was not negotiated");
+      }
+      if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+        throw new IOException("Invalid payload length");
+      }
+      return compressor.decompress(jobId, readByteArray(in), length);
+    }
+
+    default:
+      throw new IOException("Unrecognized payload encoding: "
+          + Byte.toString(encoding));
+    }
+  }
+
+  /**
+   * Reads a <code>Serialized</code> payload written by
+   * {@link #writePayload(DataOutput, UUID, Object, PayloadCompressor)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @param jobId The <code>UUID</code> of the job the payload belongs to
+   *     (may be <code>null</code>).
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> if compression was not agreed to.
+   * @return The <code>Serialized</code> payload that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Serialized<T> readSerializedPayload(DataInput in,
+      UUID jobId, PayloadCompressor compressor) throws IOException {
+    return (Serialized<T>) readPayload(in, jobId, compressor);
+  }
+
+  /**
+   * Writes a <code>TaskDescription</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param task The <code>TaskDescription</code> to write.
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> to write the task uncompressed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeTaskDescription(DataOutput out, TaskDescription task,
+      PayloadCompressor compressor) throws IOException {
+    writeUUID(out, task.getJobId());
+    out.writeInt(task.getTaskId());
+    writePayload(out, task.getJobId(), task.getTask(), compressor);
+  }
+
+  /**
+   * Reads a <code>TaskDescription</code> written by
+   * {@link #writeTaskDescription(DataOutput, TaskDescription, PayloadCompressor)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @param compressor The <code>PayloadCompressor</code> to use, or
+   *     <code>null</code> if compression was not agreed to.
+   * @return The <code>TaskDescription</code> that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static TaskDescription readTaskDescription(DataInput in,
+      PayloadCompressor compressor) throws IOException {
+    UUID jobId = readUUID(in);
+    int taskId = in.readInt();
+    Serialized<Object> task = readSerializedPayload(in, jobId, compressor);
+    return TaskDescription.fromSerialized(jobId, taskId, task);
+  }
+
+  /**
+   * Serializes an object.
+   * @param obj The object to serialize.
+   * @return The serialized object.
+   * @throws IOException If the object is not serializable.
+   */
+  private static byte[] serialize(Object obj) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream oout = new ObjectOutputStream(bytes);
+    oout.writeObject(obj);
+    oout.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes an object.
+   * @param data The serialized object.
+   * @return The deserialized object.
+   * @throws IOException If the data is corrupt, or if the class of the
+   *     object cannot be found.
+   */
+  private static Object deserialize(byte[] data) throws IOException {
+    if (data == null) {
+      throw new IOException("Missing object");
+    }
+    ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+    try {
+      return oin.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Could not decode object", e);
+    } finally {
+      oin.close();
+    }
+  }
+
+  /**
+   * Writes a <code>BitSet</code>.
+   * @param out The <code>DataOutput</code> to write to.
+   * @param bits The <code>BitSet</code> to write.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void writeBitSet(DataOutput out, BitSet bits) throws IOException {
+    long[] words = bits.toLongArray();
+    out.writeInt(words.length);
+    for (long word : words) {
+      out.writeLong(word);
+    }
+  }
+
+  /**
+   * Reads a <code>BitSet</code> written by
+   * {@link #writeBitSet(DataOutput, BitSet)}.
+   * @param in The <code>DataInput</code> to read from.
+   * @return The <code>BitSet</code> that was read.
+   * @throws IOException If an error occurs while reading.
+   */
+  public static BitSet readBitSet(DataInput in) throws IOException {
+    long[] words = new long[in.readInt()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = in.readLong();
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /** This constructor is private to prevent instances from being created. */
+  private TaskProtocol() {}
+
+}
@@ -46,6 +46,60 @@ public interface TaskService extends Remote {
    */
   TaskDescription requestTask() throws SecurityException, RemoteException;
 
+  /**
+   * Gets several tasks to perform.  This allows a worker with many idle
+   * threads to obtain work for all of them in a single call.  The worker
+   * may list the jobs for which it has already loaded the
+   * <code>TaskWorker</code>, so that tasks from those jobs may be served in
+   * preference to tasks from jobs that the worker would have to load.  The
+   * list is only a hint: the service is free to serve tasks from other jobs
+   * as required to maintain its scheduling policy.
+   * @param maxTasks The maximum number of tasks to return.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer tasks from (may be <code>null</code>).
+   * @return An array of at most <code>maxTasks</code>
+   *     <code>TaskDescription</code>s describing the tasks to be performed.
+   *     No task will appear more than once in the array.  If no tasks are
+   *     available, the array will contain a single
+   *     <code>TaskDescription</code> instructing the worker to idle, as would
+   *     be returned by {@link #requestTask()}.
+   * @throws IllegalArgumentException If <code>maxTasks &lt; 1</code>.
+   * @throws SecurityException If the caller does not have permission to
+   *     request tasks.
+   * @throws RemoteException If a communication error occurs.
+   * @see #requestTask()
+   */
+  TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
+  /**
+   * Gets several tasks to perform, waiting for tasks to become available if
+   * there are none.  This behaves as {@link #requestTasks(int, UUID[])},
+   * except that if no tasks are available, the service may hold the request
+   * until a task becomes available or the timeout expires, so that a worker
+   * starts on a newly submitted job without waiting for its idle period to
+   * elapse.  If the timeout expires, the array will contain a single
+   * <code>TaskDescription</code> instructing the worker to idle for zero
+   * seconds, so that it may request tasks again immediately.  A service that
+   * does not support waiting may return at once, as for
+   * {@link #requestTasks(int, UUID[])}.
+   * @param maxTasks The maximum number of tasks to return.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer tasks from (may be <code>null</code>).
+   * @param timeoutMillis The maximum amount of time (in milliseconds) to
+   *     wait for a task to become available.
+   * @return An array of at most <code>maxTasks</code>
+   *     <code>TaskDescription</code>s describing the tasks to be performed.
+   * @throws IllegalArgumentException If <code>maxTasks &lt; 1</code>.
+   * @throws SecurityException If the caller does not have permission to
+   *     request tasks.
+   * @throws RemoteException If a communication error occurs.
+   * @see #requestTasks(int, UUID[])
+   */
+  TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
   /**
    * Submits the results of a task.
    * @param jobId The <code>UUID</code> identifying the job for which the
@@ -59,6 +113,86 @@ public interface TaskService extends Remote {
   void submitTaskResults(UUID jobId, int taskId, Serialized<Object> results)
       throws SecurityException, RemoteException;
 
+  /**
+   * Submits the results of several tasks.  This is equivalent to calling
+   * {@link #submitTaskResults(UUID, int, Serialized)} for each task, but
+   * requires only a single call.
+   * @param jobIds An array of <code>UUID</code>s identifying the jobs for
+   *     which the tasks were performed.
+   * @param taskIds An array containing the IDs of the tasks that were
+   *     performed (must be the same length as <code>jobIds</code>).
+   * @param results An array containing the results of the tasks (must be
+   *     the same length as <code>jobIds</code>).
+   * @throws IllegalArgumentException If <code>jobIds</code>,
+   *     <code>taskIds</code> and <code>results</code> are not all of the
+   *     same length.
+   * @throws SecurityException If the caller does not have permission to
+   *     submit task results.
+   * @throws RemoteException If a communication error occurs.
+   * @see #submitTaskResults(UUID, int, Serialized)
+   */
+  void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException, RemoteException;
+
+  /**
+   * Begins uploading the results of a task in chunks, for results that are
+   * too large to be submitted in a single call.  The chunks are sent using
+   * {@link #uploadTaskResultsChunk(long, long, byte[])}, and the upload is
+   * completed using {@link #endTaskResultsUpload(long, boolean)}.  The
+   * uploaded bytes are the task results written by an
+   * <code>ObjectOutputStream</code>.
+   * @param jobId The <code>UUID</code> of the job that the task is
+   *     associated with.
+   * @param taskId The ID of the task whose results are being submitted.
+   * @return The ID of the upload, or zero if the results are no longer
+   *     required (for example, because the task has already been completed
+   *     by another worker).
+   * @throws IllegalArgumentException If chunked uploads are not accepted
+   *     for the specified job, or if too many uploads are already in
+   *     progress for it.  The results should then be submitted in a single
+   *     call.
+   * @throws SecurityException If the caller does not have permission to
+   *     submit task results.
+   * @throws RemoteException If a communication error occurs.
+   * @see #submitTaskResults(UUID, int, Serialized)
+   */
+  long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
+  /**
+   * Uploads a chunk of task results.  Resending a chunk that has already
+   * been received (for example, after a lost connection) has no effect.
+   * @param uploadId The ID of the upload, as returned by
+   *     {@link #beginTaskResultsUpload(UUID, int)}.
+   * @param offset The position of the chunk within the results.
+   * @param chunk The bytes to upload.
+   * @throws IllegalArgumentException If there is no such upload, or if
+   *     <code>offset</code> is beyond the end of the bytes received so far.
+   * @throws SecurityException If the caller does not have permission to
+   *     submit task results.
+   * @throws RemoteException If a communication error occurs, or if the
+   *     chunk could not be stored.
+   */
+  void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
+  /**
+   * Completes or abandons an upload of task results.
+   * @param uploadId The ID of the upload, as returned by
+   *     {@link #beginTaskResultsUpload(UUID, int)}.
+   * @param commit A value indicating whether to submit the uploaded
+   *     results (<code>true</code>) or to discard them
+   *     (<code>false</code>).
+   * @throws IllegalArgumentException If there is no such upload.
+   * @throws SecurityException If the caller does not have permission to
+   *     submit task results.
+   * @throws RemoteException If a communication error occurs, or if the
+   *     results could not be stored.
+   */
+  void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException, SecurityException, RemoteException;
+
   /**
    * Report that an exception was thrown during the execution of an assigned
    * task.
@@ -44,7 +44,7 @@ import org.apache.derby.jdbc.EmbeddedDataSource;
 
 import ca.eandb.jdcp.JdcpUtil;
 import ca.eandb.jdcp.server.classmanager.DbClassManager;
-import ca.eandb.jdcp.server.scheduling.PrioritySerialTaskScheduler;
+import ca.eandb.jdcp.server.scheduling.SchedulingUtil;
 import ca.eandb.jdcp.server.scheduling.TaskScheduler;
 import ca.eandb.util.progress.ProgressPanel;
 
@@ -104,9 +104,10 @@ public final class JobServerMain {
       DbClassManager classManager = new DbClassManager(ds);
       classManager.prepareDataSource();
 
-      TaskScheduler scheduler = new PrioritySerialTaskScheduler();
+      TaskScheduler scheduler = SchedulingUtil.createTaskScheduler(
+          pref.get("scheduler", SchedulingUtil.PRIORITY_SERIAL));
       Executor executor = Executors.newCachedThreadPool();
-      JobServer jobServer = new JobServer(jobsDirectory, panel, scheduler, classManager, executor);
+      final JobServer jobServer = new JobServer(jobsDirectory, panel, scheduler, classManager, executor);
       AuthenticationServer authServer = new AuthenticationServer(jobServer, JdcpUtil.DEFAULT_PORT);
       System.err.println("OK");
 
@@ -133,6 +134,7 @@ public final class JobServerMain {
           System.err.print("Shutting down...");
           try {
             registry.unbind("AuthenticationService");
+            jobServer.checkpointJobs();
             System.err.println("OK");
           } catch (Exception e) {
             e.printStackTrace();
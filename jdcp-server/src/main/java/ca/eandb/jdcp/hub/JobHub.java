@@ -27,9 +27,12 @@ package ca.eandb.jdcp.hub;
 
 import java.rmi.RemoteException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
@@ -51,6 +54,7 @@ import ca.eandb.jdcp.job.TaskWorker;
 import ca.eandb.jdcp.remote.JobService;
 import ca.eandb.jdcp.remote.JobStatus;
 import ca.eandb.jdcp.remote.TaskService;
+import ca.eandb.jdcp.server.TaskResultBatch;
 import ca.eandb.util.concurrent.BackgroundThreadFactory;
 import ca.eandb.util.rmi.Serialized;
 
@@ -223,6 +227,54 @@ public final class JobHub implements JobService {
     return idleTask;
   }
 
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException {
+    if (maxTasks < 1) {
+      throw new IllegalArgumentException("maxTasks must be positive");
+    }
+
+    List<TaskDescription> tasks = new ArrayList<TaskDescription>(maxTasks);
+    int n = services.size();
+    if (n > 0) {
+      ServiceInfo[] serv;
+      synchronized (this) {
+        serv = (ServiceInfo[]) services.toArray(new ServiceInfo[n]);
+      }
+      for (ServiceInfo info : serv) {
+        try {
+          synchronized (this) {
+            if (services.remove(info)) {
+              services.add(info);
+            }
+          }
+          TaskDescription[] remoteTasks = info.requestTasks(
+              maxTasks - tasks.size(), preferredJobIds);
+          for (TaskDescription task : remoteTasks) {
+            routes.put(task.getJobId(), info);
+            tasks.add(task);
+          }
+          if (tasks.size() >= maxTasks) {
+            break;
+          }
+        } catch (Exception e) {
+          logger.error("Failed to request task from server", e);
+        }
+      }
+    }
+
+    if (tasks.isEmpty()) {
+      return new TaskDescription[]{ idleTask };
+    }
+    return tasks.toArray(new TaskDescription[tasks.size()]);
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis) throws IllegalArgumentException {
+    return requestTasks(maxTasks, preferredJobIds);
+  }
+
   @Override
   public void setIdleTime(int idleSeconds) throws IllegalArgumentException {
     idleTask = new TaskDescription(null, 0, idleSeconds);
@@ -245,9 +297,55 @@ public final class JobHub implements JobService {
     }
   }
 
+  @Override
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException {
+    // Group the results by the server hosting the corresponding job, so
+    // that they can be forwarded to each server in a single call.
+    Map<ServiceInfo, TaskResultBatch> batches = TaskResultBatch.group(
+        jobIds, taskIds, results, new TaskResultBatch.Router<ServiceInfo>() {
+          public ServiceInfo route(UUID jobId) {
+            return routes.get(jobId);
+          }
+        });
+
+    for (Entry<ServiceInfo, TaskResultBatch> entry : batches.entrySet()) {
+      final ServiceInfo info = entry.getKey();
+      final TaskResultBatch batch = entry.getValue();
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            info.submitTaskResults(batch.getJobIds(), batch.getTaskIds(),
+                batch.getResults());
+          } catch (Exception e) {
+            logger.error("Cannot submit task results", e);
+          }
+        }
+      });
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // The following operations are not supported
 
+  @Override
+  public long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("Chunked uploads are not supported");
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("No upload with provided ID");
+  }
+
+  @Override
+  public void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("No upload with provided ID");
+  }
+
   @Override
   public void cancelJob(UUID jobId) throws IllegalArgumentException,
       SecurityException, RemoteException {
@@ -284,6 +382,12 @@ public final class JobHub implements JobService {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
       throws IllegalArgumentException, SecurityException,
@@ -316,6 +420,13 @@ public final class JobHub implements JobService {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public JobStatus[] waitForJobStatusChanges(long lastEventId, int maxEvents,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public JobStatus waitForJobStatusChange(UUID jobId, long lastEventId,
       long timeoutMillis) throws IllegalArgumentException,
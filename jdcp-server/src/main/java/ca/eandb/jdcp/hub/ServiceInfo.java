@@ -27,11 +27,14 @@ package ca.eandb.jdcp.hub;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
@@ -43,6 +46,7 @@ import org.apache.log4j.Logger;
 
 import ca.eandb.jdcp.job.TaskDescription;
 import ca.eandb.jdcp.job.TaskWorker;
+import ca.eandb.jdcp.remote.DelegationException;
 import ca.eandb.util.UnexpectedException;
 import ca.eandb.util.rmi.Serialized;
 
@@ -63,31 +67,38 @@ final class ServiceInfo {
 
   private final Runnable getNextTask = new Runnable() {
     public void run() {
-      TaskDescription task = null;
       if (!isIdle()) {
-        task = service.requestTask();
-        UUID jobId = task.getJobId();
-        if (jobId == null) {
-          try {
-            int seconds = (Integer) task.getTask().deserialize();
-            idle(seconds);
-          } catch (ClassNotFoundException e) {
-            throw new UnexpectedException(e);
-          }
-          task = null;
-        } else {
-          JobInfo job = getJobInfo(jobId);
-          job.registerTask(task.getTaskId());
-        }
-      }
-      if (task != null) {
-        synchronized (pendingTasks) {
-          pendingTasks.add(task);
-        }
+        addPendingTask(service.requestTask());
       }
     }
   };
 
+  private void fetchTasks(int maxTasks, UUID[] preferredJobIds) {
+    if (!isIdle()) {
+      for (TaskDescription task : service.requestTasks(maxTasks, preferredJobIds)) {
+        addPendingTask(task);
+      }
+    }
+  }
+
+  private void addPendingTask(TaskDescription task) {
+    UUID jobId = task.getJobId();
+    if (jobId == null) {
+      try {
+        int seconds = (Integer) task.getTask().deserialize();
+        idle(seconds);
+      } catch (ClassNotFoundException e) {
+        throw new UnexpectedException(e);
+      }
+    } else {
+      JobInfo job = getJobInfo(jobId);
+      job.registerTask(task.getTaskId());
+      synchronized (pendingTasks) {
+        pendingTasks.add(task);
+      }
+    }
+  }
+
   private Date idleUntil = new Date(0);
 
   public ServiceInfo(String host, String username, String password, DataSource dataSource, Executor executor) {
@@ -188,10 +199,77 @@ final class ServiceInfo {
     job.reportException(taskId, e);
   }
 
-  public synchronized TaskDescription requestTask() {
+  public TaskDescription requestTask() {
+    TaskDescription task;
+    synchronized (pendingTasks) {
+      task = pendingTasks.poll();
+    }
+    if (task == null) {
+      // Nothing has been fetched ahead yet, so fetch a task now rather than
+      // sending the worker away empty-handed.
+      getNextTask.run();
+      synchronized (pendingTasks) {
+        task = pendingTasks.poll();
+      }
+    }
     executor.execute(getNextTask);
+    return task;
+  }
+
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds) {
+    List<TaskDescription> tasks = takePendingTasks(maxTasks, preferredJobIds);
+    if (tasks.size() < maxTasks) {
+      // Fetch the shortfall now rather than sending the worker away with
+      // only what was fetched ahead.  The tasks already taken must not be
+      // lost if the server cannot be reached.
+      try {
+        fetchTasks(maxTasks - tasks.size(), preferredJobIds);
+        tasks.addAll(takePendingTasks(maxTasks - tasks.size(),
+            preferredJobIds));
+      } catch (DelegationException e) {
+        logger.error("Could not request tasks from server", e);
+      }
+    }
+    executor.execute(new Runnable() {
+      public void run() {
+        fetchTasks(maxTasks, preferredJobIds);
+      }
+    });
+    return tasks.toArray(new TaskDescription[tasks.size()]);
+  }
+
+  /**
+   * Removes tasks that have been fetched ahead from the queue of pending
+   * tasks, preferring tasks for the specified jobs.
+   * @param maxTasks The maximum number of tasks to remove.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs to prefer
+   *     tasks from (may be <code>null</code>).
+   * @return The <code>TaskDescription</code>s removed.
+   */
+  private List<TaskDescription> takePendingTasks(int maxTasks,
+      UUID[] preferredJobIds) {
     synchronized (pendingTasks) {
-      return pendingTasks.poll();
+      List<TaskDescription> tasks = new ArrayList<TaskDescription>(
+          Math.min(maxTasks, pendingTasks.size()));
+
+      // Hand out tasks for the jobs that the worker already has loaded
+      // first, then fill the remainder in the order they were received.
+      if (preferredJobIds != null && preferredJobIds.length > 0) {
+        List<UUID> preferred = Arrays.asList(preferredJobIds);
+        Iterator<TaskDescription> i = pendingTasks.iterator();
+        while (tasks.size() < maxTasks && i.hasNext()) {
+          TaskDescription task = i.next();
+          if (preferred.contains(task.getJobId())) {
+            tasks.add(task);
+            i.remove();
+          }
+        }
+      }
+      while (tasks.size() < maxTasks && !pendingTasks.isEmpty()) {
+        tasks.add(pendingTasks.remove());
+      }
+      return tasks;
     }
   }
 
@@ -201,4 +279,15 @@ final class ServiceInfo {
     job.submitTaskResults(taskId, results);
   }
 
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) {
+    service.submitTaskResults(jobIds, taskIds, results);
+    for (int i = 0; i < jobIds.length; i++) {
+      JobInfo job = jobs.get(jobIds[i]);
+      if (job != null) {
+        job.removeTask(taskIds[i]);
+      }
+    }
+  }
+
 }
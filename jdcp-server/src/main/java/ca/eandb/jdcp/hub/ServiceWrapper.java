@@ -246,6 +246,41 @@ final class ServiceWrapper implements JobService {
     });
   }
 
+  @Override
+  public long beginTaskResultsUpload(final UUID jobId, final int taskId)
+      throws DelegationException {
+    return run(new ServiceOperation<Long>() {
+      public Long run(JobService service) throws RemoteException,
+          SecurityException {
+        return service.beginTaskResultsUpload(jobId, taskId);
+      }
+    });
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(final long uploadId, final long offset,
+      final byte[] chunk) throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(JobService service) throws RemoteException,
+          SecurityException {
+        service.uploadTaskResultsChunk(uploadId, offset, chunk);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void endTaskResultsUpload(final long uploadId, final boolean commit)
+      throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(JobService service) throws RemoteException,
+          SecurityException {
+        service.endTaskResultsUpload(uploadId, commit);
+        return null;
+      }
+    });
+  }
+
   @Override
   public Serialized<TaskWorker> getTaskWorker(final UUID jobId)
       throws DelegationException {
@@ -279,6 +314,30 @@ final class ServiceWrapper implements JobService {
     });
   }
 
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds)
+      throws DelegationException {
+    return run(new ServiceOperation<TaskDescription[]>() {
+      public TaskDescription[] run(JobService service)
+          throws RemoteException, SecurityException {
+        return service.requestTasks(maxTasks, preferredJobIds);
+      }
+    });
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds, final long timeoutMillis)
+      throws DelegationException {
+    return run(new ServiceOperation<TaskDescription[]>() {
+      public TaskDescription[] run(JobService service)
+          throws RemoteException, SecurityException {
+        return service.requestTasks(maxTasks, preferredJobIds, timeoutMillis);
+      }
+    });
+  }
+
   @Override
   public void setClassDefinition(String name, byte[] def)
       throws SecurityException, RemoteException {
@@ -303,6 +362,12 @@ final class ServiceWrapper implements JobService {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
       throws IllegalArgumentException, SecurityException,
@@ -329,6 +394,18 @@ final class ServiceWrapper implements JobService {
     });
   }
 
+  @Override
+  public void submitTaskResults(final UUID[] jobIds, final int[] taskIds,
+      final Serialized<Object>[] results) throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(JobService service) throws RemoteException,
+          SecurityException {
+        service.submitTaskResults(jobIds, taskIds, results);
+        return null;
+      }
+    });
+  }
+
   @Override
   public void registerTaskService(String name, TaskService service)
       throws SecurityException, RemoteException {
@@ -347,6 +424,13 @@ final class ServiceWrapper implements JobService {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public JobStatus[] waitForJobStatusChanges(long lastEventId, int maxEvents,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public JobStatus waitForJobStatusChange(UUID jobId, long lastEventId,
       long timeoutMillis) throws IllegalArgumentException,
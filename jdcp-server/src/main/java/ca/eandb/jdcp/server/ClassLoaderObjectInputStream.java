@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * An <code>ObjectInputStream</code> that resolves classes using a specified
+ * <code>ClassLoader</code>.  This is used to read objects whose classes were
+ * supplied by the client that submitted a job.
+ * @author Brad Kimmel
+ */
+final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+  /** The <code>ClassLoader</code> to use to resolve classes. */
+  private final ClassLoader loader;
+
+  /**
+   * Creates a new <code>ClassLoaderObjectInputStream</code>.
+   * @param in The <code>InputStream</code> to read from.
+   * @param loader The <code>ClassLoader</code> to use to resolve classes.
+   * @throws IOException If an error occurs while reading the stream header.
+   */
+  public ClassLoaderObjectInputStream(InputStream in, ClassLoader loader)
+      throws IOException {
+    super(in);
+    this.loader = loader;
+  }
+
+  @Override
+  protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+      ClassNotFoundException {
+    try {
+      return Class.forName(desc.getName(), false, loader);
+    } catch (ClassNotFoundException e) {
+      return super.resolveClass(desc);
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+
+/**
+ * Identifies the host of the client on whose behalf the current thread is
+ * making a call.  For calls made through RMI, this is the host reported by
+ * RMI.  Transports that do not use RMI (e.g., {@link NioTaskServer}) set
+ * the host for the thread while processing a call.
+ * @author Brad Kimmel
+ */
+final class ClientHost {
+
+  /** The client hosts set by transports other than RMI. */
+  private static final ThreadLocal<String> hosts = new ThreadLocal<String>();
+
+  /**
+   * Gets the host of the client for the current call.
+   * @return The host of the client for the current call, or
+   *     <code>null</code> if the current thread is not processing a call.
+   */
+  public static String get() {
+    String host = hosts.get();
+    if (host != null) {
+      return host;
+    }
+    try {
+      return RemoteServer.getClientHost();
+    } catch (ServerNotActiveException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Sets the host of the client for calls made on this thread.
+   * @param host The host of the client.
+   */
+  public static void set(String host) {
+    hosts.set(host);
+  }
+
+  /**
+   * Removes the host of the client for this thread.
+   */
+  public static void clear() {
+    hosts.remove();
+  }
+
+  /** This constructor is private to prevent instances from being created. */
+  private ClientHost() {}
+
+}
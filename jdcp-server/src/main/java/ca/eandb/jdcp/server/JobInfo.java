@@ -97,29 +97,43 @@ final class JobInfo {
     return worker;
   }
 
+  /**
+   * Releases the task worker and cached class definitions held for this job
+   * once it has been completed.
+   */
+  public synchronized void release() {
+    worker = null;
+    classCache.release();
+  }
+
   public void submitTaskResults(int taskId, Serialized<Object> results) {
     service.submitTaskResults(id, taskId, results);
-    activeTaskIds.remove(taskId);
+    removeTask(taskId);
   }
 
   public void reportException(int taskId, Exception e) {
     service.reportException(id, taskId, e);
   }
 
-  public boolean isTaskComplete(int taskId) {
+  public synchronized boolean isTaskComplete(int taskId) {
     return !activeTaskIds.contains(taskId);
   }
 
-  public void registerTask(int taskId) {
+  public synchronized void registerTask(int taskId) {
     activeTaskIds.add(taskId);
   }
 
-  public void removeTask(int taskId) {
+  public synchronized void removeTask(int taskId) {
     activeTaskIds.remove(taskId);
   }
 
-  public Set<Integer> getActiveTasks() {
-    return activeTaskIds;
+  public synchronized int[] getActiveTasks() {
+    int[] taskIds = new int[activeTaskIds.size()];
+    int i = 0;
+    for (int taskId : activeTaskIds) {
+      taskIds[i++] = taskId;
+    }
+    return taskIds;
   }
 
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes messages to a job's log file in the background.  The log file is
+ * kept open while the job is running.  Exceptions are fingerprinted by
+ * their types and stack traces, so that only the first occurrence of each
+ * distinct exception is written in full.  Repeats are counted and
+ * summarized periodically.  This class is thread-safe.
+ * @author Brad Kimmel
+ */
+final class JobLog {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(JobLog.class);
+
+  /**
+   * The minimum amount of time (in milliseconds) between summaries of
+   * repeated exceptions.
+   */
+  private static final long SUMMARY_INTERVAL = 60 * 1000;
+
+  /**
+   * The maximum number of distinct exceptions to keep track of.  Further
+   * distinct exceptions are counted, but not written.
+   */
+  private static final int MAX_FINGERPRINTS = 256;
+
+  /**
+   * A message waiting to be written to the log.
+   */
+  private static final class Record {
+
+    /** The time at which the message was logged. */
+    final Date time = new Date();
+
+    /** The message. */
+    final String message;
+
+    /**
+     * The exception to write with the message, or <code>null</code> if
+     * there is none.
+     */
+    final Throwable exception;
+
+    /**
+     * The fingerprint of <code>exception</code>, or <code>null</code> if
+     * there is no exception.
+     */
+    final Fingerprint fingerprint;
+
+    /**
+     * Creates a new <code>Record</code>.
+     * @param message The message.
+     * @param exception The exception to write with the message, or
+     *     <code>null</code> if there is none.
+     * @param fingerprint The fingerprint of <code>exception</code>, or
+     *     <code>null</code> if there is no exception.
+     */
+    Record(String message, Throwable exception, Fingerprint fingerprint) {
+      this.message = message;
+      this.exception = exception;
+      this.fingerprint = fingerprint;
+    }
+
+  }
+
+  /**
+   * Identifies a distinct exception and counts its occurrences.
+   */
+  private static final class Fingerprint {
+
+    /** A short identifier for the exception to use in the log. */
+    final String id;
+
+    /** The number of times the exception has occurred. */
+    final AtomicInteger count = new AtomicInteger(0);
+
+    /**
+     * The number of occurrences that have been written to the log.  Guarded
+     * by the enclosing <code>JobLog</code>.
+     */
+    int reported = 0;
+
+    /**
+     * Creates a new <code>Fingerprint</code>.
+     * @param id A short identifier for the exception.
+     */
+    Fingerprint(String id) {
+      this.id = id;
+    }
+
+  }
+
+  /** The log file. */
+  private final File file;
+
+  /** The <code>Executor</code> to use to write to the log. */
+  private final Executor executor;
+
+  /** The messages waiting to be written. */
+  private final Queue<Record> pending = new ConcurrentLinkedQueue<Record>();
+
+  /** The distinct exceptions that have been logged, by signature. */
+  private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+
+  /** The total number of exceptions that have been logged. */
+  private final AtomicInteger exceptionCount = new AtomicInteger(0);
+
+  /**
+   * The number of exceptions that were not written because too many
+   * distinct exceptions were logged.
+   */
+  private final AtomicInteger untracked = new AtomicInteger(0);
+
+  /** A value indicating if pending messages are being written. */
+  private final AtomicBoolean writing = new AtomicBoolean(false);
+
+  /** Writes the pending messages to the log. */
+  private final Runnable writer = new Runnable() {
+    public void run() {
+      do {
+        try {
+          flush();
+        } finally {
+          writing.set(false);
+        }
+      } while (!pending.isEmpty() && writing.compareAndSet(false, true));
+    }
+  };
+
+  /**
+   * The time (in milliseconds) after which repeated exceptions are next to
+   * be summarized.
+   */
+  private volatile long nextSummary = 0;
+
+  /**
+   * The <code>PrintStream</code> for writing to the log file, or
+   * <code>null</code> if it has not been opened.  Guarded by
+   * <code>this</code>.
+   */
+  private PrintStream out = null;
+
+  /**
+   * A value indicating if the log has been closed.  Guarded by
+   * <code>this</code>.
+   */
+  private boolean closed = false;
+
+  /**
+   * A value indicating if an error occurred while writing to the log file.
+   * Guarded by <code>this</code>.
+   */
+  private boolean failed = false;
+
+  /**
+   * Creates a new <code>JobLog</code>.
+   * @param file The log file.
+   * @param executor The <code>Executor</code> to use to write to the log.
+   */
+  public JobLog(File file, Executor executor) {
+    this.file = file;
+    this.executor = executor;
+  }
+
+  /**
+   * Writes a message to the log.
+   * @param message The message to write.
+   */
+  public void log(String message) {
+    pending.add(new Record(message, null, null));
+    startWriter();
+  }
+
+  /**
+   * Writes a message and an exception to the log.  If the same exception
+   * has been logged before, it is only counted.
+   * @param message The message to write.
+   * @param exception The exception to write.
+   */
+  public void log(String message, Throwable exception) {
+    exceptionCount.incrementAndGet();
+
+    String signature = getSignature(exception);
+    Fingerprint fingerprint = fingerprints.get(signature);
+    if (fingerprint == null) {
+      if (fingerprints.size() >= MAX_FINGERPRINTS) {
+        untracked.incrementAndGet();
+        return;
+      }
+      Fingerprint created = new Fingerprint(
+          String.format("%08x", signature.hashCode()));
+      fingerprint = fingerprints.putIfAbsent(signature, created);
+      if (fingerprint == null) {
+        created.count.incrementAndGet();
+        pending.add(new Record(message, exception, created));
+        startWriter();
+        return;
+      }
+    }
+
+    fingerprint.count.incrementAndGet();
+    if (System.currentTimeMillis() >= nextSummary) {
+      startWriter();
+    }
+  }
+
+  /**
+   * Gets the total number of exceptions that have been logged.
+   * @return The total number of exceptions that have been logged.
+   */
+  public int getExceptionCount() {
+    return exceptionCount.get();
+  }
+
+  /**
+   * Gets the number of distinct exceptions that have been logged.
+   * @return The number of distinct exceptions that have been logged.
+   */
+  public int getDistinctExceptionCount() {
+    return fingerprints.size() + (untracked.get() > 0 ? 1 : 0);
+  }
+
+  /**
+   * Writes any pending messages and a summary of repeated exceptions, and
+   * closes the log file.  Messages logged after the log is closed are
+   * discarded.
+   * @return A value indicating if every message logged before the log was
+   *     closed was written to the log file.
+   */
+  public synchronized boolean close() {
+    if (closed) {
+      return !failed;
+    }
+    nextSummary = 0;
+    flush();
+    if (out != null) {
+      int total = exceptionCount.get();
+      if (total > 0) {
+        out.printf("%tc: Workers reported %d exception(s) (%d distinct).",
+            new Date(), total, getDistinctExceptionCount());
+        out.println();
+      }
+      out.close();
+      if (out.checkError()) {
+        failed = true;
+      }
+      out = null;
+    }
+    closed = true;
+    return !failed;
+  }
+
+  /**
+   * Starts writing pending messages, if that is not already in progress.
+   */
+  private void startWriter() {
+    if (writing.compareAndSet(false, true)) {
+      try {
+        executor.execute(writer);
+      } catch (RejectedExecutionException e) {
+        writer.run();
+      }
+    }
+  }
+
+  /**
+   * Writes the pending messages and, if it is due, a summary of repeated
+   * exceptions to the log.
+   */
+  private synchronized void flush() {
+    if (closed) {
+      pending.clear();
+      return;
+    }
+    try {
+      if (out == null) {
+        out = new PrintStream(new BufferedOutputStream(
+            new FileOutputStream(file, true)));
+      }
+
+      Record record;
+      while ((record = pending.poll()) != null) {
+        out.printf("%tc: %s", record.time, record.message);
+        out.println();
+        if (record.exception != null) {
+          out.printf("[Exception %s]", record.fingerprint.id);
+          out.println();
+          record.exception.printStackTrace(out);
+          record.fingerprint.reported++;
+        }
+      }
+
+      long now = System.currentTimeMillis();
+      if (now >= nextSummary) {
+        for (Fingerprint fingerprint : fingerprints.values()) {
+          int count = fingerprint.count.get();
+          if (count > fingerprint.reported) {
+            out.printf("%tc: Exception %s repeated %d more time(s) (%d total).",
+                new Date(now), fingerprint.id, count - fingerprint.reported,
+                count);
+            out.println();
+            fingerprint.reported = count;
+          }
+        }
+        nextSummary = now + SUMMARY_INTERVAL;
+      }
+
+      out.flush();
+      if (out.checkError()) {
+        throw new IOException("Error writing to " + file.getPath());
+      }
+    } catch (IOException e) {
+      failed = true;
+      logger.error("Unable to write to job log file.", e);
+    }
+  }
+
+  /**
+   * Computes a signature identifying an exception by its type and stack
+   * trace, including those of its causes.  Messages are excluded, as they
+   * often vary between occurrences of the same problem.
+   * @param exception The exception.
+   * @return The signature for the exception.
+   */
+  private static String getSignature(Throwable exception) {
+    StringBuilder signature = new StringBuilder();
+    for (Throwable t = exception; t != null; t = t.getCause()) {
+      signature.append(t.getClass().getName()).append('\n');
+      for (StackTraceElement frame : t.getStackTrace()) {
+        signature.append(frame.getClassName()).append('.')
+            .append(frame.getMethodName()).append(':')
+            .append(frame.getLineNumber()).append('\n');
+      }
+      if (t.getCause() == t) {
+        break;
+      }
+    }
+    return signature.toString();
+  }
+
+}
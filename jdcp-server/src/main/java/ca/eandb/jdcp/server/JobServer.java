@@ -25,34 +25,59 @@
 
 package ca.eandb.jdcp.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.rmi.RemoteException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.Random;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Deflater;
 
 import javax.sql.DataSource;
 
@@ -92,12 +117,148 @@ public final class JobServer implements JobService {
    */
   private static final int DEFAULT_IDLE_SECONDS = 10;
 
+  /**
+   * The <code>TaskDescription</code> to use to notify a worker that its wait
+   * for tasks has timed out, and that it may request tasks again at once.
+   */
+  private static final TaskDescription RETRY_TASK = new TaskDescription(null, 0, 0);
+
+  /**
+   * The maximum amount of time (in milliseconds) to wait between checks for
+   * tasks while a request is waiting for tasks.  Tasks from registered
+   * <code>TaskService</code>s do not trigger notification, so they are only
+   * discovered by checking.
+   */
+  private static final long TASK_WAIT_RECHECK_INTERVAL = 1000;
+
+  /**
+   * The default maximum amount of time (in milliseconds) for which a
+   * request may wait for tasks.
+   */
+  public static final long DEFAULT_MAX_TASK_WAIT = 30000;
+
+  /**
+   * The default maximum number of requests that may wait for tasks at
+   * once.
+   */
+  public static final int DEFAULT_MAX_TASK_WAITERS = 32;
+
+  /**
+   * The default maximum number of uploads of task results that may be in
+   * progress at once for each job.
+   */
+  public static final int DEFAULT_MAX_UPLOADS_PER_JOB = 16;
+
+  /**
+   * The default number of tasks to generate ahead of dispatch for each job.
+   */
+  public static final int DEFAULT_TASK_BUFFER_DEPTH = 4;
+
+  /**
+   * The default interval (in seconds) at which to checkpoint running jobs.
+   */
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 5 * 60;
+
+  /**
+   * The name of the file in a job's working directory to which the job is
+   * checkpointed.
+   */
+  private static final String CHECKPOINT_FILE_NAME = ".checkpoint";
+
+  /**
+   * The name of the file in a job's working directory to which a new
+   * checkpoint is written before it replaces the previous one.
+   */
+  private static final String CHECKPOINT_TEMP_FILE_NAME = ".checkpoint.tmp";
+
+  /** The version of the checkpoint file format. */
+  private static final int CHECKPOINT_VERSION = 3;
+
+  /**
+   * The version of the checkpoint file format in which the whole job was
+   * serialized at each checkpoint, along with the state saved by the job.
+   */
+  private static final int CHECKPOINT_VERSION_JOB_OBJECT = 2;
+
+  /**
+   * The version of the checkpoint file format in which the payloads of
+   * outstanding tasks were written as objects.
+   */
+  private static final int CHECKPOINT_VERSION_OBJECT_PAYLOADS = 1;
+
+  /**
+   * The prefix of the names of the files in a job's working directory to
+   * which results accepted since the last checkpoint are journaled.  Each
+   * checkpoint starts a new journal whose name is this prefix followed by
+   * a period and a generation number.  A journal with no generation number
+   * was written alongside a checkpoint in an earlier format.
+   */
+  private static final String JOURNAL_FILE_NAME = ".journal";
+
+  /**
+   * The default amount of time (in milliseconds) to wait for more results
+   * to be accepted before syncing a job's result journal.
+   */
+  public static final long DEFAULT_JOURNAL_COMMIT_INTERVAL = 10;
+
+  /**
+   * The default maximum number of bytes of accepted results to hold in
+   * memory for each job before spilling them to disk.
+   */
+  public static final long DEFAULT_RESULT_MEMORY_BUDGET = 64L * 1024L * 1024L;
+
+  /**
+   * The name of the file in a job's working directory to which accepted
+   * results are spilled when the job's memory budget is exhausted.
+   */
+  private static final String RESULT_SPILL_FILE_NAME = ".results";
+
+  /**
+   * The prefix for the names of the files in a job's working directory in
+   * which the payloads of outstanding tasks are stored.
+   */
+  private static final String PAYLOAD_FILE_PREFIX = ".payload.";
+
+  /**
+   * The prefix for the names of the files in a job's working directory to
+   * which task results being uploaded in chunks are written.
+   */
+  private static final String UPLOAD_FILE_PREFIX = ".upload.";
+
+  /**
+   * The amount of time (in milliseconds) after which an upload of task
+   * results that has not received a chunk is abandoned.
+   */
+  private static final long UPLOAD_TIMEOUT = 10L * 60L * 1000L;
+
+  /**
+   * The estimated amount of heap (in bytes) used by an active job in
+   * addition to the job itself, for its class loader, task worker and
+   * bookkeeping.
+   */
+  private static final long JOB_HEAP_OVERHEAD = 1024L * 1024L;
+
+  /**
+   * The factor by which the serialized size of a job is multiplied to
+   * estimate the amount of heap used by the deserialized job.
+   */
+  private static final int JOB_HEAP_EXPANSION_FACTOR = 4;
+
+  /**
+   * The suffix to append to the name of a job's results archive while it
+   * is being written.
+   */
+  private static final String PARTIAL_OUTPUT_SUFFIX = ".part";
+
+  /**
+   * The default amount of time (in milliseconds) over which changes to the
+   * progress of a job are coalesced into a single status event.
+   */
+  public static final long DEFAULT_STATUS_COALESCING_WINDOW = 250;
+
   /** The <code>Logger</code> for this class. */
   private static final Logger logger = Logger.getLogger(JobServer.class);
 
-  /** The <code>Random</code> number generator (for generating task IDs). */
-  private static final Random rand = new Random();
-
   /**
    * The <code>ProgressMonitorFactory</code> to use to create
    * <code>ProgressMonitor</code>s for reporting overall progress of
@@ -129,7 +290,7 @@ public final class JobServer implements JobService {
    * by the corresponding job ID.
    * @see ca.eandb.jdcp.server.JobServer.ScheduledJob
    */
-  private final Map<UUID, ScheduledJob> jobs = Collections.synchronizedMap(new HashMap<UUID, ScheduledJob>());
+  private final Map<UUID, ScheduledJob> jobs = new ConcurrentHashMap<UUID, ScheduledJob>();
 
   /** An <code>Executor</code> to use to run asynchronous tasks. */
   private final Executor executor;
@@ -138,22 +299,152 @@ public final class JobServer implements JobService {
    * The <code>TaskDescription</code> to use to notify workers that no tasks
    * are available to be performed.
    */
-  private TaskDescription idleTask = new TaskDescription(null, 0, DEFAULT_IDLE_SECONDS);
+  private volatile TaskDescription idleTask = new TaskDescription(null, 0, DEFAULT_IDLE_SECONDS);
+
+  /** The lock to wait on for new tasks to be scheduled. */
+  private final Object taskLock = new Object();
+
+  /**
+   * The number of times that tasks have been scheduled while requests were
+   * waiting.  This is guarded by {@link #taskLock}.
+   */
+  private long taskGeneration = 0;
+
+  /** The number of requests waiting for new tasks to be scheduled. */
+  private final AtomicInteger taskWaiters = new AtomicInteger();
+
+  /**
+   * The maximum amount of time (in milliseconds) for which a request may
+   * wait for tasks.
+   * @see #setMaxTaskWait(long, int)
+   */
+  private volatile long maxTaskWait = DEFAULT_MAX_TASK_WAIT;
+
+  /**
+   * The maximum number of requests that may wait for tasks at once.
+   * @see #setMaxTaskWait(long, int)
+   */
+  private volatile int maxTaskWaiters = DEFAULT_MAX_TASK_WAITERS;
+
+  /**
+   * The maximum number of uploads of task results that may be in progress
+   * at once for each job.
+   * @see #setMaxUploadsPerJob(int)
+   */
+  private volatile int maxUploadsPerJob = DEFAULT_MAX_UPLOADS_PER_JOB;
+
+  /** The listeners to notify when new tasks are scheduled. */
+  private final List<TaskAvailabilityListener> taskListeners = new CopyOnWriteArrayList<TaskAvailabilityListener>();
+
+  /**
+   * The maximum number of tasks to generate in advance for each job.
+   * @see #setTaskBufferDepth(int)
+   */
+  private volatile int taskBufferDepth = DEFAULT_TASK_BUFFER_DEPTH;
+
+  /**
+   * The amount of time (in milliseconds) to wait for more results to be
+   * accepted before syncing a job's result journal.
+   * @see #setJournalCommitInterval(long)
+   */
+  private volatile long journalCommitInterval = DEFAULT_JOURNAL_COMMIT_INTERVAL;
+
+  /**
+   * The maximum number of bytes of accepted results to hold in memory for
+   * each job.
+   * @see #setResultMemoryBudget(long)
+   */
+  private volatile long resultMemoryBudget = DEFAULT_RESULT_MEMORY_BUDGET;
 
   private static final long POLLING_INTERVAL = 10;
 
   private static final TimeUnit POLLING_UNITS = TimeUnit.SECONDS;
 
-  private final Queue<ServiceInfo> services = new LinkedList<ServiceInfo>();
+  /**
+   * The registered <code>TaskService</code>s, in the order in which they
+   * are to be asked for tasks.
+   */
+  private final Queue<ServiceInfo> services = new ConcurrentLinkedQueue<ServiceInfo>();
+
+  /**
+   * A <code>Map</code> identifying the registered <code>TaskService</code>
+   * that is hosting each job for which a task has been handed out.
+   */
+  private final Map<UUID, ServiceInfo> routes = new ConcurrentHashMap<UUID, ServiceInfo>();
+
+  private final Map<String, ServiceInfo> hosts = new ConcurrentHashMap<String, ServiceInfo>();
 
-  private final Map<UUID, ServiceInfo> routes = Collections.synchronizedMap(new WeakHashMap<UUID, ServiceInfo>());
+  /** The uploads of task results in progress, by upload ID. */
+  private final Map<Long, ResultUpload> uploads = new ConcurrentHashMap<Long, ResultUpload>();
 
-  private final Map<String, ServiceInfo> hosts = Collections.synchronizedMap(new HashMap<String, ServiceInfo>());
+  /** The ID to assign to the next upload of task results. */
+  private final AtomicLong nextUploadId = new AtomicLong(1);
 
   private final ScheduledExecutorService poller = Executors.newScheduledThreadPool(1, new BackgroundThreadFactory());
 
+  /**
+   * The <code>ScheduledExecutorService</code> to use to publish job
+   * status updates, so that they are not held up behind polling or
+   * checkpoints.
+   */
+  private final ScheduledExecutorService statusPublisher = Executors.newScheduledThreadPool(1, new BackgroundThreadFactory());
+
+  /** The number of threads to use to compress job results. */
+  private final int compressionThreads = Runtime.getRuntime().availableProcessors();
+
+  /** The <code>Executor</code> to use to compress job results. */
+  private final Executor compressor = Executors.newFixedThreadPool(compressionThreads, new BackgroundThreadFactory());
+
+  /**
+   * A value indicating if job results are to be compressed when they are
+   * archived.
+   * @see #setCompressOutput(boolean)
+   */
+  private volatile boolean compressOutput = true;
+
+  /**
+   * The amount of time (in milliseconds) over which changes to the progress
+   * of a job are coalesced into a single status event.
+   * @see #setStatusCoalescingWindow(long)
+   */
+  private volatile long statusCoalescingWindow = DEFAULT_STATUS_COALESCING_WINDOW;
+
   private final DataSource dataSource = null;
 
+  /**
+   * The scheduled task that periodically checkpoints running jobs, or
+   * <code>null</code> if periodic checkpoints are disabled.
+   * @see #setCheckpointInterval(long)
+   */
+  private ScheduledFuture<?> checkpointer = null;
+
+  /**
+   * The jobs that have been submitted but not yet admitted, in the order in
+   * which they were submitted.  Access must be synchronized on this queue.
+   * @see #admitJobs()
+   */
+  private final Queue<ScheduledJob> admissionQueue = new LinkedList<ScheduledJob>();
+
+  /**
+   * The maximum number of admitted jobs (zero for no limit).
+   * @see #setMaxActiveJobs(int)
+   */
+  private volatile int maxActiveJobs = 0;
+
+  /**
+   * The maximum number of outstanding tasks across all admitted jobs at
+   * which another job may be admitted (zero for no limit).
+   * @see #setMaxOutstandingTasks(int)
+   */
+  private volatile int maxOutstandingTasks = 0;
+
+  /**
+   * The maximum estimated amount of heap (in bytes) to be used by admitted
+   * jobs (zero for no limit).
+   * @see #setMaxEstimatedHeap(long)
+   */
+  private volatile long maxEstimatedHeap = 0;
+
   /**
    * Creates a new <code>JobServer</code>.
    * @param outputDirectory The directory to write job results to.
@@ -179,11 +470,24 @@ public final class JobServer implements JobService {
     Runnable poll = new Runnable() {
       public void run() {
         pollActiveTasks();
+        expireUploads();
+        admitJobs();
       }
     };
     poller.scheduleAtFixedRate(poll, POLLING_INTERVAL,
         POLLING_INTERVAL, POLLING_UNITS);
 
+    Runnable risk = new Runnable() {
+      public void run() {
+        updateJobsAtRisk();
+      }
+    };
+    statusPublisher.scheduleAtFixedRate(risk, POLLING_INTERVAL,
+        POLLING_INTERVAL, POLLING_UNITS);
+
+    restoreJobs();
+    setCheckpointInterval(DEFAULT_CHECKPOINT_INTERVAL);
+
     logger.info("JobServer created");
   }
 
@@ -205,650 +509,2713 @@ public final class JobServer implements JobService {
     for (ServiceInfo info : hosts.values()) {
       info.pollActiveTasks();
     }
+
+    // drop routes to jobs that the remote service no longer knows about.
+    Iterator<Entry<UUID, ServiceInfo>> i = routes.entrySet().iterator();
+    while (i.hasNext()) {
+      Entry<UUID, ServiceInfo> entry = i.next();
+      if (!entry.getValue().hasJob(entry.getKey())) {
+        i.remove();
+      }
+    }
   }
 
-  @Override
-  public UUID createJob(String description) throws SecurityException {
-    ProgressMonitor monitor = monitorFactory.createProgressMonitor(description);
-    ScheduledJob sched = new ScheduledJob(description, monitor);
-    jobs.put(sched.id, sched);
-    monitor.addCancelListener(new JobCancelListener(sched.id));
+  /**
+   * Flags the status of each job according to whether the
+   * <code>TaskScheduler</code> projects that it will miss its deadline.
+   */
+  private void updateJobsAtRisk() {
+    Set<UUID> atRisk = new HashSet<UUID>(scheduler.getJobsAtRisk());
+    for (ScheduledJob sched : jobs.values()) {
+      sched.setDeadlineAtRisk(atRisk.contains(sched.id));
+    }
+  }
 
+  /**
+   * Sets the maximum number of tasks to generate in advance for each job.
+   * Tasks are generated by a background producer on this server's
+   * <code>Executor</code>, so that a job whose <code>getNextTask</code>
+   * method is expensive does not add that cost to every worker request.
+   * @param depth The maximum number of tasks to buffer per job.
+   * @throws IllegalArgumentException If <code>depth &lt; 1</code>.
+   */
+  public void setTaskBufferDepth(int depth) throws IllegalArgumentException {
+    if (depth < 1) {
+      throw new IllegalArgumentException("depth must be positive");
+    }
+    taskBufferDepth = depth;
     if (logger.isInfoEnabled()) {
-      logger.info("Job created (" + sched.id.toString() + "): " + description);
+      logger.info("Task buffer depth set to " + Integer.toString(depth));
     }
-
-    return sched.id;
   }
 
-  @Override
-  public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
-      throws IllegalArgumentException, SecurityException, ClassNotFoundException, JobExecutionException {
-    ScheduledJob sched = jobs.get(jobId);
-    if (sched == null || sched.job != null) {
-      throw new IllegalArgumentException("No pending job with provided Job ID");
+  /**
+   * Limits the requests that wait for tasks to become available.  Each
+   * waiting request occupies the thread on which it was received, so the
+   * wait is bounded, and requests beyond the limit are answered at once
+   * instead of waiting.
+   * @param millis The maximum amount of time (in milliseconds) for which a
+   *     request may wait for tasks.
+   * @param waiters The maximum number of requests that may wait at once
+   *     (zero to disable waiting).
+   * @throws IllegalArgumentException If <code>millis &lt; 0</code> or
+   *     <code>waiters &lt; 0</code>.
+   * @see #requestTasks(int, UUID[], long)
+   */
+  public void setMaxTaskWait(long millis, int waiters)
+      throws IllegalArgumentException {
+    if (millis < 0) {
+      throw new IllegalArgumentException("millis must be non-negative");
     }
-
-    try {
-      ServerUtil.setHostService(sched);
-      sched.initializeJob(job);
-      sched.scheduleNextTask();
-    } catch (JobExecutionException e) {
-      handleJobExecutionException(e, jobId);
-      throw e;
-    } finally {
-      ServerUtil.clearHostService();
+    if (waiters < 0) {
+      throw new IllegalArgumentException("waiters must be non-negative");
+    }
+    maxTaskWait = millis;
+    maxTaskWaiters = waiters;
+    if (logger.isInfoEnabled()) {
+      logger.info(String.format("Maximum task wait set to %d ms for %d requests",
+          millis, waiters));
     }
+  }
 
+  /**
+   * Limits the uploads of task results in chunks that may be in progress at
+   * once for each job.  Each upload holds a file open in the job's working
+   * directory until it is committed or abandoned.  Beyond the limit,
+   * workers are asked to submit their results in a single call instead.
+   * @param uploads The maximum number of uploads per job (zero to disable
+   *     uploads in chunks).
+   * @throws IllegalArgumentException If <code>uploads &lt; 0</code>.
+   * @see #beginTaskResultsUpload(UUID, int)
+   */
+  public void setMaxUploadsPerJob(int uploads)
+      throws IllegalArgumentException {
+    if (uploads < 0) {
+      throw new IllegalArgumentException("uploads must be non-negative");
+    }
+    maxUploadsPerJob = uploads;
     if (logger.isInfoEnabled()) {
-      logger.info("Pending job submitted (" + jobId.toString() + ")");
+      logger.info("Maximum uploads per job set to " + Integer.toString(uploads));
     }
   }
 
-  @Override
-  public UUID submitJob(Serialized<ParallelizableJob> job, String description)
-      throws SecurityException, ClassNotFoundException, JobExecutionException {
-    ProgressMonitor monitor = monitorFactory.createProgressMonitor(description);
-    ScheduledJob sched = new ScheduledJob(description, monitor);
-    jobs.put(sched.id, sched);
-    monitor.addCancelListener(new JobCancelListener(sched.id));
+  /**
+   * Sets the interval at which running jobs are checkpointed to their
+   * working directories.  Jobs that have been checkpointed are restored
+   * when a <code>JobServer</code> is created with the same output
+   * directory.  Only jobs that support {@link
+   * ca.eandb.jdcp.job.LifeCycleManageable#saveState(java.io.ObjectOutput)}
+   * are checkpointed.
+   * @param seconds The number of seconds between checkpoints (zero to
+   *     disable periodic checkpoints).
+   * @throws IllegalArgumentException If <code>seconds &lt; 0</code>.
+   * @see #checkpointJobs()
+   */
+  public synchronized void setCheckpointInterval(long seconds)
+      throws IllegalArgumentException {
+    if (seconds < 0) {
+      throw new IllegalArgumentException("seconds must be non-negative");
+    }
+    if (checkpointer != null) {
+      checkpointer.cancel(false);
+      checkpointer = null;
+    }
+    if (seconds > 0) {
+      Runnable checkpoint = new Runnable() {
+        public void run() {
+          checkpointJobs();
+        }
+      };
+      checkpointer = poller.scheduleWithFixedDelay(checkpoint, seconds,
+          seconds, TimeUnit.SECONDS);
+    }
+    if (logger.isInfoEnabled()) {
+      logger.info("Checkpoint interval set to " + Long.toString(seconds));
+    }
+  }
 
-    try {
-      ServerUtil.setHostService(sched);
-      sched.initializeJob(job);
-      sched.scheduleNextTask();
-    } catch (JobExecutionException e) {
-      handleJobExecutionException(e, sched.id);
-      throw e;
-    } finally {
-      ServerUtil.clearHostService();
+  /**
+   * Sets the maximum amount of memory to use for each job to hold results
+   * that have been accepted but not yet applied to the job.  Results are
+   * applied to each job in the order they were accepted by a single
+   * thread.  Results that arrive while the budget is exhausted are spilled
+   * to the job's working directory until they can be applied.
+   * @param bytes The maximum number of bytes of results to hold in memory
+   *     per job.
+   * @throws IllegalArgumentException If <code>bytes &lt; 0</code>.
+   */
+  public void setResultMemoryBudget(long bytes)
+      throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("bytes must be non-negative");
+    }
+    resultMemoryBudget = bytes;
+    for (ScheduledJob sched : jobs.values()) {
+      sched.resultQueue.setMemoryBudget(bytes);
     }
+    if (logger.isInfoEnabled()) {
+      logger.info("Result memory budget set to " + Long.toString(bytes));
+    }
+  }
 
+  /**
+   * Sets whether the results of completed jobs are compressed when they are
+   * archived to the output directory.  Files are compressed in parallel
+   * chunks.  Files whose extensions indicate that they are already
+   * compressed (e.g., .png, .gz) are always stored uncompressed.
+   * @param compress A value indicating if job results are to be
+   *     compressed (if <code>false</code>, all files are stored).
+   */
+  public void setCompressOutput(boolean compress) {
+    compressOutput = compress;
     if (logger.isInfoEnabled()) {
-      logger.info("Job submitted (" + sched.id.toString() + "): "
-          + description);
+      logger.info("Output compression " + (compress ? "enabled" : "disabled"));
     }
+  }
 
-    return sched.id;
+  /**
+   * Sets the amount of time over which changes to the progress of a job are
+   * coalesced.  After a status event is published for a job, further
+   * changes that affect only the job's progress are held until this
+   * interval has elapsed, and then published as a single event.  Only the
+   * latest progress is kept, and it is forwarded to the job's
+   * <code>ProgressMonitor</code> and the <code>TaskScheduler</code> at the
+   * same rate.  Other changes, such as a job completing or being
+   * cancelled, are published immediately, along with any held progress.
+   * @param millis The number of milliseconds over which to coalesce
+   *     progress changes (zero to publish every change).
+   * @throws IllegalArgumentException If <code>millis &lt; 0</code>.
+   */
+  public void setStatusCoalescingWindow(long millis)
+      throws IllegalArgumentException {
+    if (millis < 0) {
+      throw new IllegalArgumentException("millis must be non-negative");
+    }
+    statusCoalescingWindow = millis;
+    if (logger.isInfoEnabled()) {
+      logger.info("Status coalescing window set to " + Long.toString(millis));
+    }
   }
 
-  @Override
-  public void cancelJob(UUID jobId) throws IllegalArgumentException, SecurityException {
-    if (!jobs.containsKey(jobId)) {
+  /**
+   * Gets the number of results that have been accepted for a job but not
+   * yet applied to it.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @return The number of results waiting to be applied to the job.
+   * @throws IllegalArgumentException If there is no job with the specified
+   *     ID.
+   */
+  public int getPendingResultCount(UUID jobId)
+      throws IllegalArgumentException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
       throw new IllegalArgumentException("No job with provided Job ID");
     }
+    return sched.resultQueue.size();
+  }
 
-    removeScheduledJob(jobId, false);
+  /**
+   * Gets the average time between accepting results for a job and applying
+   * them to the job.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @return The average time (in milliseconds) between accepting results
+   *     and applying them, or a negative value if no results have been
+   *     applied.
+   * @throws IllegalArgumentException If there is no job with the specified
+   *     ID.
+   */
+  public double getResultLatency(UUID jobId) throws IllegalArgumentException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
+    }
+    return sched.resultQueue.getLatency();
   }
 
-  @Override
-  public Serialized<TaskWorker> getTaskWorker(UUID jobId)
-      throws IllegalArgumentException, SecurityException {
+  /**
+   * Gets the number of exceptions that workers have reported for a job.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @return The number of exceptions reported for the job.
+   * @throws IllegalArgumentException If there is no job with the specified
+   *     ID.
+   */
+  public int getExceptionCount(UUID jobId) throws IllegalArgumentException {
     ScheduledJob sched = jobs.get(jobId);
-    if (sched != null) {
-      return sched.worker;
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
     }
+    return sched.log.getExceptionCount();
+  }
 
-    ServiceInfo info = routes.get(jobId);
-    if (info != null) {
-      return info.getTaskWorker(jobId);
+  /**
+   * Gets the number of distinct exceptions that workers have reported for
+   * a job.  Exceptions are distinguished by their types and stack traces.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @return The number of distinct exceptions reported for the job.
+   * @throws IllegalArgumentException If there is no job with the specified
+   *     ID.
+   */
+  public int getDistinctExceptionCount(UUID jobId)
+      throws IllegalArgumentException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
     }
+    return sched.log.getDistinctExceptionCount();
+  }
 
-    throw new IllegalArgumentException("No submitted job with provided Job ID");
+  /**
+   * Gets a value indicating if running jobs are checkpointed periodically.
+   * @return A value indicating if running jobs are checkpointed.
+   * @see #setCheckpointInterval(long)
+   */
+  private synchronized boolean isCheckpointEnabled() {
+    return checkpointer != null;
   }
 
-  @Override
-  public synchronized TaskDescription requestTask() throws SecurityException {
-    TaskDescription taskDesc = scheduler.getNextTask();
-    if (taskDesc != null) {
-      ScheduledJob sched = jobs.get(taskDesc.getJobId());
-      try {
-        ServerUtil.setHostService(sched);
-        sched.scheduleNextTask();
-      } catch (JobExecutionException e) {
-        handleJobExecutionException(e, sched.id);
-      } finally {
-        ServerUtil.clearHostService();
-      }
-      return taskDesc;
+  /**
+   * Sets the amount of time to wait for more task results to arrive before
+   * syncing a job's result journal to disk.  Results accepted between
+   * checkpoints are journaled before the worker's submission returns, so
+   * that they may be replayed if the server stops.  Results arriving
+   * within this interval are synced together, so a longer interval trades
+   * submission latency for fewer disk syncs.  Changes apply to journals
+   * started after the next checkpoint.
+   * @param millis The number of milliseconds to wait (zero to sync as soon
+   *     as possible).
+   * @throws IllegalArgumentException If <code>millis &lt; 0</code>.
+   */
+  public void setJournalCommitInterval(long millis)
+      throws IllegalArgumentException {
+    if (millis < 0) {
+      throw new IllegalArgumentException("millis must be non-negative");
+    }
+    journalCommitInterval = millis;
+    if (logger.isInfoEnabled()) {
+      logger.info("Journal commit interval set to " + Long.toString(millis));
     }
+  }
 
-    int n = services.size();
-    if (n > 0) {
-      ServiceInfo[] serv;
-      synchronized (this) {
-        serv = services.toArray(new ServiceInfo[n]);
-      }
-      for (ServiceInfo info : serv) {
-        try {
-          synchronized (this) {
-            if (services.remove(info)) {
-              services.add(info);
-            }
-          }
-          TaskDescription task = info.requestTask();
-          if (task != null) {
-            UUID jobId = task.getJobId();
-            routes.put(jobId, info);
-            return task;
-          }
-        } catch (Exception e) {
-          logger.error("Failed to request task from server", e);
-        }
-      }
+  /**
+   * Sets the maximum number of jobs that may be active at once.  Jobs
+   * submitted while the server is at capacity remain in the
+   * {@link JobState#NEW} state and are started, in the order in which they
+   * were submitted, as capacity becomes available.
+   * @param max The maximum number of active jobs (zero for no limit).
+   * @throws IllegalArgumentException If <code>max &lt; 0</code>.
+   */
+  public void setMaxActiveJobs(int max) throws IllegalArgumentException {
+    if (max < 0) {
+      throw new IllegalArgumentException("max must be non-negative");
+    }
+    maxActiveJobs = max;
+    if (logger.isInfoEnabled()) {
+      logger.info("Maximum active jobs set to " + Integer.toString(max));
     }
+    admitJobs();
+  }
 
-    return idleTask;
+  /**
+   * Sets the number of outstanding tasks, across all active jobs, at which
+   * no further jobs are started.
+   * @param max The maximum number of outstanding tasks (zero for no limit).
+   * @throws IllegalArgumentException If <code>max &lt; 0</code>.
+   * @see #setMaxActiveJobs(int)
+   */
+  public void setMaxOutstandingTasks(int max) throws IllegalArgumentException {
+    if (max < 0) {
+      throw new IllegalArgumentException("max must be non-negative");
+    }
+    maxOutstandingTasks = max;
+    if (logger.isInfoEnabled()) {
+      logger.info("Maximum outstanding tasks set to " + Integer.toString(max));
+    }
+    admitJobs();
   }
 
-  @Override
-  public void submitTaskResults(final UUID jobId, final int taskId,
-      final Serialized<Object> results) throws SecurityException {
-    ScheduledJob sched = jobs.get(jobId);
-    if (sched != null) {
-      try {
-        ServerUtil.setHostService(sched);
-        sched.submitTaskResults(taskId, results);
-      } finally {
-        ServerUtil.clearHostService();
-      }
-      return;
+  /**
+   * Sets the maximum amount of heap to be used by active jobs.  The heap
+   * used by a job is estimated from the size of the serialized job and of
+   * the results held in memory for it.  A job is not started if doing so
+   * would exceed this limit, unless no other jobs are active.
+   * @param bytes The maximum estimated heap, in bytes (zero for no limit).
+   * @throws IllegalArgumentException If <code>bytes &lt; 0</code>.
+   * @see #setMaxActiveJobs(int)
+   */
+  public void setMaxEstimatedHeap(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("bytes must be non-negative");
+    }
+    maxEstimatedHeap = bytes;
+    if (logger.isInfoEnabled()) {
+      logger.info("Maximum estimated heap set to " + Long.toString(bytes));
     }
+    admitJobs();
+  }
 
-    final ServiceInfo info = routes.get(jobId);
-    if (info != null) {
-      executor.execute(new Runnable() {
-        public void run() {
-          try {
-            info.submitTaskResults(jobId, taskId, results);
-          } catch (Exception e) {
-            logger.error("Cannot submit task results", e);
-          }
+  /**
+   * Gets the number of jobs that have been submitted but are waiting for
+   * capacity to become available.
+   * @return The number of queued jobs.
+   * @see #setMaxActiveJobs(int)
+   */
+  public int getQueuedJobCount() {
+    synchronized (admissionQueue) {
+      return admissionQueue.size();
+    }
+  }
+
+  /**
+   * Adds a listener to be notified when new tasks are scheduled.  This
+   * allows a transport to hold requests for tasks without tying up a
+   * thread for each of them.
+   * @param listener The <code>TaskAvailabilityListener</code> to notify.
+   * @see NioTaskServer
+   */
+  public void addTaskAvailabilityListener(TaskAvailabilityListener listener) {
+    taskListeners.add(listener);
+  }
+
+  /**
+   * Removes a listener added by
+   * {@link #addTaskAvailabilityListener(TaskAvailabilityListener)}.
+   * @param listener The <code>TaskAvailabilityListener</code> to remove.
+   */
+  public void removeTaskAvailabilityListener(TaskAvailabilityListener listener) {
+    taskListeners.remove(listener);
+  }
+
+  /**
+   * Notifies waiting requests and listeners that new tasks have been
+   * scheduled.  Only as many waiting requests are woken as there are new
+   * tasks.
+   * @param count The number of tasks that have been scheduled.
+   */
+  private void notifyTasksAvailable(int count) {
+    if (taskWaiters.get() > 0) {
+      synchronized (taskLock) {
+        taskGeneration++;
+        for (int i = 0; i < count; i++) {
+          taskLock.notify();
         }
-      });
+      }
+    }
+    for (TaskAvailabilityListener listener : taskListeners) {
+      listener.tasksAvailable(count);
     }
   }
 
-  @Override
-  public void reportException(final UUID jobId, final int taskId, final Exception e)
-      throws SecurityException, RemoteException {
-    ScheduledJob sched = jobs.get(jobId);
-    if (sched != null) {
-      sched.reportException(taskId, e);
+  /**
+   * Determines if there is capacity to start another job.  The caller must
+   * hold the lock on {@link #admissionQueue}.
+   * @param sched The <code>ScheduledJob</code> to be started.
+   * @return A value indicating if the job may be started.
+   */
+  private boolean hasCapacity(ScheduledJob sched) {
+    int active = 0;
+    int tasks = 0;
+    long heap = 0;
+    for (ScheduledJob other : jobs.values()) {
+      if (other.admitted) {
+        active++;
+        tasks += other.outstandingTasks.size();
+        heap += other.getEstimatedHeap();
+      }
+    }
+    if (active == 0) {
+      return true;
     }
+    int maxJobs = maxActiveJobs;
+    int maxTasks = maxOutstandingTasks;
+    long maxHeap = maxEstimatedHeap;
+    return (maxJobs == 0 || active < maxJobs)
+        && (maxTasks == 0 || tasks < maxTasks)
+        && (maxHeap == 0 || heap + sched.getEstimatedHeap(true) <= maxHeap);
+  }
+
+  /**
+   * Starts queued jobs, in the order in which they were submitted, while
+   * there is capacity to do so.
+   */
+  private void admitJobs() {
+    while (true) {
+      final ScheduledJob sched;
+      synchronized (admissionQueue) {
+        sched = admissionQueue.peek();
+        if (sched == null || !hasCapacity(sched)) {
+          return;
+        }
+        admissionQueue.remove();
+        sched.admitted = true;
+      }
+
+      final Serialized<ParallelizableJob> job = sched.pendingJob;
+      sched.pendingJob = null;
+      if (job == null || !jobs.containsKey(sched.id)) {
+        continue;
+      }
+
+      if (logger.isInfoEnabled()) {
+        logger.info("Job admitted (" + sched.id.toString() + ")");
+      }
 
-    final ServiceInfo info = routes.get(jobId);
-    if (info != null) {
       executor.execute(new Runnable() {
         public void run() {
           try {
-            info.reportException(jobId, taskId, e);
-          } catch (Exception e1) {
-            logger.error("Cannot report exception", e1);
+            startJob(sched, job);
+          } catch (ClassNotFoundException e) {
+            logger.error("Could not start job " + sched.id.toString(), e);
+            removeScheduledJob(sched.id, false);
+          } catch (JobExecutionException e) {
+            /* already handled by startJob. */
           }
         }
       });
     }
   }
 
-  @Override
-  public BitSet getFinishedTasks(UUID[] jobIds, int[] taskIds)
-      throws IllegalArgumentException, SecurityException, RemoteException {
-
-    if (jobIds == null || taskIds == null) {
-      return new BitSet(0);
-    }
-
-    if (jobIds.length != taskIds.length) {
-      throw new IllegalArgumentException("jobIds.length != taskIds.length");
+  /**
+   * Starts a submitted job if there is capacity to do so, or else queues
+   * it to be started when capacity becomes available.
+   * @param sched The <code>ScheduledJob</code> to start.
+   * @param job The serialized job.
+   * @return A value indicating if the job was started.
+   * @throws ClassNotFoundException If a class required by the job is
+   *     missing.
+   * @throws JobExecutionException If the job throws an exception.
+   */
+  private boolean admitJob(ScheduledJob sched,
+      Serialized<ParallelizableJob> job) throws ClassNotFoundException,
+      JobExecutionException {
+    sched.serializedSize = getSerializedSize(job);
+    synchronized (admissionQueue) {
+      if (!admissionQueue.isEmpty() || !hasCapacity(sched)) {
+        sched.pendingJob = job;
+        admissionQueue.add(sched);
+        sched.notifyStatusChanged("Waiting for server capacity");
+        return false;
+      }
+      sched.admitted = true;
     }
+    startJob(sched, job);
+    return true;
+  }
 
-    BitSet finished = new BitSet(jobIds.length);
-
-    for (int i = 0; i < jobIds.length; i++) {
-      UUID jobId = jobIds[i];
-      int taskId = taskIds[i];
-      if (taskId != 0) {
-        if (jobs.containsKey(jobId)) {
-          finished.set(i, jobId == null || !scheduler.contains(jobId, taskId));
-        } else {
-          ServiceInfo info = routes.get(jobId);
-          finished.set(i, (info == null) || info.isTaskComplete(jobId, taskId));
-        }
-      } else {
-        ScheduledJob sched = jobs.get(jobId);
-        if (sched != null) {
-          try {
-            finished.set(i, sched.job.isComplete());
-          } catch (JobExecutionException e) {
-            sched.reportException(0, e);
-          }
-        } else {
-          finished.set(i, !routes.containsKey(jobId));
-        }
+  /**
+   * Initializes an admitted job and schedules its first task.
+   * @param sched The <code>ScheduledJob</code> to start.
+   * @param job The serialized job.
+   * @throws ClassNotFoundException If a class required by the job is
+   *     missing.
+   * @throws JobExecutionException If the job throws an exception.
+   */
+  private void startJob(ScheduledJob sched, Serialized<ParallelizableJob> job)
+      throws ClassNotFoundException, JobExecutionException {
+    try {
+      ServerUtil.setHostService(sched);
+      sched.initializeJob(job);
+      if (isCheckpointEnabled()) {
+        sched.checkpoint();
       }
+      sched.scheduleNextTask();
+    } catch (JobExecutionException e) {
+      handleJobExecutionException(e, sched.id);
+      throw e;
+    } finally {
+      ServerUtil.clearHostService();
     }
+  }
 
-    return finished;
+  /**
+   * Gets the size of an object in serialized form.
+   * @param obj The <code>Serialized</code> object.
+   * @return The number of bytes required to serialize <code>obj</code>.
+   */
+  @SuppressWarnings("unchecked")
+  private static long getSerializedSize(Serialized<?> obj) {
+    return ResultJournal.encode((Serialized<Object>) obj).length;
+  }
 
+  /**
+   * Checkpoints all running jobs to their working directories.
+   * @see #setCheckpointInterval(long)
+   */
+  public void checkpointJobs() {
+    for (ScheduledJob sched : jobs.values()) {
+      sched.checkpoint();
+    }
   }
 
-  @Override
-  public byte[] getClassDefinition(String name, UUID jobId)
-      throws SecurityException {
-    ScheduledJob sched = jobs.get(jobId);
-    if (sched != null) {
-      ByteBuffer def = sched.classManager.getClassDefinition(name);
-      if (def.hasArray() && def.arrayOffset() == 0) {
-        return def.array();
-      } else {
-        byte[] bytes = new byte[def.remaining()];
-        def.get(bytes);
-        return bytes;
+  /**
+   * Restores the jobs that were checkpointed to the output directory.
+   */
+  private void restoreJobs() {
+    File[] dirs = outputDirectory.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    for (File dir : dirs) {
+      File file = new File(dir, CHECKPOINT_FILE_NAME);
+      if (file.isFile()) {
+        try {
+          restoreJob(UUID.fromString(dir.getName()), file);
+        } catch (Exception e) {
+          logger.error("Could not restore job from " + file.getPath(), e);
+        }
       }
     }
+  }
 
-    ServiceInfo info = routes.get(jobId);
-    if (info != null) {
-      return info.getClassDefinition(name, jobId);
-    }
+  /**
+   * Restores a job from a checkpoint and schedules its outstanding tasks.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @param file The checkpoint file.
+   * @throws IOException If an error occurs while reading the checkpoint.
+   * @throws ClassNotFoundException If a class required by the job is
+   *     missing.
+   * @throws JobExecutionException If the job throws an exception.
+   */
+  private void restoreJob(UUID jobId, File file) throws IOException,
+      ClassNotFoundException, JobExecutionException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    ScheduledJob sched;
+    try {
+      int version = in.readInt();
+      if (version != CHECKPOINT_VERSION
+          && version != CHECKPOINT_VERSION_JOB_OBJECT
+          && version != CHECKPOINT_VERSION_OBJECT_PAYLOADS) {
+        throw new IOException("Unrecognized checkpoint version");
+      }
+      String description = in.readUTF();
+      ChildClassManager child = classManager.getChildClassManager(in.readInt());
+      if (child == null) {
+        throw new IOException("Class definitions for job are missing");
+      }
 
-    throw new IllegalArgumentException("No job with provided Job ID");
-  }
+      ProgressMonitor monitor = monitorFactory.createProgressMonitor(description);
+      sched = new ScheduledJob(jobId, description, monitor, child);
+      sched.admitted = true;
+      sched.submitted.set(true);
+      sched.serializedSize = file.length();
+      try {
+        ServerUtil.setHostService(sched);
+        sched.restoreJob(in, version);
+      } finally {
+        ServerUtil.clearHostService();
+      }
 
-  @Override
-  public byte[] getClassDigest(String name, UUID jobId)
-      throws SecurityException {
-    ScheduledJob sched = jobs.get(jobId);
-    if (sched != null) {
-      return sched.classManager.getClassDigest(name);
+      jobs.put(jobId, sched);
+      monitor.addCancelListener(new JobCancelListener(jobId));
+    } finally {
+      in.close();
     }
 
-    ServiceInfo info = routes.get(jobId);
-    if (info != null) {
-      return info.getClassDigest(name, jobId);
+    // Results replayed from the journal may have completed the job, or
+    // the server may have stopped while the job was being finalized.
+    if (sched.job.isComplete()) {
+      sched.beginFinalize();
+      return;
     }
 
-    throw new IllegalArgumentException("No job with provided Job ID");
-  }
+    // Write a new checkpoint including the replayed results, which also
+    // starts a new journal.
+    sched.checkpoint();
+    sched.scheduleNextTask();
 
-  @Override
-  public byte[] getClassDigest(String name) throws SecurityException {
-    return classManager.getClassDigest(name);
+    if (logger.isInfoEnabled()) {
+      logger.info("Job restored from checkpoint (" + jobId.toString() + ")");
+    }
   }
 
   @Override
-  public void setClassDefinition(String name, byte[] def)
-      throws SecurityException {
-    classManager.setClassDefinition(name, def);
+  public UUID createJob(String description) throws SecurityException {
+    ProgressMonitor monitor = monitorFactory.createProgressMonitor(description);
+    ScheduledJob sched = new ScheduledJob(description, monitor);
+    jobs.put(sched.id, sched);
+    monitor.addCancelListener(new JobCancelListener(sched.id));
 
     if (logger.isInfoEnabled()) {
-      logger.info("Global class definition updated for " + name);
+      logger.info("Job created (" + sched.id.toString() + "): " + description);
     }
+
+    return sched.id;
   }
 
   @Override
-  public void setClassDefinition(String name, UUID jobId, byte[] def)
-      throws IllegalArgumentException, SecurityException {
+  public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
+      throws IllegalArgumentException, SecurityException, ClassNotFoundException, JobExecutionException {
     ScheduledJob sched = jobs.get(jobId);
-    if (sched == null || sched.job != null) {
+    if (sched == null || !sched.submitted.compareAndSet(false, true)) {
       throw new IllegalArgumentException("No pending job with provided Job ID");
     }
 
-    sched.classManager.setClassDefinition(name, def);
+    boolean started = admitJob(sched, job);
 
     if (logger.isInfoEnabled()) {
-      logger.info("Class definition of " + name + " set for job "
-          + jobId.toString());
+      logger.info((started ? "Pending job submitted (" : "Pending job queued (")
+          + jobId.toString() + ")");
     }
   }
 
   @Override
-  public void setIdleTime(int idleSeconds) throws IllegalArgumentException,
-      SecurityException {
-    idleTask = new TaskDescription(null, 0, idleSeconds);
+  public UUID submitJob(Serialized<ParallelizableJob> job, String description)
+      throws SecurityException, ClassNotFoundException, JobExecutionException {
+    ProgressMonitor monitor = monitorFactory.createProgressMonitor(description);
+    ScheduledJob sched = new ScheduledJob(description, monitor);
+    sched.submitted.set(true);
+    jobs.put(sched.id, sched);
+    monitor.addCancelListener(new JobCancelListener(sched.id));
+
+    boolean started = admitJob(sched, job);
+
     if (logger.isInfoEnabled()) {
-      logger.info("Idle time set to " + Integer.toString(idleSeconds));
+      logger.info((started ? "Job submitted (" : "Job queued (")
+          + sched.id.toString() + "): " + description);
     }
+
+    return sched.id;
   }
 
   @Override
-  public void setJobPriority(UUID jobId, int priority)
-      throws IllegalArgumentException, SecurityException {
+  public void cancelJob(UUID jobId) throws IllegalArgumentException, SecurityException {
     if (!jobs.containsKey(jobId)) {
       throw new IllegalArgumentException("No job with provided Job ID");
     }
 
-    scheduler.setJobPriority(jobId, priority);
-    if (logger.isInfoEnabled()) {
-      logger.info("Set job " + jobId.toString() + " priority to "
-          + Integer.toString(priority));
-    }
+    removeScheduledJob(jobId, false);
+  }
+
+  @Override
+  public Serialized<TaskWorker> getTaskWorker(UUID jobId)
+      throws IllegalArgumentException, SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched != null) {
+      return sched.worker;
+    }
+
+    ServiceInfo info = routes.get(jobId);
+    if (info != null) {
+      return info.getTaskWorker(jobId);
+    }
+
+    throw new IllegalArgumentException("No submitted job with provided Job ID");
   }
 
   /**
-   * Handles a <code>JobExcecutionException</code> thrown by a job managed
-   * by this server.
-   * @param e The <code>JobExecutionException</code> that was thrown by the
-   *     job.
-   * @param jobId The <code>UUID</code> identifying the job that threw the
-   *     exception.
+   * Identifies the worker making the current remote call.
+   * @return The host name of the worker making the current remote call, or
+   *     <code>null</code> if the current thread is not serving a remote
+   *     call.
    */
-  private void handleJobExecutionException(JobExecutionException e, UUID jobId) {
-    logger.error("Exception thrown from job " + jobId.toString(), e);
-    removeScheduledJob(jobId, false);
+  private static String getWorkerId() {
+    return ClientHost.get();
   }
 
   /**
-   * Removes a job.
-   * @param jobId The <code>UUID</code> identifying the job to be removed.
-   * @param complete A value indicating whether the job has been completed.
+   * Obtains the next task from the <code>TaskScheduler</code> and schedules
+   * the task to follow it.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     requesting worker would prefer tasks from (may be <code>null</code>).
+   * @return The next <code>TaskDescription</code> to hand out, or
+   *     <code>null</code> if no tasks for jobs hosted by this server are
+   *     available.
    */
-  private void removeScheduledJob(UUID jobId, boolean complete) {
-    ScheduledJob sched = jobs.remove(jobId);
-    if (sched != null) {
-      if (complete) {
-        sched.notifyComplete();
-        if (logger.isInfoEnabled()) {
-          logger.info("Job complete (" + jobId.toString() + ")");
+  private TaskDescription getNextScheduledTask(UUID[] preferredJobIds) {
+    String workerId = getWorkerId();
+    TaskDescription taskDesc;
+    while ((taskDesc = scheduler.getNextTask(workerId, preferredJobIds)) != null) {
+      ScheduledJob sched = jobs.get(taskDesc.getJobId());
+      if (sched == null) {
+        // The job was removed after the scheduler selected this task.
+        scheduler.removeJob(taskDesc.getJobId());
+        continue;
+      }
+      sched.scheduleNextTask();
+      TaskDescription task = sched.getTaskDescription(taskDesc);
+      if (task == null) {
+        // The task was completed after the scheduler selected it.
+        scheduler.remove(taskDesc.getJobId(), taskDesc.getTaskId());
+        continue;
+      }
+      return task;
+    }
+    return null;
+  }
+
+  @Override
+  public TaskDescription requestTask() throws SecurityException {
+    TaskDescription taskDesc = getNextScheduledTask(null);
+    if (taskDesc != null) {
+      return taskDesc;
+    }
+
+    if (!services.isEmpty()) {
+      ServiceInfo[] serv = services.toArray(new ServiceInfo[0]);
+      for (ServiceInfo info : serv) {
+        try {
+          if (services.remove(info)) {
+            services.add(info);
+          }
+          TaskDescription task = info.requestTask();
+          if (task != null) {
+            UUID jobId = task.getJobId();
+            routes.put(jobId, info);
+            return task;
+          }
+        } catch (Exception e) {
+          logger.error("Failed to request task from server", e);
         }
-      } else {
-        sched.notifyCancelled();
-        if (logger.isInfoEnabled()) {
-          logger.info("Job cancelled (" + jobId.toString() + ")");
+      }
+    }
+
+    return idleTask;
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException {
+    if (maxTasks < 1) {
+      throw new IllegalArgumentException("maxTasks must be positive");
+    }
+
+    List<TaskDescription> tasks = new ArrayList<TaskDescription>(maxTasks);
+    Map<UUID, Set<Integer>> taskIds = new HashMap<UUID, Set<Integer>>();
+    TaskDescription taskDesc;
+    while (tasks.size() < maxTasks
+        && (taskDesc = getNextScheduledTask(preferredJobIds)) != null) {
+      // The scheduler may serve more than one speculative copy of a task
+      // (e.g., if the worker cannot be identified), so once we see a task a
+      // second time there are no more distinct tasks to hand out.  The
+      // duplicate is given back so that it is not counted against the task.
+      Set<Integer> ids = taskIds.get(taskDesc.getJobId());
+      if (ids == null) {
+        ids = new HashSet<Integer>();
+        taskIds.put(taskDesc.getJobId(), ids);
+      }
+      if (!ids.add(taskDesc.getTaskId())) {
+        scheduler.returnDuplicate(taskDesc.getJobId(), taskDesc.getTaskId());
+        break;
+      }
+      tasks.add(taskDesc);
+    }
+
+    if (tasks.size() < maxTasks && !services.isEmpty()) {
+      ServiceInfo[] serv = services.toArray(new ServiceInfo[0]);
+      for (ServiceInfo info : serv) {
+        try {
+          if (services.remove(info)) {
+            services.add(info);
+          }
+          TaskDescription[] remoteTasks = info.requestTasks(
+              maxTasks - tasks.size(), preferredJobIds);
+          for (TaskDescription task : remoteTasks) {
+            routes.put(task.getJobId(), info);
+            tasks.add(task);
+          }
+          if (tasks.size() >= maxTasks) {
+            break;
+          }
+        } catch (Exception e) {
+          logger.error("Failed to request task from server", e);
         }
       }
-      jobs.remove(jobId);
-      scheduler.removeJob(jobId);
-      sched.classManager.release();
     }
+
+    if (tasks.isEmpty()) {
+      return new TaskDescription[]{ idleTask };
+    }
+    return tasks.toArray(new TaskDescription[tasks.size()]);
   }
 
+  /**
+   * Gets several tasks to perform, waiting for tasks to become available if
+   * there are none.  The calling thread is blocked while the request waits,
+   * so the wait is limited as set by {@link #setMaxTaskWait(long, int)}.
+   * Transports that can hold a request without a thread should instead call
+   * {@link #requestTasks(int, UUID[])} and retry when notified through
+   * {@link #addTaskAvailabilityListener(TaskAvailabilityListener)}.
+   * @see TaskService#requestTasks(int, UUID[], long)
+   */
   @Override
-  public void registerTaskService(String name, TaskService service)
-      throws SecurityException, RemoteException {
-    if (hosts.containsKey(name)) {
-      unregisterTaskService(name);
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException {
+    timeoutMillis = Math.min(timeoutMillis, maxTaskWait);
+    if (timeoutMillis <= 0) {
+      return requestTasks(maxTasks, preferredJobIds);
+    }
+
+    // Register as a waiter before checking for tasks, so that a task
+    // scheduled after the check is sure to advance the generation.  A
+    // request beyond the limit on waiters is answered without waiting.
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    if (taskWaiters.incrementAndGet() > maxTaskWaiters) {
+      taskWaiters.decrementAndGet();
+      return requestTasks(maxTasks, preferredJobIds);
+    }
+    try {
+      while (true) {
+        long generation;
+        synchronized (taskLock) {
+          generation = taskGeneration;
+        }
+        TaskDescription[] tasks = requestTasks(maxTasks, preferredJobIds);
+        if (tasks[0].getJobId() != null) {
+          return tasks;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return new TaskDescription[]{ RETRY_TASK };
+        }
+        synchronized (taskLock) {
+          if (generation == taskGeneration) {
+            taskLock.wait(Math.min(remaining, TASK_WAIT_RECHECK_INTERVAL));
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new TaskDescription[]{ RETRY_TASK };
+    } finally {
+      taskWaiters.decrementAndGet();
     }
-    ServiceInfo info = new ServiceInfo(service, dataSource, executor);
-    hosts.put(name, info);
-    services.add(info);
   }
 
   @Override
-  public void unregisterTaskService(String name) throws SecurityException,
-      RemoteException {
-    ServiceInfo info = hosts.get(name);
+  public void submitTaskResults(final UUID jobId, final int taskId,
+      final Serialized<Object> results) throws SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched != null) {
+      try {
+        ServerUtil.setHostService(sched);
+        sched.submitTaskResults(taskId, results);
+      } finally {
+        ServerUtil.clearHostService();
+      }
+      return;
+    }
+
+    final ServiceInfo info = routes.get(jobId);
     if (info != null) {
-      hosts.remove(name);
-      services.remove(info);
-      synchronized (routes) {
-        for (Entry<UUID, ServiceInfo> entry : routes.entrySet()) {
-          if (entry.getValue() == info) {
-            routes.remove(entry.getKey());
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            info.submitTaskResults(jobId, taskId, results);
+          } catch (Exception e) {
+            logger.error("Cannot submit task results", e);
           }
         }
+      });
+    }
+  }
+
+  @Override
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException {
+    // Group the results by the job (or remote service) they belong to, so
+    // that each job's results are submitted together.
+    Map<ScheduledJob, TaskResultBatch> localBatches = TaskResultBatch.group(
+        jobIds, taskIds, results, new TaskResultBatch.Router<ScheduledJob>() {
+          public ScheduledJob route(UUID jobId) {
+            return jobs.get(jobId);
+          }
+        });
+    Map<ServiceInfo, TaskResultBatch> remoteBatches = TaskResultBatch.group(
+        jobIds, taskIds, results, new TaskResultBatch.Router<ServiceInfo>() {
+          public ServiceInfo route(UUID jobId) {
+            return jobs.containsKey(jobId) ? null : routes.get(jobId);
+          }
+        });
+
+    for (Entry<ScheduledJob, TaskResultBatch> entry : localBatches.entrySet()) {
+      ScheduledJob sched = entry.getKey();
+      TaskResultBatch batch = entry.getValue();
+      try {
+        ServerUtil.setHostService(sched);
+        sched.submitTaskResults(batch.getTaskIdList(), batch.getResultList());
+      } finally {
+        ServerUtil.clearHostService();
       }
-      info.shutdown();
+    }
+
+    for (Entry<ServiceInfo, TaskResultBatch> entry : remoteBatches.entrySet()) {
+      final ServiceInfo info = entry.getKey();
+      final TaskResultBatch batch = entry.getValue();
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            info.submitTaskResults(batch.getJobIds(), batch.getTaskIds(),
+                batch.getResults());
+          } catch (Exception e) {
+            logger.error("Cannot submit task results", e);
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public void reportException(final UUID jobId, final int taskId, final Exception e)
+      throws SecurityException, RemoteException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched != null) {
+      sched.reportException(taskId, e);
+    }
+
+    final ServiceInfo info = routes.get(jobId);
+    if (info != null) {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            info.reportException(jobId, taskId, e);
+          } catch (Exception e1) {
+            logger.error("Cannot report exception", e1);
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      if (routes.containsKey(jobId)) {
+        throw new IllegalArgumentException("Chunked uploads are not supported for routed jobs");
+      }
+      return 0;
+    }
+    if (sched.taskTracker.isComplete(taskId)) {
+      return 0;
+    }
+    if (sched.activeUploads.incrementAndGet() > maxUploadsPerJob) {
+      sched.activeUploads.decrementAndGet();
+      throw new IllegalArgumentException("Too many uploads in progress for job");
+    }
+
+    long uploadId = nextUploadId.getAndIncrement();
+    File file = new File(sched.workingDirectory,
+        UPLOAD_FILE_PREFIX + Long.toString(uploadId));
+    try {
+      uploads.put(uploadId, new ResultUpload(jobId, taskId, file));
+    } catch (IOException e) {
+      sched.activeUploads.decrementAndGet();
+      logger.error("Could not create upload file for job " + jobId.toString(), e);
+      throw new RemoteException("Could not create upload file", e);
+    }
+    return uploadId;
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    ResultUpload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw new IllegalArgumentException("No upload with provided ID");
+    }
+    try {
+      upload.append(offset, chunk);
+    } catch (IOException e) {
+      logger.error("Could not write chunk of task results for job "
+          + upload.getJobId().toString(), e);
+      throw new RemoteException("Could not write chunk of task results", e);
+    }
+  }
+
+  @Override
+  public void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    ResultUpload upload = removeUpload(uploadId);
+    if (upload == null) {
+      throw new IllegalArgumentException("No upload with provided ID");
+    }
+    ScheduledJob sched = jobs.get(upload.getJobId());
+    if (!commit || sched == null) {
+      upload.abort();
+      return;
+    }
+    try {
+      upload.finish();
+    } catch (IOException e) {
+      upload.abort();
+      logger.error("Could not write task results for job "
+          + upload.getJobId().toString(), e);
+      throw new RemoteException("Could not write task results", e);
+    }
+    try {
+      ServerUtil.setHostService(sched);
+      if (!sched.submitTaskResults(upload.getTaskId(), upload.getFile(),
+          upload.getLength())) {
+        upload.abort();
+      }
+    } finally {
+      ServerUtil.clearHostService();
     }
   }
 
   /**
-   * Represents a <code>ParallelizableJob</code> that has been submitted
-   * to this <code>JobMasterServer</code>.
-   * @author Brad Kimmel
+   * Removes an upload of task results from the uploads in progress.
+   * @param uploadId The ID of the upload.
+   * @return The removed <code>ResultUpload</code>, or <code>null</code> if
+   *     there is no such upload in progress.
    */
-  private class ScheduledJob implements HostService, ProgressMonitor {
+  private ResultUpload removeUpload(long uploadId) {
+    ResultUpload upload = uploads.remove(uploadId);
+    if (upload != null) {
+      ScheduledJob sched = jobs.get(upload.getJobId());
+      if (sched != null) {
+        sched.activeUploads.decrementAndGet();
+      }
+    }
+    return upload;
+  }
 
-    /** The <code>ParallelizableJob</code> to be processed. */
-    public JobExecutionWrapper        job;
+  /**
+   * Abandons uploads of task results that have not received a chunk
+   * recently.
+   */
+  private void expireUploads() {
+    long cutoff = System.currentTimeMillis() - UPLOAD_TIMEOUT;
+    for (Entry<Long, ResultUpload> entry : uploads.entrySet()) {
+      if (entry.getValue().getLastActivity() < cutoff) {
+        ResultUpload upload = removeUpload(entry.getKey());
+        if (upload == null) {
+          continue;
+        }
+        upload.abort();
+        logger.warn("Abandoned upload of results of task "
+            + Integer.toString(upload.getTaskId()) + " for job "
+            + upload.getJobId().toString());
+      }
+    }
+  }
 
-    /** The <code>UUID</code> identifying the job. */
-    public final UUID            id;
+  /**
+   * Abandons the uploads of task results for a job.
+   * @param jobId The <code>UUID</code> identifying the job.
+   */
+  private void abortUploads(UUID jobId) {
+    for (Entry<Long, ResultUpload> entry : uploads.entrySet()) {
+      if (entry.getValue().getJobId().equals(jobId)) {
+        ResultUpload upload = removeUpload(entry.getKey());
+        if (upload != null) {
+          upload.abort();
+        }
+      }
+    }
+  }
 
-    /** A description of the job. */
-    public final String            description;
+  @Override
+  public BitSet getFinishedTasks(UUID[] jobIds, int[] taskIds)
+      throws IllegalArgumentException, SecurityException, RemoteException {
 
-    /** The <code>TaskWorker</code> to use to process tasks for the job. */
-    public Serialized<TaskWorker>      worker;
+    if (jobIds == null || taskIds == null) {
+      return new BitSet(0);
+    }
+
+    if (jobIds.length != taskIds.length) {
+      throw new IllegalArgumentException("jobIds.length != taskIds.length");
+    }
+
+    BitSet finished = new BitSet(jobIds.length);
+
+    for (int i = 0; i < jobIds.length; i++) {
+      UUID jobId = jobIds[i];
+      int taskId = taskIds[i];
+      if (jobId == null) {
+        finished.set(i);
+      } else if (taskId != 0) {
+        ScheduledJob sched = jobs.get(jobId);
+        if (sched != null) {
+          finished.set(i, sched.taskTracker.isComplete(taskId));
+        } else {
+          ServiceInfo info = routes.get(jobId);
+          finished.set(i, (info == null) || info.isTaskComplete(jobId, taskId));
+        }
+      } else {
+        ScheduledJob sched = jobs.get(jobId);
+        if (sched != null) {
+          try {
+            finished.set(i, sched.job.isComplete());
+          } catch (JobExecutionException e) {
+            sched.reportException(0, e);
+          }
+        } else {
+          finished.set(i, !routes.containsKey(jobId));
+        }
+      }
+    }
+
+    return finished;
+
+  }
+
+  @Override
+  public byte[] getClassDefinition(String name, UUID jobId)
+      throws SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched != null) {
+      ByteBuffer def = sched.classManager.getClassDefinition(name);
+      if (def.hasArray() && def.arrayOffset() == 0) {
+        return def.array();
+      } else {
+        byte[] bytes = new byte[def.remaining()];
+        def.get(bytes);
+        return bytes;
+      }
+    }
+
+    ServiceInfo info = routes.get(jobId);
+    if (info != null) {
+      return info.getClassDefinition(name, jobId);
+    }
+
+    throw new IllegalArgumentException("No job with provided Job ID");
+  }
+
+  @Override
+  public byte[] getClassDigest(String name, UUID jobId)
+      throws SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched != null) {
+      return sched.classManager.getClassDigest(name);
+    }
+
+    ServiceInfo info = routes.get(jobId);
+    if (info != null) {
+      return info.getClassDigest(name, jobId);
+    }
+
+    throw new IllegalArgumentException("No job with provided Job ID");
+  }
+
+  @Override
+  public byte[] getClassDigest(String name) throws SecurityException {
+    return classManager.getClassDigest(name);
+  }
+
+  @Override
+  public void setClassDefinition(String name, byte[] def)
+      throws SecurityException {
+    classManager.setClassDefinition(name, def);
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Global class definition updated for " + name);
+    }
+  }
+
+  @Override
+  public void setClassDefinition(String name, UUID jobId, byte[] def)
+      throws IllegalArgumentException, SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null || sched.submitted.get()) {
+      throw new IllegalArgumentException("No pending job with provided Job ID");
+    }
+
+    sched.classManager.setClassDefinition(name, def);
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Class definition of " + name + " set for job "
+          + jobId.toString());
+    }
+  }
+
+  @Override
+  public void setIdleTime(int idleSeconds) throws IllegalArgumentException,
+      SecurityException {
+    idleTask = new TaskDescription(null, 0, idleSeconds);
+    if (logger.isInfoEnabled()) {
+      logger.info("Idle time set to " + Integer.toString(idleSeconds));
+    }
+  }
+
+  @Override
+  public void setJobPriority(UUID jobId, int priority)
+      throws IllegalArgumentException, SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
+    }
+
+    sched.setPriority(priority);
+    if (logger.isInfoEnabled()) {
+      logger.info("Set job " + jobId.toString() + " priority to "
+          + Integer.toString(priority));
+    }
+  }
+
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
+    }
+
+    sched.setDeadline(deadline);
+    if (logger.isInfoEnabled()) {
+      logger.info("Set job " + jobId.toString() + " deadline to "
+          + (deadline != null ? deadline.toString() : "none"));
+    }
+  }
+
+  /**
+   * Handles a <code>JobExcecutionException</code> thrown by a job managed
+   * by this server.
+   * @param e The <code>JobExecutionException</code> that was thrown by the
+   *     job.
+   * @param jobId The <code>UUID</code> identifying the job that threw the
+   *     exception.
+   */
+  private void handleJobExecutionException(JobExecutionException e, UUID jobId) {
+    logger.error("Exception thrown from job " + jobId.toString(), e);
+    removeScheduledJob(jobId, false);
+  }
+
+  /**
+   * Removes a job.
+   * @param jobId The <code>UUID</code> identifying the job to be removed.
+   * @param complete A value indicating whether the job has been completed.
+   */
+  private void removeScheduledJob(UUID jobId, boolean complete) {
+    ScheduledJob sched = jobs.remove(jobId);
+    if (sched != null) {
+      if (complete) {
+        sched.notifyComplete();
+        if (logger.isInfoEnabled()) {
+          logger.info("Job complete (" + jobId.toString() + ")");
+        }
+      } else {
+        sched.notifyCancelled();
+        if (logger.isInfoEnabled()) {
+          logger.info("Job cancelled (" + jobId.toString() + ")");
+        }
+      }
+      synchronized (admissionQueue) {
+        admissionQueue.remove(sched);
+      }
+      sched.pendingJob = null;
+      scheduler.removeJob(jobId);
+      sched.readyTasks.clear();
+      sched.outstandingTasks.clear();
+      sched.payloads.close();
+      abortUploads(jobId);
+      sched.resultQueue.clear();
+      sched.deleteCheckpoint();
+      sched.log.close();
+      sched.classManager.release();
+      admitJobs();
+    }
+  }
+
+  @Override
+  public void registerTaskService(String name, TaskService service)
+      throws SecurityException, RemoteException {
+    if (hosts.containsKey(name)) {
+      unregisterTaskService(name);
+    }
+    ServiceInfo info = new ServiceInfo(service, dataSource, executor);
+    hosts.put(name, info);
+    services.add(info);
+  }
+
+  @Override
+  public void unregisterTaskService(String name) throws SecurityException,
+      RemoteException {
+    ServiceInfo info = hosts.get(name);
+    if (info != null) {
+      hosts.remove(name);
+      services.remove(info);
+      Iterator<ServiceInfo> i = routes.values().iterator();
+      while (i.hasNext()) {
+        if (i.next() == info) {
+          i.remove();
+        }
+      }
+      info.shutdown();
+    }
+  }
+
+  /**
+   * Represents a <code>ParallelizableJob</code> that has been submitted
+   * to this <code>JobMasterServer</code>.
+   * @author Brad Kimmel
+   */
+  private class ScheduledJob implements HostService, ProgressMonitor {
+
+    /** The <code>ParallelizableJob</code> to be processed. */
+    public JobExecutionWrapper        job;
+
+    /** The <code>UUID</code> identifying the job. */
+    public final UUID            id;
+
+    /**
+     * Assigns task IDs for this job and tracks which tasks have been
+     * completed.
+     */
+    public final TaskTracker        taskTracker = new TaskTracker();
+
+    /** A description of the job. */
+    public final String            description;
+
+    /** The <code>TaskWorker</code> to use to process tasks for the job. */
+    public Serialized<TaskWorker>      worker;
+
+    /**
+     * The <code>ProgressMonitor</code> to use to monitor the progress of
+     * the <code>Job</code>.
+     */
+    public final ProgressMonitor      monitor;
+
+    /**
+     * The <code>ClassManager</code> to use to store the class definitions
+     * applicable to this job.
+     */
+    public final ChildClassManager      classManager;
+
+    /** The working directory for this job. */
+    private final File            workingDirectory;
+
+    /**
+     * A value indicating if this job has been admitted by the server's
+     * admission control.  Jobs that have not been admitted do not count
+     * against the server's capacity.
+     */
+    private volatile boolean        admitted = false;
+
+    /**
+     * A value indicating if the <code>ParallelizableJob</code> has been
+     * submitted for this job.  Until then, class definitions may be set for
+     * the job.
+     */
+    private final AtomicBoolean        submitted = new AtomicBoolean(false);
+
+    /**
+     * The serialized job, while this job is waiting to be admitted.
+     * @see JobServer#admitJobs()
+     */
+    private volatile Serialized<ParallelizableJob> pendingJob = null;
+
+    /** The size (in bytes) of the serialized job. */
+    private volatile long          serializedSize = 0;
+
+    /** The <code>ClassLoader</code> to use to deserialize this job. */
+    public ClassLoader            classLoader;
+
+    /** The log for this job, kept in its working directory. */
+    private final JobLog            log;
+
+    /** A value indicating if the last attempt to obtain a task failed. */
+    private volatile boolean          stalled = false;
+
+    /**
+     * A value indicating if the <code>TaskScheduler</code> has been told
+     * that this job cannot provide more tasks until some of its outstanding
+     * tasks are complete.
+     */
+    private volatile boolean          exhausted = false;
+
+    /** The priority assigned to this job.  Guarded by <code>this</code>. */
+    private int                priority = JobService.DEFAULT_PRIORITY;
+
+    /**
+     * The time by which this job should be complete, or <code>null</code>
+     * if it has no deadline.  Guarded by <code>this</code>.
+     */
+    private Date                deadline = null;
+
+    /**
+     * A value indicating if a task for this job has been handed to the
+     * <code>TaskScheduler</code>.  The scheduler ignores hints for jobs it
+     * has no tasks for, so the priority and deadline are passed on once
+     * this is set.
+     */
+    private volatile boolean          scheduled = false;
+
+    /**
+     * A value indicating if the job is complete and its results are being
+     * archived.
+     */
+    private volatile boolean          finalizing = false;
+
+    /**
+     * Tasks that have been generated in advance but which have not yet been
+     * handed to the <code>TaskScheduler</code>.
+     */
+    private final Queue<TaskDescription>  readyTasks = new ConcurrentLinkedQueue<TaskDescription>();
+
+    /**
+     * A value indicating if a task was needed for this job while
+     * {@link #readyTasks} was empty, in which case the next task generated
+     * is scheduled directly.
+     */
+    private final AtomicBoolean        starved = new AtomicBoolean(false);
+
+    /** A value indicating if the task producer is running for this job. */
+    private final AtomicBoolean        producing = new AtomicBoolean(false);
+
+    /**
+     * The handles in {@link #payloads} of the tasks that have been generated
+     * for this job and whose results have not yet been applied to the job,
+     * by task ID.  These are the tasks that must be performed again if the
+     * job is restored from a checkpoint.  The <code>TaskDescription</code>s
+     * handed to the <code>TaskScheduler</code> do not hold the payloads of
+     * these tasks.
+     */
+    private final Map<Integer, Long> outstandingTasks = new ConcurrentHashMap<Integer, Long>();
+
+    /** Stores the payloads of the outstanding tasks outside of the heap. */
+    private final TaskPayloadStore    payloads;
+
+    /**
+     * The results that have been accepted for this job but not yet applied
+     * to it.  These are written to the new journal when the job is
+     * checkpointed.
+     */
+    private final ResultQueue          resultQueue;
+
+    /**
+     * A value indicating if a <code>TaskResultSubmitter</code> is applying
+     * results for this job.
+     */
+    private final AtomicBoolean        aggregating = new AtomicBoolean(false);
+
+    /** The number of uploads of task results in progress for this job. */
+    private final AtomicInteger        activeUploads = new AtomicInteger(0);
+
+    /** Applies the results in {@link #resultQueue} to the job. */
+    private final Runnable          aggregator = new TaskResultSubmitter(this);
+
+    /**
+     * The journal to which accepted results are written, or
+     * <code>null</code> if results are not being journaled (i.e., the job
+     * has not been checkpointed).  Replaced only while holding
+     * {@link #jobLock} exclusively, except when the job is removed.
+     */
+    private volatile ResultJournal        journal = null;
+
+    /**
+     * The generation number of {@link #journal}.  Guarded by
+     * {@link #checkpointLock}.
+     */
+    private long                journalGeneration = 0;
+
+    /**
+     * Held (shared) while the job is being modified, and exclusively while
+     * a checkpoint takes a snapshot of it, so that each checkpoint captures
+     * a consistent state.
+     */
+    private final ReadWriteLock      jobLock = new ReentrantReadWriteLock();
+
+    /** Held while the job is being checkpointed. */
+    private final Object            checkpointLock = new Object();
+
+    /**
+     * The number of consecutive attempts to checkpoint this job that have
+     * failed.  Guarded by {@link #checkpointLock}.
+     */
+    private int                  checkpointFailures = 0;
+
+    /**
+     * The serialized job as it was submitted, which is written to each
+     * checkpoint ahead of the state saved by the job.
+     */
+    private Serialized<ParallelizableJob>  definition = null;
+
+    /**
+     * The handles of payloads to be freed once the checkpoint being written
+     * no longer needs them, or <code>null</code> if no checkpoint is being
+     * written.  Guarded by {@link #payloads}.
+     */
+    private List<Long>              deferredFrees = null;
+
+    /**
+     * The current status of this job, including progress that has not yet
+     * been published.  Guarded by <code>this</code>.
+     */
+    private JobStatus              status;
+
+    /**
+     * A value indicating if there is progress that has not yet been
+     * applied to {@link #status}.  Guarded by <code>this</code>.
+     */
+    private boolean              progressPending = false;
+
+    /**
+     * The latest progress reported by the job, or <code>Double.NaN</code>
+     * if the progress is indeterminant.  Guarded by <code>this</code>.
+     */
+    private double              pendingProgress;
+
+    /**
+     * The number of parts of the job reported to be complete.  Guarded by
+     * <code>this</code>.
+     */
+    private int                pendingValue;
+
+    /**
+     * The total number of parts of the job, or zero if the latest progress
+     * was reported as a fraction.  Guarded by <code>this</code>.
+     */
+    private int                pendingMaximum;
+
+    /**
+     * The time (in milliseconds) at which a status was last published for
+     * this job.  Guarded by <code>this</code>.
+     */
+    private long                lastPublished = 0;
+
+    /**
+     * The number of times {@link #status} has been set.  Guarded by
+     * <code>this</code>.
+     */
+    private long                statusVersion = 0;
+
+    /**
+     * The value of {@link #statusVersion} for the most recently published
+     * status.  Guarded by {@link #publishLock}.
+     */
+    private long                publishedVersion = 0;
+
+    /**
+     * The lock that orders the publication of status updates for this job.
+     * This is held while calling into the <code>JobServer</code>, so it
+     * must never be acquired while holding the lock on the
+     * <code>JobServer</code>.
+     */
+    private final Object          publishLock = new Object();
+
+    /** Publishes the pending progress, if any. */
+    private final Runnable          publisher = new Runnable() {
+      public void run() {
+        boolean pending;
+        synchronized (ScheduledJob.this) {
+          pending = progressPending;
+        }
+        if (pending) {
+          setJobStatus(getJobStatus());
+        }
+      }
+    };
+
+    /** Generates tasks for this job into {@link #readyTasks}. */
+    private final Runnable          producer = new Runnable() {
+      public void run() {
+        produceTasks();
+      }
+    };
+
+    /**
+     * Initializes the scheduled job.
+     * @param description A description of the job.
+     * @param monitor The <code>ProgressMonitor</code> to use to monitor
+     *     the progress of the <code>ParallelizableJob</code>.
+     */
+    public ScheduledJob(String description, ProgressMonitor monitor) {
+      this(UUID.randomUUID(), description, monitor,
+          JobServer.this.classManager.createChildClassManager());
+    }
+
+    /**
+     * Initializes the scheduled job.
+     * @param id The <code>UUID</code> identifying the job.
+     * @param description A description of the job.
+     * @param monitor The <code>ProgressMonitor</code> to use to monitor
+     *     the progress of the <code>ParallelizableJob</code>.
+     * @param classManager The <code>ChildClassManager</code> holding the
+     *     class definitions for the job.
+     */
+    public ScheduledJob(UUID id, String description, ProgressMonitor monitor,
+        ChildClassManager classManager) {
+
+      this.id          = id;
+      this.description    = description;
+
+      //String title      = String.format("%s (%s)", this.job.getClass().getSimpleName(), this.id.toString());
+      this.monitor      = monitor;
+      this.monitor.notifyStatusChanged("Awaiting job submission");
+
+      this.classManager    = classManager;
+
+      this.workingDirectory  = new File(outputDirectory, id.toString());
+      this.log        = new JobLog(new File(workingDirectory, "job.log"),
+          executor);
+      this.resultQueue    = new ResultQueue(
+          new File(workingDirectory, RESULT_SPILL_FILE_NAME),
+          resultMemoryBudget);
+      this.payloads      = new TaskPayloadStore(workingDirectory,
+          PAYLOAD_FILE_PREFIX, TaskPayloadStore.DEFAULT_SEGMENT_SIZE);
+
+      setJobStatus(new JobStatus(id, description, JobState.NEW, 0.0,
+          "Awaiting job submission"));
+
+    }
+
+    /**
+     * Estimates the amount of heap used by this job.
+     * @return The estimated heap used by this job (in bytes), or zero if
+     *     the job has not been admitted.
+     */
+    public long getEstimatedHeap() {
+      return getEstimatedHeap(admitted);
+    }
+
+    /**
+     * Estimates the amount of heap used by this job.
+     * @param active A value indicating whether to estimate the heap used by
+     *     this job while it is active.
+     * @return The estimated heap used by this job (in bytes), or zero if
+     *     <code>active</code> is false.
+     */
+    public long getEstimatedHeap(boolean active) {
+      if (!active) {
+        return 0;
+      }
+      return JOB_HEAP_OVERHEAD + JOB_HEAP_EXPANSION_FACTOR * serializedSize
+          + resultQueue.getMemoryUsed();
+    }
+
+    /**
+     * Gets the current status of this job, including any progress that has
+     * not yet been published.
+     * @return The current <code>JobStatus</code> for this job.
+     */
+    private JobStatus getJobStatus() {
+      Runnable forward;
+      JobStatus current;
+      synchronized (this) {
+        forward = applyProgress();
+        current = status;
+      }
+      if (forward != null) {
+        forward.run();
+      }
+      return current;
+    }
+
+    /**
+     * Gets the most recently published status of this job.
+     * @return The most recently published <code>JobStatus</code> for this
+     *     job.
+     */
+    private JobStatus getPublishedJobStatus() {
+      return statusByJobId.get(id);
+    }
+
+    /**
+     * Sets the status of this job and publishes it immediately.  If
+     * another thread sets a newer status first, this status is not
+     * published.
+     * @param newStatus The new <code>JobStatus</code> for this job.
+     */
+    private void setJobStatus(JobStatus newStatus) {
+      long version;
+      synchronized (this) {
+        status = newStatus;
+        lastPublished = System.currentTimeMillis();
+        version = ++statusVersion;
+      }
+      synchronized (publishLock) {
+        if (version <= publishedVersion) {
+          return;
+        }
+        publishedVersion = version;
+        updateStatus(newStatus);
+      }
+      synchronized (this) {
+        notifyAll();  // wake up any listeners.
+      }
+    }
+
+    /**
+     * Sets whether this job is projected to miss its deadline, publishing a
+     * new status if this has changed.
+     * @param atRisk A value indicating if this job is projected to miss its
+     *     deadline.
+     */
+    public void setDeadlineAtRisk(boolean atRisk) {
+      JobStatus current = getJobStatus();
+      if (current.isDeadlineAtRisk() != atRisk && !finalizing) {
+        if (atRisk) {
+          log.log("Job is projected to miss its deadline.");
+        }
+        setJobStatus(current.withDeadlineAtRisk(atRisk));
+      }
+    }
+
+    /**
+     * Records the progress of this job.  Only the latest progress is kept.
+     * It is applied and published once the status coalescing window has
+     * elapsed since the last status was published, or sooner if the status
+     * of the job otherwise changes.
+     * @param progress The progress of the job, or <code>Double.NaN</code>
+     *     if the progress is indeterminant.
+     * @param value The number of parts of the job that are complete.
+     * @param maximum The total number of parts of the job, or zero if the
+     *     progress was reported as a fraction.
+     * @see JobServer#setStatusCoalescingWindow(long)
+     */
+    private void setProgress(double progress, int value, int maximum) {
+      synchronized (this) {
+        pendingProgress = progress;
+        pendingValue = value;
+        pendingMaximum = maximum;
+        if (progressPending) {
+          return;
+        }
+        progressPending = true;
+        long delay = lastPublished + statusCoalescingWindow
+            - System.currentTimeMillis();
+        if (delay > 0) {
+          statusPublisher.schedule(publisher, delay, TimeUnit.MILLISECONDS);
+          return;
+        }
+      }
+      setJobStatus(getJobStatus());
+    }
+
+    /**
+     * Applies the pending progress, if any, to the current status of this
+     * job.  The caller must hold the lock on this <code>ScheduledJob</code>.
+     * @return A <code>Runnable</code> that forwards the progress to the
+     *     <code>ProgressMonitor</code> and the <code>TaskScheduler</code>,
+     *     which the caller must run after releasing the lock, or
+     *     <code>null</code> if there was no pending progress.
+     */
+    private Runnable applyProgress() {
+      if (!progressPending) {
+        return null;
+      }
+      progressPending = false;
+      final double progress = pendingProgress;
+      final int value = pendingValue;
+      final int maximum = pendingMaximum;
+      if (Double.isNaN(progress)) {
+        status = status.withIndeterminantProgress();
+        return new Runnable() {
+          public void run() {
+            monitor.notifyIndeterminantProgress();
+          }
+        };
+      } else {
+        status = status.withProgress(progress);
+        return new Runnable() {
+          public void run() {
+            scheduler.setJobProgress(id, progress);
+            if (maximum > 0) {
+              monitor.notifyProgress(value, maximum);
+            } else {
+              monitor.notifyProgress(progress);
+            }
+          }
+        };
+      }
+    }
+
+    /**
+     * Wait for a status change for this job.
+     * @param lastEventId The ID of the last event received, or
+     *     <code>Long.MIN_VALUE</code> to indicate that no events had been
+     *     received previously.
+     * @param timeoutMillis The maximum amount of time (in milliseconds) to
+     *     wait before returning.  If zero, then the call will return
+     *     immediately.  If negative, the call will wait indefinitely.
+     * @return If an event has already occurred subsequent to the event with
+     *     ID <code>lastEventId</code>, the pending <code>JobStatus</code>
+     *     event will be returned.  Otherwise, the call will wait up to
+     *     <code>timeoutMillis</code> milliseconds for an event to occur.
+     *     If one does occur in that time, that <code>JobStatus</code> will
+     *     be returned.  If no event occurs, <code>null</code> is returned.
+     */
+    public synchronized JobStatus waitForJobStatusChange(long lastEventId, long timeoutMillis) {
+
+      // when should I time out?
+      long end = timeoutMillis >= 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+
+      // wait loop
+      while (getPublishedJobStatus().getEventId() <= lastEventId) {
+        try {
+          long time = System.currentTimeMillis();
+          if (time >= end) {
+            return null;    // timeout
+          }
+          wait(end - time);
+        } catch (InterruptedException e) { /* nothing to do. */ }
+      }
+
+      // we found a newer event.
+      return getPublishedJobStatus();
+
+    }
+
+    /**
+     * Deserializes the job and prepares it to be managed by the host
+     * machine.
+     * @param job The serialized job.
+     * @throws ClassNotFoundException If a class required by the job is
+     *     missing.
+     * @throws JobExecutionException If the job throws an exception.
+     */
+    public void initializeJob(Serialized<ParallelizableJob> job) throws ClassNotFoundException, JobExecutionException {
+      jobLock.readLock().lock();
+      try {
+        initializeJobLocked(job);
+      } finally {
+        jobLock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Deserializes the job and prepares it to be managed by the host
+     * machine.  The caller must hold {@link #jobLock}.
+     * @param job The serialized job.
+     * @throws ClassNotFoundException If a class required by the job is
+     *     missing.
+     * @throws JobExecutionException If the job throws an exception.
+     */
+    private void initializeJobLocked(Serialized<ParallelizableJob> job) throws ClassNotFoundException, JobExecutionException {
+      this.classLoader  = new StrategyClassLoader(classManager, JobServer.class.getClassLoader());
+      this.definition  = job;
+      this.job      = new JobExecutionWrapper(job.deserialize(classLoader));
+      this.worker      = new Serialized<TaskWorker>(this.job.worker());
+      notifyStatusChanged("");
+
+      this.workingDirectory.mkdir();
+      this.job.setHostService(this);
+
+      log.log(String.format("Job %s submitted.", id.toString()));
+      log.log("Description: " + description);
+
+      this.job.initialize();
+    }
+
+    /**
+     * Restores the job from a checkpoint written by {@link #checkpoint()}.
+     * The outstanding tasks recorded in the checkpoint are queued to be
+     * scheduled ahead of any new tasks generated by the job.
+     * @param in The <code>InputStream</code> to read the checkpoint from,
+     *     positioned after the header.
+     * @param version The version of the checkpoint file format.
+     * @throws IOException If an error occurs while reading the checkpoint.
+     * @throws ClassNotFoundException If a class required by the job is
+     *     missing.
+     * @throws JobExecutionException If the job throws an exception.
+     */
+    @SuppressWarnings("unchecked")
+    public void restoreJob(InputStream in, int version) throws IOException,
+        ClassNotFoundException, JobExecutionException {
+      this.classLoader  = new StrategyClassLoader(classManager, JobServer.class.getClassLoader());
+      ObjectInputStream oin = new ClassLoaderObjectInputStream(in, classLoader);
+      if (version == CHECKPOINT_VERSION) {
+        this.journalGeneration = oin.readLong();
+        this.definition  = (Serialized<ParallelizableJob>) oin.readObject();
+
+        // A job restored from a checkpoint in an earlier format is defined
+        // by its wrapper.
+        ParallelizableJob inner = definition.deserialize(classLoader);
+        this.job      = (inner instanceof JobExecutionWrapper)
+            ? (JobExecutionWrapper) inner : new JobExecutionWrapper(inner);
+      } else {
+        this.job      = (JobExecutionWrapper) oin.readObject();
+        this.definition  = new Serialized<ParallelizableJob>(this.job);
+      }
+      this.worker      = new Serialized<TaskWorker>(this.job.worker());
+      this.job.setHostService(this);
+
+      if (version != CHECKPOINT_VERSION) {
+        taskTracker.readState(oin);
+      }
+      for (int i = 0, n = oin.readInt(); i < n; i++) {
+        int taskId = oin.readInt();
+        byte[] data;
+        if (version == CHECKPOINT_VERSION_OBJECT_PAYLOADS) {
+          data = ResultJournal.encode(new Serialized<Object>(oin.readObject()));
+        } else {
+          data = new byte[oin.readInt()];
+          oin.readFully(data);
+        }
+        outstandingTasks.put(taskId, payloads.put(data));
+        readyTasks.add(TaskDescription.fromSerialized(id, taskId, null));
+      }
+
+      if (version == CHECKPOINT_VERSION) {
+        byte[] state = new byte[oin.readInt()];
+        oin.readFully(state);
+        ObjectInputStream sin = new ClassLoaderObjectInputStream(
+            new ByteArrayInputStream(state), classLoader);
+        taskTracker.readState(sin);
+        this.job.restoreState(sin);
+      } else {
+        this.job.restoreState(oin);
+      }
+      replayJournal();
+      notifyStatusChanged("Restored from checkpoint");
+    }
+
+    /**
+     * Applies the results in the job's journals for tasks that were
+     * outstanding when the job was last checkpointed.  Every journal in the
+     * working directory is read, because a checkpoint may have failed after
+     * starting a new journal.  Results for tasks that are not outstanding
+     * are already reflected in the checkpoint and are skipped.
+     * @throws IOException If an error occurs while reading the journal.
+     * @throws ClassNotFoundException If a class required by the results is
+     *     missing.
+     * @throws JobExecutionException If the job throws an exception.
+     */
+    private void replayJournal() throws IOException, ClassNotFoundException,
+        JobExecutionException {
+      int replayed = 0;
+      SortedMap<Long, File> files = getJournalFiles();
+      for (File file : files.values()) {
+        for (ResultJournal.Record record : ResultJournal.read(file).values()) {
+          Long handle = outstandingTasks.remove(record.getTaskId());
+          if (handle != null) {
+            Object results;
+            InputStream in = ResultJournal.openRecord(file, record);
+            try {
+              results = ResultJournal.readResults(in, classLoader);
+            } finally {
+              in.close();
+            }
+            taskTracker.setComplete(record.getTaskId());
+            job.submitTaskResults(
+                payloads.read(handle).deserialize(classLoader), results, this);
+            payloads.free(handle);
+            replayed++;
+          }
+        }
+      }
+
+      // New journals must not replace the ones just replayed until a new
+      // checkpoint is written.
+      if (!files.isEmpty()) {
+        journalGeneration = Math.max(journalGeneration, files.lastKey());
+      }
+
+      if (replayed > 0) {
+        Iterator<TaskDescription> i = readyTasks.iterator();
+        while (i.hasNext()) {
+          if (!outstandingTasks.containsKey(i.next().getTaskId())) {
+            i.remove();
+          }
+        }
+      }
+      if (replayed > 0 && logger.isInfoEnabled()) {
+        logger.info("Replayed " + Integer.toString(replayed)
+            + " results from journal for job " + id.toString());
+      }
+    }
+
+    /**
+     * Writes the job, the tasks that are outstanding, and the state saved
+     * by the job to the job's working directory.  The job is only locked
+     * while the state of the job and the list of outstanding tasks are
+     * captured, and a new journal is started for the results accepted from
+     * then on.  The checkpoint is then written to a temporary file which
+     * replaces the previous checkpoint, so that an interrupted checkpoint
+     * leaves the previous one intact.  Once the new checkpoint is in place,
+     * the journals that it supersedes are deleted.  If the checkpoint
+     * fails, it is attempted again at the next checkpoint.
+     */
+    public void checkpoint() {
+      synchronized (checkpointLock) {
+        if (finalizing || job == null) {
+          return;
+        }
+
+        File file = new File(workingDirectory, CHECKPOINT_FILE_NAME);
+        File temp = new File(workingDirectory, CHECKPOINT_TEMP_FILE_NAME);
+        List<Entry<Integer, Long>> tasks;
+        byte[] state;
+        jobLock.writeLock().lock();
+        try {
+          if (!jobs.containsKey(id) || finalizing) {
+            return;
+          }
+
+          state = saveState();
+          tasks = new ArrayList<Entry<Integer, Long>>(outstandingTasks.entrySet());
+
+          // Results accepted from here on are not reflected in the
+          // checkpoint, so they go to a new journal along with the results
+          // that have been accepted but not yet applied.
+          ResultJournal next = ResultJournal.create(
+              getJournalFile(journalGeneration + 1), resultQueue,
+              journalCommitInterval);
+          journalGeneration++;
+          if (journal != null) {
+            try {
+              journal.close();
+            } catch (IOException e) {
+              logger.warn("Could not close journal for job " + id.toString(), e);
+            }
+          }
+          journal = next;
+          deferPayloadFrees();
+        } catch (JobExecutionException e) {
+          checkpointFailed(e);
+          return;
+        } catch (IOException e) {
+          checkpointFailed(e);
+          return;
+        } catch (RuntimeException e) {
+          checkpointFailed(e);
+          return;
+        } finally {
+          jobLock.writeLock().unlock();
+        }
+
+        try {
+          FileOutputStream stream = new FileOutputStream(temp);
+          try {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream));
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeUTF(description != null ? description : "");
+            out.writeInt(classManager.getChildId());
+
+            ObjectOutputStream oout = new ObjectOutputStream(out);
+            oout.writeLong(journalGeneration);
+            oout.writeObject(definition);
+            oout.writeInt(tasks.size());
+            for (Entry<Integer, Long> task : tasks) {
+              byte[] data = payloads.getBytes(task.getValue());
+              if (data == null) {
+                throw new IOException("Task payload is missing");
+              }
+              oout.writeInt(task.getKey());
+              oout.writeInt(data.length);
+              oout.write(data);
+            }
+            oout.writeInt(state.length);
+            oout.write(state);
+            oout.flush();
+            stream.getFD().sync();
+          } finally {
+            stream.close();
+          }
+
+          Files.move(temp.toPath(), file.toPath(),
+              StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+          deleteJournals(journalGeneration);
+          checkpointFailures = 0;
+        } catch (IOException e) {
+          checkpointFailed(e);
+        } catch (RuntimeException e) {
+          checkpointFailed(e);
+        } finally {
+          freeDeferredPayloads();
+        }
+
+        // The job may have been removed while the checkpoint was written.
+        if (!jobs.containsKey(id)) {
+          deleteCheckpoint();
+        }
+      }
+    }
+
+    /**
+     * Captures the state of the task tracker and the state saved by the
+     * job.  The caller must hold {@link #jobLock} exclusively.
+     * @return The captured state.
+     * @throws JobExecutionException If the job fails to save its state.
+     * @throws IOException If the state cannot be serialized.
+     */
+    private byte[] saveState() throws JobExecutionException, IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream sout = new ObjectOutputStream(bytes);
+      taskTracker.writeState(sout);
+      try {
+        ServerUtil.setHostService(this);
+        job.saveState(sout);
+      } finally {
+        ServerUtil.clearHostService();
+      }
+      sout.close();
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Records a failed attempt to checkpoint this job.  The caller must
+     * hold {@link #checkpointLock}.
+     * @param e The exception that caused the checkpoint to fail.
+     */
+    private void checkpointFailed(Exception e) {
+      new File(workingDirectory, CHECKPOINT_TEMP_FILE_NAME).delete();
+      if (++checkpointFailures == 1) {
+        logger.warn("Could not checkpoint job " + id.toString()
+            + ", will retry at the next checkpoint", e);
+      } else if (logger.isDebugEnabled()) {
+        logger.debug("Could not checkpoint job " + id.toString() + " ("
+            + Integer.toString(checkpointFailures) + " attempts)", e);
+      }
+    }
+
+    /**
+     * Frees a stored task payload, unless a checkpoint that may still need
+     * it is being written, in which case it is freed once the checkpoint
+     * is written.
+     * @param handle The handle of the payload to free.
+     */
+    private void freePayload(long handle) {
+      synchronized (payloads) {
+        if (deferredFrees != null) {
+          deferredFrees.add(handle);
+          return;
+        }
+      }
+      payloads.free(handle);
+    }
+
+    /**
+     * Holds back payloads from being freed until
+     * {@link #freeDeferredPayloads()} is called.
+     */
+    private void deferPayloadFrees() {
+      synchronized (payloads) {
+        deferredFrees = new ArrayList<Long>();
+      }
+    }
+
+    /**
+     * Frees the payloads held back since {@link #deferPayloadFrees()} was
+     * called.
+     */
+    private void freeDeferredPayloads() {
+      List<Long> handles;
+      synchronized (payloads) {
+        handles = deferredFrees;
+        deferredFrees = null;
+      }
+      if (handles != null) {
+        for (long handle : handles) {
+          payloads.free(handle);
+        }
+      }
+    }
+
+    /**
+     * Gets the journal file with the specified generation number.
+     * @param generation The generation number of the journal.
+     * @return The journal file.
+     */
+    private File getJournalFile(long generation) {
+      return new File(workingDirectory,
+          JOURNAL_FILE_NAME + "." + Long.toString(generation));
+    }
 
     /**
-     * The <code>ProgressMonitor</code> to use to monitor the progress of
-     * the <code>Job</code>.
+     * Finds the journals in the working directory.
+     * @return The journal files, by generation number.  A journal written
+     *     alongside a checkpoint in an earlier format has generation -1.
      */
-    public final ProgressMonitor      monitor;
+    private SortedMap<Long, File> getJournalFiles() {
+      SortedMap<Long, File> files = new TreeMap<Long, File>();
+      File legacy = new File(workingDirectory, JOURNAL_FILE_NAME);
+      if (legacy.isFile()) {
+        files.put(-1L, legacy);
+      }
+      String prefix = JOURNAL_FILE_NAME + ".";
+      String[] names = workingDirectory.list();
+      if (names != null) {
+        for (String name : names) {
+          if (name.startsWith(prefix)) {
+            try {
+              long generation = Long.parseLong(name.substring(prefix.length()));
+              files.put(generation, new File(workingDirectory, name));
+            } catch (NumberFormatException e) {
+              /* not a journal (e.g., a journal being created). */
+            }
+          }
+        }
+      }
+      return files;
+    }
 
     /**
-     * The <code>ClassManager</code> to use to store the class definitions
-     * applicable to this job.
+     * Deletes the journals older than the specified generation.
+     * @param generation The generation number of the oldest journal to
+     *     keep.
      */
-    public final ChildClassManager      classManager;
+    private void deleteJournals(long generation) {
+      for (File file : getJournalFiles().headMap(generation).values()) {
+        file.delete();
+      }
+    }
 
-    /** The working directory for this job. */
-    private final File            workingDirectory;
+    /**
+     * Closes the result journal for this job, if any.  Results accepted
+     * afterward are not journaled.
+     */
+    private void closeJournal() {
+      ResultJournal journal = this.journal;
+      this.journal = null;
+      if (journal != null) {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          logger.warn("Could not close journal for job " + id.toString(), e);
+        }
+      }
+    }
 
-    /** The <code>ClassLoader</code> to use to deserialize this job. */
-    public ClassLoader            classLoader;
+    /**
+     * Deletes the checkpoint and result journals for this job, if any.
+     */
+    public void deleteCheckpoint() {
+      closeJournal();
+      new File(workingDirectory, CHECKPOINT_FILE_NAME).delete();
+      deleteJournals(Long.MAX_VALUE);
+    }
 
-    /** A value indicating if the last attempt to obtain a task failed. */
-    private boolean              stalled = false;
+    /**
+     * Submits the results for a task associated with this job.
+     * @param taskId The ID of the task whose results are being submitted.
+     * @param results The serialized results.
+     */
+    public void submitTaskResults(int taskId, Serialized<Object> results) {
+      submitTaskResults(Collections.singletonList(taskId),
+          Collections.singletonList(results));
+    }
 
     /**
-     * Initializes the scheduled job.
-     * @param description A description of the job.
-     * @param monitor The <code>ProgressMonitor</code> to use to monitor
-     *     the progress of the <code>ParallelizableJob</code>.
+     * Submits the results for several tasks associated with this job.  The
+     * results are queued and applied to the job in the order they were
+     * accepted by a single <code>TaskResultSubmitter</code>.  If the job
+     * has been checkpointed,
+     * the results are first written to the job's journal, and this method
+     * does not return until they are on disk.
+     * @param taskIds The IDs of the tasks whose results are being
+     *     submitted.
+     * @param results The serialized results, in the same order as
+     *     <code>taskIds</code>.
      */
-    public ScheduledJob(String description, ProgressMonitor monitor) {
+    public void submitTaskResults(List<Integer> taskIds,
+        List<Serialized<Object>> results) {
+      boolean accepted = false;
+      ResultJournal journal = null;
+      long seq = 0;
+      jobLock.readLock().lock();
+      try {
+        journal = this.journal;
+        for (int i = 0, n = taskIds.size(); i < n; i++) {
+          TaskDescription taskDesc = scheduler.remove(id, taskIds.get(i));
+          if (taskDesc != null) {
+            byte[] data = ResultJournal.encode(results.get(i));
+            taskTracker.setComplete(taskDesc.getTaskId());
+            resultQueue.add(taskDesc, data);
+            accepted = true;
+            if (journal != null) {
+              try {
+                seq = journal.append(taskDesc.getTaskId(), data);
+              } catch (IOException e) {
+                logger.error("Could not journal results for job " + id.toString(), e);
+                journal = null;
+              }
+            }
+          }
+        }
+      } finally {
+        jobLock.readLock().unlock();
+      }
 
-      this.id          = UUID.randomUUID();
-      this.description    = description;
+      if (journal != null && seq > 0) {
+        try {
+          journal.awaitCommit(seq);
+        } catch (IOException e) {
+          logger.error("Could not sync journal for job " + id.toString(), e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
 
-      //String title      = String.format("%s (%s)", this.job.getClass().getSimpleName(), this.id.toString());
-      this.monitor      = monitor;
-      this.monitor.notifyStatusChanged("Awaiting job submission");
+      if (accepted) {
+        startAggregator();
+      }
+    }
 
-      this.classManager    = JobServer.this.classManager.createChildClassManager();
+    /**
+     * Submits the results for a task associated with this job, held in a
+     * file.  The results are queued and applied as for
+     * {@link #submitTaskResults(List, List)}, but are read from the file
+     * rather than being held in memory.  If the results are accepted, this
+     * job takes ownership of the file.
+     * @param taskId The ID of the task whose results are being submitted.
+     * @param file The file holding the serialized results.
+     * @param length The length of the serialized results.
+     * @return A value indicating whether the results were accepted.  If
+     *     not, the caller is responsible for deleting the file.
+     */
+    public boolean submitTaskResults(int taskId, File file, long length) {
+      ResultJournal journal = null;
+      long seq = 0;
+      jobLock.readLock().lock();
+      try {
+        TaskDescription taskDesc = scheduler.remove(id, taskId);
+        if (taskDesc == null) {
+          return false;
+        }
+        taskTracker.setComplete(taskId);
 
-      this.workingDirectory  = new File(outputDirectory, id.toString());
+        // Journal the results before queuing them, as the file is deleted
+        // once the results have been applied.
+        journal = this.journal;
+        if (journal != null) {
+          try {
+            seq = journal.append(taskId, file, length);
+          } catch (IOException e) {
+            logger.error("Could not journal results for job " + id.toString(), e);
+            journal = null;
+          }
+        }
+        resultQueue.addFile(taskDesc, file, length);
+      } finally {
+        jobLock.readLock().unlock();
+      }
 
-      setJobStatus(new JobStatus(id, description, JobState.NEW, 0.0,
-          "Awaiting job submission"));
+      if (journal != null && seq > 0) {
+        try {
+          journal.awaitCommit(seq);
+        } catch (IOException e) {
+          logger.error("Could not sync journal for job " + id.toString(), e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
 
+      startAggregator();
+      return true;
     }
 
     /**
-     * Gets the current status of this job.
-     * @return The current <code>JobStatus</code> for this job.
+     * Starts applying queued results to this job, if that is not already
+     * in progress.
      */
-    private JobStatus getJobStatus() {
-      return statusByJobId.get(id);
+    private void startAggregator() {
+      if (aggregating.compareAndSet(false, true)) {
+        try {
+          executor.execute(aggregator);
+        } catch (RejectedExecutionException e) {
+          aggregator.run();
+        }
+      }
     }
 
     /**
-     * Sets the status of this job.
-     * @param newStatus The new <code>JobStatus</code> for this job.
+     * Reports an exception thrown by a worker while processing a task for
+     * this job.
+     * @param taskId The ID of the task that was being processed.
+     * @param ex The exception that was thrown.
      */
-    private synchronized void setJobStatus(JobStatus newStatus) {
-      updateStatus(newStatus);
-      notifyAll();  // wake up any listeners.
+    public void reportException(int taskId, Exception ex) {
+      if (taskId != 0) {
+        log.log(String.format("A worker reported an exception while processing a task (%d):", taskId), ex);
+      } else {
+        log.log("A worker reported an exception while processing the job:", ex);
+      }
     }
 
     /**
-     * Wait for a status change for this job.
-     * @param lastEventId The ID of the last event received, or
-     *     <code>Long.MIN_VALUE</code> to indicate that no events had been
-     *     received previously.
-     * @param timeoutMillis The maximum amount of time (in milliseconds) to
-     *     wait before returning.  If zero, then the call will return
-     *     immediately.  If negative, the call will wait indefinitely.
-     * @return If an event has already occurred subsequent to the event with
-     *     ID <code>lastEventId</code>, the pending <code>JobStatus</code>
-     *     event will be returned.  Otherwise, the call will wait up to
-     *     <code>timeoutMillis</code> milliseconds for an event to occur.
-     *     If one does occur in that time, that <code>JobStatus</code> will
-     *     be returned.  If no event occurs, <code>null</code> is returned.
+     * Schedules the next task for this job.  A task that has already been
+     * generated is handed to the <code>TaskScheduler</code> if one is
+     * available.  Otherwise, the next task generated for this job will be
+     * scheduled as soon as it is ready.  In either case, the background
+     * producer is started to replenish the buffer of ready tasks.
      */
-    public synchronized JobStatus waitForJobStatusChange(long lastEventId, long timeoutMillis) {
-
-      // when should I time out?
-      long end = timeoutMillis >= 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
-
-      // wait loop
-      while (getJobStatus().getEventId() <= lastEventId) {
-        try {
-          long time = System.currentTimeMillis();
-          if (time >= end) {
-            return null;    // timeout
-          }
-          wait(end - time);
-        } catch (InterruptedException e) { /* nothing to do. */ }
+    public void scheduleNextTask() {
+      TaskDescription desc = readyTasks.poll();
+      if (desc != null) {
+        schedule(desc);
+        notifyTasksAvailable(1);
+      } else {
+        starved.set(true);
+        if (stalled) {
+          setExhausted(true);
+        }
       }
+      startProducer();
+    }
 
-      // we found a newer event.
-      return getJobStatus();
-
+    /**
+     * Hands a task for this job to the <code>TaskScheduler</code>.
+     * @param desc The <code>TaskDescription</code> for the task to schedule.
+     */
+    private void schedule(TaskDescription desc) {
+      scheduler.add(desc);
+      if (!scheduled) {
+        registerWithScheduler();
+      }
     }
 
     /**
-     * Deserializes the job and prepares it to be managed by the host
-     * machine.
-     * @param job The serialized job.
-     * @throws ClassNotFoundException If a class required by the job is
-     *     missing.
-     * @throws JobExecutionException If the job throws an exception.
+     * Passes the priority and deadline of this job on to the
+     * <code>TaskScheduler</code> once it holds a task for this job.
      */
-    public void initializeJob(Serialized<ParallelizableJob> job) throws ClassNotFoundException, JobExecutionException {
-      this.classLoader  = new StrategyClassLoader(classManager, JobServer.class.getClassLoader());
-      this.job      = new JobExecutionWrapper(job.deserialize(classLoader));
-      this.worker      = new Serialized<TaskWorker>(this.job.worker());
-      notifyStatusChanged("");
+    private synchronized void registerWithScheduler() {
+      if (!scheduled) {
+        scheduled = true;
+        scheduler.setJobPriority(id, priority);
+        scheduler.setJobDeadline(id, deadline);
+        scheduler.setJobExhausted(id, exhausted);
+      }
+    }
 
-      this.workingDirectory.mkdir();
-      this.job.setHostService(this);
+    /**
+     * Sets the priority of this job.
+     * @param priority The priority to assign to this job.
+     */
+    public synchronized void setPriority(int priority) {
+      this.priority = priority;
+      if (scheduled) {
+        scheduler.setJobPriority(id, priority);
+      }
+    }
 
-      File logFile = new File(workingDirectory, "job.log");
-      PrintStream log;
-      try {
-        Date now = new Date();
-        log = new PrintStream(new FileOutputStream(logFile, true));
-        log.printf("%tc: Job %s submitted.", now, id.toString());
-        log.println();
-        log.printf("%tc: Description: ", now);
-        log.println(description);
-        log.flush();
-        log.close();
-      } catch (FileNotFoundException e) {
-        logger.error("Unable to open job log file.", e);
+    /**
+     * Sets the deadline of this job.
+     * @param deadline The time by which this job should be complete, or
+     *     <code>null</code> if it has no deadline.
+     */
+    public synchronized void setDeadline(Date deadline) {
+      this.deadline = deadline;
+      if (scheduled) {
+        scheduler.setJobDeadline(id, deadline);
       }
+    }
 
-      this.job.initialize();
+    /**
+     * Tells the <code>TaskScheduler</code> whether this job cannot provide
+     * more tasks until some of its outstanding tasks are complete, so that
+     * speculative copies of outstanding tasks are only served once the job
+     * has no fresh tasks left to offer.
+     * @param exhausted A value indicating if this job cannot provide more
+     *     tasks.
+     */
+    private synchronized void setExhausted(boolean exhausted) {
+      if (this.exhausted != exhausted) {
+        this.exhausted = exhausted;
+        scheduler.setJobExhausted(id, exhausted);
+      }
     }
 
     /**
-     * Submits the results for a task associated with this job.
-     * @param taskId The ID of the task whose results are being submitted.
-     * @param results The serialized results.
+     * Starts the background producer for this job if it is not already
+     * running.
      */
-    public void submitTaskResults(int taskId, Serialized<Object> results) {
-      TaskDescription taskDesc = scheduler.remove(id, taskId);
-      if (taskDesc != null) {
-        Object task = taskDesc.getTask().get();
-        Runnable command = new TaskResultSubmitter(this, task, results, this);
+    private void startProducer() {
+      if (producing.compareAndSet(false, true)) {
         try {
-          executor.execute(command);
+          executor.execute(producer);
         } catch (RejectedExecutionException e) {
-          command.run();
+          producer.run();
         }
       }
     }
 
     /**
-     * Reports an exception thrown by a worker while processing a task for
-     * this job.
-     * @param taskId The ID of the task that was being processed.
-     * @param ex The exception that was thrown.
+     * Generates tasks for this job until the buffer of ready tasks is full
+     * or the job has no more tasks to provide at this time.
      */
-    public synchronized void reportException(int taskId, Exception ex) {
-      PrintStream log = null;
-
+    private void produceTasks() {
       try {
-        File logFile = new File(workingDirectory, "job.log");
-        log = new PrintStream(new FileOutputStream(logFile, true));
-        if (taskId != 0) {
-          log.printf("%tc: A worker reported an exception while processing the job:", new Date());
-        } else {
-          log.printf("%tc: A worker reported an exception while processing a task (%d):", new Date(), taskId);
-        }
-        log.println();
-        ex.printStackTrace(log);
+        ServerUtil.setHostService(this);
+        do {
+          while (readyTasks.size() < taskBufferDepth && jobs.containsKey(id)) {
+            TaskDescription desc = produceTask();
+            stalled = (desc == null);
+            if (stalled) {
+              if (readyTasks.isEmpty()) {
+                setExhausted(true);
+              }
+              break;
+            }
+            if (exhausted) {
+              setExhausted(false);
+            }
+            if (starved.compareAndSet(true, false)) {
+              schedule(desc);
+              notifyTasksAvailable(1);
+            } else {
+              readyTasks.add(desc);
+            }
+          }
+          producing.set(false);
+
+          // A task may have been requested after the loop above finished
+          // but before the flag was cleared.
+        } while (!stalled && jobs.containsKey(id)
+            && (starved.get() || readyTasks.size() < taskBufferDepth)
+            && producing.compareAndSet(false, true));
+      } catch (JobExecutionException e) {
+        producing.set(false);
+        handleJobExecutionException(e, id);
       } catch (IOException e) {
-        logger.error("Exception thrown while logging exception for job " + id.toString(), e);
+        producing.set(false);
+        logger.error("Could not store task for job " + id.toString(), e);
+        removeScheduledJob(id, false);
       } finally {
-        if (log != null) {
-          log.close();
-        }
+        ServerUtil.clearHostService();
       }
+    }
 
+    /**
+     * Gets the <code>TaskDescription</code> to hand out to a worker for a
+     * task selected by the <code>TaskScheduler</code>.  The payload of the
+     * task is read directly from the payload store.
+     * @param desc The <code>TaskDescription</code> held by the
+     *     <code>TaskScheduler</code>.
+     * @return The <code>TaskDescription</code>, including the payload of
+     *     the task, or <code>null</code> if the task is no longer
+     *     outstanding.
+     */
+    public TaskDescription getTaskDescription(TaskDescription desc) {
+      Long handle = outstandingTasks.get(desc.getTaskId());
+      if (handle == null) {
+        return null;
+      }
+      try {
+        Serialized<Object> task = payloads.read(handle);
+        return (task != null)
+            ? TaskDescription.fromSerialized(id, desc.getTaskId(), task)
+            : null;
+      } catch (IOException e) {
+        logger.error("Could not read task for job " + id.toString(), e);
+        return null;
+      }
     }
 
     /**
-     * Generates a unique task identifier.
-     * @return The generated task ID.
+     * Obtains the next task from the job and records it as outstanding.
+     * The payload of the task is placed in the payload store, and the
+     * returned <code>TaskDescription</code> does not hold it.
+     * @return The <code>TaskDescription</code> for the new task, or
+     *     <code>null</code> if the job has no task to provide at this time.
+     * @throws JobExecutionException If the job throws an exception.
+     * @throws IOException If the payload of the task cannot be stored.
+     * @see #getTaskDescription(TaskDescription)
      */
-    private int generateTaskId() {
-      int taskId;
-      do {
-        taskId = rand.nextInt();
-      } while (taskId != 0 && scheduler.contains(id, taskId));
-      return taskId;
+    private TaskDescription produceTask() throws JobExecutionException,
+        IOException {
+      jobLock.readLock().lock();
+      try {
+        Object task = job.getNextTask();
+        if (task == null) {
+          return null;
+        }
+        int taskId = taskTracker.nextTaskId();
+        long handle = payloads.put(ResultJournal.encode(new Serialized<Object>(task)));
+        outstandingTasks.put(taskId, handle);
+        return TaskDescription.fromSerialized(id, taskId, null);
+      } finally {
+        jobLock.readLock().unlock();
+      }
     }
 
     /**
-     * Obtains and schedules the next task for this job.
-     * @throws JobExecutionException If the job throws an exception while
-     *     attempting to obtain the next task.
+     * Marks this job as finalizing and archives its results in the
+     * background.  Once the results are archived, the job is removed.
      */
-    public void scheduleNextTask() throws JobExecutionException {
-      Object task = job.getNextTask();
-      stalled = (task == null);
-      if (!stalled) {
-        int taskId = generateTaskId();
-        TaskDescription desc = new TaskDescription(id, taskId, task);
-        scheduler.add(desc);
+    private void beginFinalize() {
+      finalizing = true;
+      scheduler.removeJob(id);
+      setJobStatus(getJobStatus().asFinalizing());
+      notifyStatusChanged("Finalizing");
+
+      Runnable finalizer = new Runnable() {
+        public void run() {
+          try {
+            ServerUtil.setHostService(ScheduledJob.this);
+            removeScheduledJob(id, finalizeJob());
+          } catch (JobExecutionException e) {
+            handleJobExecutionException(e, id);
+          } finally {
+            ServerUtil.clearHostService();
+          }
+        }
+      };
+      try {
+        executor.execute(finalizer);
+      } catch (RejectedExecutionException e) {
+        finalizer.run();
       }
     }
 
     /**
      * Writes the results of a <code>ScheduledJob</code> to the output
-     * directory.
-     * @param sched The <code>ScheduledJob</code> to write results for.
+     * directory.  The checkpoint is kept until the archive is complete, so
+     * that finalization is repeated if the server stops in the meantime.
+     * If the archive cannot be written, the working directory is left in
+     * place.
+     * @return A value indicating if the results were archived.
      * @throws JobExecutionException If the job throws an exception.
      */
-    private synchronized void finalizeJob() throws JobExecutionException {
+    private boolean finalizeJob() throws JobExecutionException {
 
       assert(job.isComplete());
 
-      job.finish();
+      // Wait for any checkpoint in progress to finish.
+      synchronized (checkpointLock) {
+        jobLock.writeLock().lock();
+        try {
+          job.finish();
+        } finally {
+          jobLock.writeLock().unlock();
+        }
+      }
 
-      try {
+      String        filename    = String.format("%s.zip", id.toString());
+      File        outputFile    = new File(outputDirectory, filename);
+      File        partialFile    = new File(outputDirectory, filename + PARTIAL_OUTPUT_SUFFIX);
 
-        String        filename    = String.format("%s.zip", id.toString());
-        File        outputFile    = new File(outputDirectory, filename);
+      log.log(String.format("Job %s completed.", id.toString()));
+      if (!log.close()) {
+        logger.warn("Job log for job " + id.toString() + " is incomplete.");
+      }
 
-        File        logFile      = new File(workingDirectory, "job.log");
-        PrintStream      log        = new PrintStream(new FileOutputStream(logFile, true));
+      // Release the files held open in the working directory, so that they
+      // are not archived while being written and may be deleted afterward.
+      closeJournal();
+      payloads.close();
+      abortUploads(id);
+      resultQueue.clear();
 
-        log.printf("%tc: Job %s completed.", new Date(), id.toString());
-        log.println();
-        log.flush();
-        log.close();
+      try {
 
-        FileUtil.zip(outputFile, workingDirectory);
+        ParallelZipWriter zip = new ParallelZipWriter(partialFile,
+            compressor, compressionThreads,
+            compressOutput ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+        try {
+          zip.addDirectory(workingDirectory, new FileFilter() {
+            public boolean accept(File file) {
+              if (!file.getParentFile().equals(workingDirectory)) {
+                return true;
+              }
+              String name = file.getName();
+              return !name.startsWith(CHECKPOINT_FILE_NAME)
+                  && !name.startsWith(JOURNAL_FILE_NAME)
+                  && !name.equals(RESULT_SPILL_FILE_NAME)
+                  && !name.startsWith(PAYLOAD_FILE_PREFIX)
+                  && !name.startsWith(UPLOAD_FILE_PREFIX);
+            }
+          });
+        } finally {
+          zip.close();
+        }
+        Files.move(partialFile.toPath(), outputFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
         FileUtil.deleteRecursive(workingDirectory);
+        return true;
 
       } catch (IOException e) {
+        partialFile.delete();
         logger.error("Exception caught while finalizing job " + id.toString(), e);
+        notifyStatusChanged("Could not write results: " + e.getMessage());
+        return false;
       }
 
     }
@@ -907,20 +3274,20 @@ public final class JobServer implements JobService {
 
     @Override
     public boolean notifyProgress(int value, int maximum) {
-      setJobStatus(getJobStatus().withProgress((double) value / (double) maximum));
-      return monitor.notifyProgress(value, maximum);
+      setProgress((double) value / (double) maximum, value, maximum);
+      return !monitor.isCancelPending();
     }
 
     @Override
     public boolean notifyProgress(double progress) {
-      setJobStatus(getJobStatus().withProgress(progress));
-      return monitor.notifyProgress(progress);
+      setProgress(progress, 0, 0);
+      return !monitor.isCancelPending();
     }
 
     @Override
     public boolean notifyIndeterminantProgress() {
-      setJobStatus(getJobStatus().withIndeterminantProgress());
-      return monitor.notifyIndeterminantProgress();
+      setProgress(Double.NaN, 0, 0);
+      return !monitor.isCancelPending();
     }
 
     @Override
@@ -954,81 +3321,109 @@ public final class JobServer implements JobService {
   }
 
   /**
-   * A <code>Runnable</code> task for submitting task results asynchronously.
+   * A <code>Runnable</code> task for applying the results queued for a job,
+   * in order, asynchronously.  At most one <code>TaskResultSubmitter</code>
+   * runs for a job at a time.
    * @author Brad Kimmel
    */
   private class TaskResultSubmitter implements Runnable {
 
     /**
-     * The <code>ScheduledJob</code> associated with the task whose results
-     * are being submitted.
+     * The <code>ScheduledJob</code> whose queued results are to be applied.
      */
     private final ScheduledJob sched;
 
-    /**
-     * The <code>Object</code> describing the task whose results are being
-     * submitted.
-     */
-    private final Object task;
-
-    /** The serialized task results. */
-    private final Serialized<Object> results;
-
-    /** The <code>ProgressMonitor</code> to report job progress to. */
-    private final ProgressMonitor monitor;
-
     /**
      * Creates a new <code>TaskResultSubmitter</code>.
-     * @param sched The <code>ScheduledJob</code> associated with the task
-     *     whose results are being submitted.
-     * @param task The <code>Object</code> describing the task whose
-     *     results are being submitted.
-     * @param results The serialized task results.
-     * @param monitor The <code>ProgressMonitor</code> to report job
-     *     progress to.
-     */
-    public TaskResultSubmitter(ScheduledJob sched, Object task,
-        Serialized<Object> results, ProgressMonitor monitor) {
+     * @param sched The <code>ScheduledJob</code> whose queued results are to
+     *     be applied.
+     */
+    public TaskResultSubmitter(ScheduledJob sched) {
       this.sched = sched;
-      this.task = task;
-      this.results = results;
-      this.monitor = monitor;
     }
 
     @Override
     public void run() {
-      ClassLoader cl = sched.classLoader;
-      if (task != null) {
+      do {
         try {
-          ServerUtil.setHostService(sched);
-          sched.job.submitTaskResults(task,
-              results.deserialize(cl), monitor);
-
-          if (sched.job.isComplete()) {
-            sched.finalizeJob();
-            removeScheduledJob(sched.id, true);
-          } else {
-            synchronized (sched) {
-              if (sched.stalled) {
-                sched.scheduleNextTask();
+          applyResults();
+        } finally {
+          sched.aggregating.set(false);
+        }
+
+        // Results may have been queued after the loop in applyResults
+        // finished but before the flag was cleared.
+      } while (!sched.resultQueue.isEmpty() && !sched.finalizing
+          && jobs.containsKey(sched.id)
+          && sched.aggregating.compareAndSet(false, true));
+    }
+
+    /**
+     * Applies the queued results to the job until the queue is empty.
+     */
+    private void applyResults() {
+      ClassLoader cl = sched.classLoader;
+      try {
+        ServerUtil.setHostService(sched);
+        boolean complete = false;
+        while (!complete && !sched.finalizing) {
+          sched.jobLock.readLock().lock();
+          try {
+            ResultQueue.Entry entry = sched.resultQueue.poll();
+            if (entry == null) {
+              break;
+            }
+            try {
+              TaskDescription taskDesc = entry.getTask();
+              Long handle = sched.outstandingTasks.remove(taskDesc.getTaskId());
+              Serialized<Object> task = (handle != null)
+                  ? sched.payloads.read(handle) : null;
+              if (task != null) {
+                Object results;
+                InputStream in = entry.openStream();
+                try {
+                  results = ResultJournal.readResults(in, cl);
+                } finally {
+                  in.close();
+                }
+                sched.job.submitTaskResults(task.deserialize(cl), results, sched);
+                sched.freePayload(handle);
               }
+              sched.resultQueue.recordApplied(entry);
+            } finally {
+              entry.dispose();
             }
+
+            complete = sched.job.isComplete();
+          } finally {
+            sched.jobLock.readLock().unlock();
           }
-        } catch (JobExecutionException e) {
-          handleJobExecutionException(e, sched.id);
-        } catch (ClassNotFoundException e) {
-          logger.error(
-              "Exception thrown submitting results of task for job "
-                  + sched.id.toString(), e);
-          removeScheduledJob(sched.id, false);
-        } catch (Exception e) {
-          logger.error(
-              "Exception thrown while attempting to submit task results for job "
-                  + sched.id.toString(), e);
-          removeScheduledJob(sched.id, false);
-        } finally {
-          ServerUtil.clearHostService();
         }
+
+        // The finalizer may run on this thread and takes the write lock,
+        // so the read lock must be released before finalizing begins.
+        if (complete) {
+          sched.beginFinalize();
+          return;
+        }
+
+        if (sched.stalled) {
+          sched.startProducer();
+        }
+      } catch (JobExecutionException e) {
+        handleJobExecutionException(e, sched.id);
+      } catch (ClassNotFoundException e) {
+        logger.error(
+            "Exception thrown submitting results of task for job "
+                + sched.id.toString(), e);
+        removeScheduledJob(sched.id, false);
+      } catch (Exception e) {
+        logger.error(
+            "Exception thrown while attempting to submit task results for job "
+                + sched.id.toString(), e);
+        removeScheduledJob(sched.id, false);
+      } finally {
+        ServerUtil.clearHostService();
       }
     }
 
@@ -1120,6 +3515,43 @@ public final class JobServer implements JobService {
 
   }
 
+  @Override
+  public synchronized JobStatus[] waitForJobStatusChanges(long lastEventId,
+      int maxEvents, long timeoutMillis) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+
+    if (maxEvents <= 0) {
+      throw new IllegalArgumentException("maxEvents must be positive");
+    }
+
+    // when should I time out?
+    long end = timeoutMillis >= 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+
+    // wait loop
+    while (statusByEventId.tailMap(lastEventId + 1).isEmpty()) {
+      try {
+        long time = System.currentTimeMillis();
+        if (time >= end) {
+          return new JobStatus[0];    // timeout
+        }
+        wait(end - time);
+      } catch (InterruptedException e) { /* nothing to do. */ }
+    }
+
+    // collect the events newer than the last event the caller has seen.
+    List<JobStatus> events = new ArrayList<JobStatus>();
+    synchronized (statusByEventId) {
+      for (JobStatus status : statusByEventId.tailMap(lastEventId + 1).values()) {
+        events.add(status);
+        if (events.size() >= maxEvents) {
+          break;
+        }
+      }
+    }
+    return events.toArray(new JobStatus[events.size()]);
+
+  }
+
   @Override
   public JobStatus waitForJobStatusChange(UUID jobId, long lastEventId, long timeoutMillis)
       throws IllegalArgumentException, SecurityException, RemoteException {
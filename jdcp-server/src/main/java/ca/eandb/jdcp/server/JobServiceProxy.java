@@ -31,6 +31,7 @@ import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.BitSet;
+import java.util.Date;
 import java.util.UUID;
 
 import javax.security.auth.Subject;
@@ -257,6 +258,62 @@ public final class JobServiceProxy extends UnicastRemoteObject implements JobSer
 
   }
 
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      return (TaskDescription[]) Subject.doAsPrivileged(user, new PrivilegedExceptionAction<TaskDescription[]>() {
+
+        public TaskDescription[] run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("requestTask"));
+          return service.requestTasks(maxTasks, preferredJobIds);
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds, final long timeoutMillis)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      return (TaskDescription[]) Subject.doAsPrivileged(user, new PrivilegedExceptionAction<TaskDescription[]>() {
+
+        public TaskDescription[] run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("requestTask"));
+          return service.requestTasks(maxTasks, preferredJobIds, timeoutMillis);
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
   @Override
   public void setClassDefinition(final String name, final byte[] def)
       throws SecurityException, RemoteException {
@@ -367,6 +424,34 @@ public final class JobServiceProxy extends UnicastRemoteObject implements JobSer
 
   }
 
+  @Override
+  public void setJobDeadline(final UUID jobId, final Date deadline)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      Subject.doAsPrivileged(user, new PrivilegedExceptionAction<Object>() {
+
+        public Object run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("setJobDeadline"));
+          service.setJobDeadline(jobId, deadline);
+          return null;
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
   @Override
   public void submitJob(final Serialized<ParallelizableJob> job, final UUID jobId)
       throws IllegalArgumentException, SecurityException,
@@ -460,6 +545,35 @@ public final class JobServiceProxy extends UnicastRemoteObject implements JobSer
 
   }
 
+  @Override
+  public void submitTaskResults(final UUID[] jobIds, final int[] taskIds,
+      final Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+
+    try {
+      Subject.doAsPrivileged(user, new PrivilegedExceptionAction<Object>() {
+
+        public Object run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("submitTaskResults"));
+          service.submitTaskResults(jobIds, taskIds, results);
+          return null;
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
   @Override
   public void reportException(final UUID jobId, final int taskId,
       final Exception ex) throws SecurityException,
@@ -514,6 +628,90 @@ public final class JobServiceProxy extends UnicastRemoteObject implements JobSer
 
   }
 
+  @Override
+  public long beginTaskResultsUpload(final UUID jobId, final int taskId)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      return (Long) Subject.doAsPrivileged(user, new PrivilegedExceptionAction<Long>() {
+
+        public Long run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("submitTaskResults"));
+          return service.beginTaskResultsUpload(jobId, taskId);
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(final long uploadId, final long offset,
+      final byte[] chunk) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+
+    try {
+      Subject.doAsPrivileged(user, new PrivilegedExceptionAction<Object>() {
+
+        public Object run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("submitTaskResults"));
+          service.uploadTaskResultsChunk(uploadId, offset, chunk);
+          return null;
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
+  @Override
+  public void endTaskResultsUpload(final long uploadId, final boolean commit)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      Subject.doAsPrivileged(user, new PrivilegedExceptionAction<Object>() {
+
+        public Object run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("submitTaskResults"));
+          service.endTaskResultsUpload(uploadId, commit);
+          return null;
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
   @Override
   public void registerTaskService(final String name, final TaskService taskService)
       throws SecurityException, RemoteException {
@@ -595,6 +793,34 @@ public final class JobServiceProxy extends UnicastRemoteObject implements JobSer
 
   }
 
+  @Override
+  public JobStatus[] waitForJobStatusChanges(final long lastEventId,
+      final int maxEvents, final long timeoutMillis)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+
+    try {
+      return (JobStatus[]) Subject.doAsPrivileged(user, new PrivilegedExceptionAction<JobStatus[]>() {
+
+        public JobStatus[] run() throws Exception {
+          AccessController.checkPermission(new JdcpPermission("waitForJobStatusChange"));
+          return service.waitForJobStatusChanges(lastEventId, maxEvents, timeoutMillis);
+        }
+
+      }, null);
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getException();
+      } else if (e.getException() instanceof SecurityException) {
+        throw (SecurityException) e.getException();
+      } else if (e.getException() instanceof RemoteException) {
+        throw (RemoteException) e.getException();
+      } else {
+        throw new UnexpectedException(e);
+      }
+    }
+
+  }
+
   @Override
   public JobStatus waitForJobStatusChange(final UUID jobId, final long lastEventId,
       final long timeoutMillis) throws IllegalArgumentException,
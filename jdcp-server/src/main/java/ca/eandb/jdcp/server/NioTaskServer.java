@@ -0,0 +1,979 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.jdcp.remote.AuthenticationService;
+import ca.eandb.jdcp.remote.PayloadCompressor;
+import ca.eandb.jdcp.remote.TaskProtocol;
+import ca.eandb.jdcp.remote.TaskService;
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * Serves the <code>TaskService</code> methods over persistent connections
+ * using the binary framing described by {@link TaskProtocol}.  This is an
+ * alternative to RMI for the calls that workers make most often.  A single
+ * thread accepts connections and reads and writes frames for all of them.
+ * Requests are processed on the provided <code>Executor</code>, so several
+ * requests from the same connection may be processed at once and their
+ * responses may be sent in any order.
+ *
+ * Each connection is authenticated using the provided
+ * <code>AuthenticationService</code>, and calls on that connection are made
+ * on the <code>JobService</code> it returns, so the same permissions apply
+ * as for workers connected through RMI.  No further requests are read from
+ * a connection while it is being authenticated, and a connection may only
+ * be authenticated once.
+ *
+ * Requests that wait for tasks to become available are held without a
+ * thread until this server is notified that tasks have been scheduled (see
+ * {@link JobServer#addTaskAvailabilityListener(TaskAvailabilityListener)}),
+ * or until their timeout expires.  Held requests are also retried
+ * periodically, so that tasks from sources that do not send notification
+ * are served.
+ * @author Brad Kimmel
+ */
+public final class NioTaskServer implements Closeable, TaskAvailabilityListener {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(NioTaskServer.class);
+
+  /** The initial size (in bytes) of the buffer for reading frames. */
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The maximum length (in bytes) of a frame received on a connection that
+   * has not been authenticated.
+   */
+  private static final int MAX_UNAUTHENTICATED_FRAME_LENGTH = INITIAL_BUFFER_SIZE - 4;
+
+  /**
+   * The maximum amount of time (in milliseconds) to hold a request waiting
+   * for tasks before checking again for tasks.
+   */
+  private static final long PARKED_RECHECK_INTERVAL = 1000;
+
+  /**
+   * The <code>TaskDescription</code> to use to notify a worker that its wait
+   * for tasks has timed out, and that it may request tasks again at once.
+   */
+  private static final TaskDescription RETRY_TASK = new TaskDescription(null, 0, 0);
+
+  /** The <code>AuthenticationService</code> to authenticate users with. */
+  private final AuthenticationService auth;
+
+  /** The <code>Executor</code> on which to process requests. */
+  private final Executor executor;
+
+  /** The <code>Selector</code> used to service all connections. */
+  private final Selector selector;
+
+  /** The channel on which to accept connections. */
+  private final ServerSocketChannel serverChannel;
+
+  /** The open connections. */
+  private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
+  /** The connections having responses that are waiting to be written. */
+  private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+
+  /**
+   * The connections that have finished authenticating, and on which
+   * reading is to resume.
+   */
+  private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<Connection>();
+
+  /** A value indicating if this server has been closed. */
+  private volatile boolean closed = false;
+
+  /**
+   * The <code>PayloadCompressor</code> to use for connections that have
+   * agreed to compression.
+   */
+  private final PayloadCompressor compressor = new PayloadCompressor();
+
+  /**
+   * A value indicating if compression will be agreed to for new
+   * connections that request it.
+   */
+  private volatile boolean compressionEnabled = true;
+
+  /** The requests that are waiting for tasks to become available. */
+  private final Queue<ParkedRequest> parkedRequests = new ConcurrentLinkedQueue<ParkedRequest>();
+
+  /** The number of times this server has been notified of new tasks. */
+  private final AtomicLong taskGeneration = new AtomicLong();
+
+  /**
+   * The number of tasks scheduled since the parked requests were last
+   * retried, which is the number of parked requests to wake.
+   */
+  private final AtomicInteger tasksScheduled = new AtomicInteger();
+
+  /**
+   * The value of {@link #taskGeneration} when the parked requests were last
+   * retried.  This is only accessed on the selector thread.
+   */
+  private long resumedGeneration = 0;
+
+  /**
+   * A request that is waiting for tasks to become available.
+   */
+  private final class ParkedRequest {
+
+    /** The <code>Connection</code> on which the request was received. */
+    public final Connection conn;
+
+    /** The ID of the request. */
+    public final int requestId;
+
+    /** The maximum number of tasks to return. */
+    public final int maxTasks;
+
+    /** The <code>UUID</code>s of the jobs that the worker prefers. */
+    public final UUID[] preferredJobIds;
+
+    /** The time (in milliseconds) at which the request times out. */
+    public final long deadline;
+
+    /**
+     * The value of {@link NioTaskServer#taskGeneration} when tasks were
+     * last checked for.
+     */
+    public long generation;
+
+    /** The time (in milliseconds) at which to check for tasks again. */
+    public long recheckTime;
+
+    /**
+     * Creates a new <code>ParkedRequest</code>.
+     * @param conn The <code>Connection</code> on which the request was
+     *     received.
+     * @param requestId The ID of the request.
+     * @param maxTasks The maximum number of tasks to return.
+     * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+     *     worker prefers (may be <code>null</code>).
+     * @param deadline The time (in milliseconds) at which the request
+     *     times out.
+     */
+    public ParkedRequest(Connection conn, int requestId, int maxTasks,
+        UUID[] preferredJobIds, long deadline) {
+      this.conn = conn;
+      this.requestId = requestId;
+      this.maxTasks = maxTasks;
+      this.preferredJobIds = preferredJobIds;
+      this.deadline = deadline;
+    }
+
+  }
+
+  /**
+   * A connection from a client.
+   */
+  private final class Connection {
+
+    /** The channel for this connection. */
+    private final SocketChannel channel;
+
+    /** The <code>SelectionKey</code> for this connection. */
+    private final SelectionKey key;
+
+    /** The address of the host at the other end of this connection. */
+    private final String clientHost;
+
+    /** The buffer into which frames are read. */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /** The frames that are waiting to be written. */
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * The <code>TaskService</code> on which to make calls, or
+     * <code>null</code> if this connection has not been authenticated.
+     */
+    private volatile TaskService service = null;
+
+    /**
+     * The <code>PayloadCompressor</code> to use for payloads on this
+     * connection, or <code>null</code> if compression was not agreed to.
+     */
+    private volatile PayloadCompressor compressor = null;
+
+    /**
+     * A value indicating if an authentication request is being processed,
+     * in which case no further requests are read from this connection until
+     * it completes.  Accessed only on the selector thread.
+     */
+    private boolean authenticating = false;
+
+    /**
+     * Creates a new <code>Connection</code>.
+     * @param channel The channel for the connection.
+     * @throws IOException If the channel cannot be registered.
+     */
+    public Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.clientHost = channel.socket().getInetAddress().getHostAddress();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      this.key = channel.register(selector, SelectionKey.OP_READ, this);
+      connections.add(this);
+    }
+
+    /**
+     * Reads the available data from the channel and dispatches the
+     * requests that have been received in full.
+     * @throws IOException If an error occurs while reading.
+     */
+    public void read() throws IOException {
+      if (channel.read(readBuffer) < 0) {
+        close();
+        return;
+      }
+      processFrames();
+    }
+
+    /**
+     * Resumes reading once an authentication request has been processed,
+     * and dispatches the requests that were received while it was being
+     * processed.  This must be called on the selector thread.
+     * @throws IOException If the buffered data is invalid.
+     */
+    public void resumeReading() throws IOException {
+      authenticating = false;
+      key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+      processFrames();
+    }
+
+    /**
+     * Dispatches the requests in the read buffer that have been received in
+     * full.  After an authentication request, no further requests are
+     * dispatched (and reading stops) until it has been processed, so that
+     * the requests sent after it are subject to the limits and permissions
+     * of an authenticated connection.
+     * @throws IOException If the buffered data is invalid.
+     */
+    private void processFrames() throws IOException {
+
+      // Only small frames are accepted until the connection is
+      // authenticated, so that unauthenticated clients cannot cause large
+      // buffers to be allocated.
+      int maxLength = (service != null) ? TaskProtocol.MAX_FRAME_LENGTH
+          : MAX_UNAUTHENTICATED_FRAME_LENGTH;
+
+      readBuffer.flip();
+      while (!authenticating && readBuffer.remaining() >= 4) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < TaskProtocol.HEADER_LENGTH || length > maxLength) {
+          throw new IOException("Invalid frame length");
+        }
+        if (readBuffer.remaining() < 4 + length) {
+          break;
+        }
+        readBuffer.getInt();
+        int requestId = readBuffer.getInt();
+        byte code = readBuffer.get();
+        byte[] body = new byte[length - TaskProtocol.HEADER_LENGTH];
+        readBuffer.get(body);
+        if (code == TaskProtocol.AUTHENTICATE) {
+          authenticating = true;
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        dispatch(this, requestId, code, body);
+      }
+      readBuffer.compact();
+
+      if (authenticating) {
+        return;
+      }
+
+      if (!readBuffer.hasRemaining()) {
+
+        // The buffer is full with part of a frame that does not fit.  Grow
+        // the buffer in steps as the data arrives, rather than allocating
+        // the length given in the header up front.
+        int capacity = (int) Math.min(4L + readBuffer.getInt(0),
+            2L * readBuffer.capacity());
+        readBuffer.flip();
+        readBuffer = ByteBuffer.allocate(capacity).put(readBuffer);
+
+      } else if (readBuffer.capacity() > INITIAL_BUFFER_SIZE
+          && (readBuffer.position() < 4
+              || 4 + readBuffer.getInt(0) <= INITIAL_BUFFER_SIZE)) {
+
+        // Release the space used to read a large frame, unless a large
+        // frame is still being read.
+        readBuffer.flip();
+        readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).put(readBuffer);
+
+      }
+    }
+
+    /**
+     * Writes as many of the queued frames as the channel will accept.
+     * @throws IOException If an error occurs while writing.
+     */
+    public void write() throws IOException {
+      ByteBuffer frame;
+      while ((frame = writeQueue.peek()) != null) {
+        channel.write(frame);
+        if (frame.hasRemaining()) {
+          return;
+        }
+        writeQueue.poll();
+      }
+      key.interestOps(authenticating ? 0 : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Queues a response to be written.  This may be called from any
+     * thread.
+     * @param requestId The ID of the request being responded to.
+     * @param status The status of the call.
+     * @param body The body of the response.
+     */
+    public void send(int requestId, byte status, byte[] body) {
+      writeQueue.add(TaskProtocol.createFrame(requestId, status, body));
+      pendingWrites.add(this);
+      selector.wakeup();
+    }
+
+    /**
+     * Requests that reading resume once an authentication request has been
+     * processed.  This may be called from any thread.
+     */
+    public void authenticated() {
+      pendingResumes.add(this);
+      selector.wakeup();
+    }
+
+    /**
+     * Registers interest in writing to this connection.  This must be
+     * called on the selector thread.
+     */
+    public void enableWrite() {
+      try {
+        key.interestOps((authenticating ? 0 : SelectionKey.OP_READ)
+            | SelectionKey.OP_WRITE);
+      } catch (CancelledKeyException e) {
+        /* The connection has been closed. */
+      }
+    }
+
+    /**
+     * Closes this connection.
+     */
+    public void close() {
+      connections.remove(this);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.warn("Could not close connection", e);
+      }
+      writeQueue.clear();
+
+      TaskService service = this.service;
+      this.service = null;
+      if (service instanceof Remote) {
+        try {
+          UnicastRemoteObject.unexportObject((Remote) service, true);
+        } catch (NoSuchObjectException e) {
+          /* nothing to do. */
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Creates a new <code>NioTaskServer</code> listening on the specified
+   * port.
+   * @param auth The <code>AuthenticationService</code> to authenticate
+   *     users with.
+   * @param executor The <code>Executor</code> on which to process
+   *     requests.
+   * @param port The port to listen on (zero to select any available
+   *     port).
+   * @throws IOException If the server cannot be started.
+   * @see #getPort()
+   */
+  public NioTaskServer(AuthenticationService auth, Executor executor, int port)
+      throws IOException {
+    this(auth, executor, new InetSocketAddress(port));
+  }
+
+  /**
+   * Creates a new <code>NioTaskServer</code>.
+   * @param auth The <code>AuthenticationService</code> to authenticate
+   *     users with.
+   * @param executor The <code>Executor</code> on which to process
+   *     requests.
+   * @param address The address to listen on.
+   * @throws IOException If the server cannot be started.
+   */
+  public NioTaskServer(AuthenticationService auth, Executor executor,
+      InetSocketAddress address) throws IOException {
+    this.auth = auth;
+    this.executor = executor;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.bind(address);
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      serverChannel.close();
+      selector.close();
+      throw e;
+    }
+
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        runSelector();
+      }
+    }, "NioTaskServer");
+    thread.setDaemon(true);
+    thread.start();
+
+    if (logger.isInfoEnabled()) {
+      logger.info("Task server listening on port " + Integer.toString(getPort()));
+    }
+  }
+
+  /**
+   * Gets the port on which this server is listening.
+   * @return The port on which this server is listening.
+   */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Accepts connections and reads and writes frames until this server is
+   * closed.
+   */
+  private void runSelector() {
+    while (!closed) {
+      try {
+        long timeout = resumeParkedRequests();
+        selector.select(timeout);
+
+        Connection conn;
+        while ((conn = pendingWrites.poll()) != null) {
+          conn.enableWrite();
+        }
+        while ((conn = pendingResumes.poll()) != null) {
+          try {
+            conn.resumeReading();
+          } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+              logger.debug("Connection closed", e);
+            }
+            conn.close();
+          } catch (CancelledKeyException e) {
+            conn.close();
+          }
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+
+          conn = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              conn.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              conn.write();
+            }
+          } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+              logger.debug("Connection closed", e);
+            }
+            conn.close();
+          } catch (CancelledKeyException e) {
+            // The connection was closed by another thread.
+            conn.close();
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        break;
+      } catch (IOException e) {
+        logger.error("Error in task server", e);
+      }
+    }
+  }
+
+  /**
+   * Accepts a pending connection.
+   */
+  private void accept() {
+    SocketChannel channel = null;
+    try {
+      channel = serverChannel.accept();
+      if (channel != null) {
+        new Connection(channel);
+      }
+    } catch (IOException e) {
+      logger.error("Could not accept connection", e);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e1) {
+          /* nothing to do. */
+        }
+      }
+    }
+  }
+
+  /**
+   * Processes a request on the <code>Executor</code>.
+   * @param conn The <code>Connection</code> on which the request was
+   *     received.
+   * @param requestId The ID of the request.
+   * @param code The method being called.
+   * @param body The body of the request.
+   */
+  private void dispatch(final Connection conn, final int requestId,
+      final byte code, final byte[] body) {
+    executor.execute(new Runnable() {
+      public void run() {
+        byte status;
+        byte[] response;
+        try {
+          ClientHost.set(conn.clientHost);
+          response = process(conn, requestId, code,
+              new DataInputStream(new ByteArrayInputStream(body)));
+          status = TaskProtocol.STATUS_OK;
+        } catch (Exception e) {
+          response = encodeException(e);
+          status = TaskProtocol.STATUS_ERROR;
+        } finally {
+          ClientHost.clear();
+        }
+
+        // A null response indicates that the request is waiting for tasks
+        // and will be answered later.
+        if (response != null) {
+          conn.send(requestId, status, response);
+        }
+        if (code == TaskProtocol.AUTHENTICATE) {
+          conn.authenticated();
+        }
+      }
+    });
+  }
+
+  /**
+   * Encodes an exception to be returned to the client.
+   * @param e The <code>Exception</code> that was thrown.
+   * @return The encoded exception.
+   */
+  private byte[] encodeException(Exception e) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      try {
+        TaskProtocol.writeObject(out, e);
+      } catch (NotSerializableException nse) {
+        bytes.reset();
+        TaskProtocol.writeObject(out, new RemoteException(e.toString()));
+      }
+      out.flush();
+    } catch (IOException ioe) {
+      logger.error("Could not encode exception", ioe);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Processes a request.
+   * @param conn The <code>Connection</code> on which the request was
+   *     received.
+   * @param requestId The ID of the request.
+   * @param code The method being called.
+   * @param in The <code>DataInputStream</code> from which to read the body
+   *     of the request.
+   * @return The body of the response, or <code>null</code> if the request
+   *     is waiting for tasks to become available.
+   * @throws Exception If the call fails.
+   */
+  private byte[] process(Connection conn, int requestId, byte code,
+      DataInputStream in) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    if (code == TaskProtocol.AUTHENTICATE) {
+      if (conn.service != null) {
+        throw new SecurityException("Connection has already been authenticated");
+      }
+      String username = TaskProtocol.readString(in);
+      String password = TaskProtocol.readString(in);
+      UUID protocolVersionId = TaskProtocol.readUUID(in);
+      byte encoding = in.readByte();
+      conn.service = auth.authenticate(username, password, protocolVersionId);
+      if (encoding == TaskProtocol.ENCODING_DEFLATE && compressionEnabled) {
+        conn.compressor = compressor;
+      } else {
+        encoding = TaskProtocol.ENCODING_RAW;
+      }
+      out.writeByte(encoding);
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    TaskService service = conn.service;
+    if (service == null) {
+      throw new SecurityException("Connection has not been authenticated");
+    }
+    PayloadCompressor compressor = conn.compressor;
+
+    switch (code) {
+    case TaskProtocol.GET_TASK_WORKER: {
+      UUID jobId = TaskProtocol.readUUID(in);
+      TaskProtocol.writePayload(out, jobId, service.getTaskWorker(jobId),
+          compressor);
+      break;
+    }
+
+    case TaskProtocol.REQUEST_TASK:
+      TaskProtocol.writeTaskDescription(out, service.requestTask(), compressor);
+      break;
+
+    case TaskProtocol.REQUEST_TASKS: {
+      int maxTasks = in.readInt();
+      UUID[] preferredJobIds = TaskProtocol.readUUIDs(in);
+      TaskDescription[] tasks = service.requestTasks(maxTasks, preferredJobIds);
+      out.writeInt(tasks.length);
+      for (TaskDescription task : tasks) {
+        TaskProtocol.writeTaskDescription(out, task, compressor);
+      }
+      break;
+    }
+
+    case TaskProtocol.REQUEST_TASKS_WAIT: {
+      int maxTasks = in.readInt();
+      UUID[] preferredJobIds = TaskProtocol.readUUIDs(in);
+      long timeout = Math.max(in.readLong(), 0L);
+      return requestTasks(new ParkedRequest(conn, requestId, maxTasks,
+          preferredJobIds, System.currentTimeMillis() + timeout));
+    }
+
+    case TaskProtocol.SUBMIT_TASK_RESULTS: {
+      UUID jobId = TaskProtocol.readUUID(in);
+      int taskId = in.readInt();
+      Serialized<Object> results = TaskProtocol.readSerializedPayload(in,
+          jobId, compressor);
+      service.submitTaskResults(jobId, taskId, results);
+      break;
+    }
+
+    case TaskProtocol.SUBMIT_TASK_RESULTS_BATCH: {
+      UUID[] jobIds = TaskProtocol.readUUIDs(in);
+      int[] taskIds = TaskProtocol.readInts(in);
+      @SuppressWarnings("unchecked")
+      Serialized<Object>[] results = new Serialized[in.readInt()];
+      for (int i = 0; i < results.length; i++) {
+        UUID jobId = (jobIds != null && i < jobIds.length) ? jobIds[i] : null;
+        results[i] = TaskProtocol.readSerializedPayload(in, jobId, compressor);
+      }
+      service.submitTaskResults(jobIds, taskIds, results);
+      break;
+    }
+
+    case TaskProtocol.REPORT_EXCEPTION: {
+      UUID jobId = TaskProtocol.readUUID(in);
+      int taskId = in.readInt();
+      Exception e;
+      try {
+        e = (Exception) TaskProtocol.readObject(in);
+      } catch (IOException ioe) {
+        e = ioe;
+      }
+      service.reportException(jobId, taskId, e);
+      break;
+    }
+
+    case TaskProtocol.GET_FINISHED_TASKS: {
+      UUID[] jobIds = TaskProtocol.readUUIDs(in);
+      int[] taskIds = TaskProtocol.readInts(in);
+      TaskProtocol.writeBitSet(out, service.getFinishedTasks(jobIds, taskIds));
+      break;
+    }
+
+    case TaskProtocol.GET_CLASS_DIGEST: {
+      String name = TaskProtocol.readString(in);
+      UUID jobId = TaskProtocol.readUUID(in);
+      TaskProtocol.writeByteArray(out, service.getClassDigest(name, jobId));
+      break;
+    }
+
+    case TaskProtocol.GET_CLASS_DEFINITION: {
+      String name = TaskProtocol.readString(in);
+      UUID jobId = TaskProtocol.readUUID(in);
+      TaskProtocol.writeByteArray(out, service.getClassDefinition(name, jobId));
+      break;
+    }
+
+    case TaskProtocol.BEGIN_RESULTS_UPLOAD: {
+      UUID jobId = TaskProtocol.readUUID(in);
+      int taskId = in.readInt();
+      out.writeLong(service.beginTaskResultsUpload(jobId, taskId));
+      break;
+    }
+
+    case TaskProtocol.UPLOAD_RESULTS_CHUNK: {
+      long uploadId = in.readLong();
+      long offset = in.readLong();
+      UUID jobId = TaskProtocol.readUUID(in);
+      byte[] chunk = TaskProtocol.readCompressedBytes(in, jobId, compressor);
+      service.uploadTaskResultsChunk(uploadId, offset, chunk);
+      break;
+    }
+
+    case TaskProtocol.END_RESULTS_UPLOAD: {
+      long uploadId = in.readLong();
+      boolean commit = in.readBoolean();
+      service.endTaskResultsUpload(uploadId, commit);
+      break;
+    }
+
+    default:
+      throw new UnsupportedOperationException(
+          "Unrecognized request code: " + Byte.toString(code));
+    }
+
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Requests tasks for a request that may wait for tasks to become
+   * available.  If there are no tasks and the request has not timed out,
+   * the request is parked to be retried later.
+   * @param req The <code>ParkedRequest</code> describing the request.
+   * @return The body of the response, or <code>null</code> if the request
+   *     was parked.
+   * @throws Exception If the call fails.
+   */
+  private byte[] requestTasks(ParkedRequest req) throws Exception {
+    TaskService service = req.conn.service;
+    if (service == null) {
+      throw new SecurityException("Connection has not been authenticated");
+    }
+
+    // Note the generation before checking for tasks, so that tasks
+    // scheduled after the check cause the request to be retried.
+    long generation = taskGeneration.get();
+    TaskDescription[] tasks = service.requestTasks(req.maxTasks,
+        req.preferredJobIds);
+    if (tasks.length == 1 && tasks[0].getJobId() == null) {
+      long now = System.currentTimeMillis();
+      if (now < req.deadline && !closed) {
+        req.generation = generation;
+        req.recheckTime = Math.min(req.deadline, now + PARKED_RECHECK_INTERVAL);
+        parkedRequests.add(req);
+        selector.wakeup();
+        return null;
+      }
+      tasks = new TaskDescription[]{ RETRY_TASK };
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(tasks.length);
+    for (TaskDescription task : tasks) {
+      TaskProtocol.writeTaskDescription(out, task, req.conn.compressor);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Retries, on the <code>Executor</code>, the parked requests that are due
+   * to be retried.  For each task scheduled since the last call, one
+   * request that was parked before the task was scheduled is due, in the
+   * order in which they were parked.  A request that checked for tasks
+   * before tasks were scheduled, but that was parked only after the
+   * previous call, is also due, as is a request whose recheck time has
+   * passed.  This must be called on the selector thread.
+   * @return The amount of time (in milliseconds) until the next parked
+   *     request is due, or zero if there are no parked requests.
+   */
+  private long resumeParkedRequests() {
+    long generation = taskGeneration.get();
+    int wakeups = tasksScheduled.getAndSet(0);
+    long resumed = resumedGeneration;
+    resumedGeneration = generation;
+    if (parkedRequests.isEmpty()) {
+      return 0;
+    }
+
+    long now = System.currentTimeMillis();
+    long next = Long.MAX_VALUE;
+    Iterator<ParkedRequest> i = parkedRequests.iterator();
+    while (i.hasNext()) {
+      final ParkedRequest req = i.next();
+      if (!connections.contains(req.conn)) {
+        i.remove();
+        continue;
+      }
+      boolean due = (req.generation < resumed) || now >= req.recheckTime;
+      if (!due && req.generation < generation) {
+        if (wakeups > 0) {
+          wakeups--;
+          due = true;
+        } else {
+          req.generation = generation;
+        }
+      }
+      if (due) {
+        i.remove();
+        executor.execute(new Runnable() {
+          public void run() {
+            byte status;
+            byte[] response;
+            try {
+              ClientHost.set(req.conn.clientHost);
+              response = requestTasks(req);
+              status = TaskProtocol.STATUS_OK;
+            } catch (Exception e) {
+              response = encodeException(e);
+              status = TaskProtocol.STATUS_ERROR;
+            } finally {
+              ClientHost.clear();
+            }
+            if (response != null) {
+              req.conn.send(req.requestId, status, response);
+            }
+          }
+        });
+      } else {
+        next = Math.min(next, req.recheckTime);
+      }
+    }
+    return (next == Long.MAX_VALUE) ? 0 : Math.max(next - now, 1L);
+  }
+
+  @Override
+  public void tasksAvailable(int count) {
+    tasksScheduled.addAndGet(count);
+    taskGeneration.incrementAndGet();
+    if (!parkedRequests.isEmpty()) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Sets whether to agree to compress payloads on new connections that
+   * request it.  Connections that are already open are not affected.
+   * @param enabled A value indicating whether to agree to compression.
+   */
+  public void setCompressionEnabled(boolean enabled) {
+    this.compressionEnabled = enabled;
+  }
+
+  /**
+   * Sets whether to compress the tasks and task workers sent for a job on
+   * connections that have agreed to compression.  Workers decide for
+   * themselves whether to compress the results they send.
+   * @param jobId The <code>UUID</code> of the job.
+   * @param enabled A value indicating whether to compress the payloads
+   *     sent for the job.
+   * @see PayloadCompressor#setCompressionEnabled(UUID, boolean)
+   */
+  public void setCompressionEnabled(UUID jobId, boolean enabled) {
+    compressor.setCompressionEnabled(jobId, enabled);
+  }
+
+  /**
+   * Gets the <code>PayloadCompressor</code> used for connections that have
+   * agreed to compression.  It may be used to adjust the size threshold
+   * for compression, and reports the compression achieved for each job.
+   * @return The <code>PayloadCompressor</code>.
+   */
+  public PayloadCompressor getCompressor() {
+    return compressor;
+  }
+
+  /**
+   * Stops accepting connections and closes all open connections.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    parkedRequests.clear();
+    serverChannel.close();
+    selector.close();
+    for (Connection conn : connections) {
+      conn.close();
+    }
+  }
+
+}
@@ -0,0 +1,632 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive, deflating the contents of each file as several
+ * independent chunks in parallel.  Each chunk after the first is primed
+ * with the last 32 KB of the chunk preceding it and all but the last chunk
+ * end on a sync flush, so that the compressed chunks concatenate to form a
+ * single deflate stream.  The result is a standard zip archive (using the
+ * ZIP64 extensions where required).
+ * @author Brad Kimmel
+ */
+final class ParallelZipWriter implements Closeable {
+
+  /** The number of bytes of input to compress in each chunk. */
+  private static final int CHUNK_SIZE = 128 * 1024;
+
+  /** The size of the deflate window. */
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  /**
+   * The size of a file above which its entry is written using the ZIP64
+   * extensions.  This leaves room for the compressed data to be larger
+   * than the file itself.
+   */
+  private static final long ZIP64_THRESHOLD = 0xF0000000L;
+
+  /** The largest value that may be stored in a four byte field. */
+  private static final long MAX_INT32 = 0xFFFFFFFFL;
+
+  /** The largest value that may be stored in a two byte field. */
+  private static final int MAX_INT16 = 0xFFFF;
+
+  /** The signature for a local file header. */
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  /** The signature for a central directory file header. */
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+  /** The signature for the ZIP64 end of central directory record. */
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+  /** The signature for the ZIP64 end of central directory locator. */
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+  /** The signature for the end of central directory record. */
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  /** The header ID for the ZIP64 extended information extra field. */
+  private static final short ZIP64_EXTRA_ID = 0x0001;
+
+  /** The general purpose flag indicating that names are UTF-8 encoded. */
+  private static final short UTF8_FLAG = 0x0800;
+
+  /** The version needed to extract an ordinary entry. */
+  private static final short VERSION = 20;
+
+  /** The version needed to extract an entry using the ZIP64 extensions. */
+  private static final short ZIP64_VERSION = 45;
+
+  /** The compression method for entries that are stored uncompressed. */
+  private static final short STORED = 0;
+
+  /** The compression method for entries that are deflated. */
+  private static final short DEFLATED = 8;
+
+  /** The external attribute flag indicating an MS-DOS directory. */
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+  /** The <code>Charset</code> to use to encode entry names. */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The extensions of files that are typically already compressed, and
+   * which are therefore stored rather than deflated.
+   */
+  private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(
+      Arrays.asList("zip", "jar", "gz", "tgz", "bz2", "xz", "7z", "png",
+          "jpg", "jpeg", "gif", "mp3", "mp4", "avi", "mkv", "webm"));
+
+  /**
+   * Describes an entry that has been written to the archive, for writing
+   * the central directory.
+   */
+  private static final class Entry {
+
+    /** The encoded name of the entry. */
+    byte[] name;
+
+    /** The compression method. */
+    short method;
+
+    /** The modification time of the entry, in MS-DOS format. */
+    int time;
+
+    /** The CRC-32 of the uncompressed data. */
+    long crc;
+
+    /** The size of the compressed data. */
+    long compressedSize;
+
+    /** The size of the uncompressed data. */
+    long size;
+
+    /** The offset of the local file header. */
+    long offset;
+
+    /** A value indicating if the entry is a directory. */
+    boolean directory;
+
+  }
+
+  /** The archive being written. */
+  private final RandomAccessFile file;
+
+  /** The <code>Executor</code> to use to compress chunks. */
+  private final Executor executor;
+
+  /**
+   * The maximum number of chunks to have in flight at a time.  This limits
+   * the amount of memory used.
+   */
+  private final int window;
+
+  /** The compression level to use. */
+  private final int level;
+
+  /** The entries written so far. */
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  /**
+   * Creates a new <code>ParallelZipWriter</code>.
+   * @param file The archive to write.
+   * @param executor The <code>Executor</code> to use to compress chunks.
+   * @param parallelism The number of chunks to compress at a time.
+   * @param level The compression level (see {@link Deflater}), or
+   *     {@link Deflater#NO_COMPRESSION} to store all files.
+   * @throws IOException If the archive cannot be created.
+   */
+  public ParallelZipWriter(File file, Executor executor, int parallelism,
+      int level) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    this.file.setLength(0);
+    this.executor = executor;
+    this.window = 2 * Math.max(parallelism, 1);
+    this.level = level;
+  }
+
+  /**
+   * Adds the contents of a directory to the archive.  The names of the
+   * entries are relative to the specified directory.
+   * @param directory The directory whose contents to add.
+   * @param filter The <code>FileFilter</code> selecting which files and
+   *     directories to add (may be <code>null</code>).
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  public void addDirectory(File directory, FileFilter filter)
+      throws IOException {
+    addDirectory(directory, "", filter);
+  }
+
+  /**
+   * Adds the contents of a directory to the archive.
+   * @param directory The directory whose contents to add.
+   * @param prefix The prefix to prepend to entry names.
+   * @param filter The <code>FileFilter</code> selecting which files and
+   *     directories to add (may be <code>null</code>).
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void addDirectory(File directory, String prefix, FileFilter filter)
+      throws IOException {
+    File[] files = directory.listFiles(filter);
+    if (files == null) {
+      throw new IOException("Cannot list " + directory.getPath());
+    }
+    Arrays.sort(files);
+    for (File f : files) {
+      String name = prefix + f.getName();
+      if (f.isDirectory()) {
+        addDirectoryEntry(name + "/", f.lastModified());
+        addDirectory(f, name + "/", filter);
+      } else {
+        addFile(f, name);
+      }
+    }
+  }
+
+  /**
+   * Adds an entry for a directory to the archive.
+   * @param name The name of the entry.
+   * @param lastModified The modification time of the directory.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void addDirectoryEntry(String name, long lastModified)
+      throws IOException {
+    Entry entry = new Entry();
+    entry.name = name.getBytes(UTF8);
+    entry.method = STORED;
+    entry.time = toDosTime(lastModified);
+    entry.offset = file.getFilePointer();
+    entry.directory = true;
+    writeLocalHeader(entry, false);
+    entries.add(entry);
+  }
+
+  /**
+   * Adds a file to the archive.
+   * @param f The file to add.
+   * @param name The name of the entry.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void addFile(File f, String name) throws IOException {
+    Entry entry = new Entry();
+    entry.name = name.getBytes(UTF8);
+    entry.method = (level == Deflater.NO_COMPRESSION || isCompressed(name))
+        ? STORED : DEFLATED;
+    entry.time = toDosTime(f.lastModified());
+    entry.offset = file.getFilePointer();
+
+    boolean zip64 = f.length() >= ZIP64_THRESHOLD;
+    writeLocalHeader(entry, zip64);
+
+    CRC32 crc = new CRC32();
+    Queue<Chunk> pending = new LinkedList<Chunk>();
+    InputStream in = new FileInputStream(f);
+    try {
+      byte[] dictionary = null;
+      boolean last = false;
+      while (!last) {
+        byte[] data = new byte[CHUNK_SIZE];
+        int length = readFully(in, data);
+        last = (length < CHUNK_SIZE);
+
+        Chunk chunk = new Chunk(data, length, dictionary, last);
+        if (entry.method == DEFLATED) {
+          executor.execute(chunk.task);
+          if (!last) {
+            dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE,
+                length);
+          }
+        }
+        pending.add(chunk);
+
+        while (pending.size() >= window) {
+          writeChunk(entry, pending.remove(), crc);
+        }
+      }
+      while (!pending.isEmpty()) {
+        writeChunk(entry, pending.remove(), crc);
+      }
+    } finally {
+      in.close();
+    }
+    entry.crc = crc.getValue();
+
+    if (!zip64 && (entry.size > MAX_INT32 || entry.compressedSize > MAX_INT32)) {
+      throw new ZipException("File grew while being archived: " + f.getPath());
+    }
+
+    // Fill in the sizes and CRC now that they are known.
+    long end = file.getFilePointer();
+    ByteBuffer buf = newBuffer(12);
+    buf.putInt((int) entry.crc);
+    buf.putInt(zip64 ? (int) MAX_INT32 : (int) entry.compressedSize);
+    buf.putInt(zip64 ? (int) MAX_INT32 : (int) entry.size);
+    file.seek(entry.offset + 14);
+    file.write(buf.array());
+    if (zip64) {
+      buf = newBuffer(16);
+      buf.putLong(entry.size);
+      buf.putLong(entry.compressedSize);
+      file.seek(entry.offset + 30 + entry.name.length + 4);
+      file.write(buf.array());
+    }
+    file.seek(end);
+
+    entries.add(entry);
+  }
+
+  /**
+   * Writes a chunk of an entry to the archive, waiting for it to be
+   * compressed if necessary.
+   * @param entry The entry being written.
+   * @param chunk The next chunk of the entry.
+   * @param crc The <code>CRC32</code> to update with the uncompressed data.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void writeChunk(Entry entry, Chunk chunk, CRC32 crc)
+      throws IOException {
+    crc.update(chunk.data, 0, chunk.length);
+    entry.size += chunk.length;
+    if (entry.method == DEFLATED) {
+      byte[] compressed = chunk.get();
+      file.write(compressed);
+      entry.compressedSize += compressed.length;
+    } else {
+      file.write(chunk.data, 0, chunk.length);
+      entry.compressedSize += chunk.length;
+    }
+  }
+
+  /**
+   * Writes a local file header.  The CRC and sizes are written as zero, and
+   * must be filled in once they are known.
+   * @param entry The entry to write the header for.
+   * @param zip64 A value indicating if the ZIP64 extensions are to be used
+   *     for this entry.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void writeLocalHeader(Entry entry, boolean zip64)
+      throws IOException {
+    int extraLength = zip64 ? 20 : 0;
+    ByteBuffer buf = newBuffer(30 + entry.name.length + extraLength);
+    buf.putInt(LOCAL_HEADER_SIGNATURE);
+    buf.putShort(zip64 ? ZIP64_VERSION : VERSION);
+    buf.putShort(UTF8_FLAG);
+    buf.putShort(entry.method);
+    buf.putInt(entry.time);
+    buf.putInt(0);
+    buf.putInt(0);
+    buf.putInt(0);
+    buf.putShort((short) entry.name.length);
+    buf.putShort((short) extraLength);
+    buf.put(entry.name);
+    if (zip64) {
+      buf.putShort(ZIP64_EXTRA_ID);
+      buf.putShort((short) 16);
+      buf.putLong(0);
+      buf.putLong(0);
+    }
+    file.write(buf.array());
+  }
+
+  /**
+   * Writes the central directory and closes the archive.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      long start = file.getFilePointer();
+      for (Entry entry : entries) {
+        writeCentralHeader(entry);
+      }
+      long end = file.getFilePointer();
+      long size = end - start;
+      int count = entries.size();
+
+      if (count >= MAX_INT16 || start >= MAX_INT32 || size >= MAX_INT32) {
+        ByteBuffer buf = newBuffer(56 + 20);
+        buf.putInt(ZIP64_END_SIGNATURE);
+        buf.putLong(44);
+        buf.putShort(ZIP64_VERSION);
+        buf.putShort(ZIP64_VERSION);
+        buf.putInt(0);
+        buf.putInt(0);
+        buf.putLong(count);
+        buf.putLong(count);
+        buf.putLong(size);
+        buf.putLong(start);
+
+        buf.putInt(ZIP64_LOCATOR_SIGNATURE);
+        buf.putInt(0);
+        buf.putLong(end);
+        buf.putInt(1);
+        file.write(buf.array());
+      }
+
+      ByteBuffer buf = newBuffer(22);
+      buf.putInt(END_SIGNATURE);
+      buf.putShort((short) 0);
+      buf.putShort((short) 0);
+      buf.putShort((short) Math.min(count, MAX_INT16));
+      buf.putShort((short) Math.min(count, MAX_INT16));
+      buf.putInt((int) Math.min(size, MAX_INT32));
+      buf.putInt((int) Math.min(start, MAX_INT32));
+      buf.putShort((short) 0);
+      file.write(buf.array());
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Writes a central directory file header.
+   * @param entry The entry to write the header for.
+   * @throws IOException If an error occurs while writing the archive.
+   */
+  private void writeCentralHeader(Entry entry) throws IOException {
+    boolean bigSize = entry.size >= MAX_INT32;
+    boolean bigCompressedSize = entry.compressedSize >= MAX_INT32;
+    boolean bigOffset = entry.offset >= MAX_INT32;
+    int extraLength = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0)
+        + (bigOffset ? 8 : 0);
+    if (extraLength > 0) {
+      extraLength += 4;
+    }
+    short version = (extraLength > 0) ? ZIP64_VERSION : VERSION;
+
+    ByteBuffer buf = newBuffer(46 + entry.name.length + extraLength);
+    buf.putInt(CENTRAL_HEADER_SIGNATURE);
+    buf.putShort(version);
+    buf.putShort(version);
+    buf.putShort(UTF8_FLAG);
+    buf.putShort(entry.method);
+    buf.putInt(entry.time);
+    buf.putInt((int) entry.crc);
+    buf.putInt((int) (bigCompressedSize ? MAX_INT32 : entry.compressedSize));
+    buf.putInt((int) (bigSize ? MAX_INT32 : entry.size));
+    buf.putShort((short) entry.name.length);
+    buf.putShort((short) extraLength);
+    buf.putShort((short) 0);
+    buf.putShort((short) 0);
+    buf.putShort((short) 0);
+    buf.putInt(entry.directory ? DIRECTORY_ATTRIBUTE : 0);
+    buf.putInt((int) (bigOffset ? MAX_INT32 : entry.offset));
+    buf.put(entry.name);
+    if (extraLength > 0) {
+      buf.putShort(ZIP64_EXTRA_ID);
+      buf.putShort((short) (extraLength - 4));
+      if (bigSize) {
+        buf.putLong(entry.size);
+      }
+      if (bigCompressedSize) {
+        buf.putLong(entry.compressedSize);
+      }
+      if (bigOffset) {
+        buf.putLong(entry.offset);
+      }
+    }
+    file.write(buf.array());
+  }
+
+  /**
+   * A chunk of a file to be compressed.
+   */
+  private final class Chunk implements Callable<byte[]> {
+
+    /** The uncompressed data. */
+    final byte[] data;
+
+    /** The number of bytes of uncompressed data. */
+    final int length;
+
+    /**
+     * The last part of the preceding chunk, or <code>null</code> if this
+     * is the first chunk of the file.
+     */
+    final byte[] dictionary;
+
+    /** A value indicating if this is the last chunk of the file. */
+    final boolean last;
+
+    /** The task that compresses this chunk. */
+    final FutureTask<byte[]> task = new FutureTask<byte[]>(this);
+
+    /**
+     * Creates a new <code>Chunk</code>.
+     * @param data The uncompressed data.
+     * @param length The number of bytes of uncompressed data.
+     * @param dictionary The last part of the preceding chunk, or
+     *     <code>null</code> if this is the first chunk of the file.
+     * @param last A value indicating if this is the last chunk of the file.
+     */
+    Chunk(byte[] data, int length, byte[] dictionary, boolean last) {
+      this.data = data;
+      this.length = length;
+      this.dictionary = dictionary;
+      this.last = last;
+    }
+
+    @Override
+    public byte[] call() {
+      Deflater deflater = new Deflater(level, true);
+      try {
+        if (dictionary != null) {
+          deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data, 0, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buf = new byte[DICTIONARY_SIZE];
+        if (last) {
+          deflater.finish();
+          while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+          }
+        } else {
+          int n;
+          do {
+            n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+            out.write(buf, 0, n);
+          } while (n == buf.length);
+        }
+        return out.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    /**
+     * Waits for this chunk to be compressed.
+     * @return The compressed data.
+     * @throws IOException If the thread was interrupted or the compression
+     *     failed.
+     */
+    byte[] get() throws IOException {
+      try {
+        return task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Could not compress chunk", e.getCause());
+      }
+    }
+
+  }
+
+  /**
+   * Determines if the file with the specified name is likely to be
+   * compressed already.
+   * @param name The name of the file.
+   * @return A value indicating if the file is likely to be compressed.
+   */
+  private static boolean isCompressed(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 && COMPRESSED_EXTENSIONS.contains(
+        name.substring(dot + 1).toLowerCase());
+  }
+
+  /**
+   * Reads from an <code>InputStream</code> until the buffer is full or the
+   * end of the stream is reached.
+   * @param in The <code>InputStream</code> to read from.
+   * @param buffer The buffer to read into.
+   * @return The number of bytes read.
+   * @throws IOException If an error occurs while reading.
+   */
+  private static int readFully(InputStream in, byte[] buffer)
+      throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int n = in.read(buffer, length, buffer.length - length);
+      if (n < 0) {
+        break;
+      }
+      length += n;
+    }
+    return length;
+  }
+
+  /**
+   * Creates a little-endian <code>ByteBuffer</code>.
+   * @param size The size of the buffer.
+   * @return The new <code>ByteBuffer</code>.
+   */
+  private static ByteBuffer newBuffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Converts a time to MS-DOS format.
+   * @param millis The time, in milliseconds since the epoch.
+   * @return The time in MS-DOS format.
+   */
+  private static int toDosTime(long millis) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(millis);
+    int year = cal.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return ((year - 1980) << 25)
+        | ((cal.get(Calendar.MONTH) + 1) << 21)
+        | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+        | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+        | (cal.get(Calendar.MINUTE) << 5)
+        | (cal.get(Calendar.SECOND) >> 1);
+  }
+
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.util.UnexpectedException;
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * An append-only journal of the task results accepted for a job.  Each
+ * record holds a task ID and the serialized results for that task, followed
+ * by a checksum so that a record torn by a crash may be detected.  Records
+ * are flushed to disk in groups: a caller that requires a record to be
+ * durable calls {@link #awaitCommit(long)}, and all records appended by the
+ * time the next commit begins are synced together.  Records are copied to
+ * and from the journal in small pieces, so that large results need not be
+ * held in memory.  This class is thread-safe.
+ * @author Brad Kimmel
+ */
+final class ResultJournal {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(ResultJournal.class);
+
+  /** The suffix to append to the journal file name for a new journal. */
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  /** The size (in bytes) of the buffer to use when copying records. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The location of a record in a journal.
+   */
+  public static final class Record {
+
+    /** The ID of the task. */
+    private final int taskId;
+
+    /** The position of the serialized results in the journal file. */
+    private final long offset;
+
+    /** The length of the serialized results. */
+    private final int length;
+
+    /**
+     * Creates a new <code>Record</code>.
+     * @param taskId The ID of the task.
+     * @param offset The position of the serialized results in the journal
+     *     file.
+     * @param length The length of the serialized results.
+     */
+    private Record(int taskId, long offset, int length) {
+      this.taskId = taskId;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Gets the ID of the task.
+     * @return The ID of the task.
+     */
+    public int getTaskId() {
+      return taskId;
+    }
+
+    /**
+     * Gets the length of the serialized results.
+     * @return The length of the serialized results.
+     */
+    public int getLength() {
+      return length;
+    }
+
+  }
+
+  /** The underlying <code>FileOutputStream</code> for the journal. */
+  private final FileOutputStream stream;
+
+  /** The <code>DataOutputStream</code> to write records to. */
+  private final DataOutputStream out;
+
+  /**
+   * The amount of time (in milliseconds) to wait for more records to be
+   * appended before syncing the journal.
+   */
+  private final long commitInterval;
+
+  /** The sequence number of the last record appended. */
+  private long appended = 0;
+
+  /** The sequence number of the last record known to be on disk. */
+  private long committed = 0;
+
+  /** A value indicating if a thread is currently syncing the journal. */
+  private boolean committing = false;
+
+  /** A value indicating if the journal has been closed. */
+  private boolean closed = false;
+
+  /**
+   * Creates a new journal containing the results in a
+   * <code>ResultQueue</code>, replacing the existing journal, if any.  The
+   * new journal is written to a temporary file and synced before it
+   * replaces the existing one.
+   * @param file The journal file.
+   * @param pending The <code>ResultQueue</code> holding the results to
+   *     write to the new journal.
+   * @param commitInterval The amount of time (in milliseconds) to wait for
+   *     more records to be appended before syncing the journal.
+   * @return The new <code>ResultJournal</code>, open for appending.
+   * @throws IOException If an error occurs while writing the journal.
+   */
+  public static ResultJournal create(File file, ResultQueue pending,
+      long commitInterval) throws IOException {
+    File temp = new File(file.getPath() + TEMP_FILE_SUFFIX);
+    FileOutputStream stream = new FileOutputStream(temp);
+    try {
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(stream));
+      pending.visit(new ResultQueue.Visitor() {
+        public void visit(int taskId, InputStream in, long length)
+            throws IOException {
+          writeRecord(out, taskId, in, length);
+        }
+      });
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+    Files.move(temp.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return new ResultJournal(file, commitInterval);
+  }
+
+  /**
+   * Reads the records in a journal and verifies their checksums.  Reading
+   * stops at the first incomplete or corrupt record, which may be left
+   * behind if the server stopped while the record was being written.  The
+   * results themselves are not loaded; use
+   * {@link #openRecord(File, Record)} to read them.
+   * @param file The journal file.
+   * @return The locations of the records in the journal, by task ID, in
+   *     the order that they were appended.  If the journal does not exist,
+   *     an empty <code>Map</code> is returned.
+   * @throws IOException If an error occurs while reading the journal.
+   */
+  public static Map<Integer, Record> read(File file) throws IOException {
+    Map<Integer, Record> records = new LinkedHashMap<Integer, Record>();
+    if (!file.isFile()) {
+      return records;
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long position = 0;
+      while (true) {
+        int taskId, length;
+        try {
+          taskId = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        try {
+          length = in.readInt();
+          if (length < 0) {
+            logger.warn("Corrupt record in journal " + file.getPath());
+            break;
+          }
+          CRC32 crc = createChecksum(taskId);
+          for (int remaining = length; remaining > 0;) {
+            int n = Math.min(remaining, buffer.length);
+            in.readFully(buffer, 0, n);
+            crc.update(buffer, 0, n);
+            remaining -= n;
+          }
+          if (in.readLong() != crc.getValue()) {
+            logger.warn("Corrupt record in journal " + file.getPath());
+            break;
+          }
+          records.put(taskId, new Record(taskId, position + 8, length));
+          position += 16 + (long) length;
+        } catch (EOFException e) {
+          logger.warn("Incomplete record at end of journal " + file.getPath());
+          break;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return records;
+  }
+
+  /**
+   * Opens the serialized results in a record for reading.
+   * @param file The journal file.
+   * @param record The <code>Record</code> to read, as returned by
+   *     {@link #read(File)}.
+   * @return The <code>InputStream</code> to read the serialized results
+   *     from.  The caller is responsible for closing it.
+   * @throws IOException If the journal could not be opened.
+   */
+  public static InputStream openRecord(File file, Record record)
+      throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(record.offset);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new BufferedInputStream(in);
+  }
+
+  /**
+   * Opens an existing journal for appending.
+   * @param file The journal file.
+   * @param commitInterval The amount of time (in milliseconds) to wait for
+   *     more records to be appended before syncing the journal.
+   * @throws FileNotFoundException If the journal could not be opened.
+   */
+  private ResultJournal(File file, long commitInterval)
+      throws FileNotFoundException {
+    this.stream = new FileOutputStream(file, true);
+    this.out = new DataOutputStream(new BufferedOutputStream(stream));
+    this.commitInterval = commitInterval;
+  }
+
+  /**
+   * Appends the results of a task to the journal.  The record is not
+   * guaranteed to be on disk until {@link #awaitCommit(long)} returns.
+   * @param taskId The ID of the task.
+   * @param data The serialized results of the task, as returned by
+   *     {@link #encode(Serialized)}.
+   * @return The sequence number of the new record.
+   * @throws IOException If an error occurs while writing to the journal.
+   */
+  public synchronized long append(int taskId, byte[] data)
+      throws IOException {
+    if (closed) {
+      throw new IOException("Journal is closed");
+    }
+    writeRecord(out, taskId, data);
+    return ++appended;
+  }
+
+  /**
+   * Appends the results of a task, held in a file, to the journal.  The
+   * record is not guaranteed to be on disk until {@link #awaitCommit(long)}
+   * returns.
+   * @param taskId The ID of the task.
+   * @param file The file holding the serialized results of the task.
+   * @param length The length of the serialized results.
+   * @return The sequence number of the new record.
+   * @throws IOException If an error occurs while reading the file or
+   *     writing to the journal.
+   */
+  public synchronized long append(int taskId, File file, long length)
+      throws IOException {
+    if (closed) {
+      throw new IOException("Journal is closed");
+    }
+    InputStream in = new FileInputStream(file);
+    try {
+      writeRecord(out, taskId, in, length);
+    } finally {
+      in.close();
+    }
+    return ++appended;
+  }
+
+  /**
+   * Waits until the record with the specified sequence number is on disk.
+   * If no other thread is syncing the journal, the calling thread waits up
+   * to the commit interval for other records to be appended and then
+   * syncs them all together.
+   * @param seq The sequence number of the record, as returned by
+   *     {@link #append(int, byte[])}.
+   * @throws IOException If an error occurs while syncing the journal.
+   * @throws InterruptedException If the thread is interrupted while
+   *     waiting.
+   */
+  public void awaitCommit(long seq) throws IOException, InterruptedException {
+    long target;
+    synchronized (this) {
+      while (committing && committed < seq) {
+        wait();
+      }
+      if (committed >= seq) {
+        return;
+      }
+      committing = true;
+      try {
+        if (commitInterval > 0) {
+          wait(commitInterval);
+        }
+        if (closed) {
+          committing = false;
+          return;
+        }
+        out.flush();
+      } catch (IOException e) {
+        committing = false;
+        notifyAll();
+        throw e;
+      } catch (InterruptedException e) {
+        committing = false;
+        notifyAll();
+        throw e;
+      }
+      target = appended;
+    }
+
+    // Sync without holding the lock so that other threads may continue to
+    // append records in the meantime.
+    IOException error = null;
+    try {
+      stream.getFD().sync();
+    } catch (IOException e) {
+      error = e;
+    }
+
+    synchronized (this) {
+      committing = false;
+      if (error == null && target > committed) {
+        committed = target;
+      }
+      notifyAll();
+
+      // If the journal was closed in the meantime, the record was synced
+      // when it was closed.
+      if (committed < seq) {
+        throw error;
+      }
+    }
+  }
+
+  /**
+   * Syncs and closes the journal.  Threads waiting in
+   * {@link #awaitCommit(long)} are released once the journal is closed.
+   * @throws IOException If an error occurs while closing the journal.
+   */
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      out.flush();
+      stream.getFD().sync();
+      committed = appended;
+    } finally {
+      stream.close();
+      notifyAll();
+    }
+  }
+
+  /**
+   * Writes a record to a journal.
+   * @param out The <code>DataOutputStream</code> to write to.
+   * @param taskId The ID of the task.
+   * @param data The serialized results of the task.
+   * @throws IOException If an error occurs while writing the record.
+   */
+  private static void writeRecord(DataOutputStream out, int taskId,
+      byte[] data) throws IOException {
+    out.writeInt(taskId);
+    out.writeInt(data.length);
+    out.write(data);
+    out.writeLong(checksum(taskId, data));
+  }
+
+  /**
+   * Writes a record to a journal, copying the results from an
+   * <code>InputStream</code>.
+   * @param out The <code>DataOutputStream</code> to write to.
+   * @param taskId The ID of the task.
+   * @param in The <code>InputStream</code> to read the serialized results
+   *     of the task from.
+   * @param length The length of the serialized results.
+   * @throws IOException If an error occurs while reading the results or
+   *     writing the record.
+   */
+  private static void writeRecord(DataOutputStream out, int taskId,
+      InputStream in, long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid record length");
+    }
+    out.writeInt(taskId);
+    out.writeInt((int) length);
+    CRC32 crc = createChecksum(taskId);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (long remaining = length; remaining > 0;) {
+      int n = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+      if (n < 0) {
+        throw new EOFException("Task results are truncated");
+      }
+      out.write(buffer, 0, n);
+      crc.update(buffer, 0, n);
+      remaining -= n;
+    }
+    out.writeLong(crc.getValue());
+  }
+
+  /**
+   * Computes the checksum for a record.
+   * @param taskId The ID of the task.
+   * @param data The serialized results of the task.
+   * @return The checksum for the record.
+   */
+  private static long checksum(int taskId, byte[] data) {
+    CRC32 crc = createChecksum(taskId);
+    crc.update(data);
+    return crc.getValue();
+  }
+
+  /**
+   * Creates a <code>CRC32</code> for computing the checksum of a record,
+   * primed with the task ID.
+   * @param taskId The ID of the task.
+   * @return The <code>CRC32</code> to update with the serialized results.
+   */
+  private static CRC32 createChecksum(int taskId) {
+    CRC32 crc = new CRC32();
+    crc.update(taskId >>> 24);
+    crc.update(taskId >>> 16);
+    crc.update(taskId >>> 8);
+    crc.update(taskId);
+    return crc;
+  }
+
+  /**
+   * Converts task results to the form in which they are written to the
+   * journal.
+   * @param results The serialized task results.
+   * @return The bytes to write to the journal.
+   */
+  public static byte[] encode(Serialized<Object> results) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream oout = new ObjectOutputStream(bytes);
+      oout.writeObject(results);
+      oout.close();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new UnexpectedException(e);
+    }
+  }
+
+  /**
+   * Reads task results written to the journal, either by
+   * {@link #encode(Serialized)} or by serializing the results directly
+   * (as for results uploaded in chunks).
+   * @param in The <code>InputStream</code> to read from.
+   * @param loader The <code>ClassLoader</code> to use to load the classes
+   *     of the results.
+   * @return The task results.
+   * @throws IOException If an error occurs while reading the results.
+   * @throws ClassNotFoundException If a class required by the results is
+   *     missing.
+   */
+  public static Object readResults(InputStream in, ClassLoader loader)
+      throws IOException, ClassNotFoundException {
+    ObjectInputStream oin = new ClassLoaderObjectInputStream(in, loader);
+    Object results = oin.readObject();
+    if (results instanceof Serialized<?>) {
+      results = ((Serialized<?>) results).deserialize(loader);
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.jdcp.job.TaskDescription;
+
+/**
+ * A queue of task results that have been accepted for a job but not yet
+ * applied to it.  Results are held in memory up to a budget.  Results
+ * arriving while the budget is exhausted are spilled to a file until they
+ * reach the head of the queue.  Results are returned in the order in which
+ * they were added.  Results that were uploaded to a file in chunks remain
+ * in that file, and are never loaded into memory in their entirety.  This
+ * class is thread-safe.
+ * @author Brad Kimmel
+ */
+final class ResultQueue {
+
+  /**
+   * Receives the results in a <code>ResultQueue</code>.
+   * @see ResultQueue#visit(Visitor)
+   */
+  public interface Visitor {
+
+    /**
+     * Receives the results of a task.
+     * @param taskId The ID of the task.
+     * @param in The <code>InputStream</code> to read the serialized results
+     *     of the task from.
+     * @param length The length of the serialized results.
+     * @throws IOException If an error occurs while handling the results.
+     */
+    void visit(int taskId, InputStream in, long length) throws IOException;
+
+  }
+
+  /**
+   * An entry in a <code>ResultQueue</code>.
+   */
+  public static final class Entry {
+
+    /** The <code>TaskDescription</code> for the task. */
+    private final TaskDescription task;
+
+    /**
+     * The serialized results of the task, or <code>null</code> if they are
+     * in the spill file or in an uploaded file.
+     */
+    private byte[] data;
+
+    /**
+     * The file holding the uploaded results of the task, or
+     * <code>null</code> if the results are in memory or in the spill file.
+     */
+    private final File file;
+
+    /** The position of the results in the spill file. */
+    private final long offset;
+
+    /** The length of the serialized results. */
+    private final long length;
+
+    /** The time (in milliseconds) at which the results were accepted. */
+    private final long acceptedTime;
+
+    /**
+     * Creates a new <code>Entry</code>.
+     * @param task The <code>TaskDescription</code> for the task.
+     * @param data The serialized results, or <code>null</code> if they are
+     *     in the spill file or in an uploaded file.
+     * @param file The file holding the uploaded results, or
+     *     <code>null</code> if the results are in memory or in the spill
+     *     file.
+     * @param offset The position of the results in the spill file.
+     * @param length The length of the serialized results.
+     */
+    private Entry(TaskDescription task, byte[] data, File file, long offset,
+        long length) {
+      this.task = task;
+      this.data = data;
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      this.acceptedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the <code>TaskDescription</code> for the task.
+     * @return The <code>TaskDescription</code> for the task.
+     */
+    public TaskDescription getTask() {
+      return task;
+    }
+
+    /**
+     * Opens the serialized results of the task for reading.
+     * @return The <code>InputStream</code> to read the serialized results
+     *     of the task from.
+     * @throws IOException If the results could not be opened.
+     */
+    public InputStream openStream() throws IOException {
+      return (file != null)
+          ? new BufferedInputStream(new FileInputStream(file))
+          : new ByteArrayInputStream(data);
+    }
+
+    /**
+     * Gets the length of the serialized results of the task.
+     * @return The length of the serialized results of the task.
+     */
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * Deletes the file holding the uploaded results of the task, if any.
+     * This must be called once an entry removed from the queue is no
+     * longer needed.
+     */
+    public void dispose() {
+      if (file != null) {
+        file.delete();
+      }
+    }
+
+    /**
+     * Gets the time at which the results were accepted.
+     * @return The time (in milliseconds) at which the results were
+     *     accepted.
+     */
+    public long getAcceptedTime() {
+      return acceptedTime;
+    }
+
+  }
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(ResultQueue.class);
+
+  /**
+   * The weight given to the most recent latency when updating the average
+   * aggregation latency.
+   */
+  private static final double SMOOTHING_FACTOR = 0.1;
+
+  /** The queued results. */
+  private final Queue<Entry> entries = new LinkedList<Entry>();
+
+  /** The file to spill results to. */
+  private final File spillFile;
+
+  /**
+   * The open spill file, or <code>null</code> if no results have been
+   * spilled.
+   */
+  private RandomAccessFile spill = null;
+
+  /** The number of queued results that are in the spill file. */
+  private int spilled = 0;
+
+  /** The number of bytes of queued results held in memory. */
+  private long memoryUsed = 0;
+
+  /** The maximum number of bytes of queued results to hold in memory. */
+  private long memoryBudget;
+
+  /**
+   * The average time (in milliseconds) between accepting results and
+   * applying them, or a negative value if no results have been applied.
+   */
+  private double latency = -1.0;
+
+  /**
+   * Creates a new <code>ResultQueue</code>.
+   * @param spillFile The file to spill results to.
+   * @param memoryBudget The maximum number of bytes of results to hold in
+   *     memory.
+   */
+  public ResultQueue(File spillFile, long memoryBudget) {
+    this.spillFile = spillFile;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Sets the maximum number of bytes of results to hold in memory.  Results
+   * already in the queue are not affected.
+   * @param memoryBudget The maximum number of bytes of results to hold in
+   *     memory.
+   */
+  public synchronized void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Adds the results of a task to the end of the queue.  If the results
+   * cannot be spilled, they are held in memory.
+   * @param task The <code>TaskDescription</code> for the task.
+   * @param data The serialized results of the task.
+   */
+  public synchronized void add(TaskDescription task, byte[] data) {
+    if (memoryUsed + data.length > memoryBudget) {
+      try {
+        if (spill == null) {
+          spill = new RandomAccessFile(spillFile, "rw");
+          spill.setLength(0);
+        }
+        long offset = spill.length();
+        spill.seek(offset);
+        spill.write(data);
+        entries.add(new Entry(task, null, null, offset, data.length));
+        spilled++;
+        return;
+      } catch (IOException e) {
+        logger.error("Could not spill results to " + spillFile.getPath(), e);
+      }
+    }
+    entries.add(new Entry(task, data, null, 0, data.length));
+    memoryUsed += data.length;
+  }
+
+  /**
+   * Adds the results of a task, held in a file, to the end of the queue.
+   * The queue takes ownership of the file, and deletes it once the results
+   * have been applied or the queue is cleared.
+   * @param task The <code>TaskDescription</code> for the task.
+   * @param file The file holding the serialized results of the task.
+   * @param length The length of the serialized results.
+   */
+  public synchronized void addFile(TaskDescription task, File file,
+      long length) {
+    entries.add(new Entry(task, null, file, 0, length));
+  }
+
+  /**
+   * Removes the entry at the head of the queue.
+   * @return The entry at the head of the queue, with its results loaded,
+   *     or <code>null</code> if the queue is empty.
+   * @throws IOException If an error occurs while reading spilled results.
+   */
+  public synchronized Entry poll() throws IOException {
+    Entry entry = entries.poll();
+    if (entry == null) {
+      return null;
+    }
+    if (entry.file != null) {
+      return entry;
+    }
+    if (entry.data == null) {
+      byte[] data = new byte[(int) entry.length];
+      spill.seek(entry.offset);
+      spill.readFully(data);
+      entry.data = data;
+      if (--spilled == 0) {
+        deleteSpill();
+      }
+    } else {
+      memoryUsed -= entry.length;
+    }
+    return entry;
+  }
+
+  /**
+   * Passes the results in the queue, in order, to a <code>Visitor</code>.
+   * @param visitor The <code>Visitor</code> to receive the results.
+   * @throws IOException If an error occurs while reading spilled results
+   *     or the <code>Visitor</code> throws an <code>IOException</code>.
+   */
+  public synchronized void visit(Visitor visitor) throws IOException {
+    for (Entry entry : entries) {
+      if (entry.file != null) {
+        InputStream in = entry.openStream();
+        try {
+          visitor.visit(entry.task.getTaskId(), in, entry.length);
+        } finally {
+          in.close();
+        }
+        continue;
+      }
+      byte[] data = entry.data;
+      if (data == null) {
+        data = new byte[(int) entry.length];
+        spill.seek(entry.offset);
+        spill.readFully(data);
+      }
+      visitor.visit(entry.task.getTaskId(), new ByteArrayInputStream(data),
+          data.length);
+    }
+  }
+
+  /**
+   * Records the time taken to apply a result after it was accepted.
+   * @param entry The entry for the result that was applied.
+   */
+  public synchronized void recordApplied(Entry entry) {
+    long elapsed = System.currentTimeMillis() - entry.acceptedTime;
+    latency = (latency < 0.0) ? elapsed
+        : latency + SMOOTHING_FACTOR * (elapsed - latency);
+  }
+
+  /**
+   * Gets the number of bytes of queued results held in memory.
+   * @return The number of bytes of queued results held in memory.
+   */
+  public synchronized long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * Gets the number of results in the queue.
+   * @return The number of results in the queue.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets a value indicating if the queue is empty.
+   * @return A value indicating if the queue is empty.
+   */
+  public synchronized boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Gets the average time between accepting results and applying them.
+   * @return The average time (in milliseconds) between accepting results
+   *     and applying them, or a negative value if no results have been
+   *     applied.
+   */
+  public synchronized double getLatency() {
+    return latency;
+  }
+
+  /**
+   * Removes all results from the queue and deletes the spill file and the
+   * files holding uploaded results.
+   */
+  public synchronized void clear() {
+    for (Entry entry : entries) {
+      if (entry.file != null) {
+        entry.file.delete();
+      }
+    }
+    entries.clear();
+    memoryUsed = 0;
+    spilled = 0;
+    deleteSpill();
+  }
+
+  /**
+   * Closes and deletes the spill file.
+   */
+  private void deleteSpill() {
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        logger.warn("Could not close " + spillFile.getPath(), e);
+      }
+      spill = null;
+    }
+    spillFile.delete();
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The results of a task that are being uploaded to the server in chunks.
+ * The chunks are written directly to a file, so that the results need
+ * never be held in memory in their entirety.  Chunks must arrive in order,
+ * but a chunk that has already been received may be sent again (for
+ * example, if the worker lost its connection before receiving
+ * acknowledgement), in which case it is ignored.  This class is
+ * thread-safe.
+ * @author Brad Kimmel
+ */
+final class ResultUpload {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(ResultUpload.class);
+
+  /** The <code>UUID</code> identifying the job the results belong to. */
+  private final UUID jobId;
+
+  /** The ID of the task whose results are being uploaded. */
+  private final int taskId;
+
+  /** The file to write the results to. */
+  private final File file;
+
+  /**
+   * The <code>FileOutputStream</code> to write the results to, or
+   * <code>null</code> if the upload has ended.
+   */
+  private FileOutputStream stream;
+
+  /** The number of bytes received so far. */
+  private long length = 0;
+
+  /** The time (in milliseconds) at which the last chunk was received. */
+  private volatile long lastActivity;
+
+  /**
+   * Creates a new <code>ResultUpload</code>.
+   * @param jobId The <code>UUID</code> identifying the job the results
+   *     belong to.
+   * @param taskId The ID of the task whose results are being uploaded.
+   * @param file The file to write the results to.
+   * @throws IOException If the file could not be created.
+   */
+  public ResultUpload(UUID jobId, int taskId, File file) throws IOException {
+    this.jobId = jobId;
+    this.taskId = taskId;
+    this.file = file;
+    this.stream = new FileOutputStream(file);
+    this.lastActivity = System.currentTimeMillis();
+  }
+
+  /**
+   * Gets the <code>UUID</code> identifying the job the results belong to.
+   * @return The <code>UUID</code> identifying the job the results belong
+   *     to.
+   */
+  public UUID getJobId() {
+    return jobId;
+  }
+
+  /**
+   * Gets the ID of the task whose results are being uploaded.
+   * @return The ID of the task whose results are being uploaded.
+   */
+  public int getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * Gets the file the results are written to.
+   * @return The file the results are written to.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the number of bytes received so far.
+   * @return The number of bytes received so far.
+   */
+  public synchronized long getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the time at which the last chunk was received.
+   * @return The time (in milliseconds) at which the last chunk was
+   *     received, or at which the upload began if no chunks have been
+   *     received.
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * Appends a chunk to the results.
+   * @param offset The position of the chunk within the results.
+   * @param chunk The chunk.
+   * @throws IllegalArgumentException If <code>offset</code> is past the
+   *     end of the data received so far, if the results would become too
+   *     large to be journalled, or if the upload has ended.
+   * @throws IOException If an error occurs while writing the chunk.
+   */
+  public synchronized void append(long offset, byte[] chunk)
+      throws IllegalArgumentException, IOException {
+    if (stream == null) {
+      throw new IllegalArgumentException("Upload has ended");
+    }
+    if (offset < 0 || offset > length) {
+      throw new IllegalArgumentException("Chunk is out of order");
+    }
+    lastActivity = System.currentTimeMillis();
+    long end = offset + chunk.length;
+    if (end <= length) {
+      return;
+    }
+    if (end > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Task results are too large");
+    }
+    int skip = (int) (length - offset);
+    stream.write(chunk, skip, chunk.length - skip);
+    length = end;
+  }
+
+  /**
+   * Closes the file, ensuring that the results are on disk.
+   * @throws IllegalArgumentException If the upload has already ended.
+   * @throws IOException If an error occurs while closing the file.
+   */
+  public synchronized void finish() throws IllegalArgumentException, IOException {
+    if (stream == null) {
+      throw new IllegalArgumentException("Upload has ended");
+    }
+    try {
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+      stream = null;
+    }
+  }
+
+  /**
+   * Closes and deletes the file.
+   */
+  public synchronized void abort() {
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        logger.warn("Could not close " + file.getPath(), e);
+      }
+      stream = null;
+    }
+    file.delete();
+  }
+
+}
@@ -27,14 +27,17 @@ package ca.eandb.jdcp.server;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 
 import javax.sql.DataSource;
@@ -43,6 +46,7 @@ import org.apache.log4j.Logger;
 
 import ca.eandb.jdcp.job.TaskDescription;
 import ca.eandb.jdcp.job.TaskWorker;
+import ca.eandb.jdcp.remote.DelegationException;
 import ca.eandb.jdcp.remote.TaskService;
 import ca.eandb.util.UnexpectedException;
 import ca.eandb.util.rmi.Serialized;
@@ -57,38 +61,45 @@ final class ServiceInfo {
 
   private final Executor executor;
   private final ServiceWrapper service;
-  private final Map<UUID, JobInfo> jobs = new HashMap<UUID, JobInfo>();
+  private final Map<UUID, JobInfo> jobs = new ConcurrentHashMap<UUID, JobInfo>();
   private boolean lastPollOk = true;
   private final DataSource dataSource;
   private final Queue<TaskDescription> pendingTasks = new LinkedList<TaskDescription>();
 
   private final Runnable getNextTask = new Runnable() {
     public void run() {
-      TaskDescription task = null;
       if (!isIdle()) {
-        task = service.requestTask();
-        UUID jobId = task.getJobId();
-        if (jobId == null) {
-          try {
-            int seconds = (Integer) task.getTask().deserialize();
-            idle(seconds);
-          } catch (ClassNotFoundException e) {
-            throw new UnexpectedException(e);
-          }
-          task = null;
-        } else {
-          JobInfo job = getJobInfo(jobId);
-          job.registerTask(task.getTaskId());
-        }
-      }
-      if (task != null) {
-        synchronized (pendingTasks) {
-          pendingTasks.add(task);
-        }
+        addPendingTask(service.requestTask());
       }
     }
   };
 
+  private void fetchTasks(int maxTasks, UUID[] preferredJobIds) {
+    if (!isIdle()) {
+      for (TaskDescription task : service.requestTasks(maxTasks, preferredJobIds)) {
+        addPendingTask(task);
+      }
+    }
+  }
+
+  private void addPendingTask(TaskDescription task) {
+    UUID jobId = task.getJobId();
+    if (jobId == null) {
+      try {
+        int seconds = (Integer) task.getTask().deserialize();
+        idle(seconds);
+      } catch (ClassNotFoundException e) {
+        throw new UnexpectedException(e);
+      }
+    } else {
+      JobInfo job = getJobInfo(jobId);
+      job.registerTask(task.getTaskId());
+      synchronized (pendingTasks) {
+        pendingTasks.add(task);
+      }
+    }
+  }
+
   private Date idleUntil = new Date(0);
 
   public ServiceInfo(TaskService service, DataSource dataSource, Executor executor) {
@@ -122,7 +133,6 @@ final class ServiceInfo {
       for (int i = 0, n = taskIdList.size(); i < n; i++) {
         taskIds[i] = taskIdList.get(i);
       }
-      boolean jobRemoved = false;
       try {
         BitSet finished = service.getFinishedTasks(jobIds, taskIds);
         for (int i = finished.nextSetBit(0); i >= 0; i = finished.nextSetBit(i + 1)) {
@@ -132,8 +142,10 @@ final class ServiceInfo {
               job.removeTask(taskIds[i]);
             }
           } else {
-            jobs.remove(jobIds[i]);
-            jobRemoved = true;
+            JobInfo job = jobs.remove(jobIds[i]);
+            if (job != null) {
+              job.release();
+            }
           }
         }
         lastPollOk = true;
@@ -143,9 +155,6 @@ final class ServiceInfo {
           lastPollOk = false;
         }
       }
-      if (jobRemoved) {
-        System.gc();
-      }
     }
   }
 
@@ -186,6 +195,10 @@ final class ServiceInfo {
     return job.getClassDigest(name);
   }
 
+  public boolean hasJob(UUID jobId) {
+    return jobs.containsKey(jobId);
+  }
+
   public boolean isTaskComplete(UUID jobId, int taskId) {
     JobInfo job = jobs.get(jobId);
     return (job == null) || job.isTaskComplete(taskId);
@@ -202,10 +215,77 @@ final class ServiceInfo {
     job.reportException(taskId, e);
   }
 
-  public synchronized TaskDescription requestTask() {
+  public TaskDescription requestTask() {
+    TaskDescription task;
+    synchronized (pendingTasks) {
+      task = pendingTasks.poll();
+    }
+    if (task == null) {
+      // Nothing has been fetched ahead yet, so fetch a task now rather than
+      // sending the worker away empty-handed.
+      getNextTask.run();
+      synchronized (pendingTasks) {
+        task = pendingTasks.poll();
+      }
+    }
     executor.execute(getNextTask);
+    return task;
+  }
+
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds) {
+    List<TaskDescription> tasks = takePendingTasks(maxTasks, preferredJobIds);
+    if (tasks.size() < maxTasks) {
+      // Fetch the shortfall now rather than sending the worker away with
+      // only what was fetched ahead.  The tasks already taken must not be
+      // lost if the server cannot be reached.
+      try {
+        fetchTasks(maxTasks - tasks.size(), preferredJobIds);
+        tasks.addAll(takePendingTasks(maxTasks - tasks.size(),
+            preferredJobIds));
+      } catch (DelegationException e) {
+        logger.error("Could not request tasks from server", e);
+      }
+    }
+    executor.execute(new Runnable() {
+      public void run() {
+        fetchTasks(maxTasks, preferredJobIds);
+      }
+    });
+    return tasks.toArray(new TaskDescription[tasks.size()]);
+  }
+
+  /**
+   * Removes tasks that have been fetched ahead from the queue of pending
+   * tasks, preferring tasks for the specified jobs.
+   * @param maxTasks The maximum number of tasks to remove.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs to prefer
+   *     tasks from (may be <code>null</code>).
+   * @return The <code>TaskDescription</code>s removed.
+   */
+  private List<TaskDescription> takePendingTasks(int maxTasks,
+      UUID[] preferredJobIds) {
     synchronized (pendingTasks) {
-      return pendingTasks.poll();
+      List<TaskDescription> tasks = new ArrayList<TaskDescription>(
+          Math.min(maxTasks, pendingTasks.size()));
+
+      // Hand out tasks for the jobs that the worker already has loaded
+      // first, then fill the remainder in the order they were received.
+      if (preferredJobIds != null && preferredJobIds.length > 0) {
+        List<UUID> preferred = Arrays.asList(preferredJobIds);
+        Iterator<TaskDescription> i = pendingTasks.iterator();
+        while (tasks.size() < maxTasks && i.hasNext()) {
+          TaskDescription task = i.next();
+          if (preferred.contains(task.getJobId())) {
+            tasks.add(task);
+            i.remove();
+          }
+        }
+      }
+      while (tasks.size() < maxTasks && !pendingTasks.isEmpty()) {
+        tasks.add(pendingTasks.remove());
+      }
+      return tasks;
     }
   }
 
@@ -215,4 +295,15 @@ final class ServiceInfo {
     job.submitTaskResults(taskId, results);
   }
 
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) {
+    service.submitTaskResults(jobIds, taskIds, results);
+    for (int i = 0; i < jobIds.length; i++) {
+      JobInfo job = jobs.get(jobIds[i]);
+      if (job != null) {
+        job.removeTask(taskIds[i]);
+      }
+    }
+  }
+
 }
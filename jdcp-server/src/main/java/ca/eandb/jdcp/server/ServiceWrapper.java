@@ -130,6 +130,41 @@ final class ServiceWrapper implements TaskService {
     });
   }
 
+  @Override
+  public long beginTaskResultsUpload(final UUID jobId, final int taskId)
+      throws DelegationException {
+    return run(new ServiceOperation<Long>() {
+      public Long run(TaskService service) throws RemoteException,
+          SecurityException {
+        return service.beginTaskResultsUpload(jobId, taskId);
+      }
+    });
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(final long uploadId, final long offset,
+      final byte[] chunk) throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(TaskService service) throws RemoteException,
+          SecurityException {
+        service.uploadTaskResultsChunk(uploadId, offset, chunk);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public void endTaskResultsUpload(final long uploadId, final boolean commit)
+      throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(TaskService service) throws RemoteException,
+          SecurityException {
+        service.endTaskResultsUpload(uploadId, commit);
+        return null;
+      }
+    });
+  }
+
   @Override
   public Serialized<TaskWorker> getTaskWorker(final UUID jobId)
       throws DelegationException {
@@ -163,6 +198,30 @@ final class ServiceWrapper implements TaskService {
     });
   }
 
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds)
+      throws DelegationException {
+    return run(new ServiceOperation<TaskDescription[]>() {
+      public TaskDescription[] run(TaskService service)
+          throws RemoteException, SecurityException {
+        return service.requestTasks(maxTasks, preferredJobIds);
+      }
+    });
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(final int maxTasks,
+      final UUID[] preferredJobIds, final long timeoutMillis)
+      throws DelegationException {
+    return run(new ServiceOperation<TaskDescription[]>() {
+      public TaskDescription[] run(TaskService service)
+          throws RemoteException, SecurityException {
+        return service.requestTasks(maxTasks, preferredJobIds, timeoutMillis);
+      }
+    });
+  }
+
   @Override
   public void submitTaskResults(final UUID jobId, final int taskId,
       final Serialized<Object> results) throws DelegationException {
@@ -175,4 +234,16 @@ final class ServiceWrapper implements TaskService {
     });
   }
 
+  @Override
+  public void submitTaskResults(final UUID[] jobIds, final int[] taskIds,
+      final Serialized<Object>[] results) throws DelegationException {
+    run(new ServiceOperation<Object>() {
+      public Object run(TaskService service) throws RemoteException,
+          SecurityException {
+        service.submitTaskResults(jobIds, taskIds, results);
+        return null;
+      }
+    });
+  }
+
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * Stores the serialized payloads of a job's outstanding tasks outside of the
+ * Java heap.  Payloads are appended to segment files which are mapped into
+ * memory, and each payload is identified by a compact <code>long</code>
+ * handle.  A segment file is deleted once all of the payloads in it have
+ * been freed.  This class is thread-safe.
+ * @author Brad Kimmel
+ */
+final class TaskPayloadStore implements Closeable {
+
+  /** The default size (in bytes) of each segment file. */
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * A memory-mapped segment file.
+   */
+  private static final class Segment {
+
+    /** The segment number. */
+    public final int index;
+
+    /** The segment file. */
+    public final File file;
+
+    /** The mapping of the segment file. */
+    public MappedByteBuffer buffer;
+
+    /** The offset at which to write the next payload. */
+    public int position = 0;
+
+    /** The number of payloads in this segment that have not been freed. */
+    public int live = 0;
+
+    /**
+     * Creates a new <code>Segment</code>.
+     * @param index The segment number.
+     * @param file The segment file.
+     * @param buffer The mapping of the segment file.
+     */
+    public Segment(int index, File file, MappedByteBuffer buffer) {
+      this.index = index;
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+  }
+
+  /**
+   * An <code>InputStream</code> that reads from a <code>ByteBuffer</code>.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    /** The <code>ByteBuffer</code> to read from. */
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a new <code>ByteBufferInputStream</code>.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+  }
+
+  /** The directory in which to create segment files. */
+  private final File directory;
+
+  /** The prefix for the names of the segment files. */
+  private final String prefix;
+
+  /** The size (in bytes) of each segment file. */
+  private final int segmentSize;
+
+  /**
+   * The segments, indexed by segment number.  Segments that have been
+   * released are <code>null</code>.
+   */
+  private final List<Segment> segments = new ArrayList<Segment>();
+
+  /** The segment to which new payloads are written. */
+  private Segment current = null;
+
+  /** The number of payloads that have not been freed. */
+  private int size = 0;
+
+  /** A value indicating if this store has been closed. */
+  private boolean closed = false;
+
+  /**
+   * Creates a new <code>TaskPayloadStore</code>.
+   * @param directory The directory in which to create segment files.
+   * @param prefix The prefix for the names of the segment files.
+   * @param segmentSize The size (in bytes) of each segment file.  Payloads
+   *     larger than this are stored in segments of their own.
+   */
+  public TaskPayloadStore(File directory, String prefix, int segmentSize) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("segmentSize must be positive");
+    }
+    this.directory = directory;
+    this.prefix = prefix;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Stores a payload.
+   * @param data The payload to store.
+   * @return The handle identifying the stored payload.
+   * @throws IOException If an error occurs while creating a segment file.
+   */
+  public synchronized long put(byte[] data) throws IOException {
+    if (closed) {
+      throw new IOException("Payload store is closed");
+    }
+
+    int required = 4 + data.length;
+    if (current == null
+        || current.buffer.capacity() - current.position < required) {
+      Segment full = current;
+      current = createSegment(Math.max(segmentSize, required));
+      if (full != null && full.live == 0) {
+        release(full);
+      }
+    }
+
+    int offset = current.position;
+    ByteBuffer buf = current.buffer.duplicate();
+    buf.position(offset);
+    buf.putInt(data.length);
+    buf.put(data);
+    current.position += required;
+    current.live++;
+    size++;
+    return ((long) current.index << 32) | (offset & 0xffffffffL);
+  }
+
+  /**
+   * Creates and maps a new segment file.
+   * @param capacity The size (in bytes) of the segment.
+   * @return The new <code>Segment</code>.
+   * @throws IOException If the segment file cannot be created or mapped.
+   */
+  private Segment createSegment(int capacity) throws IOException {
+    directory.mkdirs();
+    int index = segments.size();
+    File file = new File(directory, prefix + Integer.toString(index));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(capacity);
+      MappedByteBuffer buffer = raf.getChannel().map(
+          FileChannel.MapMode.READ_WRITE, 0, capacity);
+      Segment segment = new Segment(index, file, buffer);
+      segments.add(segment);
+      return segment;
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    } finally {
+      // The mapping remains valid after the file is closed.
+      raf.close();
+    }
+  }
+
+  /**
+   * Gets a read-only view of a stored payload.  The returned buffer reads
+   * directly from the mapping of the segment file.
+   * @param handle The handle returned by {@link #put(byte[])}.
+   * @return A <code>ByteBuffer</code> holding the payload, or
+   *     <code>null</code> if the segment holding the payload has been
+   *     released.
+   */
+  public synchronized ByteBuffer get(long handle) {
+    int index = (int) (handle >>> 32);
+    int offset = (int) handle;
+    Segment segment = (index < segments.size()) ? segments.get(index) : null;
+    if (segment == null) {
+      return null;
+    }
+    ByteBuffer buf = segment.buffer.asReadOnlyBuffer();
+    buf.position(offset);
+    int length = buf.getInt();
+    buf.limit(offset + 4 + length);
+    return buf.slice();
+  }
+
+  /**
+   * Gets a copy of a stored payload.
+   * @param handle The handle returned by {@link #put(byte[])}.
+   * @return The payload, or <code>null</code> if the segment holding the
+   *     payload has been released.
+   */
+  public byte[] getBytes(long handle) {
+    ByteBuffer buf = get(handle);
+    if (buf == null) {
+      return null;
+    }
+    byte[] data = new byte[buf.remaining()];
+    buf.get(data);
+    return data;
+  }
+
+  /**
+   * Reads a payload written by {@link ResultJournal#encode(Serialized)}
+   * directly from the mapping.
+   * @param handle The handle returned by {@link #put(byte[])}.
+   * @return The decoded <code>Serialized</code> payload, or
+   *     <code>null</code> if the segment holding the payload has been
+   *     released.
+   * @throws IOException If the payload cannot be decoded.
+   */
+  @SuppressWarnings("unchecked")
+  public Serialized<Object> read(long handle) throws IOException {
+    ByteBuffer buf = get(handle);
+    if (buf == null) {
+      return null;
+    }
+    ObjectInputStream oin = new ObjectInputStream(new ByteBufferInputStream(buf));
+    try {
+      return (Serialized<Object>) oin.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Could not decode task payload", e);
+    } finally {
+      oin.close();
+    }
+  }
+
+  /**
+   * Frees a stored payload.  Each payload must be freed at most once.
+   * @param handle The handle returned by {@link #put(byte[])}.
+   */
+  public synchronized void free(long handle) {
+    int index = (int) (handle >>> 32);
+    Segment segment = (index < segments.size()) ? segments.get(index) : null;
+    if (segment != null) {
+      segment.live--;
+      size--;
+      if (segment.live == 0 && segment != current) {
+        release(segment);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of payloads that have not been freed.
+   * @return The number of payloads that have not been freed.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Unmaps and deletes a segment file.
+   * @param segment The <code>Segment</code> to release.
+   */
+  private void release(Segment segment) {
+    segments.set(segment.index, null);
+    segment.buffer = null;
+    if (!segment.file.delete()) {
+      // Some platforms do not allow a mapped file to be deleted.
+      segment.file.deleteOnExit();
+    }
+  }
+
+  /**
+   * Frees all payloads and deletes the segment files.  Payloads may not be
+   * stored after this store is closed.
+   */
+  @Override
+  public synchronized void close() {
+    for (Segment segment : segments) {
+      if (segment != null) {
+        segment.buffer = null;
+        if (!segment.file.delete()) {
+          segment.file.deleteOnExit();
+        }
+      }
+    }
+    segments.clear();
+    current = null;
+    size = 0;
+    closed = true;
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * A group of task results to be submitted together.  Results submitted in
+ * a single call as parallel arrays are split into batches using
+ * {@link #group(UUID[], int[], Serialized[], Router)}, so that each batch
+ * may be handed to the job, or forwarded to the server, that it belongs to.
+ * @author Brad Kimmel
+ */
+public final class TaskResultBatch {
+
+  /**
+   * Determines where the results for a job are to be submitted.
+   * @param <K> The type of the object identifying where results are to be
+   *     submitted.
+   */
+  public interface Router<K> {
+
+    /**
+     * Determines where the results for the specified job are to be
+     * submitted.
+     * @param jobId The <code>UUID</code> of the job.
+     * @return The object identifying where the results for the job are to
+     *     be submitted, or <code>null</code> if they are to be discarded.
+     */
+    K route(UUID jobId);
+
+  }
+
+  /** The <code>UUID</code>s of the jobs that the tasks belong to. */
+  private final List<UUID> jobIds = new ArrayList<UUID>();
+
+  /** The IDs of the tasks. */
+  private final List<Integer> taskIds = new ArrayList<Integer>();
+
+  /** The serialized results of the tasks. */
+  private final List<Serialized<Object>> results = new ArrayList<Serialized<Object>>();
+
+  /**
+   * Splits the results of a set of tasks into batches.
+   * @param <K> The type of the object identifying where results are to be
+   *     submitted.
+   * @param jobIds The <code>UUID</code>s of the jobs that the tasks belong
+   *     to.
+   * @param taskIds The IDs of the tasks.
+   * @param results The serialized results of the tasks.
+   * @param router The <code>Router</code> that determines where the results
+   *     for each job are to be submitted.
+   * @return A <code>Map</code> associating each destination returned by
+   *     <code>router</code> with the batch of results to submit to it.
+   * @throws IllegalArgumentException If <code>jobIds</code>,
+   *     <code>taskIds</code> and <code>results</code> do not all have the
+   *     same length.
+   */
+  public static <K> Map<K, TaskResultBatch> group(UUID[] jobIds,
+      int[] taskIds, Serialized<Object>[] results, Router<K> router)
+      throws IllegalArgumentException {
+    if (jobIds.length != taskIds.length || jobIds.length != results.length) {
+      throw new IllegalArgumentException("jobIds, taskIds and results must have the same length");
+    }
+
+    Map<K, TaskResultBatch> batches = new HashMap<K, TaskResultBatch>();
+    for (int i = 0; i < jobIds.length; i++) {
+      K key = router.route(jobIds[i]);
+      if (key != null) {
+        TaskResultBatch batch = batches.get(key);
+        if (batch == null) {
+          batch = new TaskResultBatch();
+          batches.put(key, batch);
+        }
+        batch.jobIds.add(jobIds[i]);
+        batch.taskIds.add(taskIds[i]);
+        batch.results.add(results[i]);
+      }
+    }
+    return batches;
+  }
+
+  /**
+   * Gets the IDs of the tasks in this batch.
+   * @return The <code>List</code> of task IDs.
+   */
+  public List<Integer> getTaskIdList() {
+    return taskIds;
+  }
+
+  /**
+   * Gets the results of the tasks in this batch.
+   * @return The <code>List</code> of serialized results, in the same order
+   *     as {@link #getTaskIdList()}.
+   */
+  public List<Serialized<Object>> getResultList() {
+    return results;
+  }
+
+  /**
+   * Gets the <code>UUID</code>s of the jobs that the tasks in this batch
+   * belong to.
+   * @return An array of job <code>UUID</code>s.
+   */
+  public UUID[] getJobIds() {
+    return jobIds.toArray(new UUID[jobIds.size()]);
+  }
+
+  /**
+   * Gets the IDs of the tasks in this batch.
+   * @return An array of task IDs, in the same order as
+   *     {@link #getJobIds()}.
+   */
+  public int[] getTaskIds() {
+    int[] ids = new int[taskIds.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = taskIds.get(i);
+    }
+    return ids;
+  }
+
+  /**
+   * Gets the results of the tasks in this batch.
+   * @return An array of serialized results, in the same order as
+   *     {@link #getJobIds()}.
+   */
+  @SuppressWarnings("unchecked")
+  public Serialized<Object>[] getResults() {
+    return results.toArray(new Serialized[results.size()]);
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.BitSet;
+
+/**
+ * Assigns task IDs for a job and keeps track of which of those tasks have
+ * been completed.  Task IDs are assigned densely and in increasing order
+ * starting from one (zero is reserved to refer to the job as a whole), so
+ * that the completion status of every task may be kept in a compact
+ * <code>BitSet</code>.  This class is thread-safe.
+ * @author Brad Kimmel
+ */
+final class TaskTracker {
+
+  /** The ID to assign to the next task. */
+  private int nextTaskId = 1;
+
+  /** Indicates which of the assigned task IDs have been completed. */
+  private final BitSet completed = new BitSet();
+
+  /**
+   * Assigns an ID to a new task.
+   * @return The ID of the new task.
+   * @throws IllegalStateException If all task IDs have been used.
+   */
+  public synchronized int nextTaskId() {
+    if (nextTaskId == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Task IDs exhausted");
+    }
+    return nextTaskId++;
+  }
+
+  /**
+   * Marks a task as completed.
+   * @param taskId The ID of the task that was completed.
+   */
+  public synchronized void setComplete(int taskId) {
+    if (taskId > 0 && taskId < nextTaskId) {
+      completed.set(taskId);
+    }
+  }
+
+  /**
+   * Determines if a task is no longer outstanding.
+   * @param taskId The ID of the task to check.
+   * @return A value indicating if the specified task has been completed, or
+   *     was never assigned.
+   */
+  public synchronized boolean isComplete(int taskId) {
+    return taskId <= 0 || taskId >= nextTaskId || completed.get(taskId);
+  }
+
+  /**
+   * Writes the state of this <code>TaskTracker</code>.
+   * @param out The <code>ObjectOutput</code> to write to.
+   * @throws IOException If an error occurs while writing.
+   * @see #readState(ObjectInput)
+   */
+  public synchronized void writeState(ObjectOutput out) throws IOException {
+    out.writeInt(nextTaskId);
+    out.writeObject(completed);
+  }
+
+  /**
+   * Restores the state of this <code>TaskTracker</code> from the output of
+   * {@link #writeState(ObjectOutput)}.
+   * @param in The <code>ObjectInput</code> to read from.
+   * @throws IOException If an error occurs while reading.
+   * @throws ClassNotFoundException Never thrown in practice (the state
+   *     only contains system classes).
+   */
+  public synchronized void readState(ObjectInput in) throws IOException,
+      ClassNotFoundException {
+    nextTaskId = in.readInt();
+    completed.clear();
+    completed.or((BitSet) in.readObject());
+  }
+
+}
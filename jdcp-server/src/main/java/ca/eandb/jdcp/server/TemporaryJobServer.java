@@ -30,11 +30,15 @@ import java.io.IOException;
 import java.rmi.RemoteException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -46,6 +50,7 @@ import ca.eandb.jdcp.job.JobExecutionWrapper;
 import ca.eandb.jdcp.job.ParallelizableJob;
 import ca.eandb.jdcp.job.TaskDescription;
 import ca.eandb.jdcp.job.TaskWorker;
+import ca.eandb.jdcp.remote.JobService;
 import ca.eandb.jdcp.remote.TaskService;
 import ca.eandb.jdcp.server.scheduling.PrioritySerialTaskScheduler;
 import ca.eandb.jdcp.server.scheduling.TaskScheduler;
@@ -74,9 +79,6 @@ public final class TemporaryJobServer implements TaskService {
   /** The <code>Logger</code> for this class. */
   private static final Logger logger = Logger.getLogger(TemporaryJobServer.class);
 
-  /** The <code>Random</code> number generator (for generating task IDs). */
-  private static final Random rand = new Random();
-
   /**
    * The <code>ProgressMonitorFactory</code> to use to create
    * <code>ProgressMonitor</code>s for reporting overall progress of
@@ -96,7 +98,7 @@ public final class TemporaryJobServer implements TaskService {
    * by the corresponding job ID.
    * @see ca.eandb.jdcp.server.TemporaryJobServer.ScheduledJob
    */
-  private final Map<UUID, ScheduledJob> jobs = new HashMap<UUID, ScheduledJob>();
+  private final Map<UUID, ScheduledJob> jobs = new ConcurrentHashMap<UUID, ScheduledJob>();
 
   /** An <code>Executor</code> to use to run asynchronous tasks. */
   private final Executor executor;
@@ -195,11 +197,23 @@ public final class TemporaryJobServer implements TaskService {
     throw new IllegalArgumentException("No submitted job with provided Job ID");
   }
 
-  @Override
-  public synchronized TaskDescription requestTask() throws SecurityException {
-    TaskDescription taskDesc = scheduler.getNextTask();
-    if (taskDesc != null) {
+  /**
+   * Obtains the next task from the <code>TaskScheduler</code> and schedules
+   * the task to follow it.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     requesting worker would prefer tasks from (may be <code>null</code>).
+   * @return The next <code>TaskDescription</code> to hand out, or
+   *     <code>null</code> if no tasks are available.
+   */
+  private TaskDescription getNextScheduledTask(UUID[] preferredJobIds) {
+    TaskDescription taskDesc;
+    while ((taskDesc = scheduler.getNextTask(null, preferredJobIds)) != null) {
       ScheduledJob sched = jobs.get(taskDesc.getJobId());
+      if (sched == null) {
+        // The job was removed after the scheduler selected this task.
+        scheduler.removeJob(taskDesc.getJobId());
+        continue;
+      }
       try {
         sched.scheduleNextTask();
       } catch (JobExecutionException e) {
@@ -207,7 +221,44 @@ public final class TemporaryJobServer implements TaskService {
       }
       return taskDesc;
     }
-    return idleTask;
+    return null;
+  }
+
+  @Override
+  public TaskDescription requestTask() throws SecurityException {
+    TaskDescription taskDesc = getNextScheduledTask(null);
+    return (taskDesc != null) ? taskDesc : idleTask;
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException {
+    if (maxTasks < 1) {
+      throw new IllegalArgumentException("maxTasks must be positive");
+    }
+
+    List<TaskDescription> tasks = new ArrayList<TaskDescription>(maxTasks);
+    TaskDescription taskDesc;
+    while (tasks.size() < maxTasks
+        && (taskDesc = getNextScheduledTask(preferredJobIds)) != null) {
+      // Stop if the scheduler has cycled back to a task that has already
+      // been handed out.
+      if (tasks.contains(taskDesc)) {
+        break;
+      }
+      tasks.add(taskDesc);
+    }
+
+    if (tasks.isEmpty()) {
+      return new TaskDescription[]{ idleTask };
+    }
+    return tasks.toArray(new TaskDescription[tasks.size()]);
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException {
+    return requestTasks(maxTasks, preferredJobIds);
   }
 
   @Override
@@ -219,6 +270,44 @@ public final class TemporaryJobServer implements TaskService {
     }
   }
 
+  @Override
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException {
+    // Group the results by job, so that each job's results are submitted
+    // together.
+    Map<ScheduledJob, TaskResultBatch> batches = TaskResultBatch.group(
+        jobIds, taskIds, results, new TaskResultBatch.Router<ScheduledJob>() {
+          public ScheduledJob route(UUID jobId) {
+            return jobs.get(jobId);
+          }
+        });
+
+    for (Entry<ScheduledJob, TaskResultBatch> entry : batches.entrySet()) {
+      TaskResultBatch batch = entry.getValue();
+      entry.getKey().submitTaskResults(batch.getTaskIdList(),
+          batch.getResultList());
+    }
+  }
+
+  @Override
+  public long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("Chunked uploads are not supported");
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("No upload with provided ID");
+  }
+
+  @Override
+  public void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException {
+    throw new IllegalArgumentException("No upload with provided ID");
+  }
+
   @Override
   public void reportException(final UUID jobId, final int taskId, final Exception e)
       throws SecurityException, RemoteException {
@@ -245,8 +334,11 @@ public final class TemporaryJobServer implements TaskService {
     for (int i = 0; i < jobIds.length; i++) {
       UUID jobId = jobIds[i];
       int taskId = taskIds[i];
-      if (taskId != 0) {
-        finished.set(i, jobId == null || !scheduler.contains(jobId, taskId));
+      if (jobId == null) {
+        finished.set(i);
+      } else if (taskId != 0) {
+        ScheduledJob sched = jobs.get(jobId);
+        finished.set(i, sched == null || sched.taskTracker.isComplete(taskId));
       } else {
         ScheduledJob sched = jobs.get(jobId);
         try {
@@ -308,17 +400,32 @@ public final class TemporaryJobServer implements TaskService {
 
   public void setJobPriority(UUID jobId, int priority)
       throws IllegalArgumentException, SecurityException {
-    if (!jobs.containsKey(jobId)) {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
       throw new IllegalArgumentException("No job with provided Job ID");
     }
 
-    scheduler.setJobPriority(jobId, priority);
+    sched.setPriority(priority);
     if (logger.isInfoEnabled()) {
       logger.info("Set job " + jobId.toString() + " priority to "
           + Integer.toString(priority));
     }
   }
 
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException {
+    ScheduledJob sched = jobs.get(jobId);
+    if (sched == null) {
+      throw new IllegalArgumentException("No job with provided Job ID");
+    }
+
+    sched.setDeadline(deadline);
+    if (logger.isInfoEnabled()) {
+      logger.info("Set job " + jobId.toString() + " deadline to "
+          + (deadline != null ? deadline.toString() : "none"));
+    }
+  }
+
   /**
    * Handles a <code>JobExcecutionException</code> thrown by a job managed
    * by this server.
@@ -374,6 +481,12 @@ public final class TemporaryJobServer implements TaskService {
     /** The <code>UUID</code> identifying the job. */
     public final UUID id;
 
+    /**
+     * Assigns task IDs for this job and tracks which tasks have been
+     * completed.
+     */
+    public final TaskTracker taskTracker = new TaskTracker();
+
     /** A description of the job. */
     public final String description;
 
@@ -386,6 +499,21 @@ public final class TemporaryJobServer implements TaskService {
      */
     public final ProgressMonitor monitor;
 
+    /** The priority assigned to this job. */
+    private int priority = JobService.DEFAULT_PRIORITY;
+
+    /**
+     * The time by which this job should be complete, or <code>null</code>
+     * if it has no deadline.
+     */
+    private Date deadline = null;
+
+    /**
+     * A value indicating if a task for this job has been handed to the
+     * <code>TaskScheduler</code>.
+     */
+    private boolean scheduled = false;
+
     /**
      * Initializes the scheduled job.
      * @param job The <code>ParallelizableJob</code> to run.
@@ -415,10 +543,31 @@ public final class TemporaryJobServer implements TaskService {
      * @param results The serialized results.
      */
     public void submitTaskResults(int taskId, Serialized<Object> results) {
-      TaskDescription taskDesc = scheduler.remove(id, taskId);
-      if (taskDesc != null) {
-        Object task = taskDesc.getTask().get();
-        Runnable command = new TaskResultSubmitter(this, task, results, monitor);
+      submitTaskResults(Collections.singletonList(taskId),
+          Collections.singletonList(results));
+    }
+
+    /**
+     * Submits the results for several tasks associated with this job.
+     * @param taskIds The IDs of the tasks whose results are being
+     *     submitted.
+     * @param results The serialized results, in the same order as
+     *     <code>taskIds</code>.
+     */
+    public void submitTaskResults(List<Integer> taskIds,
+        List<Serialized<Object>> results) {
+      List<Object> tasks = new ArrayList<Object>(taskIds.size());
+      List<Serialized<Object>> taskResults = new ArrayList<Serialized<Object>>(taskIds.size());
+      for (int i = 0, n = taskIds.size(); i < n; i++) {
+        TaskDescription taskDesc = scheduler.remove(id, taskIds.get(i));
+        if (taskDesc != null) {
+          taskTracker.setComplete(taskDesc.getTaskId());
+          tasks.add(taskDesc.getTask().get());
+          taskResults.add(results.get(i));
+        }
+      }
+      if (!tasks.isEmpty()) {
+        Runnable command = new TaskResultSubmitter(this, tasks, taskResults, monitor);
         try {
           executor.execute(command);
         } catch (RejectedExecutionException e) {
@@ -441,29 +590,46 @@ public final class TemporaryJobServer implements TaskService {
       }
     }
 
-    /**
-     * Generates a unique task identifier.
-     * @return The generated task ID.
-     */
-    private int generateTaskId() {
-      int taskId;
-      do {
-        taskId = rand.nextInt();
-      } while (taskId != 0 && scheduler.contains(id, taskId));
-      return taskId;
-    }
-
     /**
      * Obtains and schedules the next task for this job.
      * @throws JobExecutionException If the job throws an exception while
      *     attempting to obtain the next task.
      */
-    public void scheduleNextTask() throws JobExecutionException {
+    public synchronized void scheduleNextTask() throws JobExecutionException {
       Object task = job.getNextTask();
       if (task != null) {
-        int taskId = generateTaskId();
+        int taskId = taskTracker.nextTaskId();
         TaskDescription desc = new TaskDescription(id, taskId, task);
         scheduler.add(desc);
+        if (!scheduled) {
+          scheduled = true;
+          scheduler.setJobPriority(id, priority);
+          scheduler.setJobDeadline(id, deadline);
+        }
+      }
+      scheduler.setJobExhausted(id, task == null);
+    }
+
+    /**
+     * Sets the priority of this job.
+     * @param priority The priority to assign to this job.
+     */
+    public synchronized void setPriority(int priority) {
+      this.priority = priority;
+      if (scheduled) {
+        scheduler.setJobPriority(id, priority);
+      }
+    }
+
+    /**
+     * Sets the deadline of this job.
+     * @param deadline The time by which this job should be complete, or
+     *     <code>null</code> if it has no deadline.
+     */
+    public synchronized void setDeadline(Date deadline) {
+      this.deadline = deadline;
+      if (scheduled) {
+        scheduler.setJobDeadline(id, deadline);
       }
     }
 
@@ -498,42 +664,45 @@ public final class TemporaryJobServer implements TaskService {
     private final ScheduledJob sched;
 
     /**
-     * The <code>Object</code> describing the task whose results are being
+     * The <code>Object</code>s describing the tasks whose results are being
      * submitted.
      */
-    private final Object task;
+    private final List<Object> tasks;
 
-    /** The serialized task results. */
-    private final Serialized<Object> results;
+    /** The serialized task results, in the same order as {@link #tasks}. */
+    private final List<Serialized<Object>> results;
 
     /** The <code>ProgressMonitor</code> to report job progress to. */
     private final ProgressMonitor monitor;
 
     /**
      * Creates a new <code>TaskResultSubmitter</code>.
-     * @param sched The <code>ScheduledJob</code> associated with the task
+     * @param sched The <code>ScheduledJob</code> associated with the tasks
      *     whose results are being submitted.
-     * @param task The <code>Object</code> describing the task whose
+     * @param tasks The <code>Object</code>s describing the tasks whose
      *     results are being submitted.
-     * @param results The serialized task results.
+     * @param results The serialized task results, in the same order as
+     *     <code>tasks</code>.
      * @param monitor The <code>ProgressMonitor</code> to report job
      *     progress to.
      */
-    public TaskResultSubmitter(ScheduledJob sched, Object task,
-        Serialized<Object> results, ProgressMonitor monitor) {
+    public TaskResultSubmitter(ScheduledJob sched, List<Object> tasks,
+        List<Serialized<Object>> results, ProgressMonitor monitor) {
       this.sched = sched;
-      this.task = task;
+      this.tasks = tasks;
       this.results = results;
       this.monitor = monitor;
     }
 
     @Override
     public void run() {
-      if (task != null) {
+      if (!tasks.isEmpty()) {
         try {
           synchronized (sched.job) {
-            sched.job.submitTaskResults(task,
-                results.deserialize(), monitor);
+            for (int i = 0, n = tasks.size(); i < n; i++) {
+              sched.job.submitTaskResults(tasks.get(i),
+                  results.get(i).deserialize(), monitor);
+            }
           }
 
           if (sched.job.isComplete()) {
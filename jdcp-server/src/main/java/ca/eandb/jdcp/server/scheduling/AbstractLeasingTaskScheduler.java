@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import ca.eandb.jdcp.job.TaskDescription;
+
+/**
+ * An abstract <code>TaskScheduler</code> that serves tasks under leases.  A
+ * task that has been served is only served again once its lease expires,
+ * or, if no worker would otherwise have anything to do and its job cannot
+ * provide more tasks, as one of a limited number of speculative copies.
+ * Subclasses determine the order in which jobs are served, and keep the
+ * outstanding tasks for each job in a {@link LeasedTaskQueue}.  Subclasses
+ * must synchronize on the scheduler when calling the methods of this class.
+ * @author Brad Kimmel
+ */
+public abstract class AbstractLeasingTaskScheduler implements TaskScheduler {
+
+  /**
+   * The default amount of time (in milliseconds) after which a task that
+   * has been served may be served to another worker.
+   */
+  public static final long DEFAULT_LEASE_TIMEOUT = 10 * 60 * 1000;
+
+  /**
+   * The default maximum number of speculative copies of a task to serve.
+   */
+  public static final int DEFAULT_MAX_SPECULATIVE_COPIES = 1;
+
+  /**
+   * The amount of time (in milliseconds) after which a task that has been
+   * served may be served to another worker.
+   */
+  private long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+
+  /** The maximum number of speculative copies of a task to serve. */
+  private int maxSpeculativeCopies = DEFAULT_MAX_SPECULATIVE_COPIES;
+
+  /** The number of duplicate tasks that have been served. */
+  private long duplicateTaskCount = 0;
+
+  /** The number of outstanding tasks that are leased to workers. */
+  private int activeLeaseCount = 0;
+
+  /**
+   * Sets the amount of time after which a task that has been served may be
+   * served to another worker.
+   * @param leaseTimeout The lease timeout (in milliseconds).
+   */
+  public synchronized void setLeaseTimeout(long leaseTimeout) {
+    this.leaseTimeout = leaseTimeout;
+  }
+
+  /**
+   * Sets the maximum number of speculative copies of a task to serve.
+   * Speculative copies are only served when there are no tasks that have
+   * not been served yet, no leases have expired, and the job cannot provide
+   * more tasks.
+   * @param maxSpeculativeCopies The maximum number of speculative copies of
+   *     each task (zero to disable speculative copies).
+   */
+  public synchronized void setMaxSpeculativeCopies(int maxSpeculativeCopies) {
+    this.maxSpeculativeCopies = maxSpeculativeCopies;
+  }
+
+  /**
+   * Determines if a task may be served from the specified queue without
+   * resorting to a speculative copy.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for a job.
+   * @param now The current time (in milliseconds).
+   * @return A value indicating if there is a fresh task or an expired lease
+   *     in <code>tasks</code>.
+   */
+  protected final boolean canLease(LeasedTaskQueue tasks, long now) {
+    return tasks.canLease(now, leaseTimeout);
+  }
+
+  /**
+   * Hands out a task from the specified queue that has not been handed out
+   * before, or else whose lease has expired.  This must only be called if
+   * {@link #canLease(LeasedTaskQueue, long)} is true.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for a job.
+   * @param workerId Identifies the worker requesting the task.
+   * @param now The current time (in milliseconds).
+   * @return The <code>TaskDescription</code> for the task to hand out.
+   */
+  protected final TaskDescription lease(LeasedTaskQueue tasks,
+      String workerId, long now) {
+    TaskDescription desc = tasks.leaseFresh(workerId, now);
+    if (desc != null) {
+      activeLeaseCount++;
+    } else {
+      desc = tasks.leaseExpired(workerId, now, leaseTimeout);
+      duplicateTaskCount++;
+    }
+    return desc;
+  }
+
+  /**
+   * Removes a task from the specified queue.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for a job.
+   * @param taskId The ID of the task to remove.
+   * @return The <code>TaskDescription</code> describing the removed task,
+   *     or <code>null</code> if no such task is found.
+   */
+  protected final TaskDescription removeTask(LeasedTaskQueue tasks,
+      int taskId) {
+    int leases = tasks.getLeaseCount();
+    TaskDescription desc = tasks.remove(taskId);
+    activeLeaseCount -= leases - tasks.getLeaseCount();
+    return desc;
+  }
+
+  /**
+   * Discards all the tasks in the specified queue.  This must be called
+   * when a job is removed.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for the job being removed.
+   */
+  protected final void removeTasks(LeasedTaskQueue tasks) {
+    activeLeaseCount -= tasks.getLeaseCount();
+  }
+
+  /**
+   * Hands out a speculative copy of a task from the specified queue, if
+   * speculative copies are enabled, the job cannot provide more tasks, and
+   * there is a suitable task.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for a job.
+   * @param workerId Identifies the worker requesting the task.
+   * @return The <code>TaskDescription</code> for the task to hand out, or
+   *     <code>null</code> if no speculative copy may be served.
+   * @see LeasedTaskQueue#speculate(String, int)
+   */
+  protected final TaskDescription speculate(LeasedTaskQueue tasks,
+      String workerId) {
+    if (maxSpeculativeCopies <= 0) {
+      return null;
+    }
+    TaskDescription desc = tasks.speculate(workerId, maxSpeculativeCopies);
+    if (desc != null) {
+      duplicateTaskCount++;
+    }
+    return desc;
+  }
+
+  /**
+   * Takes back a speculative copy of a task from the specified queue that
+   * was not handed out after all.
+   * @param tasks The <code>LeasedTaskQueue</code> holding the outstanding
+   *     tasks for a job.
+   * @param taskId The ID of the task.
+   * @see LeasedTaskQueue#unspeculate(int)
+   */
+  protected final void unspeculate(LeasedTaskQueue tasks, int taskId) {
+    if (tasks.unspeculate(taskId)) {
+      duplicateTaskCount--;
+    }
+  }
+
+  @Override
+  public synchronized int getActiveLeaseCount() {
+    return activeLeaseCount;
+  }
+
+  @Override
+  public synchronized long getDuplicateTaskCount() {
+    return duplicateTaskCount;
+  }
+
+  @Override
+  public List<UUID> getJobsAtRisk() {
+    return Collections.emptyList();
+  }
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.jdcp.remote.JobService;
+
+/**
+ * A <code>TaskScheduler</code> that serves tasks for the job having the
+ * earliest deadline first.  Jobs without a deadline are served after all
+ * jobs having a deadline, in order of priority and then in the order in
+ * which they were added.
+ *
+ * The scheduler estimates the work remaining for each job from the number
+ * of tasks completed so far and the progress reported for the job, and the
+ * time required to complete each task from the time between serving a task
+ * and its removal.  Together with an estimate of the number of workers,
+ * this gives a projected completion time for each job, assuming jobs are
+ * served in deadline order.  Jobs projected to miss their deadline are
+ * logged and may be obtained using {@link #getJobsAtRisk()}, which is how
+ * they come to be flagged in the status reported for them.  A job that
+ * cannot meet its deadline even if it were given every worker is served
+ * after the jobs that still can, so that one late job does not cause the
+ * jobs behind it to be late as well.
+ *
+ * A task that has been served is only served again once its lease expires,
+ * or, if no worker would otherwise have anything to do and its job cannot
+ * provide more tasks, as one of a limited number of speculative copies.
+ * This class is thread-safe.
+ * @author Brad Kimmel
+ */
+public final class DeadlineTaskScheduler extends AbstractLeasingTaskScheduler {
+
+  /** The <code>Logger</code> to log messages to. */
+  private static final Logger logger = Logger.getLogger(DeadlineTaskScheduler.class);
+
+  /**
+   * The amount of time (in milliseconds) after which the order in which
+   * jobs are served and the projected completion times are recomputed.
+   */
+  private static final long REFRESH_INTERVAL = 1000;
+
+  /**
+   * The weight given to each new observation when updating the estimated
+   * task time and number of workers.
+   */
+  private static final double SMOOTHING_FACTOR = 0.1;
+
+  /** The deadline of a job that does not have one. */
+  private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * A <code>Map</code> associating information about a job with the
+   * corresponding job's <code>UUID</code>.
+   * @see JobInfo
+   */
+  private final Map<UUID, JobInfo> jobs = new HashMap<UUID, JobInfo>();
+
+  /**
+   * The jobs having outstanding tasks, in the order in which they are to be
+   * served.
+   */
+  private final List<JobInfo> schedule = new ArrayList<JobInfo>();
+
+  /**
+   * The time (in milliseconds) at which {@link #schedule} is to be sorted
+   * and the projected completion times recomputed.
+   */
+  private long nextRefresh = 0;
+
+  /** The estimated number of workers processing tasks. */
+  private double workerCount = 1.0;
+
+  /**
+   * Each job is assigned an order number using an increasing counter.  This
+   * is used to order jobs that have neither a deadline nor a different
+   * priority.  This field stores the order number to assign to the next job
+   * that is added.
+   */
+  private int nextOrder = 0;
+
+  /**
+   * Represents bookkeeping information about a
+   * <code>ParallelizableJob</code>.
+   * @author Brad Kimmel
+   */
+  private final class JobInfo implements Comparable<JobInfo> {
+
+    /** The <code>UUID</code> for this job. */
+    public final UUID id;
+
+    /** The order in which this job was added to the schedule. */
+    private final int order = nextOrder++;
+
+    /** The priority assigned to this job. */
+    private int priority = JobService.DEFAULT_PRIORITY;
+
+    /**
+     * The time (in milliseconds) by which this job should be complete, or
+     * {@link DeadlineTaskScheduler#NO_DEADLINE} if it has no deadline.
+     */
+    private long deadline = NO_DEADLINE;
+
+    /** The most recently reported fraction of this job that is complete. */
+    private double progress = 0.0;
+
+    /** The number of tasks for this job that have been completed. */
+    private int completedTasks = 0;
+
+    /**
+     * The estimated time (in milliseconds) for a worker to complete a task
+     * for this job, or <code>NaN</code> if no task has been completed yet.
+     */
+    private double taskTime = Double.NaN;
+
+    /**
+     * A value indicating if this job could meet its deadline if it were
+     * given every worker.
+     */
+    private boolean feasible = true;
+
+    /**
+     * A value indicating if this job is projected to miss its deadline.
+     */
+    private boolean atRisk = false;
+
+    /** The outstanding tasks for this job. */
+    public final LeasedTaskQueue tasks = new LeasedTaskQueue();
+
+    /**
+     * Creates a new <code>JobInfo</code>.
+     * @param id The <code>UUID</code> identifying the job that this
+     *     <code>JobInfo</code> describes.
+     */
+    public JobInfo(UUID id) {
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(JobInfo other) {
+      int rank = getRank();
+      int otherRank = other.getRank();
+      if (rank != otherRank) {
+        return rank < otherRank ? -1 : 1;
+      } else if (deadline < other.deadline) {
+        return -1;
+      } else if (deadline > other.deadline) {
+        return 1;
+      } else if (priority > other.priority) {
+        return -1;
+      } else if (priority < other.priority) {
+        return 1;
+      } else if (order < other.order) {
+        return -1;
+      } else if (order > other.order) {
+        return 1;
+      } else {
+        return 0;
+      }
+    }
+
+    /**
+     * Gets the class of jobs that this job is served with.  Jobs that can
+     * still meet their deadline are served first, followed by jobs that
+     * cannot, followed by jobs that have no deadline.
+     * @return The rank of this job's class (lower ranks are served first).
+     */
+    private int getRank() {
+      return (deadline == NO_DEADLINE) ? 2 : (feasible ? 0 : 1);
+    }
+
+    /**
+     * Estimates the number of tasks remaining for this job.  If the job has
+     * reported its progress, the number of remaining tasks is extrapolated
+     * from the number of tasks completed so far.  Otherwise, only the
+     * outstanding tasks are counted.
+     * @return The estimated number of tasks remaining.
+     */
+    public double getRemainingTasks() {
+      double remaining = tasks.size();
+      if (progress > 0.0 && progress < 1.0 && completedTasks > 0) {
+        remaining = Math.max(remaining,
+            completedTasks * (1.0 - progress) / progress);
+      }
+      return remaining;
+    }
+
+    /**
+     * Estimates the amount of work remaining for this job.
+     * @return The estimated time (in milliseconds) for a single worker to
+     *     complete the remaining tasks for this job, or zero if no estimate
+     *     is available yet.
+     */
+    public double getRemainingWork() {
+      return Double.isNaN(taskTime) ? 0.0 : getRemainingTasks() * taskTime;
+    }
+
+    /**
+     * Records the completion of a task.
+     * @param elapsed The time (in milliseconds) between serving the task
+     *     and its completion.
+     */
+    public void taskCompleted(long elapsed) {
+      completedTasks++;
+      if (Double.isNaN(taskTime)) {
+        taskTime = elapsed;
+      } else {
+        taskTime += SMOOTHING_FACTOR * (elapsed - taskTime);
+      }
+    }
+
+  }
+
+  /**
+   * Gets the jobs that are projected to miss their deadlines.
+   * @return A <code>List</code> of the <code>UUID</code>s of the jobs that
+   *     are projected to miss their deadlines, in the order in which they
+   *     are served.
+   */
+  @Override
+  public synchronized List<UUID> getJobsAtRisk() {
+    refresh(System.currentTimeMillis());
+    List<UUID> result = new ArrayList<UUID>();
+    for (JobInfo job : schedule) {
+      if (job.atRisk) {
+        result.add(job.id);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the bookkeeping information for a job.  If the specified job has
+   * not been seen, a new <code>JobInfo</code> is created for it.
+   * @param jobId The <code>UUID</code> of the job for which to obtain the
+   *     corresponding <code>JobInfo</code>.
+   * @return The <code>JobInfo</code> for the specified job.
+   */
+  private JobInfo getJob(UUID jobId) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      job = new JobInfo(jobId);
+      jobs.put(jobId, job);
+    }
+    return job;
+  }
+
+  /**
+   * Sorts the jobs in the order in which they are to be served and updates
+   * their projected completion times.  Jobs are assumed to be served one
+   * after the other by all workers, so each job is projected to complete
+   * once the remaining work for it and for all jobs ahead of it is done.
+   * @param now The current time (in milliseconds).
+   */
+  private void refresh(long now) {
+    for (JobInfo job : schedule) {
+      job.feasible = (job.deadline == NO_DEADLINE)
+          || now + job.getRemainingWork() / workerCount <= job.deadline;
+    }
+    Collections.sort(schedule);
+
+    double work = 0.0;
+    for (JobInfo job : schedule) {
+      work += job.getRemainingWork();
+      if (job.deadline != NO_DEADLINE) {
+        long projected = now + (long) (work / workerCount);
+        boolean atRisk = projected > job.deadline;
+        if (atRisk && !job.atRisk) {
+          logger.warn("Job " + job.id.toString()
+              + " is projected to miss its deadline of "
+              + new Date(job.deadline).toString() + " (projected completion "
+              + new Date(projected).toString() + ")");
+        }
+        job.atRisk = atRisk;
+      } else {
+        job.atRisk = false;
+      }
+    }
+
+    nextRefresh = now + REFRESH_INTERVAL;
+  }
+
+  @Override
+  public synchronized void add(TaskDescription task) {
+    JobInfo job = getJob(task.getJobId());
+    if (job.tasks.isEmpty()) {
+      schedule.add(job);
+      nextRefresh = 0;
+    }
+    job.tasks.add(task);
+  }
+
+  @Override
+  public synchronized TaskDescription get(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.get(taskId) : null;
+  }
+
+  @Override
+  public synchronized boolean contains(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.contains(taskId) : false;
+  }
+
+  @Override
+  public synchronized TaskDescription getNextTask(String workerId,
+      UUID[] preferredJobIds) {
+    long now = System.currentTimeMillis();
+    if (now >= nextRefresh) {
+      refresh(now);
+    }
+
+    for (JobInfo job : schedule) {
+      if (canLease(job.tasks, now)) {
+        JobInfo preferred = getPreferredJob(job, preferredJobIds, now);
+        if (preferred != null) {
+          job = preferred;
+        }
+        return lease(job.tasks, workerId, now);
+      }
+    }
+
+    for (JobInfo job : schedule) {
+      TaskDescription desc = speculate(job.tasks, workerId);
+      if (desc != null) {
+        return desc;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds a job that the worker would prefer and that may be served in
+   * place of the specified job.  Only jobs that are equivalent to the
+   * specified job in the order in which jobs are served (i.e., having the
+   * same deadline and priority) are considered.
+   * @param next The <code>JobInfo</code> for the job that would otherwise
+   *     be served.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer (may be <code>null</code>).
+   * @param now The current time (in milliseconds).
+   * @return The <code>JobInfo</code> for the preferred job to serve, or
+   *     <code>null</code> if there is no suitable preferred job.
+   */
+  private JobInfo getPreferredJob(JobInfo next, UUID[] preferredJobIds,
+      long now) {
+    if (preferredJobIds != null) {
+      for (UUID jobId : preferredJobIds) {
+        JobInfo job = jobs.get(jobId);
+        if (job != null && job.getRank() == next.getRank()
+            && job.deadline == next.deadline
+            && job.priority == next.priority
+            && canLease(job.tasks, now)) {
+          return job;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized TaskDescription remove(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      return null;
+    }
+    long leaseTime = job.tasks.getLeaseTime(taskId);
+    TaskDescription desc = removeTask(job.tasks, taskId);
+    if (desc != null && leaseTime >= 0) {
+      job.taskCompleted(System.currentTimeMillis() - leaseTime);
+      int busyWorkers = getActiveLeaseCount() + 1;
+      workerCount += SMOOTHING_FACTOR * (busyWorkers - workerCount);
+    }
+    if (job.tasks.isEmpty()) {
+      schedule.remove(job);
+    }
+    return desc;
+  }
+
+  @Override
+  public synchronized void setJobPriority(UUID jobId, int priority) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      job.priority = priority;
+      nextRefresh = 0;
+    }
+  }
+
+  @Override
+  public synchronized void setJobDeadline(UUID jobId, Date deadline) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      job.deadline = (deadline != null) ? deadline.getTime() : NO_DEADLINE;
+      nextRefresh = 0;
+    }
+  }
+
+  @Override
+  public synchronized void setJobProgress(UUID jobId, double progress) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      job.progress = progress;
+    }
+  }
+
+  @Override
+  public synchronized void setJobExhausted(UUID jobId, boolean exhausted) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      job.tasks.setExhausted(exhausted);
+    }
+  }
+
+  @Override
+  public synchronized void returnDuplicate(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      unspeculate(job.tasks, taskId);
+    }
+  }
+
+  @Override
+  public synchronized void removeJob(UUID jobId) {
+    JobInfo job = jobs.remove(jobId);
+    if (job != null) {
+      schedule.remove(job);
+      removeTasks(job.tasks);
+    }
+  }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.jdcp.remote.JobService;
+
+/**
+ * A <code>TaskScheduler</code> that shares workers among all jobs having
+ * tasks available, in proportion to the priorities of those jobs.  Jobs are
+ * selected using stride scheduling: each job is assigned a weight equal to
+ * its priority (or one, if its priority is not positive), and a job with
+ * twice the weight of another is served twice as many tasks.  A job that is
+ * added, or that becomes active again after having no tasks available,
+ * starts level with the least served active job, so that it neither
+ * starves other jobs nor is starved itself.  A worker is served tasks for
+ * a job that it has already loaded in preference to the least served job,
+ * provided that the preferred job is not too far ahead.  A task that has
+ * been served is only served again once its lease expires, or, if no worker
+ * would otherwise have anything to do and its job cannot provide more
+ * tasks, as one of a limited number of speculative copies.  This class is
+ * thread-safe.
+ * @author Brad Kimmel
+ */
+public final class FairShareTaskScheduler extends AbstractLeasingTaskScheduler {
+
+  /**
+   * The distance to advance a job with a weight of one after serving a
+   * task.  Jobs with weight <code>w</code> advance by
+   * <code>STRIDE_BASE / w</code>.
+   */
+  private static final long STRIDE_BASE = 1L << 20;
+
+  /**
+   * The default number of tasks that a job having the default priority may
+   * be served ahead of its share because workers have already loaded it.
+   */
+  public static final int DEFAULT_AFFINITY_SLACK = 4;
+
+  /**
+   * A <code>Map</code> associating information about a job with the
+   * corresponding job's <code>UUID</code>.
+   * @see JobInfo
+   */
+  private final Map<UUID, JobInfo> jobs = new HashMap<UUID, JobInfo>();
+
+  /**
+   * The jobs that have outstanding tasks, ordered by the distance they have
+   * advanced (i.e., the least served job first).
+   */
+  private final TreeSet<JobInfo> activeJobs = new TreeSet<JobInfo>();
+
+  /**
+   * The distance that a job may be ahead of the least served job and still
+   * be served to a worker that has already loaded it.
+   */
+  private long affinitySlack = getAffinityDistance(DEFAULT_AFFINITY_SLACK);
+
+  /**
+   * The pass value of the least served active job.  Jobs that become
+   * active start from this value.
+   */
+  private long globalPass = 0;
+
+  /**
+   * Each job is assigned an order number using an increasing counter.  This
+   * is used to break ties between jobs that have advanced the same
+   * distance.  This field stores the order number to assign to the next job
+   * that is added.
+   */
+  private int nextOrder = 0;
+
+  /**
+   * Represents bookkeeping information about a
+   * <code>ParallelizableJob</code>.
+   * @author Brad Kimmel
+   */
+  private final class JobInfo implements Comparable<JobInfo> {
+
+    /** The <code>UUID</code> for this job. */
+    public final UUID id;
+
+    /** The order in which this job was added to the schedule. */
+    private final int order = nextOrder++;
+
+    /**
+     * The distance to advance this job each time a task is served for it.
+     */
+    private long stride;
+
+    /** The distance that this job has advanced. */
+    private long pass;
+
+    /** The outstanding tasks for this job. */
+    public final LeasedTaskQueue tasks = new LeasedTaskQueue();
+
+    /**
+     * Creates a new <code>JobInfo</code>.
+     * @param id The <code>UUID</code> identifying the job that this
+     *     <code>JobInfo</code> describes.
+     */
+    public JobInfo(UUID id) {
+      this.id = id;
+      setPriority(JobService.DEFAULT_PRIORITY);
+    }
+
+    @Override
+    public int compareTo(JobInfo other) {
+      if (pass < other.pass) {
+        return -1;
+      } else if (pass > other.pass) {
+        return 1;
+      } else if (order < other.order) {
+        return -1;
+      } else if (order > other.order) {
+        return 1;
+      } else {
+        return 0;
+      }
+    }
+
+    /**
+     * Sets the priority for this job.
+     * @param priority The priority for this job.
+     */
+    public void setPriority(int priority) {
+      stride = STRIDE_BASE / Math.max(1, priority);
+    }
+
+  }
+
+  /**
+   * Sets the number of tasks that a job may be served ahead of its share
+   * when a worker that has already loaded that job requests a task.
+   * Larger values reduce the number of times workers have to load a job,
+   * at the expense of short term fairness.
+   * @param tasks The number of tasks, for a job having the default
+   *     priority, that the job may be served ahead of its share (zero to
+   *     disregard the jobs that workers have loaded except to break ties).
+   */
+  public synchronized void setAffinitySlack(int tasks) {
+    this.affinitySlack = getAffinityDistance(tasks);
+  }
+
+  /**
+   * Converts a number of tasks for a job having the default priority to
+   * the distance that such a job advances when served that many tasks.
+   * @param tasks The number of tasks.
+   * @return The corresponding distance.
+   */
+  private static long getAffinityDistance(int tasks) {
+    return tasks * (STRIDE_BASE / Math.max(1, JobService.DEFAULT_PRIORITY));
+  }
+
+  /**
+   * Gets the bookkeeping information for a job.  If the specified job has
+   * not been seen, a new <code>JobInfo</code> is created for it.
+   * @param jobId The <code>UUID</code> of the job for which to obtain the
+   *     corresponding <code>JobInfo</code>.
+   * @return The <code>JobInfo</code> for the specified job.
+   */
+  private JobInfo getJob(UUID jobId) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      job = new JobInfo(jobId);
+      jobs.put(jobId, job);
+    }
+    return job;
+  }
+
+  /**
+   * Makes a job eligible to be served, if it is not already.
+   * @param job The <code>JobInfo</code> for the job to activate.
+   */
+  private void activate(JobInfo job) {
+    if (!activeJobs.contains(job)) {
+      job.pass = Math.max(job.pass, globalPass);
+      activeJobs.add(job);
+    }
+  }
+
+  @Override
+  public synchronized void add(TaskDescription task) {
+    JobInfo job = getJob(task.getJobId());
+    job.tasks.add(task);
+    activate(job);
+  }
+
+  @Override
+  public synchronized TaskDescription get(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.get(taskId) : null;
+  }
+
+  @Override
+  public synchronized boolean contains(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.contains(taskId) : false;
+  }
+
+  @Override
+  public synchronized TaskDescription getNextTask(String workerId,
+      UUID[] preferredJobIds) {
+    if (activeJobs.isEmpty()) {
+      return null;
+    }
+    globalPass = activeJobs.first().pass;
+
+    long now = System.currentTimeMillis();
+    for (JobInfo job : activeJobs) {
+      if (canLease(job.tasks, now)) {
+        JobInfo preferred = getPreferredJob(job, preferredJobIds, now);
+        if (preferred != null) {
+          job = preferred;
+        }
+        TaskDescription desc = lease(job.tasks, workerId, now);
+        advance(job);
+        return desc;
+      }
+    }
+
+    for (JobInfo job : activeJobs) {
+      TaskDescription desc = speculate(job.tasks, workerId);
+      if (desc != null) {
+        advance(job);
+        return desc;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds a job that the worker would prefer and that may be served in
+   * place of the specified job.  A preferred job is only served if it is
+   * no more than {@link #affinitySlack} ahead of the specified job, so that
+   * the share of each job is preserved over time.
+   * @param next The <code>JobInfo</code> for the job that would otherwise
+   *     be served.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer (may be <code>null</code>).
+   * @param now The current time (in milliseconds).
+   * @return The <code>JobInfo</code> for the preferred job to serve, or
+   *     <code>null</code> if there is no suitable preferred job.
+   */
+  private JobInfo getPreferredJob(JobInfo next, UUID[] preferredJobIds,
+      long now) {
+    if (preferredJobIds != null) {
+      for (UUID jobId : preferredJobIds) {
+        JobInfo job = jobs.get(jobId);
+        if (job != null && job.pass - next.pass <= affinitySlack
+            && canLease(job.tasks, now)) {
+          return job;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Charges a job for having been served a task.
+   * @param job The <code>JobInfo</code> for the job that was served.
+   */
+  private void advance(JobInfo job) {
+    activeJobs.remove(job);
+    job.pass += job.stride;
+    activeJobs.add(job);
+  }
+
+  @Override
+  public synchronized TaskDescription remove(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      return null;
+    }
+    TaskDescription desc = removeTask(job.tasks, taskId);
+    if (job.tasks.isEmpty()) {
+      activeJobs.remove(job);
+    }
+    return desc;
+  }
+
+  @Override
+  public synchronized void setJobPriority(UUID jobId, int priority) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      return;
+    }
+    boolean active = activeJobs.remove(job);
+    job.setPriority(priority);
+    if (active) {
+      activeJobs.add(job);
+    }
+  }
+
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline) {
+    /* nothing to do. */
+  }
+
+  @Override
+  public void setJobProgress(UUID jobId, double progress) {
+    /* nothing to do. */
+  }
+
+  @Override
+  public synchronized void setJobExhausted(UUID jobId, boolean exhausted) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      job.tasks.setExhausted(exhausted);
+    }
+  }
+
+  @Override
+  public synchronized void returnDuplicate(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      unspeculate(job.tasks, taskId);
+    }
+  }
+
+  @Override
+  public synchronized void removeJob(UUID jobId) {
+    JobInfo job = jobs.remove(jobId);
+    if (job != null) {
+      activeJobs.remove(job);
+      removeTasks(job.tasks);
+    }
+  }
+
+}
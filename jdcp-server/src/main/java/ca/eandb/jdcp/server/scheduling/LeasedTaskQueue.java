@@ -0,0 +1,615 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+import java.util.Arrays;
+
+import ca.eandb.jdcp.job.TaskDescription;
+
+/**
+ * Bookkeeping for the outstanding tasks of a single job.  Each task is
+ * either fresh (it has not yet been handed out) or leased (it has been
+ * handed out to a worker at a known time).  A leased task is only handed
+ * out again once its lease expires, or as a speculative copy when there is
+ * nothing else for a worker to do and the job cannot provide more tasks.
+ * This class is not thread-safe.
+ *
+ * Tasks are stored in parallel arrays indexed by slot.  Task IDs are mapped
+ * to slots using an open-addressing hash table of primitive
+ * <code>int</code>s, and fresh and leased tasks are each kept on a doubly
+ * linked list threaded through the slot arrays.  Leased tasks that may still
+ * be copied speculatively are also kept on a second list, so that tasks
+ * whose copies have all been handed out are not visited again.  Adding,
+ * removing, looking up and handing out tasks are therefore constant time
+ * operations that do not allocate (except when the arrays need to grow).
+ * Finding a speculative copy takes time proportional to the number of
+ * leases held by the requesting worker, which are skipped.
+ * @author Brad Kimmel
+ */
+final class LeasedTaskQueue {
+
+  /** Marks the end of a list. */
+  private static final int NIL = -1;
+
+  /** The state of a slot that does not hold a task. */
+  private static final byte FREE = 0;
+
+  /** The state of a slot holding a task that has not been handed out. */
+  private static final byte FRESH = 1;
+
+  /** The state of a slot holding a task that has been handed out. */
+  private static final byte LEASED = 2;
+
+  /** The initial number of slots. */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The task ID stored in each slot. */
+  private int[] taskIds = new int[INITIAL_CAPACITY];
+
+  /** The <code>TaskDescription</code> stored in each slot. */
+  private TaskDescription[] tasks = new TaskDescription[INITIAL_CAPACITY];
+
+  /** The state (FREE, FRESH or LEASED) of each slot. */
+  private byte[] states = new byte[INITIAL_CAPACITY];
+
+  /** The time (in milliseconds) at which each leased task was assigned. */
+  private long[] leaseTimes = new long[INITIAL_CAPACITY];
+
+  /** Identifies the worker that each leased task was assigned to. */
+  private String[] leaseWorkers = new String[INITIAL_CAPACITY];
+
+  /** The number of speculative copies handed out for each leased task. */
+  private int[] copies = new int[INITIAL_CAPACITY];
+
+  /** The previous slot in the list that each slot belongs to. */
+  private int[] prev = new int[INITIAL_CAPACITY];
+
+  /**
+   * The next slot in the list that each slot belongs to (or in the free
+   * list, for free slots).
+   */
+  private int[] next = new int[INITIAL_CAPACITY];
+
+  /**
+   * The previous slot on the list of tasks that may be copied
+   * speculatively.
+   */
+  private int[] specPrev = new int[INITIAL_CAPACITY];
+
+  /** The next slot on the list of tasks that may be copied speculatively. */
+  private int[] specNext = new int[INITIAL_CAPACITY];
+
+  /**
+   * A value indicating, for each slot, if it is on the list of tasks that
+   * may be copied speculatively.
+   */
+  private boolean[] speculable = new boolean[INITIAL_CAPACITY];
+
+  /** The number of slots that have ever been used. */
+  private int slotCount = 0;
+
+  /** The first slot on the free list. */
+  private int freeHead = NIL;
+
+  /** The first slot on the list of fresh tasks. */
+  private int freshHead = NIL;
+
+  /**
+   * The first slot on the list of leased tasks.  Leased tasks are kept in
+   * the order in which they were (most recently) assigned.
+   */
+  private int leaseHead = NIL;
+
+  /** The last slot on the list of leased tasks. */
+  private int leaseTail = NIL;
+
+  /**
+   * The first slot on the list of leased tasks that may be copied
+   * speculatively.  This list is kept in the same order as the list of
+   * leased tasks.
+   */
+  private int specHead = NIL;
+
+  /** The last slot on the list of tasks that may be copied speculatively. */
+  private int specTail = NIL;
+
+  /** The number of tasks in this queue. */
+  private int size = 0;
+
+  /** The number of leased tasks in this queue. */
+  private int leaseCount = 0;
+
+  /**
+   * A value indicating if the job cannot provide more tasks until some of
+   * the tasks in this queue are complete.
+   */
+  private boolean exhausted = false;
+
+  /**
+   * An open-addressing hash table (with linear probing) mapping task IDs to
+   * slots.  Each entry holds one plus the slot number, or zero if empty.
+   */
+  private int[] index = new int[2 * INITIAL_CAPACITY];
+
+  /**
+   * Adds a task to this queue.
+   * @param task The <code>TaskDescription</code> describing the task to be
+   *     scheduled.
+   */
+  public void add(TaskDescription task) {
+    int taskId = task.getTaskId();
+    int slot = find(taskId);
+    if (slot != NIL) {
+      tasks[slot] = task;
+      return;
+    }
+
+    slot = allocate();
+    taskIds[slot] = taskId;
+    tasks[slot] = task;
+    states[slot] = FRESH;
+    linkFresh(slot);
+    size++;
+
+    if (2 * size > index.length) {
+      rehash(2 * index.length);
+    } else {
+      insert(slot);
+    }
+  }
+
+  /**
+   * Gets the specified task.
+   * @param taskId The identifier for the task to retrieve.
+   * @return The <code>TaskDescription</code> having the specified
+   *     <code>taskId</code>, or <code>null</code> if no such task is found.
+   */
+  public TaskDescription get(int taskId) {
+    int slot = find(taskId);
+    return (slot != NIL) ? tasks[slot] : null;
+  }
+
+  /**
+   * Determines whether the specified task exists.
+   * @param taskId The identifier for the task to look up.
+   * @return A value indicating whether a task exists with the given
+   *     <code>taskId</code>.
+   */
+  public boolean contains(int taskId) {
+    return find(taskId) != NIL;
+  }
+
+  /**
+   * Gets the time at which the specified task was most recently handed out.
+   * @param taskId The identifier for the task to look up.
+   * @return The time (in milliseconds) at which the task was most recently
+   *     handed out, or <code>-1</code> if the task has not been handed out
+   *     or is not in this queue.
+   */
+  public long getLeaseTime(int taskId) {
+    int slot = find(taskId);
+    return (slot != NIL && states[slot] == LEASED) ? leaseTimes[slot] : -1;
+  }
+
+  /**
+   * Removes a task from this queue.
+   * @param taskId The ID of the task to be removed.
+   * @return The <code>TaskDescription</code> describing the removed task,
+   *     or <code>null</code> if no such task is found.
+   */
+  public TaskDescription remove(int taskId) {
+    int slot = delete(taskId);
+    if (slot == NIL) {
+      return null;
+    }
+
+    if (states[slot] == FRESH) {
+      unlinkFresh(slot);
+    } else {
+      unlinkLease(slot);
+      unlinkSpeculable(slot);
+      leaseCount--;
+    }
+
+    TaskDescription task = tasks[slot];
+    tasks[slot] = null;
+    leaseWorkers[slot] = null;
+    states[slot] = FREE;
+    next[slot] = freeHead;
+    freeHead = slot;
+    size--;
+    return task;
+  }
+
+  /**
+   * Determines if there are any outstanding tasks in this queue.
+   * @return A value indicating if this queue is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the number of outstanding tasks in this queue.
+   * @return The number of outstanding tasks in this queue.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of tasks that are currently leased to workers.
+   * @return The number of tasks that are currently leased to workers.
+   */
+  public int getLeaseCount() {
+    return leaseCount;
+  }
+
+  /**
+   * Sets whether the job cannot provide more tasks until some of the tasks
+   * in this queue are complete.  Speculative copies are only handed out
+   * while this is set.
+   * @param exhausted A value indicating if the job cannot provide more
+   *     tasks.
+   */
+  public void setExhausted(boolean exhausted) {
+    this.exhausted = exhausted;
+  }
+
+  /**
+   * Determines if a task may be handed out without resorting to a
+   * speculative copy.
+   * @param now The current time (in milliseconds).
+   * @param leaseTimeout The amount of time (in milliseconds) after which a
+   *     lease expires.
+   * @return A value indicating if there is a fresh task or an expired lease
+   *     in this queue.
+   */
+  public boolean canLease(long now, long leaseTimeout) {
+    return freshHead != NIL
+        || (leaseHead != NIL && now - leaseTimes[leaseHead] >= leaseTimeout);
+  }
+
+  /**
+   * Hands out a task that has not been handed out before.
+   * @param workerId Identifies the worker requesting the task.
+   * @param now The current time (in milliseconds).
+   * @return The <code>TaskDescription</code> for the task to hand out, or
+   *     <code>null</code> if there are no fresh tasks.
+   */
+  public TaskDescription leaseFresh(String workerId, long now) {
+    int slot = freshHead;
+    if (slot == NIL) {
+      return null;
+    }
+    unlinkFresh(slot);
+    states[slot] = LEASED;
+    assign(slot, workerId, now);
+    leaseCount++;
+    return tasks[slot];
+  }
+
+  /**
+   * Re-issues the task whose lease expired the longest time ago, if any.
+   * @param workerId Identifies the worker requesting the task.
+   * @param now The current time (in milliseconds).
+   * @param leaseTimeout The amount of time (in milliseconds) after which a
+   *     lease expires.
+   * @return The <code>TaskDescription</code> for the task to hand out, or
+   *     <code>null</code> if no leases have expired.
+   */
+  public TaskDescription leaseExpired(String workerId, long now, long leaseTimeout) {
+    int slot = leaseHead;
+    if (slot == NIL || now - leaseTimes[slot] < leaseTimeout) {
+      return null;
+    }
+    unlinkLease(slot);
+    assign(slot, workerId, now);
+    return tasks[slot];
+  }
+
+  /**
+   * Hands out a speculative copy of the longest running leased task that has
+   * fewer than the specified number of copies and that is not leased to the
+   * requesting worker.  No copy is handed out unless the job cannot provide
+   * more tasks.  A task is dropped from consideration once it has
+   * <code>maxCopies</code> copies, until it is leased again.
+   * @param workerId Identifies the worker requesting the task.
+   * @param maxCopies The maximum number of speculative copies of any one
+   *     task.
+   * @return The <code>TaskDescription</code> for the task to hand out, or
+   *     <code>null</code> if there is no suitable task.
+   * @see #setExhausted(boolean)
+   */
+  public TaskDescription speculate(String workerId, int maxCopies) {
+    if (!exhausted) {
+      return null;
+    }
+    int slot = specHead;
+    while (slot != NIL) {
+      int following = specNext[slot];
+      if (copies[slot] >= maxCopies) {
+        unlinkSpeculable(slot);
+      } else if (workerId == null || !workerId.equals(leaseWorkers[slot])) {
+        if (++copies[slot] >= maxCopies) {
+          unlinkSpeculable(slot);
+        }
+        return tasks[slot];
+      }
+      slot = following;
+    }
+    return null;
+  }
+
+  /**
+   * Takes back a speculative copy of a task, handed out by
+   * {@link #speculate(String, int)}, that was not passed on to a worker.  If
+   * the task had been dropped from consideration for further copies, it is
+   * returned to its place among the tasks that may be copied.
+   * @param taskId The ID of the task.
+   * @return A value indicating if a speculative copy of the task was
+   *     outstanding.
+   */
+  public boolean unspeculate(int taskId) {
+    int slot = find(taskId);
+    if (slot == NIL || states[slot] != LEASED || copies[slot] == 0) {
+      return false;
+    }
+    copies[slot]--;
+    if (!speculable[slot]) {
+      // The tasks that may be copied are kept in lease order, so the task
+      // goes before the next such task on the lease list.
+      int following = next[slot];
+      while (following != NIL && !speculable[following]) {
+        following = next[following];
+      }
+      speculable[slot] = true;
+      specNext[slot] = following;
+      specPrev[slot] = (following != NIL) ? specPrev[following] : specTail;
+      if (specPrev[slot] != NIL) {
+        specNext[specPrev[slot]] = slot;
+      } else {
+        specHead = slot;
+      }
+      if (following != NIL) {
+        specPrev[following] = slot;
+      } else {
+        specTail = slot;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records the assignment of a task to a worker and places it at the tail
+   * of the lease list.
+   * @param slot The slot holding the task.
+   * @param workerId Identifies the worker that the task is assigned to.
+   * @param now The current time (in milliseconds).
+   */
+  private void assign(int slot, String workerId, long now) {
+    leaseTimes[slot] = now;
+    leaseWorkers[slot] = workerId;
+    copies[slot] = 0;
+
+    prev[slot] = leaseTail;
+    next[slot] = NIL;
+    if (leaseTail != NIL) {
+      next[leaseTail] = slot;
+    } else {
+      leaseHead = slot;
+    }
+    leaseTail = slot;
+
+    unlinkSpeculable(slot);
+    speculable[slot] = true;
+    specPrev[slot] = specTail;
+    specNext[slot] = NIL;
+    if (specTail != NIL) {
+      specNext[specTail] = slot;
+    } else {
+      specHead = slot;
+    }
+    specTail = slot;
+  }
+
+  /**
+   * Removes a slot from the list of tasks that may be copied speculatively,
+   * if it is on that list.
+   * @param slot The slot to remove.
+   */
+  private void unlinkSpeculable(int slot) {
+    if (!speculable[slot]) {
+      return;
+    }
+    speculable[slot] = false;
+    if (specPrev[slot] != NIL) {
+      specNext[specPrev[slot]] = specNext[slot];
+    } else {
+      specHead = specNext[slot];
+    }
+    if (specNext[slot] != NIL) {
+      specPrev[specNext[slot]] = specPrev[slot];
+    } else {
+      specTail = specPrev[slot];
+    }
+  }
+
+  /**
+   * Adds a slot to the head of the fresh list.
+   * @param slot The slot to add.
+   */
+  private void linkFresh(int slot) {
+    prev[slot] = NIL;
+    next[slot] = freshHead;
+    if (freshHead != NIL) {
+      prev[freshHead] = slot;
+    }
+    freshHead = slot;
+  }
+
+  /**
+   * Removes a slot from the fresh list.
+   * @param slot The slot to remove.
+   */
+  private void unlinkFresh(int slot) {
+    if (prev[slot] != NIL) {
+      next[prev[slot]] = next[slot];
+    } else {
+      freshHead = next[slot];
+    }
+    if (next[slot] != NIL) {
+      prev[next[slot]] = prev[slot];
+    }
+  }
+
+  /**
+   * Removes a slot from the lease list.
+   * @param slot The slot to remove.
+   */
+  private void unlinkLease(int slot) {
+    if (prev[slot] != NIL) {
+      next[prev[slot]] = next[slot];
+    } else {
+      leaseHead = next[slot];
+    }
+    if (next[slot] != NIL) {
+      prev[next[slot]] = prev[slot];
+    } else {
+      leaseTail = prev[slot];
+    }
+  }
+
+  /**
+   * Obtains an unused slot, growing the slot arrays if necessary.
+   * @return The slot number.
+   */
+  private int allocate() {
+    if (freeHead != NIL) {
+      int slot = freeHead;
+      freeHead = next[slot];
+      return slot;
+    }
+    if (slotCount == taskIds.length) {
+      int capacity = 2 * taskIds.length;
+      taskIds = Arrays.copyOf(taskIds, capacity);
+      tasks = Arrays.copyOf(tasks, capacity);
+      states = Arrays.copyOf(states, capacity);
+      leaseTimes = Arrays.copyOf(leaseTimes, capacity);
+      leaseWorkers = Arrays.copyOf(leaseWorkers, capacity);
+      copies = Arrays.copyOf(copies, capacity);
+      prev = Arrays.copyOf(prev, capacity);
+      next = Arrays.copyOf(next, capacity);
+      specPrev = Arrays.copyOf(specPrev, capacity);
+      specNext = Arrays.copyOf(specNext, capacity);
+      speculable = Arrays.copyOf(speculable, capacity);
+    }
+    return slotCount++;
+  }
+
+  /**
+   * Computes the home position of a task ID in {@link #index}.
+   * @param taskId The task ID.
+   * @return The position in {@link #index} at which to start probing.
+   */
+  private int home(int taskId) {
+    int h = taskId * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (index.length - 1);
+  }
+
+  /**
+   * Finds the slot holding the specified task.
+   * @param taskId The task ID to look up.
+   * @return The slot holding the task, or <code>NIL</code> if not found.
+   */
+  private int find(int taskId) {
+    int mask = index.length - 1;
+    for (int i = home(taskId); index[i] != 0; i = (i + 1) & mask) {
+      int slot = index[i] - 1;
+      if (taskIds[slot] == taskId) {
+        return slot;
+      }
+    }
+    return NIL;
+  }
+
+  /**
+   * Adds a slot to {@link #index}.
+   * @param slot The slot to add.
+   */
+  private void insert(int slot) {
+    int mask = index.length - 1;
+    int i = home(taskIds[slot]);
+    while (index[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    index[i] = slot + 1;
+  }
+
+  /**
+   * Removes a task from {@link #index}.  Entries following the removed one
+   * are shifted back as needed so that no tombstones are required.
+   * @param taskId The ID of the task to remove.
+   * @return The slot that held the task, or <code>NIL</code> if not found.
+   */
+  private int delete(int taskId) {
+    int mask = index.length - 1;
+    int i = home(taskId);
+    while (index[i] != 0 && taskIds[index[i] - 1] != taskId) {
+      i = (i + 1) & mask;
+    }
+    if (index[i] == 0) {
+      return NIL;
+    }
+
+    int slot = index[i] - 1;
+    index[i] = 0;
+    for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+      int k = home(taskIds[index[j] - 1]);
+      boolean movable = (i <= j) ? (k <= i || k > j) : (k <= i && k > j);
+      if (movable) {
+        index[i] = index[j];
+        index[j] = 0;
+        i = j;
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * Rebuilds {@link #index} with the specified capacity.
+   * @param capacity The new capacity (must be a power of two).
+   */
+  private void rehash(int capacity) {
+    index = new int[capacity];
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (states[slot] != FREE) {
+        insert(slot);
+      }
+    }
+  }
+
+}
@@ -25,11 +25,10 @@
 
 package ca.eandb.jdcp.server.scheduling;
 
-import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import ca.eandb.jdcp.job.TaskDescription;
@@ -38,23 +37,29 @@ import ca.eandb.jdcp.remote.JobService;
 /**
  * A <code>TaskScheduler</code> that serves tasks for the earliest scheduled
  * job having the highest priority in a round robin fashion.  That is, tasks
- * are scheduled so that each job completes before the next one starts.
+ * are scheduled so that each job completes before the next one starts,
+ * except that a worker is served tasks for a job that it has already loaded
+ * in preference to other jobs of the same priority.
+ * A task that has been served is only served again once its lease expires,
+ * or, if no worker would otherwise have anything to do and its job cannot
+ * provide more tasks, as one of a limited number of speculative copies.
+ * This class is thread-safe.
  * @author Brad Kimmel
  */
-public final class PrioritySerialTaskScheduler implements TaskScheduler {
+public final class PrioritySerialTaskScheduler extends AbstractLeasingTaskScheduler {
 
   /**
    * A <code>Map</code> associating information about a job with the
    * corresponding job's <code>UUID</code>.
    * @see JobInfo
    */
-  private Map<UUID, JobInfo> jobs = new HashMap<UUID, JobInfo>();
+  private final Map<UUID, JobInfo> jobs = new HashMap<UUID, JobInfo>();
 
   /**
-   * A <code>PriorityQueue</code> used to determine which job is next in
-   * line.
+   * The jobs having outstanding tasks, in the order in which they are to be
+   * served.
    */
-  private PriorityQueue<UUID> jobQueue = new PriorityQueue<UUID>(11, new JobIdComparator());
+  private final TreeSet<JobInfo> jobQueue = new TreeSet<JobInfo>();
 
   /**
    * Each job is assigned an order number using an increasing counter.  This
@@ -80,16 +85,8 @@ public final class PrioritySerialTaskScheduler implements TaskScheduler {
     /** The order in which this job was added to the schedule. */
     private final int order = nextOrder++;
 
-    /**
-     * A <code>Map</code> associating task IDs with the corresponding
-     * <code>TaskDescription</code>.
-     */
-    private Map<Integer, TaskDescription> tasks = new HashMap<Integer, TaskDescription>();
-
-    /**
-     * A <code>LinkedList</code> of task IDs used to
-     */
-    private final LinkedList<Integer> taskQueue = new LinkedList<Integer>();
+    /** The outstanding tasks for this job. */
+    public final LeasedTaskQueue tasks = new LeasedTaskQueue();
 
     /**
      * Creates a new <code>JobInfo</code>.
@@ -115,63 +112,6 @@ public final class PrioritySerialTaskScheduler implements TaskScheduler {
       }
     }
 
-    /**
-     * Adds a task to the queue for this job.
-     * @param task The <code>Object</code> describing the task to be
-     *     scheduled.
-     * @return The task ID for the newly scheduled task.
-     */
-    public synchronized void addTask(TaskDescription task) {
-      int taskId = task.getTaskId();
-      tasks.put(taskId, task);
-      taskQueue.addFirst(taskId);
-    }
-
-    /**
-     * Gets the specified task.
-     * @param taskId The identifier for the task to retrieve.
-     * @return The <code>TaskDescription</code> having the specified
-     *     <code>taskId</code>, or <code>null</code> if no such task is
-     *     found.
-     */
-    public synchronized TaskDescription getTask(int taskId) {
-      return tasks.get(taskId);
-    }
-
-    /**
-     * Determines whether the specified task exists.
-     * @param taskId The identifier for the task to look up.
-     * @return A value indicating whether a task exists with the given
-     *     <code>taskId</code>.
-     */
-    public synchronized boolean contains(int taskId) {
-      return tasks.containsKey(taskId);
-    }
-
-    /**
-     * Obtains the next task to be served for this job.
-     * @return The <code>TaskDescription</code> for the next task to be
-     *     served.
-     */
-    public synchronized TaskDescription getNextTask() {
-      if (taskQueue.isEmpty()) {
-        return null;
-      }
-      int taskId = taskQueue.remove();
-      taskQueue.addLast(taskId);
-      return tasks.get(taskId);
-    }
-
-    /**
-     * Removes a task from the queue for this job.
-     * @param taskId The task ID of the task to be removed.
-     * @return The <code>Object</code> describing the removed task.
-     */
-    public synchronized TaskDescription removeTask(int taskId) {
-      taskQueue.remove((Object) new Integer(taskId));
-      return tasks.remove(taskId);
-    }
-
     /**
      * Sets the priority for this job.
      * @param priority The priority for this job.
@@ -182,25 +122,6 @@ public final class PrioritySerialTaskScheduler implements TaskScheduler {
 
   }
 
-  /**
-   * Compares two <code>UUID</code>s representing jobs according to their
-   * priority then according to the order in which they were first seen.
-   * @author Brad Kimmel
-   */
-  private final class JobIdComparator implements Comparator<UUID> {
-
-    @Override
-    public int compare(UUID id1, UUID id2) {
-      JobInfo job1 = jobs.get(id1);
-      JobInfo job2 = jobs.get(id2);
-      if (job1 == null || job2 == null) {
-        throw new IllegalArgumentException("Either id1 or id2 represent a non-existant job.");
-      }
-      return job1.compareTo(job2);
-    }
-
-  }
-
   /**
    * Gets the bookkeeping information for a job.  If the specified job has
    * not been seen, a new <code>JobInfo</code> is created for it.
@@ -213,73 +134,140 @@ public final class PrioritySerialTaskScheduler implements TaskScheduler {
     if (job == null) {
       job = new JobInfo(jobId);
       jobs.put(jobId, job);
-      jobQueue.add(jobId);
     }
     return job;
   }
 
   @Override
-  public void add(TaskDescription task) {
-    UUID jobId = task.getJobId();
-    JobInfo job = getJob(jobId);
-    if (!jobQueue.contains(jobId)) {
-      jobQueue.add(jobId);
-    }
-    job.addTask(task);
+  public synchronized void add(TaskDescription task) {
+    JobInfo job = getJob(task.getJobId());
+    job.tasks.add(task);
+    jobQueue.add(job);
   }
 
   @Override
-  public TaskDescription get(UUID jobId, int taskId) {
-    JobInfo job = getJob(jobId);
-    return (job != null) ? job.getTask(taskId) : null;
+  public synchronized TaskDescription get(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.get(taskId) : null;
   }
 
   @Override
-  public boolean contains(UUID jobId, int taskId) {
-    JobInfo job = getJob(jobId);
-    return (job != null) ? job.contains(taskId) : false;
+  public synchronized boolean contains(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    return (job != null) ? job.tasks.contains(taskId) : false;
   }
 
   @Override
-  public TaskDescription getNextTask() {
-    TaskDescription desc = null;
+  public synchronized TaskDescription getNextTask(String workerId,
+      UUID[] preferredJobIds) {
+    long now = System.currentTimeMillis();
+
+    for (JobInfo job : jobQueue) {
+      if (canLease(job.tasks, now)) {
+        JobInfo preferred = getPreferredJob(job, preferredJobIds, now);
+        if (preferred != null) {
+          job = preferred;
+        }
+        return lease(job.tasks, workerId, now);
+      }
+    }
 
-    while (true) {
-      UUID jobId = jobQueue.peek();
-      if (jobId == null) {
-        break;
+    for (JobInfo job : jobQueue) {
+      TaskDescription desc = speculate(job.tasks, workerId);
+      if (desc != null) {
+        return desc;
       }
+    }
 
-      JobInfo job = getJob(jobId);
-      desc = job.getNextTask();
-      if (desc == null) {
-        jobQueue.remove();
-      } else {
-        break;
+    return null;
+  }
+
+  /**
+   * Finds a job that the worker would prefer and that may be served in
+   * place of the specified job.  Only jobs having the same priority are
+   * considered, so that a worker's preferences never hold up a job with a
+   * higher priority.
+   * @param next The <code>JobInfo</code> for the job that would otherwise
+   *     be served.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer (may be <code>null</code>).
+   * @param now The current time (in milliseconds).
+   * @return The <code>JobInfo</code> for the preferred job to serve, or
+   *     <code>null</code> if there is no suitable preferred job.
+   */
+  private JobInfo getPreferredJob(JobInfo next, UUID[] preferredJobIds,
+      long now) {
+    if (preferredJobIds != null) {
+      for (UUID jobId : preferredJobIds) {
+        JobInfo job = jobs.get(jobId);
+        if (job != null && job.priority == next.priority
+            && canLease(job.tasks, now)) {
+          return job;
+        }
       }
     }
+    return null;
+  }
 
+  @Override
+  public synchronized TaskDescription remove(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job == null) {
+      return null;
+    }
+    TaskDescription desc = removeTask(job.tasks, taskId);
+    if (job.tasks.isEmpty()) {
+      jobQueue.remove(job);
+    }
     return desc;
   }
 
   @Override
-  public TaskDescription remove(UUID jobId, int taskId) {
+  public synchronized void setJobPriority(UUID jobId, int priority) {
     JobInfo job = jobs.get(jobId);
-    return (job != null) ? job.removeTask(taskId) : null;
+    if (job == null) {
+      return;
+    }
+    boolean queued = jobQueue.remove(job);
+    job.setPriority(priority);
+    if (queued) {
+      jobQueue.add(job);
+    }
+  }
+
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline) {
+    /* nothing to do. */
+  }
+
+  @Override
+  public void setJobProgress(UUID jobId, double progress) {
+    /* nothing to do. */
   }
 
   @Override
-  public void setJobPriority(UUID jobId, int priority) {
+  public synchronized void setJobExhausted(UUID jobId, boolean exhausted) {
     JobInfo job = jobs.get(jobId);
-    jobQueue.remove(jobId);
-    job.setPriority(priority);
-    jobQueue.add(jobId);
+    if (job != null) {
+      job.tasks.setExhausted(exhausted);
+    }
+  }
+
+  @Override
+  public synchronized void returnDuplicate(UUID jobId, int taskId) {
+    JobInfo job = jobs.get(jobId);
+    if (job != null) {
+      unspeculate(job.tasks, taskId);
+    }
   }
 
   @Override
-  public void removeJob(UUID jobId) {
-    jobQueue.remove(jobId);
-    jobs.remove(jobId);
+  public synchronized void removeJob(UUID jobId) {
+    JobInfo job = jobs.remove(jobId);
+    if (job != null) {
+      jobQueue.remove(job);
+      removeTasks(job.tasks);
+    }
   }
 
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+/**
+ * Utility methods for choosing a <code>TaskScheduler</code>.
+ * @author Brad Kimmel
+ */
+public final class SchedulingUtil {
+
+  /** The name of the {@link PrioritySerialTaskScheduler}. */
+  public static final String PRIORITY_SERIAL = "priority";
+
+  /** The name of the {@link FairShareTaskScheduler}. */
+  public static final String FAIR_SHARE = "fairshare";
+
+  /** The name of the {@link DeadlineTaskScheduler}. */
+  public static final String DEADLINE = "deadline";
+
+  /**
+   * Creates a <code>TaskScheduler</code> by name.
+   * @param name The name of the scheduler to create ({@link
+   *     #PRIORITY_SERIAL}, {@link #FAIR_SHARE} or {@link #DEADLINE}).  If
+   *     <code>name</code> is <code>null</code> or empty, a
+   *     {@link PrioritySerialTaskScheduler} is created.
+   * @return The new <code>TaskScheduler</code>.
+   * @throws IllegalArgumentException If <code>name</code> does not name a
+   *     scheduler.
+   */
+  public static TaskScheduler createTaskScheduler(String name)
+      throws IllegalArgumentException {
+    if (name == null || name.equals("") || name.equalsIgnoreCase(PRIORITY_SERIAL)) {
+      return new PrioritySerialTaskScheduler();
+    } else if (name.equalsIgnoreCase(FAIR_SHARE)) {
+      return new FairShareTaskScheduler();
+    } else if (name.equalsIgnoreCase(DEADLINE)) {
+      return new DeadlineTaskScheduler();
+    }
+    throw new IllegalArgumentException(String.format(
+        "Unknown scheduler '%s' (expected '%s', '%s' or '%s')", name,
+        PRIORITY_SERIAL, FAIR_SHARE, DEADLINE));
+  }
+
+  /** This constructor is private to prevent instances from being created. */
+  private SchedulingUtil() {}
+
+}
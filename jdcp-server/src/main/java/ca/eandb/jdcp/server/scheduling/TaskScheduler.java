@@ -25,26 +25,66 @@
 
 package ca.eandb.jdcp.server.scheduling;
 
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 import ca.eandb.jdcp.job.TaskDescription;
 
 /**
  * Represents an object that is responsible for determine in what order to
- * serve tasks to worker clients.
+ * serve tasks to worker clients.  Implementations must be safe for use by
+ * multiple threads, as tasks may be requested, added, and removed
+ * concurrently.
  * @author Brad Kimmel
  */
 public interface TaskScheduler {
 
   /**
    * Sets the priority of a job.  The job priority is a hint to the scheduler
-   * which it may use to determine the order in which tasks are served.
+   * which it may use to determine the order in which tasks are served.  It
+   * is ignored if no tasks have been added for the job, or if the job has
+   * been removed.
    * @param jobId The <code>UUID</code> identifying the job for which to set
    *     the priority.
    * @param priority The priority to set for the specified job.
    */
   void setJobPriority(UUID jobId, int priority);
 
+  /**
+   * Sets the deadline of a job.  The job deadline is a hint to the
+   * scheduler which it may use to determine the order in which tasks are
+   * served.  It is ignored if no tasks have been added for the job, or if
+   * the job has been removed.
+   * @param jobId The <code>UUID</code> identifying the job for which to set
+   *     the deadline.
+   * @param deadline The time by which the job should be complete, or
+   *     <code>null</code> if the job has no deadline.
+   */
+  void setJobDeadline(UUID jobId, Date deadline);
+
+  /**
+   * Reports the progress of a job.  This is a hint to the scheduler which
+   * it may use to estimate the amount of work remaining for a job.
+   * @param jobId The <code>UUID</code> identifying the job for which to
+   *     report progress.
+   * @param progress The fraction of the job that is complete (between zero
+   *     and one).
+   */
+  void setJobProgress(UUID jobId, double progress);
+
+  /**
+   * Indicates whether a job is unable to provide any more tasks until some
+   * of its outstanding tasks are complete.  This is a hint to the scheduler
+   * which it may use to decide when to serve speculative copies of tasks
+   * that are still outstanding.  It is ignored if no tasks have been added
+   * for the job, or if the job has been removed.
+   * @param jobId The <code>UUID</code> identifying the job.
+   * @param exhausted A value indicating if the job is unable to provide
+   *     more tasks.
+   */
+  void setJobExhausted(UUID jobId, boolean exhausted);
+
   /**
    * Adds a task to be scheduled.
    * @param task An <code>TaskDescription</code> describing the task to be
@@ -81,12 +121,34 @@ public interface TaskScheduler {
   boolean contains(UUID jobId, int taskId);
 
   /**
-   * Gets the next task to be served.
+   * Gets the next task to be served.  Tasks that have already been served
+   * should not ordinarily be served again while they are still outstanding,
+   * except if the worker they were served to appears to have failed to
+   * complete them.
+   * The scheduler should prefer tasks from the jobs listed in
+   * <code>preferredJobIds</code>, for which the worker has already loaded
+   * the <code>TaskWorker</code>, to the extent that doing so is consistent
+   * with the scheduling policy.
+   * @param workerId Identifies the worker to which the task is to be served,
+   *     or <code>null</code> if unknown.
+   * @param preferredJobIds The <code>UUID</code>s of the jobs that the
+   *     worker would prefer tasks from (may be <code>null</code>).
    * @return A <code>TaskDescription</code> describing the next task to be
-   *     served.
+   *     served, or <code>null</code> if there is no task to serve.
    * @see ca.eandb.jdcp.job.TaskDescription
    */
-  TaskDescription getNextTask();
+  TaskDescription getNextTask(String workerId, UUID[] preferredJobIds);
+
+  /**
+   * Takes back a duplicate of a task, served by {@link #getNextTask(String,
+   * UUID[])}, that was not handed out because the worker had already been
+   * given the same task.  This is ignored if the task is no longer in the
+   * schedule or if no duplicate of it is outstanding.
+   * @param jobId The <code>UUID</code> identifying the job associated with
+   *     the task.
+   * @param taskId The identifier for the task.
+   */
+  void returnDuplicate(UUID jobId, int taskId);
 
   /**
    * Removes all tasks from the schedule that are associated with the
@@ -96,4 +158,28 @@ public interface TaskScheduler {
    */
   void removeJob(UUID jobId);
 
+  /**
+   * Gets the number of outstanding tasks that have been served to workers.
+   * @return The number of outstanding tasks that have been served to
+   *     workers.
+   */
+  int getActiveLeaseCount();
+
+  /**
+   * Gets the number of times that a task has been served while it was
+   * already being processed by another worker, either because the earlier
+   * worker took too long or speculatively.
+   * @return The number of duplicate tasks served.
+   */
+  long getDuplicateTaskCount();
+
+  /**
+   * Gets the jobs that are projected to miss their deadlines.  A scheduler
+   * that does not track deadlines returns an empty list.
+   * @return A <code>List</code> of the <code>UUID</code>s of the jobs that
+   *     are projected to miss their deadlines.
+   * @see #setJobDeadline(UUID, Date)
+   */
+  List<UUID> getJobsAtRisk();
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a serialization round trip of a primitive array task or result
+ * using plain Java serialization, as is done for jobs that do not provide
+ * a <code>PayloadCodec</code>, with the same round trip through an
+ * {@link EncodedPayload} using the {@link PrimitiveArrayCodec}.  Run using:
+ *
+ * <pre>
+ * mvn -pl jdcp-server -am test-compile
+ * mvn -pl jdcp-server exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=ca.eandb.jdcp.job.PayloadCodecBenchmark
+ * </pre>
+ *
+ * @author Brad Kimmel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCodecBenchmark {
+
+  /** The element type of the array. */
+  @Param({ "double", "float", "int" })
+  public String type;
+
+  /** The number of elements in the array. */
+  @Param({ "256", "1048576" })
+  public int length;
+
+  /** The array to send. */
+  private Object payload;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    if (type.equals("double")) {
+      double[] array = new double[length];
+      for (int i = 0; i < length; i++) {
+        array[i] = random.nextDouble();
+      }
+      payload = array;
+    } else if (type.equals("float")) {
+      float[] array = new float[length];
+      for (int i = 0; i < length; i++) {
+        array[i] = random.nextFloat();
+      }
+      payload = array;
+    } else if (type.equals("int")) {
+      int[] array = new int[length];
+      for (int i = 0; i < length; i++) {
+        array[i] = random.nextInt();
+      }
+      payload = array;
+    } else {
+      throw new IllegalArgumentException("Unknown type: " + type);
+    }
+  }
+
+  /**
+   * Serializes an object and reads it back.
+   * @param obj The object to serialize.
+   * @return The deserialized copy of <code>obj</code>.
+   * @throws IOException If an error occurs while serializing.
+   * @throws ClassNotFoundException If the object cannot be deserialized.
+   */
+  private static Object roundTrip(Object obj) throws IOException,
+      ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(obj);
+    out.close();
+
+    ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Sends the array using Java serialization.
+   * @return The array as received.
+   * @throws Exception If the round trip fails.
+   */
+  @Benchmark
+  public Object javaSerialization() throws Exception {
+    return roundTrip(payload);
+  }
+
+  /**
+   * Sends the array using the <code>PrimitiveArrayCodec</code>.
+   * @return The array as received.
+   * @throws Exception If the round trip fails.
+   */
+  @Benchmark
+  public Object primitiveArrayCodec() throws Exception {
+    return EncodedPayload.unwrap(roundTrip(EncodedPayload.wrap(
+        PrimitiveArrayCodec.getInstance(), payload)));
+  }
+
+  /**
+   * Runs the benchmarks.
+   * @param args Command line arguments (ignored).
+   * @throws RunnerException If the benchmarks fail to run.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PayloadCodecBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.ConnectException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.login.LoginException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.jdcp.remote.AuthenticationService;
+import ca.eandb.jdcp.remote.JobService;
+import ca.eandb.jdcp.remote.TaskProtocol;
+import ca.eandb.jdcp.worker.NioJobService;
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * Exercises <code>NioTaskServer</code> and <code>NioJobService</code>
+ * together over a loopback connection.
+ * @author Brad Kimmel
+ */
+public final class NioTaskServerTest {
+
+  /** The password accepted by the test <code>AuthenticationService</code>. */
+  private static final String PASSWORD = "secret";
+
+  /**
+   * The time (in milliseconds) that the test
+   * <code>AuthenticationService</code> takes to authenticate a user.
+   */
+  private static final long AUTHENTICATION_DELAY = 100;
+
+  /** The number of successful authentications. */
+  private final AtomicInteger authenticationCount = new AtomicInteger();
+
+  /** The job ID used for all tasks and results. */
+  private final UUID jobId = UUID.randomUUID();
+
+  /** Released to allow a pending <code>requestTask</code> call to return. */
+  private final CountDownLatch slowCallGate = new CountDownLatch(1);
+
+  /** Counted down when a <code>requestTask</code> call is blocked. */
+  private final CountDownLatch slowCallStarted = new CountDownLatch(1);
+
+  /** Receives uploaded result chunks. */
+  private final ByteArrayOutputStream upload = new ByteArrayOutputStream();
+
+  /** The number of bytes reported to <code>uploadTaskResultsChunk</code>. */
+  private long uploadOffset;
+
+  /** Whether the upload was committed. */
+  private Boolean uploadCommitted;
+
+  /** The client host seen by the most recent call to the service. */
+  private volatile String clientHost;
+
+  /** The result most recently submitted to the service. */
+  private volatile Object lastResult;
+
+  /** The number of tasks that <code>requestTasks</code> may hand out. */
+  private final AtomicInteger availableTasks = new AtomicInteger();
+
+  /** The number of calls to <code>requestTasks</code>. */
+  private final AtomicInteger requestTasksCount = new AtomicInteger();
+
+  private ExecutorService executor;
+  private NioTaskServer server;
+  private InetSocketAddress address;
+
+  @Before
+  public void setUp() throws Exception {
+    final JobService service = (JobService) java.lang.reflect.Proxy.newProxyInstance(
+        JobService.class.getClassLoader(), new Class<?>[]{ JobService.class },
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args)
+              throws Throwable {
+            return handle(method.getName(), args);
+          }
+        });
+    AuthenticationService auth = new AuthenticationService() {
+      public JobService authenticate(String username, String password,
+          UUID protocolVersionId) throws LoginException {
+        if (!PASSWORD.equals(password)) {
+          throw new LoginException("Incorrect password");
+        }
+        authenticationCount.incrementAndGet();
+        try {
+          Thread.sleep(AUTHENTICATION_DELAY);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return service;
+      }
+    };
+
+    executor = Executors.newCachedThreadPool();
+    server = new NioTaskServer(auth, executor,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        server.getPort());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    slowCallGate.countDown();
+    server.close();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Implements the <code>JobService</code> methods used by these tests.
+   */
+  private Object handle(String name, Object[] args) throws Exception {
+    clientHost = ClientHost.get();
+    if (name.equals("requestTask")) {
+      return TaskDescription.fromSerialized(jobId, 1,
+          new Serialized<Object>("task"));
+    } else if (name.equals("requestTasks")) {
+      requestTasksCount.incrementAndGet();
+      if (availableTasks.getAndDecrement() > 0) {
+        return new TaskDescription[]{ TaskDescription.fromSerialized(jobId,
+            1, new Serialized<Object>("task")) };
+      }
+      availableTasks.incrementAndGet();
+      return new TaskDescription[]{ new TaskDescription(null, 0, 10) };
+    } else if (name.equals("getClassDefinition")) {
+      String className = (String) args[0];
+      if (className.equals("Slow")) {
+        slowCallStarted.countDown();
+        slowCallGate.await();
+      }
+      return className.getBytes("UTF-8");
+    } else if (name.equals("submitTaskResults") && args[0] instanceof UUID) {
+      lastResult = ((Serialized<?>) args[2]).deserialize();
+      return null;
+    } else if (name.equals("beginTaskResultsUpload")) {
+      assertEquals(jobId, args[0]);
+      assertEquals(7, args[1]);
+      return 42L;
+    } else if (name.equals("uploadTaskResultsChunk")) {
+      assertEquals(42L, args[0]);
+      synchronized (upload) {
+        assertEquals(uploadOffset, ((Long) args[1]).longValue());
+        byte[] chunk = (byte[]) args[2];
+        upload.write(chunk);
+        uploadOffset += chunk.length;
+      }
+      return null;
+    } else if (name.equals("endTaskResultsUpload")) {
+      assertEquals(42L, args[0]);
+      uploadCommitted = (Boolean) args[1];
+      return null;
+    }
+    throw new UnsupportedOperationException(name);
+  }
+
+  private NioJobService connect() throws Exception {
+    return NioJobService.connect(address, "user", PASSWORD, null);
+  }
+
+  @Test
+  public void testAuthentication() throws Exception {
+    try {
+      NioJobService.connect(address, "user", "wrong", null);
+      fail("Connected with an incorrect password");
+    } catch (LoginException e) {
+      /* expected */
+    }
+
+    NioJobService service = connect();
+    try {
+      assertEquals(1, service.requestTask().getTaskId());
+      assertEquals("127.0.0.1", clientHost);
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testOversizedFrameBeforeAuthentication() throws Exception {
+    Socket socket = new Socket(address.getAddress(), address.getPort());
+    try {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(256 * 1024 * 1024);
+      out.flush();
+
+      InputStream in = socket.getInputStream();
+      assertEquals(-1, in.read());
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Writes a request frame.
+   * @param out The <code>DataOutputStream</code> to write to.
+   * @param requestId The ID of the request.
+   * @param code The method being called.
+   * @param body The body of the request.
+   */
+  private static void writeFrame(DataOutputStream out, int requestId,
+      byte code, byte[] body) throws Exception {
+    ByteBuffer frame = TaskProtocol.createFrame(requestId, code, body);
+    out.write(frame.array(), frame.arrayOffset() + frame.position(),
+        frame.remaining());
+  }
+
+  /**
+   * Creates the body of an authentication request.
+   * @param password The password to send.
+   * @return The body of the request.
+   */
+  private static byte[] authenticationRequest(String password)
+      throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    TaskProtocol.writeString(out, "user");
+    TaskProtocol.writeString(out, password);
+    TaskProtocol.writeUUID(out, UUID.randomUUID());
+    out.writeByte(TaskProtocol.ENCODING_RAW);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads response frames and records their statuses.
+   * @param in The <code>DataInputStream</code> to read from.
+   * @param count The number of responses to read.
+   * @return The status of each response, indexed by request ID.
+   */
+  private static byte[] readStatuses(DataInputStream in, int count)
+      throws Exception {
+    byte[] statuses = new byte[count + 1];
+    for (int i = 0; i < count; i++) {
+      int length = in.readInt();
+      int requestId = in.readInt();
+      statuses[requestId] = in.readByte();
+      in.readFully(new byte[length - TaskProtocol.HEADER_LENGTH]);
+    }
+    return statuses;
+  }
+
+  @Test
+  public void testRequestsPipelinedBehindAuthentication() throws Exception {
+    Socket socket = new Socket(address.getAddress(), address.getPort());
+    try {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      writeFrame(out, 1, TaskProtocol.AUTHENTICATE,
+          authenticationRequest(PASSWORD));
+      writeFrame(out, 2, TaskProtocol.REQUEST_TASK, new byte[0]);
+      writeFrame(out, 3, TaskProtocol.AUTHENTICATE,
+          authenticationRequest(PASSWORD));
+      writeFrame(out, 4, TaskProtocol.REQUEST_TASK, new byte[0]);
+      out.flush();
+
+      /*
+       * The requests sent behind the first authentication request must be
+       * processed as authenticated, and the second authentication request
+       * must be refused.
+       */
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] statuses = readStatuses(in, 4);
+      assertEquals(TaskProtocol.STATUS_OK, statuses[1]);
+      assertEquals(TaskProtocol.STATUS_OK, statuses[2]);
+      assertEquals(TaskProtocol.STATUS_ERROR, statuses[3]);
+      assertEquals(TaskProtocol.STATUS_OK, statuses[4]);
+      assertEquals(1, authenticationCount.get());
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testPipelinedResponsesOutOfOrder() throws Exception {
+    final NioJobService service = connect();
+    try {
+      Future<byte[]> slow = executor.submit(new Callable<byte[]>() {
+        public byte[] call() throws Exception {
+          return service.getClassDefinition("Slow", jobId);
+        }
+      });
+      assertTrue(slowCallStarted.await(5, TimeUnit.SECONDS));
+
+      /* These must complete while the first request is still pending. */
+      for (int i = 0; i < 10; i++) {
+        assertArrayEquals(("Fast" + i).getBytes("UTF-8"),
+            service.getClassDefinition("Fast" + i, jobId));
+      }
+      assertTrue(!slow.isDone());
+
+      slowCallGate.countDown();
+      assertArrayEquals("Slow".getBytes("UTF-8"),
+          slow.get(5, TimeUnit.SECONDS));
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testConnectionDropFailsPendingCalls() throws Exception {
+    final NioJobService service = connect();
+    try {
+      Future<byte[]> pending = executor.submit(new Callable<byte[]>() {
+        public byte[] call() throws Exception {
+          return service.getClassDefinition("Slow", jobId);
+        }
+      });
+      assertTrue(slowCallStarted.await(5, TimeUnit.SECONDS));
+
+      server.close();
+      try {
+        pending.get(5, TimeUnit.SECONDS);
+        fail("Pending call completed after the connection was dropped");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ConnectException);
+      }
+
+      try {
+        service.requestTask();
+        fail("Call succeeded after the connection was dropped");
+      } catch (ConnectException e) {
+        /* expected */
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testCompression() throws Exception {
+    char[] text = new char[64 * 1024];
+    Arrays.fill(text, 'x');
+    String result = new String(text);
+
+    NioJobService service = connect();
+    try {
+      assertNotNull(service.getCompressor());
+      service.submitTaskResults(jobId, 1, new Serialized<Object>(result));
+      assertEquals(result, lastResult);
+      assertTrue(server.getCompressor().getCompressionRatio(jobId) > 1.0);
+      assertTrue(service.getCompressor().getCompressionRatio(jobId) > 1.0);
+    } finally {
+      service.close();
+    }
+
+    NioJobService plain = NioJobService.connect(address, "user", PASSWORD,
+        null, null);
+    try {
+      assertNull(plain.getCompressor());
+      plain.submitTaskResults(jobId, 2, new Serialized<Object>(result));
+      assertEquals(result, lastResult);
+    } finally {
+      plain.close();
+    }
+
+    server.setCompressionEnabled(false);
+    NioJobService refused = connect();
+    try {
+      assertNull(refused.getCompressor());
+      refused.submitTaskResults(jobId, 3, new Serialized<Object>(result));
+      assertEquals(result, lastResult);
+    } finally {
+      refused.close();
+    }
+  }
+
+  @Test
+  public void testCompressionDisabledForJob() throws Exception {
+    char[] text = new char[64 * 1024];
+    Arrays.fill(text, 'x');
+    String result = new String(text);
+    UUID rawJobId = UUID.randomUUID();
+
+    NioJobService service = connect();
+    try {
+      service.getCompressor().setCompressionEnabled(rawJobId, false);
+      service.submitTaskResults(rawJobId, 1, new Serialized<Object>(result));
+      assertEquals(result, lastResult);
+      assertEquals(1.0, server.getCompressor().getCompressionRatio(rawJobId), 0.0);
+      assertEquals(1.0, service.getCompressor().getCompressionRatio(rawJobId), 0.0);
+
+      service.getCompressor().setCompressionEnabled(rawJobId, true);
+      service.submitTaskResults(rawJobId, 2, new Serialized<Object>(result));
+      assertEquals(result, lastResult);
+      assertTrue(server.getCompressor().getCompressionRatio(rawJobId) > 1.0);
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testChunkedUpload() throws Exception {
+    byte[] data = new byte[300 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 251);
+    }
+
+    NioJobService service = connect();
+    try {
+      long uploadId = service.beginTaskResultsUpload(jobId, 7);
+      assertEquals(42L, uploadId);
+      int chunkSize = 64 * 1024;
+      for (int offset = 0; offset < data.length; offset += chunkSize) {
+        int length = Math.min(chunkSize, data.length - offset);
+        service.uploadTaskResultsChunk(uploadId, offset,
+            Arrays.copyOfRange(data, offset, offset + length));
+      }
+      service.endTaskResultsUpload(uploadId, true);
+    } finally {
+      service.close();
+    }
+
+    synchronized (upload) {
+      assertArrayEquals(data, upload.toByteArray());
+    }
+    assertEquals(Boolean.TRUE, uploadCommitted);
+  }
+
+  @Test
+  public void testTasksAvailableWakesOneRequestPerTask() throws Exception {
+    final int waiters = 4;
+    final NioJobService service = connect();
+    try {
+      Future<?>[] requests = new Future<?>[waiters];
+      for (int i = 0; i < waiters; i++) {
+        requests[i] = executor.submit(new Callable<TaskDescription[]>() {
+          public TaskDescription[] call() throws Exception {
+            return service.requestTasks(1, null, 5000);
+          }
+        });
+      }
+      long deadline = System.currentTimeMillis() + 5000;
+      while (requestTasksCount.get() < waiters) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+
+      /*
+       * A single new task must wake a single parked request, well before
+       * the parked requests are due to check for tasks again on their own.
+       */
+      availableTasks.set(1);
+      server.tasksAvailable(1);
+      Thread.sleep(300);
+      assertEquals(waiters + 1, requestTasksCount.get());
+      int done = 0;
+      for (Future<?> request : requests) {
+        if (request.isDone()) {
+          TaskDescription[] tasks = (TaskDescription[]) request.get();
+          assertEquals(jobId, tasks[0].getJobId());
+          done++;
+        }
+      }
+      assertEquals(1, done);
+    } finally {
+      service.close();
+    }
+  }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.server.scheduling;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ca.eandb.jdcp.job.TaskDescription;
+
+/**
+ * Compares the cost of the task bookkeeping in
+ * <code>PrioritySerialTaskScheduler</code> with that of the scheduler it
+ * replaced ({@link BaselinePrioritySerialTaskScheduler}), for a single job
+ * having a varying number of outstanding tasks.  Run using:
+ *
+ * <pre>
+ * mvn -pl jdcp-server -am test-compile
+ * mvn -pl jdcp-server exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=ca.eandb.jdcp.server.scheduling.TaskSchedulerBenchmark
+ * </pre>
+ *
+ * @author Brad Kimmel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskSchedulerBenchmark {
+
+  /** The number of outstanding tasks. */
+  @Param({ "1000", "10000", "100000" })
+  public int outstanding;
+
+  /** The <code>UUID</code> identifying the job. */
+  private final UUID jobId = UUID.randomUUID();
+
+  /** The scheduler in use before tasks were served under leases. */
+  private BaselinePrioritySerialTaskScheduler baseline;
+
+  /** The current scheduler. */
+  private PrioritySerialTaskScheduler leased;
+
+  /**
+   * A current scheduler for a job that cannot provide more tasks, and for
+   * which every outstanding task already has a speculative copy.
+   */
+  private PrioritySerialTaskScheduler exhausted;
+
+  /** The IDs of the outstanding tasks in {@link #baseline}. */
+  private int[] baselineTasks;
+
+  /** The IDs of the outstanding tasks in {@link #leased}. */
+  private int[] leasedTasks;
+
+  /** The ID to assign to the next task added to {@link #baseline}. */
+  private int nextBaselineTaskId;
+
+  /** The ID to assign to the next task added to {@link #leased}. */
+  private int nextLeasedTaskId;
+
+  /** Chooses which outstanding task to complete next. */
+  private final Random random = new Random(0);
+
+  @Setup
+  public void setUp() {
+    baseline = new BaselinePrioritySerialTaskScheduler();
+    leased = new PrioritySerialTaskScheduler();
+    exhausted = new PrioritySerialTaskScheduler();
+    baselineTasks = new int[outstanding];
+    leasedTasks = new int[outstanding];
+
+    for (int i = 0; i < outstanding; i++) {
+      baseline.add(new TaskDescription(jobId, i, null));
+      leased.add(new TaskDescription(jobId, i, null));
+      exhausted.add(new TaskDescription(jobId, i, null));
+    }
+    for (int i = 0; i < outstanding; i++) {
+      baselineTasks[i] = baseline.getNextTask().getTaskId();
+      leasedTasks[i] = leased.getNextTask("worker", null).getTaskId();
+      exhausted.getNextTask("worker", null);
+    }
+    nextBaselineTaskId = outstanding;
+    nextLeasedTaskId = outstanding;
+
+    exhausted.setJobExhausted(jobId, true);
+    for (int i = 0; i < outstanding; i++) {
+      exhausted.getNextTask("other", null);
+    }
+  }
+
+  /**
+   * Completes a random outstanding task, then adds and serves a new task in
+   * its place, using the baseline scheduler.
+   * @return The task served.
+   */
+  @Benchmark
+  public TaskDescription baselineCompleteAndReplace() {
+    int i = random.nextInt(outstanding);
+    baseline.remove(jobId, baselineTasks[i]);
+    baseline.add(new TaskDescription(jobId, nextBaselineTaskId++, null));
+    TaskDescription desc = baseline.getNextTask();
+    baselineTasks[i] = desc.getTaskId();
+    return desc;
+  }
+
+  /**
+   * Completes a random outstanding task, then adds and serves a new task in
+   * its place, using the current scheduler.
+   * @return The task served.
+   */
+  @Benchmark
+  public TaskDescription leasedCompleteAndReplace() {
+    int i = random.nextInt(outstanding);
+    leased.remove(jobId, leasedTasks[i]);
+    leased.add(new TaskDescription(jobId, nextLeasedTaskId++, null));
+    TaskDescription desc = leased.getNextTask("worker", null);
+    leasedTasks[i] = desc.getTaskId();
+    return desc;
+  }
+
+  /**
+   * Requests a task from a job that cannot provide more tasks and whose
+   * outstanding tasks have all been copied speculatively.  The baseline
+   * scheduler has no equivalent, as it serves outstanding tasks again
+   * immediately.
+   * @return The task served (always <code>null</code>).
+   */
+  @Benchmark
+  public TaskDescription leasedExhaustedRequest() {
+    return exhausted.getNextTask("other", null);
+  }
+
+  /**
+   * Runs the benchmarks.
+   * @param args Command line arguments (ignored).
+   * @throws RunnerException If the benchmarks fail to run.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(TaskSchedulerBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+}
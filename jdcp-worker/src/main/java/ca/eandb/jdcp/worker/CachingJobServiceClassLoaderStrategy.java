@@ -188,6 +188,23 @@ public abstract class CachingJobServiceClassLoaderStrategy implements ClassLoade
 
   }
 
+  /**
+   * Releases the resources held by this strategy on behalf of its job.  This
+   * should be called once the job has been completed, after which no further
+   * class definitions should be requested from this strategy.
+   */
+  public final void release() {
+    digestLookup.clear();
+    cacheRelease();
+  }
+
+  /**
+   * Releases any cached class definitions held on behalf of this strategy's
+   * job.  The default implementation does nothing.
+   */
+  protected void cacheRelease() {
+  }
+
   /**
    * Looks up a class definition in the cache.
    * @param name The fully qualified name of the class to look up.
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.worker;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks the unloading of job-scoped <code>ClassLoader</code>s after they
+ * have been released.  Released class loaders are registered with a
+ * <code>ReferenceQueue</code> so that their unloading is observed during the
+ * normal course of garbage collection, without forcing a collection.  Class
+ * loaders that remain reachable for longer than the leak threshold after
+ * they are released are reported as leaked.
+ * @author Brad Kimmel
+ */
+public final class ClassLoaderTracker {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(ClassLoaderTracker.class);
+
+  /**
+   * The default amount of time (in milliseconds) after a class loader is
+   * released before it is reported as leaked.
+   */
+  public static final long DEFAULT_LEAK_THRESHOLD = 10 * 60 * 1000;
+
+  /**
+   * A <code>PhantomReference</code> to a released <code>ClassLoader</code>.
+   */
+  private static final class Entry extends PhantomReference<ClassLoader> {
+
+    /** The <code>UUID</code> of the job the class loader was created for. */
+    private final UUID jobId;
+
+    /** The time (in milliseconds) at which the class loader was released. */
+    private final long releaseTime;
+
+    /** A value indicating whether this class loader has been reported. */
+    private boolean reported = false;
+
+    /**
+     * Creates a new <code>Entry</code>.
+     * @param jobId The <code>UUID</code> of the job the class loader was
+     *     created for.
+     * @param loader The released <code>ClassLoader</code>.
+     * @param queue The <code>ReferenceQueue</code> to register with.
+     */
+    public Entry(UUID jobId, ClassLoader loader,
+        ReferenceQueue<ClassLoader> queue) {
+      super(loader, queue);
+      this.jobId = jobId;
+      this.releaseTime = System.currentTimeMillis();
+    }
+
+  }
+
+  /** The <code>ReferenceQueue</code> on which unloaded loaders appear. */
+  private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+  /**
+   * The released class loaders that have not yet been unloaded.  The
+   * references must remain strongly reachable until they are enqueued.
+   */
+  private final Set<Entry> released = new HashSet<Entry>();
+
+  /**
+   * The amount of time (in milliseconds) after a class loader is released
+   * before it is reported as leaked.
+   */
+  private volatile long leakThreshold = DEFAULT_LEAK_THRESHOLD;
+
+  /**
+   * Sets the amount of time after a class loader is released before it is
+   * reported as leaked.
+   * @param leakThreshold The leak threshold, in milliseconds.
+   * @throws IllegalArgumentException If <code>leakThreshold</code> is
+   *     negative.
+   */
+  public void setLeakThreshold(long leakThreshold) {
+    if (leakThreshold < 0) {
+      throw new IllegalArgumentException("leakThreshold must be non-negative");
+    }
+    this.leakThreshold = leakThreshold;
+  }
+
+  /**
+   * Begins tracking a released <code>ClassLoader</code>.  The caller must
+   * not retain any reference to the loader (or to any class or object it
+   * has loaded) after calling this method.
+   * @param jobId The <code>UUID</code> of the job the class loader was
+   *     created for.
+   * @param loader The released <code>ClassLoader</code>.
+   */
+  public synchronized void track(UUID jobId, ClassLoader loader) {
+    if (loader != null) {
+      released.add(new Entry(jobId, loader, queue));
+    }
+  }
+
+  /**
+   * Processes the class loaders that have been unloaded since the last call
+   * and reports any class loaders that have newly exceeded the leak
+   * threshold.  This method does not block.
+   */
+  public synchronized void poll() {
+    Reference<? extends ClassLoader> ref;
+    while ((ref = queue.poll()) != null) {
+      Entry entry = (Entry) ref;
+      released.remove(entry);
+      entry.clear();
+      if (entry.reported) {
+        logger.info(String.format(
+            "Leaked class loader for job %s was eventually unloaded",
+            entry.jobId));
+      } else if (logger.isDebugEnabled()) {
+        logger.debug(String.format("Class loader for job %s unloaded after %d ms",
+            entry.jobId, System.currentTimeMillis() - entry.releaseTime));
+      }
+    }
+
+    long cutoff = System.currentTimeMillis() - leakThreshold;
+    for (Entry entry : released) {
+      if (!entry.reported && entry.releaseTime < cutoff) {
+        entry.reported = true;
+        logger.warn(String.format(
+            "Class loader for job %s has not been unloaded %d seconds after it was released",
+            entry.jobId, (System.currentTimeMillis() - entry.releaseTime) / 1000));
+      }
+    }
+  }
+
+  /**
+   * Gets the IDs of the jobs whose class loaders have been released but have
+   * not been unloaded within the leak threshold.
+   * @return A <code>List</code> of the <code>UUID</code>s of the jobs whose
+   *     class loaders appear to have leaked.
+   */
+  public synchronized List<UUID> getLeakedJobIds() {
+    long cutoff = System.currentTimeMillis() - leakThreshold;
+    List<UUID> leaked = new ArrayList<UUID>();
+    for (Entry entry : released) {
+      if (entry.releaseTime < cutoff) {
+        leaked.add(entry.jobId);
+      }
+    }
+    return leaked;
+  }
+
+  /**
+   * Gets the number of released class loaders that have not yet been
+   * unloaded.
+   * @return The number of class loaders pending unloading.
+   */
+  public synchronized int getPendingCount() {
+    return released.size();
+  }
+
+}
@@ -26,7 +26,9 @@
 package ca.eandb.jdcp.worker;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import ca.eandb.jdcp.remote.TaskService;
@@ -43,6 +45,15 @@ public final class InternalCachingJobServiceClassLoaderStrategy extends
   /** A <code>Map</code> storing cached class definitions. */
   private static final Map<String, byte[]> cache = new HashMap<String, byte[]>();
 
+  /**
+   * A <code>Map</code> storing the number of live strategies referring to
+   * each cached class definition.
+   */
+  private static final Map<String, Integer> references = new HashMap<String, Integer>();
+
+  /** The keys of the cached class definitions used by this strategy. */
+  private final Set<String> keys = new HashSet<String>();
+
   /**
    * Creates a new <code>InternalCachingJobServiceClassLoaderStrategy</code>.
    * @param service The <code>TaskService</code> from which to obtain class
@@ -65,14 +76,57 @@ public final class InternalCachingJobServiceClassLoaderStrategy extends
     return name + "$$" + StringUtil.toHex(digest);
   }
 
+  /**
+   * Records that this strategy refers to the cached class definition with
+   * the specified key.  The caller must hold the lock on {@link #cache}.
+   * @param key The key of the cached class definition.
+   */
+  private void addReference(String key) {
+    if (keys.add(key)) {
+      Integer count = references.get(key);
+      references.put(key, (count != null) ? count + 1 : 1);
+    }
+  }
+
   @Override
   protected byte[] cacheLookup(String name, byte[] digest) {
-    return cache.get(getKey(name, digest));
+    String key = getKey(name, digest);
+    synchronized (cache) {
+      byte[] def = cache.get(key);
+      if (def != null) {
+        addReference(key);
+      }
+      return def;
+    }
   }
 
   @Override
   protected void cacheStore(String name, byte[] digest, byte[] def) {
-    cache.put(getKey(name, digest), def);
+    String key = getKey(name, digest);
+    synchronized (cache) {
+      cache.put(key, def);
+      addReference(key);
+    }
+  }
+
+  /**
+   * Drops the cached class definitions that are no longer referred to by any
+   * live strategy.
+   */
+  @Override
+  protected void cacheRelease() {
+    synchronized (cache) {
+      for (String key : keys) {
+        Integer count = references.get(key);
+        if (count == null || count <= 1) {
+          references.remove(key);
+          cache.remove(key);
+        } else {
+          references.put(key, count - 1);
+        }
+      }
+      keys.clear();
+    }
   }
 
 }
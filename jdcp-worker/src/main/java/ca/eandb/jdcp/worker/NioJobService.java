@@ -0,0 +1,800 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.login.LoginException;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.jdcp.JdcpUtil;
+import ca.eandb.jdcp.job.JobExecutionException;
+import ca.eandb.jdcp.job.ParallelizableJob;
+import ca.eandb.jdcp.job.TaskDescription;
+import ca.eandb.jdcp.job.TaskWorker;
+import ca.eandb.jdcp.remote.JobService;
+import ca.eandb.jdcp.remote.JobStatus;
+import ca.eandb.jdcp.remote.PayloadCompressor;
+import ca.eandb.jdcp.remote.ProtocolVersionException;
+import ca.eandb.jdcp.remote.TaskProtocol;
+import ca.eandb.jdcp.remote.TaskService;
+import ca.eandb.util.rmi.Serialized;
+
+/**
+ * A <code>JobService</code> that makes the <code>TaskService</code> calls
+ * over a single persistent connection to a <code>NioTaskServer</code>,
+ * using the binary framing described by {@link TaskProtocol}.  Calls from
+ * several threads are pipelined over the connection: each thread sends its
+ * request without waiting for the others to complete, and a single reader
+ * thread hands each response to the thread that is waiting for it.  The
+ * remaining <code>JobService</code> methods are forwarded to a delegate
+ * <code>JobService</code>, if one is provided.  Task, result and task
+ * worker payloads are compressed if the server agrees to it when the
+ * connection is established.
+ *
+ * If the connection is lost, all pending and subsequent calls throw a
+ * <code>ConnectException</code>, so that a
+ * <code>ReconnectingJobService</code> will establish a new connection.
+ * @author Brad Kimmel
+ * @see ca.eandb.jdcp.server.NioTaskServer
+ */
+public final class NioJobService implements JobService, Closeable {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(NioJobService.class);
+
+  /**
+   * A call that is waiting for its response.
+   */
+  private static final class Call {
+
+    /** A value indicating if the call has completed. */
+    public boolean done = false;
+
+    /** The status of the call. */
+    public byte status;
+
+    /** The body of the response. */
+    public byte[] body;
+
+    /**
+     * The exception that caused the connection to be lost before the
+     * response was received, or <code>null</code> if the response was
+     * received.
+     */
+    public IOException failure = null;
+
+  }
+
+  /** The channel for the connection to the server. */
+  private final SocketChannel channel;
+
+  /**
+   * The <code>JobService</code> to forward calls that are not part of the
+   * <code>TaskService</code> interface to (may be <code>null</code>).
+   */
+  private final JobService delegate;
+
+  /** The calls that are waiting for their responses, by request ID. */
+  private final Map<Integer, Call> calls = new HashMap<Integer, Call>();
+
+  /** The ID to assign to the next request. */
+  private int nextRequestId = 1;
+
+  /**
+   * The exception that caused the connection to be lost, or
+   * <code>null</code> if the connection is open.
+   */
+  private IOException failure = null;
+
+  /** The lock to hold while writing a request to the channel. */
+  private final Object writeLock = new Object();
+
+  /**
+   * The <code>PayloadCompressor</code> to use for payloads, or
+   * <code>null</code> if the server did not agree to compression.
+   */
+  private volatile PayloadCompressor compressor = null;
+
+  /**
+   * The <code>UUID</code>s of the jobs that the results being uploaded
+   * belong to, by upload ID.  These are used only to attribute compression
+   * statistics to the correct job.
+   */
+  private final Map<Long, UUID> uploadJobIds = new ConcurrentHashMap<Long, UUID>();
+
+  /**
+   * Creates a new <code>NioJobService</code>.
+   * @param channel The connected channel.
+   * @param delegate The <code>JobService</code> to forward calls that are
+   *     not part of the <code>TaskService</code> interface to (may be
+   *     <code>null</code>).
+   */
+  private NioJobService(SocketChannel channel, JobService delegate) {
+    this.channel = channel;
+    this.delegate = delegate;
+
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        readResponses();
+      }
+    }, "NioJobService");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Connects and authenticates to a <code>NioTaskServer</code>, requesting
+   * that payloads be compressed.
+   * @param address The address of the server.
+   * @param username The user name to log in with.
+   * @param password The password to log in with.
+   * @param delegate The <code>JobService</code> to forward calls that are
+   *     not part of the <code>TaskService</code> interface to (may be
+   *     <code>null</code>).
+   * @return The connected <code>NioJobService</code>.
+   * @throws IOException If the connection cannot be established.
+   * @throws LoginException If authentication fails.
+   * @throws ProtocolVersionException If the server is incompatible with
+   *     this client.
+   */
+  public static NioJobService connect(InetSocketAddress address,
+      String username, String password, JobService delegate)
+      throws IOException, LoginException, ProtocolVersionException {
+    return connect(address, username, password, delegate,
+        new PayloadCompressor());
+  }
+
+  /**
+   * Connects and authenticates to a <code>NioTaskServer</code>.
+   * @param address The address of the server.
+   * @param username The user name to log in with.
+   * @param password The password to log in with.
+   * @param delegate The <code>JobService</code> to forward calls that are
+   *     not part of the <code>TaskService</code> interface to (may be
+   *     <code>null</code>).
+   * @param compressor The <code>PayloadCompressor</code> to use if the
+   *     server agrees to compress payloads, or <code>null</code> to request
+   *     that payloads not be compressed.
+   * @return The connected <code>NioJobService</code>.
+   * @throws IOException If the connection cannot be established.
+   * @throws LoginException If authentication fails.
+   * @throws ProtocolVersionException If the server is incompatible with
+   *     this client.
+   */
+  public static NioJobService connect(InetSocketAddress address,
+      String username, String password, JobService delegate,
+      PayloadCompressor compressor)
+      throws IOException, LoginException, ProtocolVersionException {
+    SocketChannel channel = SocketChannel.open(address);
+    channel.socket().setTcpNoDelay(true);
+    channel.socket().setKeepAlive(true);
+
+    NioJobService service = new NioJobService(channel, delegate);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      TaskProtocol.writeString(out, username);
+      TaskProtocol.writeString(out, password);
+      TaskProtocol.writeUUID(out, JdcpUtil.PROTOCOL_VERSION_ID);
+      out.writeByte(compressor != null ? TaskProtocol.ENCODING_DEFLATE
+          : TaskProtocol.ENCODING_RAW);
+      out.flush();
+      DataInputStream in = service.call(TaskProtocol.AUTHENTICATE,
+          bytes.toByteArray());
+      if (in.readByte() == TaskProtocol.ENCODING_DEFLATE) {
+        if (compressor == null) {
+          throw new IOException("Server chose an encoding that was not requested");
+        }
+        service.compressor = compressor;
+      }
+    } catch (ServerException e) {
+      service.close();
+      if (e.getCause() instanceof LoginException) {
+        throw (LoginException) e.getCause();
+      } else if (e.getCause() instanceof ProtocolVersionException) {
+        throw (ProtocolVersionException) e.getCause();
+      }
+      throw e;
+    } catch (IOException e) {
+      service.close();
+      throw e;
+    } catch (RuntimeException e) {
+      service.close();
+      throw e;
+    }
+    return service;
+  }
+
+  /**
+   * Reads responses and hands them to the waiting calls until the
+   * connection is lost.
+   */
+  private void readResponses() {
+    ByteBuffer header = ByteBuffer.allocate(4 + TaskProtocol.HEADER_LENGTH);
+    try {
+      while (true) {
+        header.clear();
+        readFully(header);
+        int length = header.getInt();
+        int requestId = header.getInt();
+        byte status = header.get();
+        if (length < TaskProtocol.HEADER_LENGTH
+            || length > TaskProtocol.MAX_FRAME_LENGTH) {
+          throw new IOException("Invalid frame length");
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length - TaskProtocol.HEADER_LENGTH);
+        readFully(body);
+
+        synchronized (calls) {
+          Call call = calls.remove(requestId);
+          if (call != null) {
+            call.status = status;
+            call.body = body.array();
+            call.done = true;
+            calls.notifyAll();
+          }
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Fills a buffer from the channel.
+   * @param buf The <code>ByteBuffer</code> to fill.  On return, the buffer
+   *     is flipped and ready to be read.
+   * @throws IOException If an error occurs while reading, or if the
+   *     connection is closed before the buffer is filled.
+   */
+  private void readFully(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        throw new EOFException("Connection closed by server");
+      }
+    }
+    buf.flip();
+  }
+
+  /**
+   * Marks the connection as lost and fails the pending calls.
+   * @param e The exception that caused the connection to be lost.
+   */
+  private void fail(IOException e) {
+    synchronized (calls) {
+      if (failure == null) {
+        failure = e;
+        if (logger.isDebugEnabled()) {
+          logger.debug("Connection to task server lost", e);
+        }
+      }
+      for (Call call : calls.values()) {
+        call.failure = failure;
+        call.done = true;
+      }
+      calls.clear();
+      calls.notifyAll();
+    }
+    try {
+      channel.close();
+    } catch (IOException e1) {
+      /* nothing to do. */
+    }
+  }
+
+  /**
+   * Sends a request and waits for the response.
+   * @param code The method being called.
+   * @param body The body of the request.
+   * @return A <code>DataInputStream</code> from which to read the body of
+   *     the response.
+   * @throws RemoteException If the connection is lost, or if the call
+   *     throws a checked exception on the server.
+   */
+  private DataInputStream call(byte code, byte[] body) throws RemoteException {
+    Call call = new Call();
+    int requestId;
+    synchronized (calls) {
+      if (failure != null) {
+        throw new ConnectException("Connection to task server lost", failure);
+      }
+      requestId = nextRequestId++;
+      calls.put(requestId, call);
+    }
+
+    try {
+      ByteBuffer frame = TaskProtocol.createFrame(requestId, code, body);
+      synchronized (writeLock) {
+        while (frame.hasRemaining()) {
+          channel.write(frame);
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+
+    boolean interrupted = false;
+    synchronized (calls) {
+      while (!call.done) {
+        try {
+          calls.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (call.failure != null) {
+      throw new ConnectException("Connection to task server lost", call.failure);
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(call.body));
+    if (call.status != TaskProtocol.STATUS_OK) {
+      Object e;
+      try {
+        e = TaskProtocol.readObject(in);
+      } catch (IOException ioe) {
+        throw new ServerException("Could not decode exception", ioe);
+      }
+      if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      } else if (e instanceof Error) {
+        throw (Error) e;
+      } else if (e instanceof RemoteException) {
+        throw (RemoteException) e;
+      }
+      throw new ServerException("Call failed on task server", (Exception) e);
+    }
+    return in;
+  }
+
+  /**
+   * Gets the <code>PayloadCompressor</code> used to compress payloads on
+   * this connection.  It reports the compression achieved for each job.
+   * @return The <code>PayloadCompressor</code>, or <code>null</code> if
+   *     payloads are not compressed.
+   */
+  public PayloadCompressor getCompressor() {
+    return compressor;
+  }
+
+  /**
+   * Closes the connection to the server.
+   */
+  @Override
+  public void close() {
+    fail(new IOException("Connection closed"));
+  }
+
+  /**
+   * Gets the delegate to forward a call to.
+   * @return The delegate <code>JobService</code>.
+   * @throws UnsupportedOperationException If there is no delegate.
+   */
+  private JobService getDelegate() {
+    if (delegate == null) {
+      throw new UnsupportedOperationException(
+          "Only TaskService methods are supported by this connection");
+    }
+    return delegate;
+  }
+
+  /**
+   * Encodes the body of a request.
+   * @author Brad Kimmel
+   */
+  private static final class Request {
+
+    /** The buffer holding the body. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    /** The <code>DataOutputStream</code> to write the body to. */
+    public final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * Gets the encoded body.
+     * @return The encoded body.
+     */
+    public byte[] toByteArray() {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        /* cannot happen for a ByteArrayOutputStream. */
+      }
+      return bytes.toByteArray();
+    }
+
+  }
+
+  /**
+   * Converts an exception thrown while encoding a request or decoding a
+   * response to a <code>RemoteException</code>.
+   * @param e The <code>IOException</code> that was thrown.
+   * @return The <code>RemoteException</code> to throw.
+   */
+  private static RemoteException marshalError(IOException e) {
+    return new ServerException("Could not encode or decode call", e);
+  }
+
+  @Override
+  public Serialized<TaskWorker> getTaskWorker(UUID jobId)
+      throws SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUID(req.out, jobId);
+      DataInputStream in = call(TaskProtocol.GET_TASK_WORKER, req.toByteArray());
+      return TaskProtocol.readSerializedPayload(in, jobId, compressor);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public TaskDescription requestTask() throws SecurityException,
+      RemoteException {
+    try {
+      DataInputStream in = call(TaskProtocol.REQUEST_TASK, new byte[0]);
+      return TaskProtocol.readTaskDescription(in, compressor);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      req.out.writeInt(maxTasks);
+      TaskProtocol.writeUUIDs(req.out, preferredJobIds);
+      DataInputStream in = call(TaskProtocol.REQUEST_TASKS, req.toByteArray());
+      TaskDescription[] tasks = new TaskDescription[in.readInt()];
+      for (int i = 0; i < tasks.length; i++) {
+        tasks[i] = TaskProtocol.readTaskDescription(in, compressor);
+      }
+      return tasks;
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      req.out.writeInt(maxTasks);
+      TaskProtocol.writeUUIDs(req.out, preferredJobIds);
+      req.out.writeLong(timeoutMillis);
+      DataInputStream in = call(TaskProtocol.REQUEST_TASKS_WAIT, req.toByteArray());
+      TaskDescription[] tasks = new TaskDescription[in.readInt()];
+      for (int i = 0; i < tasks.length; i++) {
+        tasks[i] = TaskProtocol.readTaskDescription(in, compressor);
+      }
+      return tasks;
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public void submitTaskResults(UUID jobId, int taskId,
+      Serialized<Object> results) throws SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUID(req.out, jobId);
+      req.out.writeInt(taskId);
+      TaskProtocol.writePayload(req.out, jobId, results, compressor);
+      call(TaskProtocol.SUBMIT_TASK_RESULTS, req.toByteArray());
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUIDs(req.out, jobIds);
+      TaskProtocol.writeInts(req.out, taskIds);
+      req.out.writeInt(results.length);
+      for (int i = 0; i < results.length; i++) {
+        UUID jobId = (jobIds != null && i < jobIds.length) ? jobIds[i] : null;
+        TaskProtocol.writePayload(req.out, jobId, results[i], compressor);
+      }
+      call(TaskProtocol.SUBMIT_TASK_RESULTS_BATCH, req.toByteArray());
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public void reportException(UUID jobId, int taskId, Exception e)
+      throws SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUID(req.out, jobId);
+      req.out.writeInt(taskId);
+      try {
+        TaskProtocol.writeObject(req.out, e);
+      } catch (IOException ioe) {
+        req = new Request();
+        TaskProtocol.writeUUID(req.out, jobId);
+        req.out.writeInt(taskId);
+        TaskProtocol.writeObject(req.out, new RemoteException(e.toString()));
+      }
+      call(TaskProtocol.REPORT_EXCEPTION, req.toByteArray());
+    } catch (RemoteException re) {
+      throw re;
+    } catch (IOException ioe) {
+      throw marshalError(ioe);
+    }
+  }
+
+  @Override
+  public long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUID(req.out, jobId);
+      req.out.writeInt(taskId);
+      DataInputStream in = call(TaskProtocol.BEGIN_RESULTS_UPLOAD, req.toByteArray());
+      long uploadId = in.readLong();
+      if (uploadId != 0) {
+        uploadJobIds.put(uploadId, jobId);
+      }
+      return uploadId;
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      UUID jobId = uploadJobIds.get(uploadId);
+      Request req = new Request();
+      req.out.writeLong(uploadId);
+      req.out.writeLong(offset);
+      TaskProtocol.writeUUID(req.out, jobId);
+      TaskProtocol.writeCompressedBytes(req.out, jobId, chunk, compressor);
+      call(TaskProtocol.UPLOAD_RESULTS_CHUNK, req.toByteArray());
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      req.out.writeLong(uploadId);
+      req.out.writeBoolean(commit);
+      call(TaskProtocol.END_RESULTS_UPLOAD, req.toByteArray());
+      uploadJobIds.remove(uploadId);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public BitSet getFinishedTasks(UUID[] jobIds, int[] taskIds)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeUUIDs(req.out, jobIds);
+      TaskProtocol.writeInts(req.out, taskIds);
+      DataInputStream in = call(TaskProtocol.GET_FINISHED_TASKS, req.toByteArray());
+      return TaskProtocol.readBitSet(in);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public byte[] getClassDigest(String name, UUID jobId)
+      throws SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeString(req.out, name);
+      TaskProtocol.writeUUID(req.out, jobId);
+      DataInputStream in = call(TaskProtocol.GET_CLASS_DIGEST, req.toByteArray());
+      return TaskProtocol.readByteArray(in);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public byte[] getClassDefinition(String name, UUID jobId)
+      throws SecurityException, RemoteException {
+    try {
+      Request req = new Request();
+      TaskProtocol.writeString(req.out, name);
+      TaskProtocol.writeUUID(req.out, jobId);
+      DataInputStream in = call(TaskProtocol.GET_CLASS_DEFINITION, req.toByteArray());
+      return TaskProtocol.readByteArray(in);
+    } catch (RemoteException e) {
+      throw e;
+    } catch (IOException e) {
+      throw marshalError(e);
+    }
+  }
+
+  @Override
+  public UUID createJob(String description) throws SecurityException,
+      RemoteException {
+    return getDelegate().createJob(description);
+  }
+
+  @Override
+  public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
+      throws IllegalArgumentException, SecurityException,
+      ClassNotFoundException, RemoteException, JobExecutionException {
+    getDelegate().submitJob(job, jobId);
+  }
+
+  @Override
+  public UUID submitJob(Serialized<ParallelizableJob> job, String description)
+      throws SecurityException, ClassNotFoundException, RemoteException,
+      JobExecutionException {
+    return getDelegate().submitJob(job, description);
+  }
+
+  @Override
+  public void cancelJob(UUID jobId) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+    getDelegate().cancelJob(jobId);
+  }
+
+  @Override
+  public byte[] getClassDigest(String name) throws SecurityException,
+      RemoteException {
+    return getDelegate().getClassDigest(name);
+  }
+
+  @Override
+  public void setClassDefinition(String name, byte[] def)
+      throws SecurityException, RemoteException {
+    getDelegate().setClassDefinition(name, def);
+  }
+
+  @Override
+  public void setClassDefinition(String name, UUID jobId, byte[] def)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    getDelegate().setClassDefinition(name, jobId, def);
+  }
+
+  @Override
+  public void setIdleTime(int idleSeconds) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+    getDelegate().setIdleTime(idleSeconds);
+  }
+
+  @Override
+  public void setJobPriority(UUID jobId, int priority)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    getDelegate().setJobPriority(jobId, priority);
+  }
+
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    getDelegate().setJobDeadline(jobId, deadline);
+  }
+
+  @Override
+  public void registerTaskService(String name, TaskService service)
+      throws SecurityException, RemoteException {
+    getDelegate().registerTaskService(name, service);
+  }
+
+  @Override
+  public void unregisterTaskService(String name)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    getDelegate().unregisterTaskService(name);
+  }
+
+  @Override
+  public JobStatus waitForJobStatusChange(long lastEventId, long timeoutMillis)
+      throws SecurityException, RemoteException {
+    return getDelegate().waitForJobStatusChange(lastEventId, timeoutMillis);
+  }
+
+  @Override
+  public JobStatus[] waitForJobStatusChanges(long lastEventId, int maxEvents,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+    return getDelegate().waitForJobStatusChanges(lastEventId, maxEvents,
+        timeoutMillis);
+  }
+
+  @Override
+  public JobStatus waitForJobStatusChange(UUID jobId, long lastEventId,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+    return getDelegate().waitForJobStatusChange(jobId, lastEventId,
+        timeoutMillis);
+  }
+
+  @Override
+  public JobStatus getJobStatus(UUID jobId) throws IllegalArgumentException,
+      SecurityException, RemoteException {
+    return getDelegate().getJobStatus(jobId);
+  }
+
+}
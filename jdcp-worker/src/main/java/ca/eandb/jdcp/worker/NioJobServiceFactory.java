@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.worker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import javax.security.auth.login.LoginException;
+
+import org.apache.log4j.Logger;
+
+import ca.eandb.jdcp.remote.JobService;
+import ca.eandb.jdcp.remote.PayloadCompressor;
+import ca.eandb.jdcp.remote.ProtocolVersionException;
+import ca.eandb.jdcp.remote.TaskProtocol;
+
+/**
+ * A <code>JobServiceFactory</code> that connects to a
+ * <code>NioTaskServer</code> for <code>TaskService</code> calls, and to
+ * another <code>JobServiceFactory</code> (typically an RMI one) for the
+ * remaining <code>JobService</code> calls.  If the binary transport is not
+ * available, the <code>JobService</code> provided by the other factory is
+ * used for all calls.
+ * @see NioJobService
+ * @author Brad Kimmel
+ */
+public final class NioJobServiceFactory implements JobServiceFactory {
+
+  /** The <code>Logger</code> for this class. */
+  private static final Logger logger = Logger.getLogger(NioJobServiceFactory.class);
+
+  /**
+   * The <code>JobServiceFactory</code> to use to connect to the
+   * <code>JobService</code> for calls that are not part of the
+   * <code>TaskService</code> interface.
+   */
+  private final JobServiceFactory delegateFactory;
+
+  /** The address of the <code>NioTaskServer</code>. */
+  private final InetSocketAddress address;
+
+  /** The user name to log in with. */
+  private final String username;
+
+  /** The password to log in with. */
+  private final String password;
+
+  /**
+   * The <code>PayloadCompressor</code> to use for payloads, or
+   * <code>null</code> if payloads are not to be compressed.  The same
+   * instance is used across reconnections, so that it accumulates
+   * statistics for the life of each job.
+   */
+  private final PayloadCompressor compressor;
+
+  /**
+   * Creates a new <code>NioJobServiceFactory</code>.
+   * @param delegateFactory The <code>JobServiceFactory</code> to use to
+   *     connect to the <code>JobService</code> for calls that are not part
+   *     of the <code>TaskService</code> interface.
+   * @param address The address of the <code>NioTaskServer</code>.
+   * @param username The user name to log in with.
+   * @param password The password to log in with.
+   * @param compressor The <code>PayloadCompressor</code> to use if the
+   *     server agrees to compress payloads, or <code>null</code> to request
+   *     that payloads not be compressed.
+   */
+  public NioJobServiceFactory(JobServiceFactory delegateFactory,
+      InetSocketAddress address, String username, String password,
+      PayloadCompressor compressor) {
+    this.delegateFactory = delegateFactory;
+    this.address = address;
+    this.username = username;
+    this.password = password;
+    this.compressor = compressor;
+  }
+
+  /**
+   * Creates a new <code>NioJobServiceFactory</code> that requests that
+   * payloads be compressed.
+   * @param delegateFactory The <code>JobServiceFactory</code> to use to
+   *     connect to the <code>JobService</code> for calls that are not part
+   *     of the <code>TaskService</code> interface.
+   * @param address The address of the <code>NioTaskServer</code>.
+   * @param username The user name to log in with.
+   * @param password The password to log in with.
+   */
+  public NioJobServiceFactory(JobServiceFactory delegateFactory,
+      InetSocketAddress address, String username, String password) {
+    this(delegateFactory, address, username, password,
+        new PayloadCompressor());
+  }
+
+  /**
+   * Creates a new <code>NioJobServiceFactory</code> that connects to a
+   * <code>NioTaskServer</code> on the default port.
+   * @param delegateFactory The <code>JobServiceFactory</code> to use to
+   *     connect to the <code>JobService</code> for calls that are not part
+   *     of the <code>TaskService</code> interface.
+   * @param host The name of the host to connect to.
+   * @param username The user name to log in with.
+   * @param password The password to log in with.
+   */
+  public NioJobServiceFactory(JobServiceFactory delegateFactory, String host,
+      String username, String password) {
+    this(delegateFactory, new InetSocketAddress(host,
+        TaskProtocol.DEFAULT_PORT), username, password);
+  }
+
+  /**
+   * Gets the <code>PayloadCompressor</code> used to compress payloads.  It
+   * reports the compression achieved for each job.
+   * @return The <code>PayloadCompressor</code>, or <code>null</code> if
+   *     payloads are not to be compressed.
+   */
+  public PayloadCompressor getCompressor() {
+    return compressor;
+  }
+
+  @Override
+  public JobService connect() {
+    JobService delegate = delegateFactory.connect();
+    if (delegate == null) {
+      return null;
+    }
+    try {
+      return NioJobService.connect(address, username, password, delegate,
+          compressor);
+    } catch (IOException e) {
+      logger.warn("Could not connect to task server at " + address
+          + ", falling back to default transport", e);
+    } catch (LoginException e) {
+      logger.warn("Authentication failed for task server at " + address
+          + ", falling back to default transport", e);
+    } catch (ProtocolVersionException e) {
+      logger.warn("Task server at " + address
+          + " is incompatible, falling back to default transport", e);
+    }
+    return delegate;
+  }
+
+}
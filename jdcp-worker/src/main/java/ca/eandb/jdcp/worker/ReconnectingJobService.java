@@ -33,6 +33,7 @@ import java.rmi.RemoteException;
 import java.rmi.UnknownHostException;
 import java.rmi.UnmarshalException;
 import java.util.BitSet;
+import java.util.Date;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
@@ -59,6 +60,12 @@ public final class ReconnectingJobService implements JobService {
 
   private JobService service;
 
+  /**
+   * The connection to a service that does not support uploading task
+   * results in chunks, if any.  Guarded by <code>this</code>.
+   */
+  private JobService uploadsUnsupported = null;
+
 
   public ReconnectingJobService(JobServiceFactory factory) {
     this.factory = factory;
@@ -71,6 +78,27 @@ public final class ReconnectingJobService implements JobService {
     return service;
   }
 
+  /**
+   * Gets a value indicating if task results may be uploaded in chunks to
+   * the service currently connected to.  This is <code>false</code> once
+   * the service has rejected an upload because it predates them, until a
+   * new connection is made.
+   * @return A value indicating if task results may be uploaded in chunks.
+   * @see #beginTaskResultsUpload(UUID, int)
+   */
+  public synchronized boolean isResultUploadSupported() {
+    return service == null || service != uploadsUnsupported;
+  }
+
+  /**
+   * Records that a service does not support uploading task results in
+   * chunks.
+   * @param service The connection to the service.
+   */
+  private synchronized void setResultUploadUnsupported(JobService service) {
+    uploadsUnsupported = service;
+  }
+
   @Override
   public void cancelJob(UUID jobId) throws IllegalArgumentException,
       SecurityException {
@@ -182,6 +210,34 @@ public final class ReconnectingJobService implements JobService {
     }
   }
 
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds)
+      throws IllegalArgumentException, SecurityException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        return service.requestTasks(maxTasks, preferredJobIds);
+      } catch (RemoteException e) {
+        logger.error("Lost connection", e);
+      }
+    }
+  }
+
+  @Override
+  public TaskDescription[] requestTasks(int maxTasks, UUID[] preferredJobIds,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        return service.requestTasks(maxTasks, preferredJobIds, timeoutMillis);
+      } catch (RemoteException e) {
+        logger.error("Lost connection", e);
+      }
+    }
+  }
+
   @Override
   public void setClassDefinition(String name, byte[] def)
       throws SecurityException {
@@ -242,6 +298,21 @@ public final class ReconnectingJobService implements JobService {
     }
   }
 
+  @Override
+  public void setJobDeadline(UUID jobId, Date deadline)
+      throws IllegalArgumentException, SecurityException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        service.setJobDeadline(jobId, deadline);
+        return;
+      } catch (RemoteException e) {
+        logger.error("Lost connection", e);
+      }
+    }
+  }
+
   @Override
   public void submitJob(Serialized<ParallelizableJob> job, UUID jobId)
       throws IllegalArgumentException, SecurityException,
@@ -288,6 +359,22 @@ public final class ReconnectingJobService implements JobService {
     }
   }
 
+  @Override
+  public void submitTaskResults(UUID[] jobIds, int[] taskIds,
+      Serialized<Object>[] results) throws IllegalArgumentException,
+      SecurityException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        service.submitTaskResults(jobIds, taskIds, results);
+        return;
+      } catch (RemoteException e) {
+        logger.error("Lost connection", e);
+      }
+    }
+  }
+
   @Override
   public BitSet getFinishedTasks(UUID[] jobIds, int[] taskIds)
       throws IllegalArgumentException, SecurityException, RemoteException {
@@ -314,6 +401,90 @@ public final class ReconnectingJobService implements JobService {
     }
   }
 
+  @Override
+  public long beginTaskResultsUpload(UUID jobId, int taskId)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        return service.beginTaskResultsUpload(jobId, taskId);
+      } catch (NoSuchObjectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectIOException e) {
+        logger.error("Lost connection", e);
+      } catch (UnknownHostException e) {
+        logger.error("Lost connection", e);
+      } catch (UnmarshalException e) {
+        if (e.getCause() instanceof EOFException) {
+          logger.error("Lost connection", e);
+        } else {
+          if (e.getCause() == null) {
+            // The remote object does not recognize the method.
+            setResultUploadUnsupported(service);
+          }
+          throw e;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void uploadTaskResultsChunk(long uploadId, long offset, byte[] chunk)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        service.uploadTaskResultsChunk(uploadId, offset, chunk);
+        return;
+      } catch (NoSuchObjectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectIOException e) {
+        logger.error("Lost connection", e);
+      } catch (UnknownHostException e) {
+        logger.error("Lost connection", e);
+      } catch (UnmarshalException e) {
+        if (e.getCause() instanceof EOFException) {
+          logger.error("Lost connection", e);
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void endTaskResultsUpload(long uploadId, boolean commit)
+      throws IllegalArgumentException, SecurityException, RemoteException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        service.endTaskResultsUpload(uploadId, commit);
+        return;
+      } catch (NoSuchObjectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectIOException e) {
+        logger.error("Lost connection", e);
+      } catch (UnknownHostException e) {
+        logger.error("Lost connection", e);
+      } catch (UnmarshalException e) {
+        if (e.getCause() instanceof EOFException) {
+          logger.error("Lost connection", e);
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
   @Override
   public void registerTaskService(String name, TaskService taskService)
       throws SecurityException, RemoteException {
@@ -394,6 +565,33 @@ public final class ReconnectingJobService implements JobService {
     }
   }
 
+  @Override
+  public JobStatus[] waitForJobStatusChanges(long lastEventId, int maxEvents,
+      long timeoutMillis) throws IllegalArgumentException, SecurityException,
+      RemoteException {
+    JobService service = null;
+    while (true) {
+      try {
+        service = getJobService(service);
+        return service.waitForJobStatusChanges(lastEventId, maxEvents, timeoutMillis);
+      } catch (NoSuchObjectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectException e) {
+        logger.error("Lost connection", e);
+      } catch (ConnectIOException e) {
+        logger.error("Lost connection", e);
+      } catch (UnknownHostException e) {
+        logger.error("Lost connection", e);
+      } catch (UnmarshalException e) {
+        if (e.getCause() instanceof EOFException) {
+          logger.error("Lost connection", e);
+        } else {
+          throw e;
+        }
+      }
+    }
+  }
+
   @Override
   public JobStatus waitForJobStatusChange(UUID jobId, long lastEventId,
       long timeoutMillis) throws IllegalArgumentException,
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2008 Bradley W. Kimmel
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ca.eandb.jdcp.worker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import ca.eandb.jdcp.remote.TaskService;
+
+/**
+ * An <code>OutputStream</code> that uploads the serialized results of a
+ * task to a <code>TaskService</code> in chunks, so that the results need
+ * never be held in memory in their entirety.  The upload does not begin
+ * until the first chunk is full, so that small results may instead be
+ * submitted using {@link TaskService#submitTaskResults(UUID, int,
+ * ca.eandb.util.rmi.Serialized)}.
+ * @author Brad Kimmel
+ */
+final class ResultUploadStream extends OutputStream {
+
+  /** The <code>TaskService</code> to upload the results to. */
+  private final TaskService service;
+
+  /** The <code>UUID</code> of the job that the task belongs to. */
+  private final UUID jobId;
+
+  /** The ID of the task. */
+  private final int taskId;
+
+  /** The buffer holding the chunk being written. */
+  private final byte[] buffer;
+
+  /** The number of bytes in {@link #buffer}. */
+  private int count = 0;
+
+  /**
+   * The ID of the upload, zero if the service no longer needs the results,
+   * or a negative value if the upload has not begun.
+   */
+  private long uploadId = -1;
+
+  /** The position within the results of the chunk being written. */
+  private long offset = 0;
+
+  /**
+   * Creates a new <code>ResultUploadStream</code>.
+   * @param service The <code>TaskService</code> to upload the results to.
+   * @param jobId The <code>UUID</code> of the job that the task belongs
+   *     to.
+   * @param taskId The ID of the task.
+   * @param chunkSize The maximum number of bytes to send in each chunk.
+   */
+  public ResultUploadStream(TaskService service, UUID jobId, int taskId,
+      int chunkSize) {
+    this.service = service;
+    this.jobId = jobId;
+    this.taskId = taskId;
+    this.buffer = new byte[chunkSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == buffer.length) {
+      sendChunk();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (count == buffer.length) {
+        sendChunk();
+      }
+      int n = Math.min(len, buffer.length - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Sends the buffered chunk, beginning the upload if necessary.
+   * @throws IOException If an error occurs while sending the chunk.
+   */
+  private void sendChunk() throws IOException {
+    if (uploadId < 0) {
+      uploadId = service.beginTaskResultsUpload(jobId, taskId);
+    }
+    if (uploadId > 0) {
+      byte[] chunk = (count == buffer.length)
+          ? buffer : Arrays.copyOf(buffer, count);
+      service.uploadTaskResultsChunk(uploadId, offset, chunk);
+    }
+    offset += count;
+    count = 0;
+  }
+
+  /**
+   * Gets a value indicating whether the upload has begun.  If not, all of
+   * the results written so far fit within a single chunk.
+   * @return A value indicating whether the upload has begun.
+   */
+  public boolean isStarted() {
+    return uploadId >= 0;
+  }
+
+  /**
+   * Sends the remaining results and commits the upload.  If the service no
+   * longer needs the results, they are discarded.
+   * @throws IllegalStateException If the upload has not begun.
+   * @throws IOException If an error occurs while sending the results.
+   */
+  public void commit() throws IOException {
+    if (uploadId < 0) {
+      throw new IllegalStateException("Upload has not begun");
+    }
+    if (count > 0) {
+      sendChunk();
+    }
+    if (uploadId > 0) {
+      service.endTaskResultsUpload(uploadId, true);
+    }
+  }
+
+  /**
+   * Abandons the upload, if it has begun.  Errors are ignored, as the
+   * service abandons uploads on its own after a period of inactivity.
+   */
+  public void abort() {
+    if (uploadId > 0) {
+      try {
+        service.endTaskResultsUpload(uploadId, false);
+      } catch (Exception e) {
+        // nothing to do.
+      }
+    }
+    uploadId = 0;
+  }
+
+}
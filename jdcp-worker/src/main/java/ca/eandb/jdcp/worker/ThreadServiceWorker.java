@@ -25,12 +25,18 @@
 
 package ca.eandb.jdcp.worker;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
@@ -52,7 +58,6 @@ import ca.eandb.jdcp.remote.DelegationException;
 import ca.eandb.jdcp.worker.policy.CourtesyMonitor;
 import ca.eandb.jdcp.worker.policy.UnconditionalCourtesyMonitor;
 import ca.eandb.util.UnexpectedException;
-import ca.eandb.util.classloader.ClassLoaderStrategy;
 import ca.eandb.util.classloader.StrategyClassLoader;
 import ca.eandb.util.progress.CancelListener;
 import ca.eandb.util.progress.CompositeCancelListener;
@@ -103,17 +108,22 @@ public final class ThreadServiceWorker implements Runnable {
 
     FinishedTaskPoller poller = new FinishedTaskPoller();
     executor.execute(poller);
+    executor.execute(resultBuffer);
 
     while (!shutdownPending) {
       try {
-        Worker worker = getWorker();
-        executor.execute(worker);
+        List<Worker> workers = getWorkers();
+        assignTasks(workers);
+        for (Worker worker : workers) {
+          executor.execute(worker);
+        }
       } catch (InterruptedException e) {
         /* nothing to do. */
       }
     }
 
     poller.shutdown();
+    resultBuffer.shutdown();
     runThread = null;
 
   }
@@ -140,7 +150,6 @@ public final class ThreadServiceWorker implements Runnable {
       int[] taskIds;
       boolean lastPollOk = true;
       int nThreads, nJobs;
-      boolean removedJob;
 
       while (!shutdown) {
         synchronized (activeWorkers) {
@@ -163,7 +172,6 @@ public final class ThreadServiceWorker implements Runnable {
           }
         }
 
-        removedJob = false;
         if (taskIds.length > 0) {
           try {
             BitSet finished = service.getFinishedTasks(jobIds, taskIds);
@@ -173,8 +181,10 @@ public final class ThreadServiceWorker implements Runnable {
               if (i < nThreads) {
                 workers[i].cancel(jobIds[i], taskIds[i]);
               } else {
-                workerMap.remove(jobIds[i]);
-                removedJob = true;
+                TaskWorkerInfo info = workerMap.remove(jobIds[i]);
+                if (info != null) {
+                  info.release(jobIds[i], classLoaderTracker);
+                }
               }
             }
           } catch (Exception e) {
@@ -185,9 +195,7 @@ public final class ThreadServiceWorker implements Runnable {
           }
         }
 
-        if (removedJob) {
-          System.gc();
-        }
+        classLoaderTracker.poll();
 
         try {
           Thread.sleep(finishedTaskPollingInterval);
@@ -197,6 +205,255 @@ public final class ThreadServiceWorker implements Runnable {
     }
   }
 
+  /**
+   * Collects the results of completed tasks so that they may be submitted
+   * to the server together.  Results are submitted once the oldest result
+   * has waited for {@link #resultFlushInterval} milliseconds, or once
+   * {@link #maxResultBatchSize} results have accumulated, whichever comes
+   * first.
+   */
+  private class ResultBuffer implements Runnable {
+
+    private final List<UUID> jobIds = new ArrayList<UUID>();
+
+    private final List<Integer> taskIds = new ArrayList<Integer>();
+
+    private final List<Serialized<Object>> results = new ArrayList<Serialized<Object>>();
+
+    /** The time (in milliseconds) at which the oldest result was added. */
+    private long oldestResultTime;
+
+    private boolean shutdown = false;
+
+    /**
+     * Adds the results of a task to be submitted to the server.
+     * @param jobId The <code>UUID</code> of the job that the task belongs
+     *     to.
+     * @param taskId The ID of the task.
+     * @param result The serialized results of the task.
+     */
+    public void add(UUID jobId, int taskId, Serialized<Object> result) {
+      synchronized (this) {
+        if (!shutdown) {
+          boolean wasEmpty = jobIds.isEmpty();
+          if (wasEmpty) {
+            oldestResultTime = System.currentTimeMillis();
+          }
+          jobIds.add(jobId);
+          taskIds.add(taskId);
+          results.add(result);
+
+          // Wake the flusher so that it starts timing the flush interval
+          // for the new oldest result, or submits a full batch.
+          if (wasEmpty || jobIds.size() >= maxResultBatchSize) {
+            notifyAll();
+          }
+          return;
+        }
+      }
+
+      // The buffer is no longer being flushed, so submit directly.
+      service.submitTaskResults(jobId, taskId, result);
+    }
+
+    /**
+     * Submits any remaining results and stops flushing the buffer.
+     */
+    public synchronized void shutdown() {
+      shutdown = true;
+      notifyAll();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+      boolean done;
+      do {
+        UUID[] batchJobIds;
+        int[] batchTaskIds;
+        Serialized<Object>[] batchResults;
+
+        synchronized (this) {
+          while (!shutdown) {
+            try {
+              if (jobIds.isEmpty()) {
+                wait();
+              } else {
+                long delay = oldestResultTime + resultFlushInterval
+                    - System.currentTimeMillis();
+                if (delay <= 0 || jobIds.size() >= maxResultBatchSize) {
+                  break;
+                }
+                wait(delay);
+              }
+            } catch (InterruptedException e) {}
+          }
+
+          int n = jobIds.size();
+          batchJobIds = jobIds.toArray(new UUID[n]);
+          batchTaskIds = new int[n];
+          for (int i = 0; i < n; i++) {
+            batchTaskIds[i] = taskIds.get(i);
+          }
+          batchResults = results.toArray(new Serialized[n]);
+          jobIds.clear();
+          taskIds.clear();
+          results.clear();
+          done = shutdown;
+        }
+
+        if (batchJobIds.length > 0) {
+          try {
+            service.submitTaskResults(batchJobIds, batchTaskIds, batchResults);
+          } catch (Exception e) {
+            logger.warn("Could not submit batch of task results, submitting individually.", e);
+            submitIndividually(batchJobIds, batchTaskIds, batchResults);
+          }
+        }
+      } while (!done);
+    }
+
+    /**
+     * Submits each of a batch of task results to the server separately, so
+     * that a result that cannot be submitted does not cause the rest of the
+     * batch to be lost.
+     * @param batchJobIds The <code>UUID</code>s of the jobs that the tasks
+     *     belong to.
+     * @param batchTaskIds The IDs of the tasks.
+     * @param batchResults The serialized results of the tasks.
+     */
+    private void submitIndividually(UUID[] batchJobIds, int[] batchTaskIds,
+        Serialized<Object>[] batchResults) {
+      for (int i = 0; i < batchJobIds.length; i++) {
+        try {
+          service.submitTaskResults(batchJobIds[i], batchTaskIds[i],
+              batchResults[i]);
+        } catch (Exception e) {
+          logger.error("Could not submit task results.", e);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Sets the maximum number of task results to accumulate before submitting
+   * them to the server.
+   * @param maxResultBatchSize The maximum number of task results to submit
+   *     together.
+   * @throws IllegalArgumentException If <code>maxResultBatchSize &lt; 1</code>.
+   */
+  public void setMaxResultBatchSize(int maxResultBatchSize) {
+    if (maxResultBatchSize < 1) {
+      throw new IllegalArgumentException("maxResultBatchSize must be positive");
+    }
+    this.maxResultBatchSize = maxResultBatchSize;
+  }
+
+  /**
+   * Sets the size of the chunks in which large task results are uploaded to
+   * the server.  Results that do not fit in a single chunk are streamed to
+   * the server as they are serialized, rather than being serialized in
+   * memory and submitted with other results.
+   * @param resultChunkSize The size (in bytes) of each chunk, or zero to
+   *     always submit results in memory.
+   * @throws IllegalArgumentException If <code>resultChunkSize</code> is
+   *     negative.
+   */
+  public void setResultChunkSize(int resultChunkSize) {
+    if (resultChunkSize < 0) {
+      throw new IllegalArgumentException("resultChunkSize must be non-negative");
+    }
+    this.resultChunkSize = resultChunkSize;
+  }
+
+  /**
+   * Sets the maximum amount of time that the server may hold a request for
+   * a task while waiting for tasks to become available.  Waiting at the
+   * server lets a worker begin a newly submitted job as soon as it is
+   * scheduled, rather than after sleeping through the idle period the
+   * server would otherwise assign.
+   * @param longPollTimeout The maximum amount of time (in milliseconds) to
+   *     wait at the server, or zero to return at once if the server has no
+   *     tasks.
+   * @throws IllegalArgumentException If <code>longPollTimeout</code> is
+   *     negative.
+   */
+  public void setLongPollTimeout(long longPollTimeout) {
+    if (longPollTimeout < 0) {
+      throw new IllegalArgumentException("longPollTimeout must be non-negative");
+    }
+    this.longPollTimeout = longPollTimeout;
+  }
+
+  /**
+   * Uploads the results of a task to the server in chunks, if they are too
+   * large to fit in a single chunk.
+   * @param jobId The <code>UUID</code> of the job that the task belongs to.
+   * @param taskId The ID of the task.
+   * @param results The results of the task.
+   * @return A value indicating whether the results were handled.  If
+   *     <code>false</code>, the results must be submitted in memory.
+   */
+  private boolean uploadResults(UUID jobId, int taskId, Object results) {
+    int chunkSize = resultChunkSize;
+    if (chunkSize <= 0 || results instanceof Serialized<?>
+        || !service.isResultUploadSupported()) {
+      return false;
+    }
+
+    ResultUploadStream upload = new ResultUploadStream(service, jobId,
+        taskId, chunkSize);
+    try {
+      ObjectOutputStream oout = new ObjectOutputStream(upload);
+      oout.writeObject(results);
+      oout.flush();
+      if (!upload.isStarted()) {
+        return false;
+      }
+      upload.commit();
+      return true;
+    } catch (IllegalArgumentException e) {
+      // The server does not accept chunked uploads for this job.
+      upload.abort();
+      return false;
+    } catch (IOException e) {
+      if (service.isResultUploadSupported()) {
+        logger.warn("Could not upload task results, submitting in memory.", e);
+      } else {
+        logger.info("Server does not support uploading task results in chunks.");
+      }
+      upload.abort();
+      return false;
+    }
+  }
+
+  /**
+   * Sets the maximum amount of time that the results of a completed task may
+   * be held before being submitted to the server.
+   * @param resultFlushInterval The maximum amount of time (in milliseconds)
+   *     to hold task results.
+   * @throws IllegalArgumentException If <code>resultFlushInterval</code> is
+   *     negative.
+   */
+  public void setResultFlushInterval(long resultFlushInterval) {
+    if (resultFlushInterval < 0) {
+      throw new IllegalArgumentException("resultFlushInterval must be non-negative");
+    }
+    this.resultFlushInterval = resultFlushInterval;
+  }
+
+  /**
+   * Gets the IDs of the completed jobs whose class loaders have not been
+   * unloaded within the leak threshold of being released.
+   * @return A <code>List</code> of the <code>UUID</code>s of the jobs whose
+   *     class loaders appear to have leaked.
+   * @see ClassLoaderTracker#getLeakedJobIds()
+   */
+  public List<UUID> getLeakedClassLoaderJobIds() {
+    return classLoaderTracker.getLeakedJobIds();
+  }
+
   /**
    * Shuts down the <code>Thread</code> currently processing this worker.
    */
@@ -256,6 +513,87 @@ public final class ThreadServiceWorker implements Runnable {
     return workerQueue.take();
   }
 
+  /**
+   * Gets all of the workers that are available to process a task, waiting
+   * until at least one is available.
+   * @return The <code>List</code> of available workers.
+   * @throws InterruptedException If the thread is interrupted while waiting
+   *     for an available worker.
+   */
+  private List<Worker> getWorkers() throws InterruptedException {
+    List<Worker> workers = new ArrayList<Worker>();
+    workers.add(getWorker());
+    workerQueue.drainTo(workers);
+    return workers;
+  }
+
+  /**
+   * Assigns tasks to the specified workers from the tasks prefetched from
+   * the server.  If there are not enough prefetched tasks, tasks for the
+   * remaining workers, plus up to {@link #taskPrefetch} more, are requested
+   * from the server in a single call.  Workers for which no task could be
+   * obtained are left without an assigned task, and will request one
+   * themselves (and idle if necessary) when they are run.  No tasks are
+   * requested while the server is serving idle tasks, in which case only
+   * the designated polling worker contacts the server.
+   * @param workers The <code>List</code> of <code>Worker</code>s that are to
+   *     be assigned tasks.
+   */
+  private void assignTasks(List<Worker> workers) {
+    int needed = workers.size() - prefetchedTasks.size();
+    int prefetch = taskPrefetch;
+    if (needed > 0 && (needed > 1 || prefetch > 0) && !isIdling()) {
+      TaskDescription[] tasks = service.requestTasks(needed + prefetch,
+          getLoadedJobIds());
+      for (TaskDescription task : tasks) {
+        if (task.getJobId() != null) {
+          prefetchedTasks.add(task);
+        }
+      }
+    }
+
+    for (Worker worker : workers) {
+      TaskDescription task = prefetchedTasks.poll();
+      if (task == null) {
+        break;
+      }
+      worker.assignTask(task);
+    }
+  }
+
+  /**
+   * Sets the number of tasks to request from the server ahead of time, in
+   * addition to those needed for the workers that are available.  As
+   * workers become available one at a time, they are assigned prefetched
+   * tasks, so that the server is contacted once for every few tasks rather
+   * than once for every task.  Prefetched tasks are leased to this worker
+   * while they wait, so this should be kept small.
+   * @param taskPrefetch The number of tasks to prefetch (zero to request
+   *     tasks only for available workers).
+   * @throws IllegalArgumentException If <code>taskPrefetch</code> is
+   *     negative.
+   */
+  public void setTaskPrefetch(int taskPrefetch) {
+    if (taskPrefetch < 0) {
+      throw new IllegalArgumentException("taskPrefetch must be non-negative");
+    }
+    this.taskPrefetch = taskPrefetch;
+  }
+
+  /**
+   * Determines if the server is currently serving idle tasks.
+   * @return A value indicating if the server is currently serving idle
+   *     tasks.
+   */
+  private boolean isIdling() {
+    idleLock.lock();
+    try {
+      return idling;
+    } finally {
+      idleLock.unlock();
+    }
+  }
+
   /**
    * Reference to a <code>TaskWorker</code>.  This object acts as a handle
    * for other workers to synchronize on to prevent multiple worker threads
@@ -266,12 +604,45 @@ public final class ThreadServiceWorker implements Runnable {
   private static class TaskWorkerInfo {
     public TaskWorker worker;
     public ClassLoader loader;
+    public CachingJobServiceClassLoaderStrategy strategy;
+
+    /**
+     * Releases the resources held for the job once it has been completed.
+     * The cached class definitions are released immediately, and the
+     * <code>ClassLoader</code> is handed to the provided tracker, which
+     * observes its unloading during subsequent garbage collection cycles.
+     * Workers still completing a task for this job retain their own
+     * references until they finish.
+     * @param jobId The <code>UUID</code> of the completed job.
+     * @param tracker The <code>ClassLoaderTracker</code> to track the
+     *     unloading of the class loader with.
+     */
+    public synchronized void release(UUID jobId, ClassLoaderTracker tracker) {
+      if (strategy != null) {
+        strategy.release();
+        strategy = null;
+      }
+      tracker.track(jobId, loader);
+    }
   };
 
   /** A <code>Map</code> containing the active <code>TaskWorker</code>s. */
   private final Map<UUID, TaskWorkerInfo> workerMap =
       Collections.synchronizedMap(new HashMap<UUID, TaskWorkerInfo>());
 
+  /**
+   * Gets the IDs of the jobs for which a <code>TaskWorker</code> has been
+   * (or is being) loaded.  These are passed to the server when requesting
+   * tasks so that it may favor jobs for which no classes need to be
+   * downloaded.
+   * @return An array of the <code>UUID</code>s of the loaded jobs.
+   */
+  private UUID[] getLoadedJobIds() {
+    synchronized (workerMap) {
+      return workerMap.keySet().toArray(new UUID[workerMap.size()]);
+    }
+  }
+
   /**
    * Obtains the task worker to process tasks for the job with the specified
    * <code>UUID</code>.
@@ -302,7 +673,7 @@ public final class ThreadServiceWorker implements Runnable {
          */
         Serialized<TaskWorker> envelope = this.service.getTaskWorker(jobId);
 
-        ClassLoaderStrategy strategy;
+        CachingJobServiceClassLoaderStrategy strategy;
         if (dataSource != null) {
           strategy = new DbCachingJobServiceClassLoaderStrategy(
               service, jobId, dataSource);
@@ -311,6 +682,7 @@ public final class ThreadServiceWorker implements Runnable {
               service, jobId);
         }
 
+        info.strategy = strategy;
         info.loader = new StrategyClassLoader(
             strategy, ThreadServiceWorker.class.getClassLoader());
         info.worker = envelope.deserialize(info.loader);
@@ -364,6 +736,16 @@ public final class ThreadServiceWorker implements Runnable {
       return currentTaskId;
     }
 
+    /**
+     * Assigns a task for this worker to perform the next time it is run,
+     * in place of requesting one from the server.
+     * @param taskDesc The <code>TaskDescription</code> describing the task
+     *     to perform.
+     */
+    public void assignTask(TaskDescription taskDesc) {
+      assignedTask = taskDesc;
+    }
+
     @Override
     public void run() {
 
@@ -375,12 +757,23 @@ public final class ThreadServiceWorker implements Runnable {
 
         if (service != null) {
 
-          // Wait for idling to complete.
-          if (!idleWait()) {
-            return; // Monitor signaled worker should cancel.
+          TaskDescription taskDesc = assignedTask;
+          assignedTask = null;
+
+          if (taskDesc == null) {
+
+            // Wait for idling to complete.
+            if (!idleWait()) {
+              return; // Monitor signaled worker should cancel.
+            }
+
+            long timeout = longPollTimeout;
+            taskDesc = (timeout > 0)
+                ? service.requestTasks(1, getLoadedJobIds(), timeout)[0]
+                : service.requestTasks(1, getLoadedJobIds())[0];
+
           }
 
-          TaskDescription taskDesc = service.requestTask();
           UUID jobId = taskDesc.getJobId();
           int taskId = taskDesc.getTaskId();
 
@@ -425,7 +818,9 @@ public final class ThreadServiceWorker implements Runnable {
 
             if (results != null && !monitor.isCancelPending()) {
               this.monitor.notifyStatusChanged("Submitting task results...");
-              service.submitTaskResults(jobId, taskId, new Serialized<Object>(results));
+              if (!uploadResults(jobId, taskId, results)) {
+                resultBuffer.add(jobId, taskId, new Serialized<Object>(results));
+              }
             }
 
           } else { // server has no tasks to perform.
@@ -608,6 +1003,12 @@ public final class ThreadServiceWorker implements Runnable {
 
     private int currentTaskId = 0;
 
+    /**
+     * The task assigned to this worker by {@link #assignTask}, or
+     * <code>null</code> if the worker is to request a task itself.
+     */
+    private TaskDescription assignedTask = null;
+
   }
 
   /**
@@ -844,4 +1245,79 @@ public final class ThreadServiceWorker implements Runnable {
    */
   private final long finishedTaskPollingInterval = 10000;
 
+  /**
+   * Tracks the unloading of the class loaders of jobs that have been
+   * completed.
+   */
+  private final ClassLoaderTracker classLoaderTracker = new ClassLoaderTracker();
+
+  /**
+   * The default maximum number of task results to accumulate before
+   * submitting them to the server.
+   */
+  public static final int DEFAULT_MAX_RESULT_BATCH_SIZE = 64;
+
+  /**
+   * The default maximum amount of time (in milliseconds) to hold the results
+   * of a completed task before submitting them to the server.
+   */
+  public static final long DEFAULT_RESULT_FLUSH_INTERVAL = 100;
+
+  /**
+   * The maximum number of task results to accumulate before submitting them
+   * to the server.
+   */
+  private volatile int maxResultBatchSize = DEFAULT_MAX_RESULT_BATCH_SIZE;
+
+  /**
+   * The maximum amount of time (in milliseconds) to hold the results of a
+   * completed task before submitting them to the server.
+   */
+  private volatile long resultFlushInterval = DEFAULT_RESULT_FLUSH_INTERVAL;
+
+  /**
+   * The default size (in bytes) of the chunks in which large task results
+   * are uploaded to the server.
+   */
+  public static final int DEFAULT_RESULT_CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * The size (in bytes) of the chunks in which large task results are
+   * uploaded to the server, or zero to always submit results in memory.
+   */
+  private volatile int resultChunkSize = DEFAULT_RESULT_CHUNK_SIZE;
+
+  /**
+   * A suggested maximum amount of time (in milliseconds) for the server to
+   * hold a request for a task, for services that park waiting requests
+   * cheaply.
+   */
+  public static final long DEFAULT_LONG_POLL_TIMEOUT = 30000;
+
+  /**
+   * The maximum amount of time (in milliseconds) that the server may hold a
+   * request for a task, or zero to not wait at the server.
+   */
+  private volatile long longPollTimeout = 0;
+
+  /** Accumulates task results to be submitted to the server. */
+  private final ResultBuffer resultBuffer = new ResultBuffer();
+
+  /**
+   * The default number of tasks to request from the server ahead of time.
+   */
+  public static final int DEFAULT_TASK_PREFETCH = 4;
+
+  /**
+   * The number of tasks to request from the server ahead of time, in
+   * addition to those needed for the workers that are available.
+   */
+  private volatile int taskPrefetch = DEFAULT_TASK_PREFETCH;
+
+  /**
+   * Tasks obtained from the server that have not yet been assigned to a
+   * worker.  This is only accessed by the thread executing {@link #run()}.
+   */
+  private final Queue<TaskDescription> prefetchedTasks = new LinkedList<TaskDescription>();
+
 }